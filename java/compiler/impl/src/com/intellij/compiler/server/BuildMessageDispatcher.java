@@ -110,6 +110,14 @@ class BuildMessageDispatcher extends SimpleChannelInboundHandler<CmdlineRemotePr
     }
 
     final CmdlineRemoteProto.Message.Type messageType = message.getType();
+    if (messageType == CmdlineRemoteProto.Message.Type.BUILDER_MESSAGE && CmdlineProtoUtil.isProgressMessage(message.getBuilderMessage())) {
+      // progress messages arriving in a bulk are superseded by the last one, so only the last one is passed to the handler
+      final CmdlineRemoteProto.Message.BuilderMessage pending = sessionData.pendingProgress;
+      sessionData.pendingProgress = pending != null? CmdlineProtoUtil.mergeProgressMessages(pending, message.getBuilderMessage()) : message.getBuilderMessage();
+      return;
+    }
+    flushPendingProgress(context, sessionData);
+
     switch (messageType) {
       case FAILURE:
         handler.handleFailure(sessionId, message.getFailure());
@@ -140,6 +148,27 @@ class BuildMessageDispatcher extends SimpleChannelInboundHandler<CmdlineRemotePr
     }
   }
 
+  @Override
+  public void channelReadComplete(ChannelHandlerContext context) throws Exception {
+    try {
+      final SessionData sessionData = context.attr(SESSION_DATA).get();
+      if (sessionData != null) {
+        flushPendingProgress(context, sessionData);
+      }
+    }
+    finally {
+      super.channelReadComplete(context);
+    }
+  }
+
+  private static void flushPendingProgress(ChannelHandlerContext context, SessionData sessionData) {
+    final CmdlineRemoteProto.Message.BuilderMessage progress = sessionData.pendingProgress;
+    if (progress != null) {
+      sessionData.pendingProgress = null;
+      sessionData.handler.handleBuildMessage(context.channel(), sessionData.sessionId, progress);
+    }
+  }
+
   @Override
   public void channelInactive(ChannelHandlerContext context) throws Exception {
     try {
@@ -169,6 +198,10 @@ class BuildMessageDispatcher extends SimpleChannelInboundHandler<CmdlineRemotePr
     final BuilderMessageHandler handler;
     volatile CmdlineRemoteProto.Message.ControllerMessage params;
     volatile Channel channel;
+    /**
+     * the last progress message received in the current read bulk, accessed from the channel's event loop only
+     */
+    CmdlineRemoteProto.Message.BuilderMessage pendingProgress;
 
     private SessionData(UUID sessionId, BuilderMessageHandler handler, CmdlineRemoteProto.Message.ControllerMessage params) {
       this.sessionId = sessionId;
@@ -20,12 +20,21 @@ import com.intellij.analysis.AnalysisScope;
 import com.intellij.codeInsight.CodeInsightTestCase;
 import com.intellij.codeInspection.actions.RunInspectionIntention;
 import com.intellij.codeInspection.ex.*;
+import com.intellij.codeInspection.reference.RefEntity;
+import com.intellij.codeInspection.reference.RefVisitor;
 import com.intellij.codeInspection.ui.InspectionToolPresentation;
 import com.intellij.codeInspection.visibility.VisibilityInspection;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiRecursiveElementVisitor;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Dmitry Avdeev
@@ -58,6 +67,126 @@ public class GlobalInspectionContextTest extends CodeInsightTestCase {
     assertEquals(1, presentation.getProblemDescriptors().size());
   }
 
+  public void testGlobalToolsRunInParallel() throws Exception {
+    // each tool waits for the other one to start, which only happens if they run at the same time
+    assertEquals(2, runMeetingTools(new FirstParallelTool(), new SecondParallelTool()));
+  }
+
+  public void testGraphToolsRunTogetherWithOtherTools() throws Exception {
+    GraphTool.ourVisited.set(0);
+    assertEquals(2, runMeetingTools(new GraphTool(), new ReferencingTool()));
+    assertTrue(GraphTool.ourVisited.get() > 0);
+  }
+
+  private int runMeetingTools(GlobalInspectionTool first, GlobalInspectionTool second) throws Exception {
+    assertTrue(Registry.is("inspections.global.tools.parallel"));
+    MeetingTool.ourStarted = new CountDownLatch(2);
+    MeetingTool.ourMet.set(0);
+    InspectionProfileImpl profile = InspectionProfileImpl.createSimple("Foo", getProject(),
+                                                                      new GlobalInspectionToolWrapper(first),
+                                                                      new GlobalInspectionToolWrapper(second));
+    GlobalInspectionContextImpl context = ((InspectionManagerEx)InspectionManager.getInstance(getProject())).createNewGlobalContext(false);
+    context.setExternalProfile(profile);
+    configureByFile("Foo.java");
+
+    context.doInspections(new AnalysisScope(getFile()));
+    return MeetingTool.ourMet.get();
+  }
+
+  private abstract static class MeetingTool extends GlobalInspectionTool {
+    private static CountDownLatch ourStarted;
+    private static final AtomicInteger ourMet = new AtomicInteger();
+
+    protected static void meet() {
+      ourStarted.countDown();
+      try {
+        if (ourStarted.await(10, TimeUnit.SECONDS)) {
+          ourMet.incrementAndGet();
+        }
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @NotNull
+    @Override
+    public String getGroupDisplayName() {
+      return "Test";
+    }
+
+    @NotNull
+    @Override
+    public String getDisplayName() {
+      return getShortName();
+    }
+
+    @Override
+    public boolean isEnabledByDefault() {
+      return true;
+    }
+  }
+
+  private static class FirstParallelTool extends MeetingTool {
+    @Override
+    public void runInspection(@NotNull AnalysisScope scope,
+                              @NotNull InspectionManager manager,
+                              @NotNull GlobalInspectionContext globalContext,
+                              @NotNull ProblemDescriptionsProcessor problemDescriptionsProcessor) {
+      meet();
+    }
+
+    @Override
+    public boolean isGraphNeeded() {
+      return false;
+    }
+  }
+
+  private static class SecondParallelTool extends FirstParallelTool {
+  }
+
+  private static class GraphTool extends MeetingTool {
+    private static final AtomicInteger ourVisited = new AtomicInteger();
+
+    @Override
+    public void runInspection(@NotNull AnalysisScope scope,
+                              @NotNull InspectionManager manager,
+                              @NotNull GlobalInspectionContext globalContext,
+                              @NotNull ProblemDescriptionsProcessor problemDescriptionsProcessor) {
+      meet();
+      for (int i = 0; i < 100; i++) {
+        globalContext.getRefManager().iterate(new RefVisitor() {
+          @Override
+          public void visitElement(@NotNull RefEntity elem) {
+            ourVisited.incrementAndGet();
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Looks up the entities of the graph while a graph tool traverses it
+   */
+  private static class ReferencingTool extends FirstParallelTool {
+    @Override
+    public void runInspection(@NotNull AnalysisScope scope,
+                              @NotNull InspectionManager manager,
+                              @NotNull final GlobalInspectionContext globalContext,
+                              @NotNull ProblemDescriptionsProcessor problemDescriptionsProcessor) {
+      meet();
+      for (int i = 0; i < 100; i++) {
+        scope.accept(new PsiRecursiveElementVisitor() {
+          @Override
+          public void visitElement(PsiElement element) {
+            globalContext.getRefManager().getReference(element);
+            super.visitElement(element);
+          }
+        });
+      }
+    }
+  }
+
   public void testRunInspectionContext() throws Exception {
     InspectionProfile profile = new InspectionProfileImpl("foo");
     InspectionToolWrapper[] tools = profile.getInspectionTools(null);
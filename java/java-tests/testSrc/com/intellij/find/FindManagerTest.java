@@ -23,6 +23,8 @@ import com.intellij.lang.properties.IProperty;
 import com.intellij.lang.properties.psi.PropertiesFile;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.application.ex.PathManagerEx;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileTypes.FileTypes;
 import com.intellij.openapi.projectRoots.Sdk;
 import com.intellij.openapi.util.text.StringUtil;
@@ -46,10 +48,7 @@ import com.intellij.util.ThrowableRunnable;
 import com.intellij.util.WaitFor;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 /*
  * @author: MYakovlev
@@ -435,6 +434,73 @@ public class FindManagerTest extends DaemonAnalyzerTestCase {
     }
   }
 
+  public void testFindInManyFiles() throws Exception {
+    TempDirTestFixture fixture = new LightTempDirTestFixtureImpl();
+    fixture.setUp();
+
+    try {
+      List<VirtualFile> files = new ArrayList<VirtualFile>();
+      Set<VirtualFile> expected = new HashSet<VirtualFile>();
+      for (int i = 0; i < 100; i++) {
+        VirtualFile file = fixture.createFile("a" + i + ".txt", i % 3 == 0 ? "needle foo needle" : "foo bar");
+        files.add(file);
+        if (i % 3 == 0) {
+          expected.add(file);
+        }
+      }
+      PsiTestUtil.addSourceContentToRoots(myModule, fixture.getFile(""));
+
+      List<UsageInfo> usages = findUsages(createFindInFilesModel("needle", files));
+      assertSize(2 * expected.size(), usages);
+      Set<VirtualFile> found = new HashSet<VirtualFile>();
+      for (UsageInfo usage : usages) {
+        found.add(usage.getVirtualFile());
+      }
+      assertEquals(expected, found);
+    }
+    finally {
+      fixture.tearDown();
+    }
+  }
+
+  public void testFindInManyFilesSeesUnsavedChanges() throws Exception {
+    TempDirTestFixture fixture = new LightTempDirTestFixtureImpl();
+    fixture.setUp();
+
+    try {
+      List<VirtualFile> files = new ArrayList<VirtualFile>();
+      for (int i = 0; i < 10; i++) {
+        files.add(fixture.createFile("a" + i + ".txt", "foo bar"));
+      }
+      PsiTestUtil.addSourceContentToRoots(myModule, fixture.getFile(""));
+
+      final Document document = FileDocumentManager.getInstance().getDocument(files.get(5));
+      ApplicationManager.getApplication().runWriteAction(new Runnable() {
+        @Override
+        public void run() {
+          document.insertString(0, "needle ");
+        }
+      });
+
+      List<UsageInfo> usages = findUsages(createFindInFilesModel("needle", files));
+      assertSize(1, usages);
+      assertEquals(files.get(5), usages.get(0).getVirtualFile());
+    }
+    finally {
+      fixture.tearDown();
+    }
+  }
+
+  private FindModel createFindInFilesModel(String stringToFind, List<VirtualFile> files) {
+    FindModel findModel = new FindModel();
+    findModel.setStringToFind(stringToFind);
+    findModel.setFromCursor(false);
+    findModel.setGlobal(true);
+    findModel.setMultipleFiles(true);
+    findModel.setCustomScope(GlobalSearchScope.filesScope(myProject, files));
+    return findModel;
+  }
+
   public void testFindInCommentsAndLiterals() throws Exception{
     FindManager findManager = FindManager.getInstance(myProject);
 
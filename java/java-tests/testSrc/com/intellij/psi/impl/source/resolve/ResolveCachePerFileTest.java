@@ -0,0 +1,149 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.source.resolve;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.psi.*;
+import com.intellij.psi.impl.PsiManagerImpl;
+import com.intellij.testFramework.fixtures.JavaCodeInsightFixtureTestCase;
+import gnu.trove.TObjectIntHashMap;
+
+public class ResolveCachePerFileTest extends JavaCodeInsightFixtureTestCase {
+  private final TObjectIntHashMap<PsiReference> myResolveCounts = new TObjectIntHashMap<PsiReference>();
+  private final ResolveCache.Resolver myResolver = new ResolveCache.Resolver() {
+    @Override
+    public PsiElement resolve(PsiReference ref, boolean incompleteCode) {
+      myResolveCounts.put(ref, myResolveCounts.get(ref) + 1);
+      return ref.resolve();
+    }
+  };
+  private PsiClass myClassA;
+  private PsiClass myClassB;
+  private PsiReference myRefInA;
+  private PsiReference myRefInB;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    Registry.get("resolve.cache.per.file").setValue(true);
+    myClassA = myFixture.addClass("class A { void foo() { B b = null; } }");
+    myClassB = myFixture.addClass("class B { void bar() { A a = null; } }");
+    myRefInA = findReference(myClassA, "B b");
+    myRefInB = findReference(myClassB, "A a");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Registry.get("resolve.cache.per.file").resetToDefault();
+    super.tearDown();
+  }
+
+  public void testEditInsideCodeBlockDropsOnlyResultsOfEditedFile() {
+    ResolveCache cache = createCache(Long.MAX_VALUE);
+    resolveBoth(cache);
+
+    addToBody(myClassA, "int i = 0;");
+    resolveBoth(cache);
+    assertResolveCounts(2, 1);
+  }
+
+  public void testEditOutsideCodeBlocksDropsAllResults() {
+    ResolveCache cache = createCache(Long.MAX_VALUE);
+    resolveBoth(cache);
+
+    addField(myClassA, "int f;");
+    resolveBoth(cache);
+    assertResolveCounts(2, 2);
+  }
+
+  public void testDropResolveCachesDropsAllResults() {
+    ResolveCache cache = createCache(Long.MAX_VALUE);
+    resolveBoth(cache);
+
+    ((PsiManagerImpl)getPsiManager()).dropResolveCaches();
+    resolveBoth(cache);
+    assertResolveCounts(2, 2);
+  }
+
+  public void testLeastRecentlyUsedResultsAreEvictedBeyondBudget() {
+    // a single result fits in, two don't
+    ResolveCache cache = createCache(150);
+    resolve(cache, myRefInA);
+    resolve(cache, myRefInB);
+    assertTrue(cache.getStatistics(), cache.getStatistics().contains("evicted: 1"));
+
+    resolve(cache, myRefInB);
+    assertResolveCounts(1, 1);
+    resolve(cache, myRefInA);
+    assertResolveCounts(2, 1);
+  }
+
+  public void testStatisticsReportHitsAndMisses() {
+    ResolveCache cache = createCache(Long.MAX_VALUE);
+    resolveBoth(cache);
+    resolveBoth(cache);
+    resolve(cache, myRefInA);
+    assertTrue(cache.getStatistics(), cache.getStatistics().startsWith("hits: 3, misses: 2, partitions: 2"));
+  }
+
+  private ResolveCache createCache(long budget) {
+    return ResolveCache.createWithBudget(getProject(), budget);
+  }
+
+  private void resolveBoth(ResolveCache cache) {
+    resolve(cache, myRefInA);
+    resolve(cache, myRefInB);
+  }
+
+  private void resolve(ResolveCache cache, PsiReference ref) {
+    PsiElement result = cache.resolveWithCaching(ref, myResolver, false, false);
+    assertNotNull(result);
+    assertEquals(ref == myRefInA ? myClassB : myClassA, result);
+  }
+
+  private void assertResolveCounts(int inA, int inB) {
+    assertEquals(inA, myResolveCounts.get(myRefInA));
+    assertEquals(inB, myResolveCounts.get(myRefInB));
+  }
+
+  private void addToBody(final PsiClass aClass, final String statement) {
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        PsiCodeBlock body = aClass.getMethods()[0].getBody();
+        assertNotNull(body);
+        body.add(getElementFactory().createStatementFromText(statement, body));
+      }
+    }.execute().throwException();
+  }
+
+  private void addField(final PsiClass aClass, final String field) {
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        aClass.add(getElementFactory().createFieldFromText(field, aClass));
+      }
+    }.execute().throwException();
+  }
+
+  private static PsiReference findReference(PsiClass aClass, String text) {
+    PsiFile file = aClass.getContainingFile();
+    PsiReference reference = file.findReferenceAt(file.getText().indexOf(text));
+    assertNotNull(text, reference);
+    return reference;
+  }
+}
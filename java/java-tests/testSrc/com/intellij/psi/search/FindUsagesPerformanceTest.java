@@ -0,0 +1,66 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.search;
+
+import com.intellij.JavaTestUtil;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.search.searches.MethodReferencesSearch;
+import com.intellij.testFramework.IdeaTestUtil;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.testFramework.PsiTestCase;
+import com.intellij.testFramework.PsiTestUtil;
+import com.intellij.testFramework.fixtures.TempDirTestFixture;
+import com.intellij.testFramework.fixtures.impl.LightTempDirTestFixtureImpl;
+import com.intellij.util.ThrowableRunnable;
+
+public class FindUsagesPerformanceTest extends PsiTestCase {
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    String root = JavaTestUtil.getJavaTestDataPath() + "/psi/search/findUsages/" + getTestName(true);
+    PsiTestUtil.removeAllRoots(myModule, IdeaTestUtil.getMockJdk17());
+    PsiTestUtil.createTestProjectStructure(myProject, myModule, root, myFilesToDelete);
+  }
+
+  public void testCommonMethodName() throws Throwable {
+    final int fileCount = 5000;
+    TempDirTestFixture fixture = new LightTempDirTestFixtureImpl();
+    fixture.setUp();
+
+    try {
+      for (int i = 0; i < fileCount; i++) {
+        // the name is in the code of each file, but only every tenth one calls Common.run()
+        String text = i % 10 == 0
+                      ? "class C" + i + " { void f(Common c) { c.run(); } }"
+                      : "class C" + i + " implements Runnable { public void run() { run(); } }";
+        fixture.createFile("C" + i + ".java", text);
+      }
+      PsiTestUtil.addSourceContentToRoots(myModule, fixture.getFile(""));
+
+      final PsiMethod method = myJavaFacade.findClass("Common", GlobalSearchScope.allScope(myProject)).findMethodsByName("run", false)[0];
+      PlatformTestUtil.startPerformanceTest("find usages of a common method name", 3000, new ThrowableRunnable() {
+        @Override
+        public void run() throws Throwable {
+          assertSize(fileCount / 10, MethodReferencesSearch.search(method, GlobalSearchScope.projectScope(myProject), false).findAll());
+        }
+      }).attempts(2).cpuBound().usesAllCPUCores().assertTiming();
+    }
+    finally {
+      fixture.tearDown();
+    }
+  }
+}
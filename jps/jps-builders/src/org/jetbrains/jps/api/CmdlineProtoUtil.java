@@ -233,6 +233,29 @@ public class CmdlineProtoUtil {
     return BuilderMessage.newBuilder().setType(BuilderMessage.Type.BUILD_EVENT).setBuildEvent(builder.build()).build();
   }
 
+  public static boolean isProgressMessage(CmdlineRemoteProto.Message.BuilderMessageOrBuilder message) {
+    return message.getType() == BuilderMessage.Type.COMPILE_MESSAGE &&
+           message.getCompileMessage().getKind() == BuilderMessage.CompileMessage.Kind.PROGRESS;
+  }
+
+  public static boolean isFilesGeneratedEvent(CmdlineRemoteProto.Message.BuilderMessageOrBuilder message) {
+    return message.getType() == BuilderMessage.Type.BUILD_EVENT &&
+           message.getBuildEvent().getEventType() == BuilderMessage.BuildEvent.Type.FILES_GENERATED;
+  }
+
+  /**
+   * Combines two consecutive progress messages into one which has the same effect when handled
+   */
+  public static BuilderMessage mergeProgressMessages(BuilderMessage previous, BuilderMessage next) {
+    final BuilderMessage.CompileMessage previousProgress = previous.getCompileMessage();
+    final BuilderMessage.CompileMessage nextProgress = next.getCompileMessage();
+    if (nextProgress.hasDone() || !previousProgress.hasDone()) {
+      return next;
+    }
+    // the receiver would keep the fraction reported by the superseded message, so carry it over
+    return next.toBuilder().setCompileMessage(nextProgress.toBuilder().setDone(previousProgress.getDone()).build()).build();
+  }
+
   public static BuilderMessage createParamRequest() {
     return BuilderMessage.newBuilder().setType(BuilderMessage.Type.PARAM_REQUEST).build();
   }
@@ -22,9 +22,12 @@ package org.jetbrains.jps.api;
 public interface GlobalOptions {
   String USE_MEMORY_TEMP_CACHE_OPTION = "use.memory.temp.cache";
   String USE_EXTERNAL_JAVAC_OPTION = "use.external.javac.process";
+  String EXTERNAL_JAVAC_POOL_SIZE_OPTION = "external.javac.pool.size";
   String GENERATE_CLASSPATH_INDEX_OPTION = "generate.classpath.index";
   String COMPILE_PARALLEL_OPTION = "compile.parallel";
   String COMPILE_PARALLEL_MAX_THREADS_OPTION = "compile.parallel.max.threads";
+  String PARALLEL_FS_SCAN_OPTION = "fs.scan.parallel";
+  String BUILD_MESSAGES_FLUSH_INTERVAL_OPTION = "build.messages.flush.interval";
   String REBUILD_ON_DEPENDENCY_CHANGE_OPTION = "rebuild.on.dependency.change";
   String LOG_DIR_OPTION = "log.dir";
 }
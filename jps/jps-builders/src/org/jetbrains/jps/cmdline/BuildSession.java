@@ -22,6 +22,7 @@ import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.concurrency.SequentialTaskExecutor;
 import com.intellij.util.io.DataOutputStream;
 import io.netty.channel.Channel;
@@ -58,8 +59,10 @@ import static org.jetbrains.jps.api.CmdlineRemoteProto.Message.ControllerMessage
 final class BuildSession implements Runnable, CanceledStatus {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.cmdline.BuildSession");
   private static final String FS_STATE_FILE = "fs_state.dat";
+  private static final long MESSAGES_FLUSH_INTERVAL = SystemProperties.getIntProperty(GlobalOptions.BUILD_MESSAGES_FLUSH_INTERVAL_OPTION, 50);
   private final UUID mySessionId;
   private final Channel myChannel;
+  private final CoalescingMessageSender myMessageSender;
   private volatile boolean myCanceled = false;
   private final String myProjectPath;
   @Nullable
@@ -81,6 +84,7 @@ final class BuildSession implements Runnable, CanceledStatus {
                @Nullable CmdlineRemoteProto.Message.ControllerMessage.FSEvent delta) {
     mySessionId = sessionId;
     myChannel = channel;
+    myMessageSender = new CoalescingMessageSender(channel, sessionId, MESSAGES_FLUSH_INTERVAL);
 
     final CmdlineRemoteProto.Message.ControllerMessage.GlobalSettings globals = params.getGlobalSettings();
     myProjectPath = FileUtil.toCanonicalPath(params.getProjectId());
@@ -152,7 +156,7 @@ final class BuildSession implements Runnable, CanceledStatus {
             response = null;
           }
           if (response != null) {
-            myChannel.writeAndFlush(CmdlineProtoUtil.toMessage(mySessionId, response));
+            myMessageSender.send(response);
           }
         }
       }, this);
@@ -543,6 +547,7 @@ final class BuildSession implements Runnable, CanceledStatus {
     }
     finally {
       try {
+        myMessageSender.flush();
         myChannel.writeAndFlush(lastMessage).await();
       }
       catch (InterruptedException e) {
@@ -609,6 +614,7 @@ final class BuildSession implements Runnable, CanceledStatus {
       if (prev != null) {
         prev.setDone();
       }
+      myMessageSender.flush();
       myChannel.writeAndFlush(CmdlineProtoUtil.toMessage(mySessionId, CmdlineRemoteProto.Message.BuilderMessage.newBuilder()
         .setType(CmdlineRemoteProto.Message.BuilderMessage.Type.CONSTANT_SEARCH_TASK).setConstantSearchTask(task.build()).build()));
       return future;
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.cmdline;
+
+import io.netty.channel.Channel;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.api.CmdlineProtoUtil;
+import org.jetbrains.jps.api.CmdlineRemoteProto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends builder messages to the IDE in periodic frames instead of flushing the channel after every message.
+ * While a frame is being collected, consecutive 'files generated' events are merged into a single event
+ * and a progress message replaces the progress message queued right before it, so the order of the remaining messages is preserved.
+ * A frame is flushed after the configured interval, when it grows too large, or explicitly via {@link #flush()}.
+ */
+final class CoalescingMessageSender {
+  private static final int MAX_PENDING_MESSAGES = 512;
+  private static final int MAX_FILES_PER_EVENT = 4096;
+
+  private final Channel myChannel;
+  private final UUID mySessionId;
+  private final long myFlushInterval;
+  private final ScheduledExecutorService myScheduler;
+  private final List<CmdlineRemoteProto.Message.BuilderMessage> myPending = new ArrayList<CmdlineRemoteProto.Message.BuilderMessage>();
+  /**
+   * 'files generated' event which is still being merged with the following ones; it logically follows the pending messages
+   */
+  private CmdlineRemoteProto.Message.BuilderMessage.BuildEvent.Builder myFilesEvent;
+  private boolean myFlushScheduled = false;
+
+  private final Runnable myFlushTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (CoalescingMessageSender.this) {
+        myFlushScheduled = false;
+        flush();
+      }
+    }
+  };
+
+  /**
+   * @param flushInterval max time in milliseconds a message may wait in the frame; if not positive, every message is flushed immediately
+   */
+  CoalescingMessageSender(@NotNull Channel channel, @NotNull UUID sessionId, long flushInterval) {
+    this(channel, sessionId, flushInterval, channel.eventLoop());
+  }
+
+  CoalescingMessageSender(@NotNull Channel channel, @NotNull UUID sessionId, long flushInterval, @NotNull ScheduledExecutorService scheduler) {
+    myChannel = channel;
+    mySessionId = sessionId;
+    myFlushInterval = flushInterval;
+    myScheduler = scheduler;
+  }
+
+  public synchronized void send(@NotNull CmdlineRemoteProto.Message.BuilderMessage message) {
+    if (myFlushInterval <= 0L) {
+      myChannel.writeAndFlush(CmdlineProtoUtil.toMessage(mySessionId, message));
+      return;
+    }
+    if (CmdlineProtoUtil.isFilesGeneratedEvent(message)) {
+      if (myFilesEvent != null && myFilesEvent.getGeneratedFilesCount() >= MAX_FILES_PER_EVENT) {
+        closeFilesEvent();
+      }
+      if (myFilesEvent == null) {
+        myFilesEvent = message.getBuildEvent().toBuilder();
+      }
+      else {
+        myFilesEvent.addAllGeneratedFiles(message.getBuildEvent().getGeneratedFilesList());
+      }
+    }
+    else {
+      closeFilesEvent();
+      final int lastIndex = myPending.size() - 1;
+      if (lastIndex >= 0 && CmdlineProtoUtil.isProgressMessage(message) && CmdlineProtoUtil.isProgressMessage(myPending.get(lastIndex))) {
+        myPending.set(lastIndex, CmdlineProtoUtil.mergeProgressMessages(myPending.get(lastIndex), message));
+      }
+      else {
+        myPending.add(message);
+      }
+    }
+
+    if (myPending.size() >= MAX_PENDING_MESSAGES) {
+      flush();
+    }
+    else if (!myFlushScheduled) {
+      myFlushScheduled = true;
+      myScheduler.schedule(myFlushTask, myFlushInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Writes all collected messages to the channel and flushes it. Must be called before messages which are sent
+   * directly to the channel and must not overtake the collected ones.
+   */
+  public synchronized void flush() {
+    closeFilesEvent();
+    if (myPending.isEmpty()) {
+      return;
+    }
+    for (CmdlineRemoteProto.Message.BuilderMessage message : myPending) {
+      myChannel.write(CmdlineProtoUtil.toMessage(mySessionId, message));
+    }
+    myPending.clear();
+    myChannel.flush();
+  }
+
+  private void closeFilesEvent() {
+    if (myFilesEvent != null) {
+      myPending.add(CmdlineRemoteProto.Message.BuilderMessage.newBuilder()
+                      .setType(CmdlineRemoteProto.Message.BuilderMessage.Type.BUILD_EVENT).setBuildEvent(myFilesEvent.build()).build());
+      myFilesEvent = null;
+    }
+  }
+}
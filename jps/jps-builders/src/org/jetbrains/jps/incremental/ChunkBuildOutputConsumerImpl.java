@@ -88,6 +88,16 @@ class ChunkBuildOutputConsumerImpl implements ModuleLevelBuilder.OutputConsumer
     consumer.registerOutputFile(outputFile, sourcePaths);
   }
 
+  public void saveDirtyClasses() throws IOException {
+    for (Collection<CompiledClass> classes : myTargetToClassesMap.values()) {
+      for (CompiledClass compiledClass : classes) {
+        if (compiledClass.isDirty()) {
+          compiledClass.save();
+        }
+      }
+    }
+  }
+
   public void fireFileGeneratedEvents() {
     for (BuildOutputConsumerImpl consumer : myTarget2Consumer.values()) {
       consumer.fireFileGeneratedEvent();
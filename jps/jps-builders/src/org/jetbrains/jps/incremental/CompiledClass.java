@@ -80,6 +80,13 @@ public class CompiledClass extends UserDataHolderBase{
     return myIsDirty;
   }
 
+  /**
+   * Marks the class as not yet written to its output file. Dirty classes are saved by the build after all class instrumenters have run.
+   */
+  public void markDirty() {
+    myIsDirty = true;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
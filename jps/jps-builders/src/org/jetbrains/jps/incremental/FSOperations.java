@@ -15,12 +15,14 @@
  */
 package org.jetbrains.jps.incremental;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.builders.BuildRootDescriptor;
 import org.jetbrains.jps.builders.BuildRootIndex;
 import org.jetbrains.jps.builders.BuildTarget;
@@ -37,7 +39,9 @@ import org.jetbrains.jps.model.module.JpsModule;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -45,6 +49,8 @@ import java.util.Set;
  *         Date: 7/8/12
  */
 public class FSOperations {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.FSOperations");
+  private static final boolean PARALLEL_SCAN_ENABLED = Boolean.parseBoolean(System.getProperty(GlobalOptions.PARALLEL_FS_SCAN_OPTION, "true"));
   public static final GlobalContextKey<Set<File>> ALL_OUTPUTS_KEY = GlobalContextKey.create("_all_project_output_dirs_");
 
   /**
@@ -161,6 +167,7 @@ public class FSOperations {
                              boolean forceMarkDirty,
                              @Nullable THashSet<File> currentFiles,
                              @Nullable FileFilter filter) throws IOException {
+    final List<FSRootScanner.RootScanRequest> scanRequests = PARALLEL_SCAN_ENABLED ? new ArrayList<FSRootScanner.RootScanRequest>() : null;
     for (BuildRootDescriptor rd : context.getProjectDescriptor().getBuildRootIndex().getTargetRoots(target, context)) {
       if (!rd.getRootFile().exists() ||
           //temp roots are managed by compilers themselves
@@ -171,7 +178,51 @@ public class FSOperations {
         context.getProjectDescriptor().fsState.clearRecompile(rd);
       }
       final FSCache fsCache = rd.canUseFileCache() ? context.getProjectDescriptor().getFSCache() : FSCache.NO_CACHE;
-      traverseRecursively(context, rd, rd.getRootFile(), timestamps, forceMarkDirty, currentFiles, filter, fsCache);
+      if (scanRequests != null) {
+        scanRequests.add(new FSRootScanner.RootScanRequest(rd, fsCache));
+      }
+      else {
+        traverseRecursively(context, rd, rd.getRootFile(), timestamps, forceMarkDirty, currentFiles, filter, fsCache);
+      }
+    }
+    if (scanRequests != null && !scanRequests.isEmpty()) {
+      markDirtyFilesInParallel(context, scanRequests, timestamps, forceMarkDirty, currentFiles, filter);
+    }
+  }
+
+  private static void markDirtyFilesInParallel(CompileContext context,
+                                               List<FSRootScanner.RootScanRequest> scanRequests,
+                                               @NotNull Timestamps tsStorage,
+                                               boolean forceDirty,
+                                               @Nullable Set<File> currentFiles,
+                                               @Nullable FileFilter filter) throws IOException {
+    final ProjectDescriptor pd = context.getProjectDescriptor();
+    final int parallelism = Math.min(IncProjectBuilder.MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    final FSRootScanner scanner = new FSRootScanner(pd.getBuildRootIndex(), parallelism, !forceDirty, filter);
+    final List<FSRootScanner.RootScanResult> results = scanner.scan(scanRequests);
+
+    // timestamp storage is not accessed from the scanning threads: all lookups for the scanned roots are performed here in one batch
+    // if it is full project rebuild, all storages are already completely cleared;
+    // so passing null because there is no need to access the storage to clear non-existing data
+    final Timestamps marker = context.isProjectRebuild() ? null : tsStorage;
+    for (FSRootScanner.RootScanResult result : results) {
+      final BuildRootDescriptor rd = result.getDescriptor();
+      final BuildTarget<?> target = rd.getTarget();
+      int dirtyCount = 0;
+      for (FSRootScanner.ScannedFile scanned : result.getFiles()) {
+        final boolean markDirty = forceDirty || tsStorage.getStamp(scanned.file, target) != scanned.stamp;
+        if (markDirty) {
+          pd.fsState.markDirty(context, scanned.file, rd, marker, false);
+          dirtyCount++;
+        }
+        if (currentFiles != null) {
+          currentFiles.add(scanned.file);
+        }
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Scanned " + rd.getRootFile().getPath() + " in " + result.getScanTime() + " ms: " +
+                  result.getFiles().size() + " files, " + dirtyCount + " marked dirty");
+      }
     }
   }
 
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.builders.BuildRootDescriptor;
+import org.jetbrains.jps.builders.BuildRootIndex;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Walks several build roots concurrently. Independent roots and their top-level subdirectories are scanned as separate tasks;
+ * deeper levels are traversed by the task which discovered them. The scanner only touches the file system: comparing
+ * the collected stamps against the timestamp storage is left to the caller so that storage lookups are done in one batch
+ * on the calling thread.
+ */
+class FSRootScanner {
+  private static final int SPLIT_DEPTH = 2;
+
+  private final BuildRootIndex myRootIndex;
+  private final BoundedTaskExecutor myExecutor;
+  private final boolean myCollectStamps;
+  @Nullable private final FileFilter myFilter;
+  private final AtomicInteger myTasksInProgress = new AtomicInteger(0);
+  private final AtomicReference<Throwable> myException = new AtomicReference<Throwable>();
+  private final Object myCompletionLock = new Object();
+
+  /**
+   * @param collectStamps if false, last modification stamps are not queried, which is enough when all files are to be marked dirty anyway
+   */
+  FSRootScanner(@NotNull BuildRootIndex rootIndex, int parallelism, boolean collectStamps, @Nullable FileFilter filter) {
+    myRootIndex = rootIndex;
+    myCollectStamps = collectStamps;
+    myFilter = filter;
+    myExecutor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), parallelism);
+  }
+
+  /**
+   * @return scan results in the same order as the passed roots
+   * @throws InterruptedIOException if the calling thread was interrupted; the interrupted status of the thread is restored
+   */
+  @NotNull
+  List<RootScanResult> scan(@NotNull Collection<RootScanRequest> requests) throws InterruptedIOException {
+    final List<RootScanResult> results = new ArrayList<RootScanResult>(requests.size());
+    for (RootScanRequest request : requests) {
+      final RootScanResult result = new RootScanResult(request.myDescriptor);
+      results.add(result);
+      submit(result, request.myFsCache, request.myDescriptor.getRootFile(), 0);
+    }
+    synchronized (myCompletionLock) {
+      while (myTasksInProgress.get() > 0) {
+        try {
+          myCompletionLock.wait(100L);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          final InterruptedIOException interrupted = new InterruptedIOException("Scanning of build roots was interrupted");
+          // the tasks which are still queued or running see the exception and stop
+          myException.compareAndSet(null, interrupted);
+          throw interrupted;
+        }
+      }
+    }
+    final Throwable throwable = myException.get();
+    if (throwable instanceof RuntimeException) {
+      throw (RuntimeException)throwable;
+    }
+    if (throwable instanceof Error) {
+      throw (Error)throwable;
+    }
+    return results;
+  }
+
+  private void submit(final RootScanResult result, final FSCache fsCache, final File dir, final int depth) {
+    myTasksInProgress.incrementAndGet();
+    result.myTasksInProgress.incrementAndGet();
+    myExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (myException.get() == null) {
+            traverse(result, fsCache, dir, depth);
+          }
+        }
+        catch (Throwable e) {
+          myException.compareAndSet(null, e);
+        }
+        finally {
+          if (result.myTasksInProgress.decrementAndGet() == 0) {
+            result.myScanTime = System.currentTimeMillis() - result.myStartTime;
+          }
+          if (myTasksInProgress.decrementAndGet() == 0) {
+            synchronized (myCompletionLock) {
+              myCompletionLock.notifyAll();
+            }
+          }
+        }
+      }
+    });
+  }
+
+  private void traverse(RootScanResult result, FSCache fsCache, File file, int depth) {
+    final BuildRootDescriptor rd = result.myDescriptor;
+    final File[] children = fsCache.getChildren(file);
+    if (children != null) { // is directory
+      if (myException.get() != null) {
+        return;
+      }
+      if (children.length > 0 && myRootIndex.isDirectoryAccepted(file, rd)) {
+        for (File child : children) {
+          if (depth < SPLIT_DEPTH && child.isDirectory()) {
+            submit(result, fsCache, child, depth + 1);
+          }
+          else {
+            traverse(result, fsCache, child, depth + 1);
+          }
+        }
+      }
+    }
+    else { // is file
+      if (myRootIndex.isFileAccepted(file, rd) && (myFilter == null || myFilter.accept(file))) {
+        result.myFiles.add(new ScannedFile(file, myCollectStamps ? FileSystemUtil.lastModified(file) : -1L));
+      }
+    }
+  }
+
+  static class RootScanRequest {
+    private final BuildRootDescriptor myDescriptor;
+    private final FSCache myFsCache;
+
+    RootScanRequest(@NotNull BuildRootDescriptor descriptor, @NotNull FSCache fsCache) {
+      myDescriptor = descriptor;
+      myFsCache = fsCache;
+    }
+  }
+
+  static class RootScanResult {
+    private final BuildRootDescriptor myDescriptor;
+    private final Queue<ScannedFile> myFiles = new ConcurrentLinkedQueue<ScannedFile>();
+    private final AtomicInteger myTasksInProgress = new AtomicInteger(0);
+    private final long myStartTime = System.currentTimeMillis();
+    private volatile long myScanTime;
+
+    private RootScanResult(BuildRootDescriptor descriptor) {
+      myDescriptor = descriptor;
+    }
+
+    @NotNull
+    BuildRootDescriptor getDescriptor() {
+      return myDescriptor;
+    }
+
+    @NotNull
+    Collection<ScannedFile> getFiles() {
+      return myFiles;
+    }
+
+    /**
+     * @return time in milliseconds elapsed between scheduling of the root scan and completion of its last task
+     */
+    long getScanTime() {
+      return myScanTime;
+    }
+  }
+
+  static class ScannedFile {
+    final File file;
+    /**
+     * last modification stamp or -1 if stamps were not requested
+     */
+    final long stamp;
+
+    private ScannedFile(File file, long stamp) {
+      this.file = file;
+      this.stamp = stamp;
+    }
+  }
+}
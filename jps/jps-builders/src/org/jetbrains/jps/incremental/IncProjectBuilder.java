@@ -36,7 +36,6 @@ import org.jetbrains.jps.ModuleChunk;
 import org.jetbrains.jps.TimingLog;
 import org.jetbrains.jps.api.CanceledStatus;
 import org.jetbrains.jps.api.GlobalOptions;
-import org.jetbrains.jps.api.RequestFuture;
 import org.jetbrains.jps.builders.*;
 import org.jetbrains.jps.builders.impl.BuildTargetChunk;
 import org.jetbrains.jps.builders.impl.DirtyFilesHolderBase;
@@ -48,7 +47,7 @@ import org.jetbrains.jps.builders.storage.SourceToOutputMapping;
 import org.jetbrains.jps.cmdline.BuildRunner;
 import org.jetbrains.jps.cmdline.ProjectDescriptor;
 import org.jetbrains.jps.incremental.fs.BuildFSState;
-import org.jetbrains.jps.incremental.java.ExternalJavacDescriptor;
+import org.jetbrains.jps.incremental.java.ExternalJavacPool;
 import org.jetbrains.jps.incremental.messages.*;
 import org.jetbrains.jps.incremental.storage.BuildTargetConfiguration;
 import org.jetbrains.jps.incremental.storage.OneToManyPathsMapping;
@@ -297,17 +296,10 @@ public class IncProjectBuilder {
       pd.timestamps.getStorage().force();
       pd.dataManager.flush(false);
     }
-    final ExternalJavacDescriptor descriptor = ExternalJavacDescriptor.KEY.get(context);
-    if (descriptor != null) {
-      try {
-        final RequestFuture future = descriptor.client.sendShutdownRequest();
-        future.waitFor(500L, TimeUnit.MILLISECONDS);
-      }
-      finally {
-        // ensure process is not running
-        descriptor.process.destroyProcess();
-      }
-      ExternalJavacDescriptor.KEY.set(context, null);
+    final ExternalJavacPool javacPool = ExternalJavacPool.KEY.get(context);
+    if (javacPool != null) {
+      javacPool.shutdown();
+      ExternalJavacPool.KEY.set(context, null);
     }
   }
 
@@ -1059,13 +1051,16 @@ public class IncProjectBuilder {
           final List<ModuleLevelBuilder> builders = myBuilderRegistry.getBuilders(category);
           if (category == BuilderCategory.CLASS_POST_PROCESSOR) {
             // ensure changes from instrumenters are visible to class post-processors
-            saveInstrumentedClasses(outputConsumer);
+            saveCompiledClasses(outputConsumer);
           }
           if (builders.isEmpty()) {
             continue;
           }
 
           for (ModuleLevelBuilder builder : builders) {
+            if (builder.requiresCompiledClassesOnDisk()) {
+              saveCompiledClasses(outputConsumer);
+            }
             processDeletedPaths(context, chunk.getTargets());
             final ModuleLevelBuilder.ExitCode buildResult = builder.build(context, chunk, dirtyFilesHolder, outputConsumer);
 
@@ -1098,6 +1093,7 @@ public class IncProjectBuilder {
                   stageCount = myTotalModuleLevelBuilderCount;
                   buildersPassed = 0;
                   nextPassRequired = true;
+                  saveCompiledClasses(outputConsumer);
                   outputConsumer.clear();
                   break BUILDER_CATEGORY_LOOP;
                 }
@@ -1118,7 +1114,7 @@ public class IncProjectBuilder {
       while (nextPassRequired);
     }
     finally {
-      saveInstrumentedClasses(outputConsumer);
+      saveCompiledClasses(outputConsumer);
       outputConsumer.fireFileGeneratedEvents();
       outputConsumer.clear();
       for (BuilderCategory category : BuilderCategory.values()) {
@@ -1131,12 +1127,9 @@ public class IncProjectBuilder {
     return doneSomething;
   }
 
-  private static void saveInstrumentedClasses(ChunkBuildOutputConsumerImpl outputConsumer) throws IOException {
-    for (CompiledClass compiledClass : outputConsumer.getCompiledClasses().values()) {
-      if (compiledClass.isDirty()) {
-        compiledClass.save();
-      }
-    }
+  private static void saveCompiledClasses(ChunkBuildOutputConsumerImpl outputConsumer) throws IOException {
+    // writes both the classes modified by instrumenters and the classes which translators have left in memory only
+    outputConsumer.saveDirtyClasses();
   }
 
   private static void onChunkBuildComplete(CompileContext context, @NotNull BuildTargetChunk chunk) throws IOException {
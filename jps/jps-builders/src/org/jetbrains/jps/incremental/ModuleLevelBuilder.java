@@ -81,6 +81,16 @@ public abstract class ModuleLevelBuilder extends Builder {
     return null;
   }
 
+  /**
+   * Classes produced by translators are kept in memory and may be written to the output directories only after all
+   * {@link BuilderCategory#CLASS_INSTRUMENTER class instrumenters} have processed them. If this method returns {@code true},
+   * all such classes are saved to disk before the builder is run.
+   * @return false if the builder accesses compiled classes of the chunk only via {@link OutputConsumer}
+   */
+  public boolean requiresCompiledClassesOnDisk() {
+    return true;
+  }
+
   public final BuilderCategory getCategory() {
     return myCategory;
   }
@@ -100,6 +100,11 @@ public abstract class ClassProcessingBuilder extends ModuleLevelBuilder {
     return exitCode;
   }
 
+  @Override
+  public boolean requiresCompiledClassesOnDisk() {
+    return false;
+  }
+
   @Override
   public List<String> getCompilableFileExtensions() {
     return Collections.emptyList();
@@ -119,6 +119,18 @@ public class RmiStubsGenerator extends ClassProcessingBuilder {
                                     OutputConsumer outputConsumer) {
     ExitCode exitCode = ExitCode.NOTHING_DONE;
 
+    // rmic reads classes from the output directories, so compiled classes still kept in memory must be written first
+    for (CompiledClass compiledClass : outputConsumer.getCompiledClasses().values()) {
+      if (compiledClass.isDirty()) {
+        try {
+          compiledClass.save();
+        }
+        catch (IOException e) {
+          context.processMessage(new CompilerMessage(getPresentableName(), e));
+        }
+      }
+    }
+
     final Collection<File> classpath = ProjectPaths.getCompilationClasspath(chunk, false);
     final StringBuilder buf = new StringBuilder();
     for (File file : classpath) {
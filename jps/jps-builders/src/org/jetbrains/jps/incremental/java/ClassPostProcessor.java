@@ -19,6 +19,10 @@ import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.javac.OutputFileObject;
 
 /**
+* Post-processors are invoked for every class produced by javac before the class is passed to the output sink.
+* Different classes are processed concurrently, but calls to the same post-processor are serialized unless it implements
+* {@link ThreadSafeClassPostProcessor}.
+*
 * @author Eugene Zhuravlev
 *         Date: 1/21/12
 */
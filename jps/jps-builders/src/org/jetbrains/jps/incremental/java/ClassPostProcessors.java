@@ -0,0 +1,43 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.java;
+
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.javac.OutputFileObject;
+
+import java.util.List;
+
+class ClassPostProcessors {
+  private ClassPostProcessors() {
+  }
+
+  /**
+   * Runs the processors on a class; may be called for different classes concurrently.
+   */
+  static void process(List<ClassPostProcessor> processors, CompileContext context, OutputFileObject fileObject) {
+    for (ClassPostProcessor processor : processors) {
+      if (processor instanceof ThreadSafeClassPostProcessor) {
+        processor.process(context, fileObject);
+      }
+      else {
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (processor) {
+          processor.process(context, fileObject);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.java;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.ThrowableComputable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.api.RequestFuture;
+import org.jetbrains.jps.incremental.GlobalContextKey;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps external javac processes launched during the build session. Each process compiles one chunk at a time;
+ * chunks built in parallel get separate processes, up to the pool size. Released processes stay warm and are reused by the following chunks.
+ */
+public class ExternalJavacPool {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.java.ExternalJavacPool");
+  public static final GlobalContextKey<ExternalJavacPool> KEY = GlobalContextKey.create("_external_javac_pool_");
+
+  private final int myMaxSize;
+  private final List<ExternalJavacDescriptor> myAll = new ArrayList<ExternalJavacDescriptor>();
+  private final Deque<ExternalJavacDescriptor> myIdle = new ArrayDeque<ExternalJavacDescriptor>();
+  private int myLaunching = 0;
+  private boolean myShutdown = false;
+
+  public ExternalJavacPool(int maxSize) {
+    myMaxSize = Math.max(1, maxSize);
+  }
+
+  /**
+   * Returns an idle process or launches a new one if the pool is not full; otherwise waits until some process is released.
+   * The obtained descriptor must be passed to {@link #release(ExternalJavacDescriptor)} after the compilation.
+   */
+  @NotNull
+  public ExternalJavacDescriptor acquire(@NotNull ThrowableComputable<ExternalJavacDescriptor, Exception> launcher) throws Exception {
+    synchronized (this) {
+      while (true) {
+        if (myShutdown) {
+          throw new Exception("External javac pool is already shut down");
+        }
+        final ExternalJavacDescriptor idle = myIdle.pollFirst();
+        if (idle != null) {
+          return idle;
+        }
+        if (myAll.size() + myLaunching < myMaxSize) {
+          myLaunching++;
+          break;
+        }
+        wait();
+      }
+    }
+
+    ExternalJavacDescriptor descriptor = null;
+    int processCount = 0;
+    try {
+      descriptor = launcher.compute();
+    }
+    finally {
+      synchronized (this) {
+        myLaunching--;
+        if (descriptor != null && !myShutdown) {
+          myAll.add(descriptor);
+          processCount = myAll.size();
+        }
+        notifyAll();
+      }
+    }
+    if (processCount == 0) {
+      // the pool was shut down while the process was starting
+      descriptor.process.destroyProcess();
+      throw new Exception("External javac pool is already shut down");
+    }
+    LOG.info("Launched external javac process; processes in pool: " + processCount);
+    return descriptor;
+  }
+
+  public synchronized void release(@NotNull ExternalJavacDescriptor descriptor) {
+    if (myAll.contains(descriptor)) {
+      myIdle.addFirst(descriptor); // the most recently used process is the warmest one
+      notifyAll();
+    }
+  }
+
+  /**
+   * Stops all processes launched by the pool
+   */
+  public void shutdown() {
+    final List<ExternalJavacDescriptor> descriptors;
+    synchronized (this) {
+      myShutdown = true;
+      descriptors = new ArrayList<ExternalJavacDescriptor>(myAll);
+      myAll.clear();
+      myIdle.clear();
+      notifyAll();
+    }
+    for (ExternalJavacDescriptor descriptor : descriptors) {
+      try {
+        final RequestFuture future = descriptor.client.sendShutdownRequest();
+        future.waitFor(500L, TimeUnit.MILLISECONDS);
+      }
+      finally {
+        // ensure process is not running
+        descriptor.process.destroyProcess();
+      }
+    }
+  }
+}
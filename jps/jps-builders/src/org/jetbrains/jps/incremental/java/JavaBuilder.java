@@ -21,9 +21,11 @@ import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.ThrowableComputable;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.SystemProperties;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.concurrency.SequentialTaskExecutor;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
@@ -42,6 +44,7 @@ import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
 import org.jetbrains.jps.builders.java.dependencyView.Callbacks;
 import org.jetbrains.jps.builders.java.dependencyView.Mappings;
 import org.jetbrains.jps.builders.logging.ProjectBuilderLogger;
+import org.jetbrains.jps.cmdline.BuildRunner;
 import org.jetbrains.jps.cmdline.ProjectDescriptor;
 import org.jetbrains.jps.incremental.*;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
@@ -77,6 +80,18 @@ public class JavaBuilder extends ModuleLevelBuilder {
   private static final String JAVA_EXTENSION = "java";
   private static final String DOT_JAVA_EXTENSION = "." + JAVA_EXTENSION;
   public static final boolean USE_EMBEDDED_JAVAC = System.getProperty(GlobalOptions.USE_EXTERNAL_JAVAC_OPTION) == null;
+  private static final int EXTERNAL_JAVAC_POOL_SIZE;
+  static {
+    // by default, one external javac process per concurrently built chunk
+    int poolSize = BuildRunner.PARALLEL_BUILD_ENABLED ?
+                   Math.min(IncProjectBuilder.MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors())) : 1;
+    try {
+      poolSize = Math.max(1, Integer.parseInt(System.getProperty(GlobalOptions.EXTERNAL_JAVAC_POOL_SIZE_OPTION, Integer.toString(poolSize))));
+    }
+    catch (NumberFormatException ignored) {
+    }
+    EXTERNAL_JAVAC_POOL_SIZE = poolSize;
+  }
   private static final Key<Integer> JAVA_COMPILER_VERSION_KEY = Key.create("_java_compiler_version_");
   public static final Key<Boolean> IS_ENABLED = Key.create("_java_compiler_enabled_");
   private static final Key<AtomicReference<String>> COMPILER_VERSION_INFO = Key.create("_java_compiler_version_info_");
@@ -102,6 +117,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
     };
 
   private final Executor myTaskRunner;
+  private final Executor myPostProcessingRunner;
   private static final List<ClassPostProcessor> ourClassProcessors = new ArrayList<ClassPostProcessor>();
   private static final Set<JpsModuleType<?>> ourCompilableModuleTypes;
   static {
@@ -111,6 +127,11 @@ public class JavaBuilder extends ModuleLevelBuilder {
     }
   }
 
+  /**
+   * Registers a post-processor for the classes produced by javac. Classes are post-processed concurrently, so a processor which
+   * may be called for different classes at the same time should implement {@link ThreadSafeClassPostProcessor}; calls to other
+   * processors are serialized.
+   */
   public static void registerClassPostProcessor(ClassPostProcessor processor) {
     ourClassProcessors.add(processor);
   }
@@ -118,6 +139,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
   public JavaBuilder(Executor tasksExecutor) {
     super(BuilderCategory.TRANSLATOR);
     myTaskRunner = new SequentialTaskExecutor(tasksExecutor);
+    myPostProcessingRunner = new BoundedTaskExecutor(tasksExecutor, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
     //add here class processors in the sequence they should be executed
   }
 
@@ -377,16 +399,27 @@ public class JavaBuilder extends ModuleLevelBuilder {
         );
       }
       else {
-        final JavacServerClient client = ensureJavacServerLaunched(context);
-        final RequestFuture<JavacServerResponseHandler> future = client.sendCompileRequest(
-          options, files, classpath, platformCp, sourcePath, outs, diagnosticSink, classesConsumer
-        );
-        while (!future.waitFor(100L, TimeUnit.MILLISECONDS)) {
-          if (context.getCancelStatus().isCanceled()) {
-            future.cancel(false);
+        final ExternalJavacPool pool = getExternalJavacPool(context);
+        final ExternalJavacDescriptor descriptor = pool.acquire(new ThrowableComputable<ExternalJavacDescriptor, Exception>() {
+          @Override
+          public ExternalJavacDescriptor compute() throws Exception {
+            return launchJavacServer(context);
+          }
+        });
+        try {
+          final RequestFuture<JavacServerResponseHandler> future = descriptor.client.sendCompileRequest(
+            options, files, classpath, platformCp, sourcePath, outs, diagnosticSink, classesConsumer
+          );
+          while (!future.waitFor(100L, TimeUnit.MILLISECONDS)) {
+            if (context.getCancelStatus().isCanceled()) {
+              future.cancel(false);
+            }
           }
+          rc = future.getMessageHandler().isTerminatedSuccessfully();
+        }
+        finally {
+          pool.release(descriptor);
         }
-        rc = future.getMessageHandler().isTerminatedSuccessfully();
       }
       return rc;
     }
@@ -403,12 +436,16 @@ public class JavaBuilder extends ModuleLevelBuilder {
   }
 
   private void submitAsyncTask(final CompileContext context, final Runnable taskRunnable) {
+    submitAsyncTask(context, taskRunnable, myTaskRunner);
+  }
+
+  private static void submitAsyncTask(final CompileContext context, final Runnable taskRunnable, Executor executor) {
     final TasksCounter counter = COUNTER_KEY.get(context);
 
     assert counter != null;
 
     counter.incTaskCount();
-    myTaskRunner.execute(new Runnable() {
+    executor.execute(new Runnable() {
       public void run() {
         try {
           taskRunnable.run();
@@ -423,12 +460,17 @@ public class JavaBuilder extends ModuleLevelBuilder {
     });
   }
 
-  private static synchronized JavacServerClient ensureJavacServerLaunched(CompileContext context) throws Exception {
-    final ExternalJavacDescriptor descriptor = ExternalJavacDescriptor.KEY.get(context);
-    if (descriptor != null) {
-      return descriptor.client;
+  private static synchronized ExternalJavacPool getExternalJavacPool(CompileContext context) {
+    ExternalJavacPool pool = ExternalJavacPool.KEY.get(context);
+    if (pool == null) {
+      pool = new ExternalJavacPool(EXTERNAL_JAVAC_POOL_SIZE);
+      ExternalJavacPool.KEY.set(context, pool);
     }
-    // start server here
+    return pool;
+  }
+
+  // launches are serialized so that concurrently started processes do not pick the same free port
+  private static synchronized ExternalJavacDescriptor launchJavacServer(CompileContext context) throws Exception {
     final int port = findFreePort();
     final int heapSize = getJavacServerHeapSize(context);
 
@@ -446,8 +488,7 @@ public class JavaBuilder extends ModuleLevelBuilder {
       processHandler.destroyProcess();
       throw new Exception("Failed to connect to external javac process: ", ex);
     }
-    ExternalJavacDescriptor.KEY.set(context, new ExternalJavacDescriptor(processHandler, client));
-    return client;
+    return new ExternalJavacDescriptor(processHandler, client);
   }
 
   private static int convertToNumber(String ver) {
@@ -918,18 +959,26 @@ public class JavaBuilder extends ModuleLevelBuilder {
         }
       }
 
+      final Runnable saveTask = new Runnable() {
+        public void run() {
+          myDelegateOutputFileSink.save(fileObject);
+        }
+      };
+      if (ourClassProcessors.isEmpty()) {
+        submitAsyncTask(myContext, saveTask);
+        return;
+      }
+      // post-processors for different classes run concurrently; the processed content is then passed to the sink sequentially
       submitAsyncTask(myContext, new Runnable() {
         public void run() {
           try {
-            for (ClassPostProcessor processor : ourClassProcessors) {
-              processor.process(myContext, fileObject);
-            }
+            ClassPostProcessors.process(ourClassProcessors, myContext, fileObject);
           }
           finally {
-            myDelegateOutputFileSink.save(fileObject);
+            submitAsyncTask(myContext, saveTask);
           }
         }
-      });
+      }, myPostProcessingRunner);
     }
   }
 
@@ -57,10 +57,11 @@ class OutputFilesSink implements OutputFileConsumer {
     myChunkName = "[" +chunkName + "]";
   }
 
-  public void save(final @NotNull OutputFileObject fileObject) {
+  public synchronized void save(final @NotNull OutputFileObject fileObject) {
     final BinaryContent content = fileObject.getContent();
     final File srcFile = fileObject.getSourceFile();
     boolean isTemp = false;
+    CompiledClass compiledClass = null;
     final JavaFileObject.Kind outKind = fileObject.getKind();
 
     if (srcFile != null && content != null) {
@@ -72,7 +73,8 @@ class OutputFilesSink implements OutputFileConsumer {
           // first, handle [src->output] mapping and register paths for files_generated event
           try {
             if (outKind == JavaFileObject.Kind.CLASS) {
-              myOutputConsumer.registerCompiledClass(rootDescriptor.target, new CompiledClass(fileObject.getFile(), srcFile, fileObject.getClassName(), content)); // todo: avoid array copying?
+              compiledClass = new CompiledClass(fileObject.getFile(), srcFile, fileObject.getClassName(), content);
+              myOutputConsumer.registerCompiledClass(rootDescriptor.target, compiledClass); // todo: avoid array copying?
             }
             else {
               myOutputConsumer.registerOutputFile(rootDescriptor.target, fileObject.getFile(), Collections.<String>singleton(sourcePath));
@@ -104,7 +106,15 @@ class OutputFilesSink implements OutputFileConsumer {
     if (outKind == JavaFileObject.Kind.CLASS) {
       // generated sources and resources are handled separately
       try {
-        writeToDisk(fileObject, isTemp);
+        if (compiledClass != null && compiledClass.getClassName() != null) {
+          // the class is kept in memory by the output consumer: instrumenters will work on these bytes
+          // and the final content will be written once when the chunk's classes are saved
+          compiledClass.markDirty();
+          registerSuccessfullyCompiled(fileObject, isTemp);
+        }
+        else {
+          writeToDisk(fileObject, isTemp);
+        }
       }
       catch (IOException e) {
         myContext.processMessage(new CompilerMessage(JavaBuilder.BUILDER_NAME, BuildMessage.Kind.ERROR, e.getMessage()));
@@ -112,7 +122,7 @@ class OutputFilesSink implements OutputFileConsumer {
     }
   }
 
-  public Set<File> getSuccessfullyCompiled() {
+  public synchronized Set<File> getSuccessfullyCompiled() {
     return Collections.unmodifiableSet(mySuccessfullyCompiled);
   }
 
@@ -127,6 +137,10 @@ class OutputFilesSink implements OutputFileConsumer {
 
     content.saveToFile(file);
 
+    registerSuccessfullyCompiled(fileObject, isTemp);
+  }
+
+  private void registerSuccessfullyCompiled(@NotNull OutputFileObject fileObject, boolean isTemp) {
     final File source = fileObject.getSourceFile();
     if (!isTemp && source != null) {
       mySuccessfullyCompiled.add(source);
@@ -137,10 +151,10 @@ class OutputFilesSink implements OutputFileConsumer {
     }
   }
 
-  public void markError(@NotNull final File sourceFile) {
+  public synchronized void markError(@NotNull final File sourceFile) {
     mySuccessfullyCompiled.remove(sourceFile);
   }
-  public void markError(@NotNull final Set<File> problematic) {
+  public synchronized void markError(@NotNull final Set<File> problematic) {
     mySuccessfullyCompiled.removeAll(problematic);
   }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.PersistentStringEnumerator;
+import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Maps a path to a collection of paths like {@link OneToManyPathsMapping}, but stores the bound paths compactly: every path is split
+ * into its parent directory and name, both are interned through an enumerator kept next to the map, and the value is stored
+ * as an array of (directory id, name id) pairs. Since output paths of a target share a few output directories, every directory path
+ * is stored on disk only once. The enumerator belongs to the storage, so the whole mapping is removed at once by {@link #clean()}.
+ */
+public class OutputPathsMapping extends AbstractStateStorage<String, int[]> {
+  private final File myNamesFile;
+  private PersistentStringEnumerator myNames;
+
+  public OutputPathsMapping(File storePath) throws IOException {
+    super(storePath, new PathStringDescriptor(), new PathIdsExternalizer());
+    myNamesFile = new File(storePath.getPath() + "_names");
+    myNames = new PersistentStringEnumerator(myNamesFile);
+  }
+
+  public void update(@NotNull String keyPath, @NotNull Collection<String> boundPaths) throws IOException {
+    synchronized (myDataLock) {
+      super.update(FileUtil.toSystemIndependentName(keyPath), enumerate(boundPaths));
+    }
+  }
+
+  public void update(@NotNull String keyPath, @NotNull String boundPath) throws IOException {
+    update(keyPath, Collections.singleton(boundPath));
+  }
+
+  public void appendData(@NotNull String keyPath, @NotNull String boundPath) throws IOException {
+    synchronized (myDataLock) {
+      super.appendData(FileUtil.toSystemIndependentName(keyPath), enumerate(Collections.singleton(boundPath)));
+    }
+  }
+
+  @Nullable
+  public Collection<String> getPaths(@NotNull String keyPath) throws IOException {
+    synchronized (myDataLock) {
+      final int[] ids = super.getState(FileUtil.toSystemIndependentName(keyPath));
+      return ids != null ? valuesOf(ids) : null;
+    }
+  }
+
+  @Override
+  public void remove(@NotNull String keyPath) throws IOException {
+    super.remove(FileUtil.toSystemIndependentName(keyPath));
+  }
+
+  public void removeData(@NotNull String keyPath, @NotNull String boundPath) throws IOException {
+    synchronized (myDataLock) {
+      final Collection<String> paths = getPaths(keyPath);
+      if (paths != null) {
+        final boolean removed = paths.remove(FileUtil.toSystemIndependentName(boundPath));
+        if (paths.isEmpty()) {
+          remove(keyPath);
+        }
+        else if (removed) {
+          update(keyPath, paths);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void force() {
+    synchronized (myDataLock) {
+      super.force();
+      myNames.force();
+    }
+  }
+
+  @Override
+  public void dropMemoryCache() {
+    synchronized (myDataLock) {
+      super.dropMemoryCache();
+      if (myNames.isDirty()) {
+        myNames.force();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (myDataLock) {
+      try {
+        super.close();
+      }
+      finally {
+        myNames.close();
+      }
+    }
+  }
+
+  @Override
+  public boolean wipe() {
+    synchronized (myDataLock) {
+      try {
+        myNames.close();
+      }
+      catch (IOException ignored) {
+      }
+      // the enumerator files share the name prefix with the map files, so they are deleted together with the map
+      final boolean wiped = super.wipe();
+      try {
+        myNames = new PersistentStringEnumerator(myNamesFile);
+      }
+      catch (IOException ignored) {
+        return false;
+      }
+      return wiped;
+    }
+  }
+
+  private int[] enumerate(Collection<String> paths) throws IOException {
+    final int[] ids = new int[paths.size() * 2];
+    int i = 0;
+    for (String path : paths) {
+      final String normalized = FileUtil.toSystemIndependentName(path);
+      final int slash = normalized.lastIndexOf('/');
+      ids[i++] = myNames.enumerate(normalized.substring(0, slash + 1)); // the directory part keeps the trailing separator
+      ids[i++] = myNames.enumerate(normalized.substring(slash + 1));
+    }
+    return ids;
+  }
+
+  private Collection<String> valuesOf(int[] ids) throws IOException {
+    final Set<String> result = new THashSet<String>(ids.length / 2, FileUtil.PATH_HASHING_STRATEGY);
+    for (int i = 0; i + 1 < ids.length; i += 2) {
+      result.add(myNames.valueOf(ids[i]) + myNames.valueOf(ids[i + 1]));
+    }
+    return result;
+  }
+
+  private static class PathIdsExternalizer implements DataExternalizer<int[]> {
+    public void save(DataOutput out, int[] value) throws IOException {
+      for (int id : value) {
+        DataInputOutputUtil.writeINT(out, id);
+      }
+    }
+
+    public int[] read(DataInput in) throws IOException {
+      final TIntArrayList result = new TIntArrayList();
+      final DataInputStream stream = (DataInputStream)in;
+      while (stream.available() > 0) {
+        result.add(DataInputOutputUtil.readINT(stream));
+      }
+      return result.toNativeArray();
+    }
+  }
+}
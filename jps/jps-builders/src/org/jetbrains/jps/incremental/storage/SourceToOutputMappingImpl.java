@@ -29,10 +29,10 @@ import java.util.Iterator;
  *         Date: 10/11/12
  */
 public class SourceToOutputMappingImpl implements SourceToOutputMapping {
-  private final OneToManyPathsMapping myMapping;
+  private final OutputPathsMapping myMapping;
 
   public SourceToOutputMappingImpl(File storePath) throws IOException {
-    myMapping = new OneToManyPathsMapping(storePath);
+    myMapping = new OutputPathsMapping(storePath);
   }
 
   @Override
@@ -69,7 +69,7 @@ public class SourceToOutputMappingImpl implements SourceToOutputMapping {
   @Nullable
   @Override
   public Collection<String> getOutputs(@NotNull String srcPath) throws IOException {
-    return myMapping.getState(srcPath);
+    return myMapping.getPaths(srcPath);
   }
 
   @NotNull
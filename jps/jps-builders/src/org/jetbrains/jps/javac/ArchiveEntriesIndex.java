@@ -0,0 +1,162 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.javac;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Process-wide index of directories contained in classpath archives. Javac looks up every package in every classpath archive;
+ * the index allows file managers to skip archives which cannot contain the requested package without opening them.
+ * An archive is checked for changes of its length or timestamp once per compilation and re-read only if they have changed.
+ * Only the {@link #MAX_ARCHIVES} most recently used archives are kept.
+ */
+class ArchiveEntriesIndex {
+  static final int MAX_ARCHIVES = 500;
+
+  private static final Map<File, ArchiveEntriesIndex> ourIndices = new LinkedHashMap<File, ArchiveEntriesIndex>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<File, ArchiveEntriesIndex> eldest) {
+      return size() > MAX_ARCHIVES;
+    }
+  };
+  private static int ourCompilation; // guarded by ourIndices
+
+  private final long myLength;
+  private final long myTimestamp;
+  private final Set<String> myDirectories;
+  private int myCheckedCompilation; // guarded by ourIndices
+
+  private ArchiveEntriesIndex(long length, long timestamp, Set<String> directories, int compilation) {
+    myLength = length;
+    myTimestamp = timestamp;
+    myDirectories = directories;
+    myCheckedCompilation = compilation;
+  }
+
+  /**
+   * Makes the next lookup of each archive check whether the archive has changed since it was indexed.
+   */
+  static void compilationStarted() {
+    synchronized (ourIndices) {
+      ourCompilation++;
+    }
+  }
+
+  /**
+   * @param relativePath '/'- or system-separated path of a package directory
+   * @return false only if the archive definitely contains no entries in the directory (or, if {@code recursive} is true, in its subdirectories)
+   */
+  static boolean mayContainDirectory(@NotNull File archive, @NotNull String relativePath, boolean recursive) {
+    final ArchiveEntriesIndex index = getIndex(archive);
+    if (index == null) {
+      return true;
+    }
+    final String dir = normalize(relativePath);
+    if (index.myDirectories.contains(dir)) {
+      return true;
+    }
+    if (recursive) {
+      final String prefix = dir.length() > 0 ? dir + "/" : dir;
+      for (String directory : index.myDirectories) {
+        if (directory.startsWith(prefix)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param relativeName '/'-separated path of a file inside the archive
+   * @return false only if the archive definitely doesn't contain the file
+   */
+  static boolean mayContainFile(@NotNull File archive, @NotNull String relativeName) {
+    final int slash = relativeName.lastIndexOf('/');
+    return mayContainDirectory(archive, slash >= 0 ? relativeName.substring(0, slash) : "", false);
+  }
+
+  @Nullable
+  private static ArchiveEntriesIndex getIndex(File archive) {
+    final ArchiveEntriesIndex cached;
+    final int compilation;
+    synchronized (ourIndices) {
+      cached = ourIndices.get(archive);
+      if (cached != null && cached.myCheckedCompilation == ourCompilation) {
+        return cached;
+      }
+      compilation = ourCompilation;
+    }
+    final long length = archive.length();
+    final long timestamp = archive.lastModified();
+    if (cached != null && cached.myLength == length && cached.myTimestamp == timestamp) {
+      synchronized (ourIndices) {
+        cached.myCheckedCompilation = compilation;
+      }
+      return cached;
+    }
+    final Set<String> directories;
+    try {
+      directories = readDirectories(archive);
+    }
+    catch (IOException e) {
+      return null; // let the file manager report the problem when it opens the archive
+    }
+    final ArchiveEntriesIndex index = new ArchiveEntriesIndex(length, timestamp, directories, compilation);
+    synchronized (ourIndices) {
+      ourIndices.put(archive, index);
+    }
+    return index;
+  }
+
+  private static Set<String> readDirectories(File archive) throws IOException {
+    final Set<String> directories = new HashSet<String>();
+    final ZipFile zip = new ZipFile(archive);
+    try {
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+        final String name = entries.nextElement().getName();
+        // register all parent directories, since archives do not necessarily contain entries for directories themselves
+        String dir = normalize(name);
+        int slash = dir.lastIndexOf('/');
+        if (!name.endsWith("/")) {
+          dir = slash >= 0 ? dir.substring(0, slash) : "";
+        }
+        while (directories.add(dir) && dir.length() > 0) {
+          slash = dir.lastIndexOf('/');
+          dir = slash >= 0 ? dir.substring(0, slash) : "";
+        }
+      }
+    }
+    finally {
+      zip.close();
+    }
+    return directories;
+  }
+
+  private static String normalize(String path) {
+    String result = path.replace('\\', '/');
+    while (result.endsWith("/")) {
+      result = result.substring(0, result.length() - 1);
+    }
+    return result;
+  }
+}
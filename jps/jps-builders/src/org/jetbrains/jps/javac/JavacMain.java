@@ -84,6 +84,7 @@ public class JavacMain {
     }
     
     final List<JavaSourceTransformer> transformers = getSourceTransformers();
+    ArchiveEntriesIndex.compilationStarted();
 
     final JavacFileManager fileManager = new JavacFileManager(new ContextImpl(compiler, diagnosticConsumer, outputSink, canceledStatus, nowUsingJavac), transformers);
 
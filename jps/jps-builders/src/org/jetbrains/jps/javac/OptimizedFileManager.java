@@ -110,6 +110,9 @@ class OptimizedFileManager extends DefaultFileManager {
         isFile = isFile(root);
       }
       if (isFile) {
+        if (archive == null && !ArchiveEntriesIndex.mayContainDirectory(root, relativePath, recurse)) {
+          continue; // do not open archives which have nothing in this package
+        }
         collectFromArchive(root, archive, relativePath, kinds, recurse, results);
       }
       else {
@@ -249,6 +252,9 @@ class OptimizedFileManager extends DefaultFileManager {
       }
       if (isFile) {
         if (archive == null) {
+          if (!ArchiveEntriesIndex.mayContainFile(root, name)) {
+            continue;
+          }
           try {
             archive = openArchive(root);
           }
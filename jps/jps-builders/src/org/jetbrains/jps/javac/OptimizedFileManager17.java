@@ -101,6 +101,9 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
         // Not a directory; either a file or non-existant, create the archive
         try {
           if (archive == null) {
+            if (!ArchiveEntriesIndex.mayContainDirectory(root, subdirectory.getPath(), recurse)) {
+              continue; // do not open archives which have nothing in this package
+            }
             archive = openArchive(root);
           }
           listArchive(archive, subdirectory, kinds, recurse, results);
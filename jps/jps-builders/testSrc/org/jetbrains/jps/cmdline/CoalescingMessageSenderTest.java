@@ -0,0 +1,161 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.cmdline;
+
+import com.intellij.openapi.util.Pair;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import junit.framework.TestCase;
+import org.jetbrains.jps.api.CmdlineProtoUtil;
+import org.jetbrains.jps.api.CmdlineRemoteProto;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.jetbrains.jps.api.CmdlineRemoteProto.Message.BuilderMessage;
+
+public class CoalescingMessageSenderTest extends TestCase {
+  private static final long NEVER = 3600 * 1000L;
+  private final UUID mySessionId = UUID.randomUUID();
+  private EmbeddedChannel myChannel;
+  private ScheduledThreadPoolExecutor myScheduler;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    myScheduler = new ScheduledThreadPoolExecutor(1);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myScheduler.shutdownNow();
+      myChannel.close();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testMessagesAreSentImmediatelyWithoutInterval() {
+    CoalescingMessageSender sender = new CoalescingMessageSender(myChannel, mySessionId, 0, myScheduler);
+    sender.send(progress("a", 0.1f));
+    assertEquals(1, sent().size());
+    sender.send(progress("b", 0.2f));
+    assertEquals(1, sent().size());
+  }
+
+  public void testMessagesAreKeptUntilFlush() {
+    CoalescingMessageSender sender = new CoalescingMessageSender(myChannel, mySessionId, NEVER, myScheduler);
+    sender.send(error("e1"));
+    sender.send(error("e2"));
+    assertEquals(0, sent().size());
+    sender.flush();
+    List<BuilderMessage> sent = sent();
+    assertEquals(2, sent.size());
+    assertEquals("e1", sent.get(0).getCompileMessage().getText());
+    assertEquals("e2", sent.get(1).getCompileMessage().getText());
+  }
+
+  public void testConsecutiveProgressMessagesAreMerged() {
+    CoalescingMessageSender sender = new CoalescingMessageSender(myChannel, mySessionId, NEVER, myScheduler);
+    sender.send(progress("a", 0.1f));
+    sender.send(progress("b", 0.2f));
+    sender.send(error("e"));
+    sender.send(progress("c", 0.3f));
+    sender.flush();
+    List<BuilderMessage> sent = sent();
+    assertEquals(3, sent.size());
+    assertEquals("b", sent.get(0).getCompileMessage().getText());
+    assertEquals(0.2f, sent.get(0).getCompileMessage().getDone());
+    assertEquals("e", sent.get(1).getCompileMessage().getText());
+    assertEquals("c", sent.get(2).getCompileMessage().getText());
+  }
+
+  public void testProgressFractionIsKeptWhenMerged() {
+    CoalescingMessageSender sender = new CoalescingMessageSender(myChannel, mySessionId, NEVER, myScheduler);
+    sender.send(progress("a", 0.5f));
+    sender.send(progress("b", -1.0f));
+    sender.flush();
+    List<BuilderMessage> sent = sent();
+    assertEquals(1, sent.size());
+    assertEquals("b", sent.get(0).getCompileMessage().getText());
+    assertEquals(0.5f, sent.get(0).getCompileMessage().getDone());
+  }
+
+  public void testGeneratedFilesEventsAreMergedInOrder() {
+    CoalescingMessageSender sender = new CoalescingMessageSender(myChannel, mySessionId, NEVER, myScheduler);
+    sender.send(filesGenerated("A.class"));
+    sender.send(filesGenerated("B.class"));
+    sender.send(error("e"));
+    sender.send(filesGenerated("C.class"));
+    sender.flush();
+    List<BuilderMessage> sent = sent();
+    assertEquals(3, sent.size());
+    assertEquals(2, sent.get(0).getBuildEvent().getGeneratedFilesCount());
+    assertEquals("A.class", sent.get(0).getBuildEvent().getGeneratedFiles(0).getRelativePath());
+    assertEquals("B.class", sent.get(0).getBuildEvent().getGeneratedFiles(1).getRelativePath());
+    assertEquals("e", sent.get(1).getCompileMessage().getText());
+    assertEquals(1, sent.get(2).getBuildEvent().getGeneratedFilesCount());
+    assertEquals("C.class", sent.get(2).getBuildEvent().getGeneratedFiles(0).getRelativePath());
+  }
+
+  public void testMessagesAreFlushedAfterInterval() throws Exception {
+    CoalescingMessageSender sender = new CoalescingMessageSender(myChannel, mySessionId, 10, myScheduler);
+    synchronized (sender) {
+      sender.send(error("e"));
+      assertEquals(0, sent().size());
+    }
+    long deadline = System.currentTimeMillis() + 10000;
+    List<BuilderMessage> sent = Collections.emptyList();
+    while (sent.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      synchronized (sender) {
+        sent = sent();
+      }
+    }
+    assertEquals(1, sent.size());
+    assertEquals("e", sent.get(0).getCompileMessage().getText());
+  }
+
+  private List<BuilderMessage> sent() {
+    List<BuilderMessage> result = new ArrayList<BuilderMessage>();
+    Object message;
+    while ((message = myChannel.readOutbound()) != null) {
+      CmdlineRemoteProto.Message protoMessage = (CmdlineRemoteProto.Message)message;
+      assertEquals(mySessionId.getMostSignificantBits(), protoMessage.getSessionId().getMostSigBits());
+      result.add(protoMessage.getBuilderMessage());
+    }
+    return result;
+  }
+
+  private static BuilderMessage progress(String text, float done) {
+    return CmdlineProtoUtil.createCompileProgressMessageResponse(text, done);
+  }
+
+  private static BuilderMessage error(String text) {
+    return CmdlineProtoUtil.createCompileMessage(BuildMessage.Kind.ERROR, text, null, -1L, -1L, -1L, -1, -1, -1.0f);
+  }
+
+  private static BuilderMessage filesGenerated(String relativePath) {
+    return CmdlineProtoUtil.createFileGeneratedEvent(Collections.singletonList(Pair.create("out", relativePath)));
+  }
+}
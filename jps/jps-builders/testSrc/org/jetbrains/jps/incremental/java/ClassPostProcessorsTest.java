@@ -0,0 +1,104 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.java;
+
+import junit.framework.TestCase;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.javac.OutputFileObject;
+
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClassPostProcessorsTest extends TestCase {
+  private static final int THREADS = 4;
+
+  public void testProcessorsWhichAreNotThreadSafeAreNotCalledConcurrently() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicBoolean overlapped = new AtomicBoolean();
+    final AtomicInteger calls = new AtomicInteger();
+    ClassPostProcessor processor = new ClassPostProcessor() {
+      @Override
+      public void process(CompileContext context, OutputFileObject out) {
+        if (running.incrementAndGet() > 1) {
+          overlapped.set(true);
+        }
+        try {
+          Thread.sleep(20);
+        }
+        catch (InterruptedException ignored) {
+        }
+        running.decrementAndGet();
+        calls.incrementAndGet();
+      }
+    };
+
+    runConcurrently(Collections.singletonList(processor));
+    assertEquals(THREADS, calls.get());
+    assertFalse(overlapped.get());
+  }
+
+  public void testThreadSafeProcessorsAreCalledConcurrently() throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+    final AtomicInteger met = new AtomicInteger();
+    ClassPostProcessor processor = new ThreadSafeClassPostProcessor() {
+      @Override
+      public void process(CompileContext context, OutputFileObject out) {
+        try {
+          // passes only if all the classes are processed at the same time
+          barrier.await(10, TimeUnit.SECONDS);
+          met.incrementAndGet();
+        }
+        catch (InterruptedException ignored) {
+        }
+        catch (BrokenBarrierException ignored) {
+        }
+        catch (TimeoutException ignored) {
+        }
+      }
+    };
+
+    runConcurrently(Collections.singletonList(processor));
+    assertEquals(THREADS, met.get());
+  }
+
+  private static void runConcurrently(final List<ClassPostProcessor> processors) throws InterruptedException {
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < THREADS; i++) {
+      final OutputFileObject fileObject = new OutputFileObject(null, null, "A" + i + ".class", new File("A" + i + ".class"),
+                                                               JavaFileObject.Kind.CLASS, "A" + i, null);
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          ClassPostProcessors.process(processors, null, fileObject);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.storage;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+public class OutputPathsMappingTest extends TestCase {
+  private File myRoot;
+  private OutputPathsMapping myMapping;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = FileUtil.createTempDirectory("src-out", null);
+    myMapping = new OutputPathsMapping(new File(myRoot, "data"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myMapping.close();
+      FileUtil.delete(myRoot);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testUpdateAndAppend() throws IOException {
+    myMapping.update("/src/A.java", Arrays.asList("/out/a/A.class", "/out/a/A$1.class"));
+    myMapping.appendData("/src/A.java", "/out/a/A$2.class");
+    assertPaths(myMapping.getPaths("/src/A.java"), "/out/a/A.class", "/out/a/A$1.class", "/out/a/A$2.class");
+
+    myMapping.update("/src/A.java", "relative.class");
+    assertPaths(myMapping.getPaths("/src/A.java"), "relative.class");
+    assertNull(myMapping.getPaths("/src/B.java"));
+  }
+
+  public void testRemoveData() throws IOException {
+    myMapping.update("/src/A.java", Arrays.asList("/out/A.class", "/out/A$1.class"));
+    myMapping.removeData("/src/A.java", "/out/A$1.class");
+    assertPaths(myMapping.getPaths("/src/A.java"), "/out/A.class");
+    myMapping.removeData("/src/A.java", "/out/A.class");
+    assertNull(myMapping.getPaths("/src/A.java"));
+  }
+
+  public void testReopenAndClean() throws IOException {
+    myMapping.update("/src/A.java", Arrays.asList("/out/A.class"));
+    myMapping.close();
+    myMapping = new OutputPathsMapping(new File(myRoot, "data"));
+    assertPaths(myMapping.getPaths("/src/A.java"), "/out/A.class");
+
+    myMapping.clean();
+    assertNull(myMapping.getPaths("/src/A.java"));
+    assertTrue(myMapping.getKeys().isEmpty());
+    myMapping.update("/src/B.java", "/out/B.class");
+    assertPaths(myMapping.getPaths("/src/B.java"), "/out/B.class");
+  }
+
+  private static void assertPaths(Collection<String> actual, String... expected) {
+    assertNotNull(actual);
+    assertEquals(new HashSet<String>(Arrays.asList(expected)), new HashSet<String>(actual));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.javac;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ArchiveEntriesIndexTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("archives", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testDirectories() throws IOException {
+    File archive = createArchive("a.jar", "a/b/C.class", "d/");
+    assertTrue(ArchiveEntriesIndex.mayContainDirectory(archive, "a/b", false));
+    assertTrue(ArchiveEntriesIndex.mayContainDirectory(archive, "a" + File.separator + "b" + File.separator, false));
+    assertTrue(ArchiveEntriesIndex.mayContainDirectory(archive, "d", false));
+    assertTrue(ArchiveEntriesIndex.mayContainDirectory(archive, "a", false));
+    assertTrue(ArchiveEntriesIndex.mayContainDirectory(archive, "a", true));
+    assertTrue(ArchiveEntriesIndex.mayContainDirectory(archive, "", true));
+    assertFalse(ArchiveEntriesIndex.mayContainDirectory(archive, "e", true));
+    assertFalse(ArchiveEntriesIndex.mayContainDirectory(archive, "a/b/c", true));
+  }
+
+  public void testFiles() throws IOException {
+    File archive = createArchive("a.jar", "a/b/C.class", "D.class");
+    assertTrue(ArchiveEntriesIndex.mayContainFile(archive, "a/b/C.class"));
+    assertTrue(ArchiveEntriesIndex.mayContainFile(archive, "D.class"));
+    assertFalse(ArchiveEntriesIndex.mayContainFile(archive, "e/C.class"));
+  }
+
+  public void testUnreadableArchiveMayContainAnything() {
+    File archive = new File(myDir, "missing.jar");
+    assertTrue(ArchiveEntriesIndex.mayContainDirectory(archive, "a", false));
+    assertTrue(ArchiveEntriesIndex.mayContainFile(archive, "a/B.class"));
+  }
+
+  public void testChangesAreCheckedOncePerCompilation() throws IOException {
+    ArchiveEntriesIndex.compilationStarted();
+    File archive = createArchive("a.jar", "a/B.class");
+    assertFalse(ArchiveEntriesIndex.mayContainDirectory(archive, "c", false));
+
+    createArchive("a.jar", "a/B.class", "c/D.class");
+    assertFalse(ArchiveEntriesIndex.mayContainDirectory(archive, "c", false));
+
+    ArchiveEntriesIndex.compilationStarted();
+    assertTrue(ArchiveEntriesIndex.mayContainDirectory(archive, "c", false));
+  }
+
+  public void testLeastRecentlyUsedArchivesAreEvicted() throws IOException {
+    ArchiveEntriesIndex.compilationStarted();
+    File archive = createArchive("a.jar", "a/B.class");
+    assertFalse(ArchiveEntriesIndex.mayContainDirectory(archive, "c", false));
+    for (int i = 0; i < ArchiveEntriesIndex.MAX_ARCHIVES; i++) {
+      ArchiveEntriesIndex.mayContainDirectory(createArchive("b" + i + ".jar", "b/C.class"), "b", false);
+    }
+
+    // the archive is read again within the same compilation only if it was evicted
+    createArchive("a.jar", "a/B.class", "c/D.class");
+    assertTrue(ArchiveEntriesIndex.mayContainDirectory(archive, "c", false));
+  }
+
+  private File createArchive(String name, String... entries) throws IOException {
+    File archive = new File(myDir, name);
+    ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(archive));
+    try {
+      for (String entry : entries) {
+        stream.putNextEntry(new ZipEntry(entry));
+        stream.closeEntry();
+      }
+    }
+    finally {
+      stream.close();
+    }
+    return archive;
+  }
+}
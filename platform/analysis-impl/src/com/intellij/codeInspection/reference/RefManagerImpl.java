@@ -30,6 +30,7 @@ import com.intellij.codeInspection.GlobalInspectionContext;
 import com.intellij.codeInspection.InspectionsBundle;
 import com.intellij.codeInspection.lang.InspectionExtensionsFactory;
 import com.intellij.codeInspection.lang.RefManagerExtension;
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.lang.Language;
 import com.intellij.lang.injection.InjectedLanguageManager;
 import com.intellij.openapi.application.ApplicationManager;
@@ -39,6 +40,8 @@ import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.extensions.ExtensionPoint;
 import com.intellij.openapi.extensions.Extensions;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectUtilCore;
 import com.intellij.openapi.util.Computable;
@@ -49,6 +52,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.psi.*;
 import com.intellij.psi.impl.light.LightElement;
+import com.intellij.util.Processor;
 import com.intellij.util.containers.ContainerUtil;
 import gnu.trove.THashMap;
 import org.jdom.Element;
@@ -71,6 +75,8 @@ public class RefManagerImpl extends RefManager {
 
   private Map<Module, RefModule> myModules;
   private final ProjectIterator myProjectIterator;
+  // keeps the resolve caches of a batch of files prepared by prepareFiles(), they are dropped once per batch
+  private final ProjectIterator myBatchIterator;
   private boolean myDeclarationsFound;
   private final PsiManager myPsiManager;
 
@@ -82,7 +88,13 @@ public class RefManagerImpl extends RefManager {
   private final Map<Key, RefManagerExtension> myExtensions = new HashMap<Key, RefManagerExtension>();
   private final Map<Language, RefManagerExtension> myLanguageExtensions = new HashMap<Language, RefManagerExtension>();
 
+  // PSI is never accessed under the locks unless the read action has been acquired before them, otherwise a pending write action
+  // would block a thread holding a lock while another one waits for the lock inside its read action
   private final ReentrantReadWriteLock myLock = new ReentrantReadWriteLock();
+  // entities are created and initialized one at a time, so that concurrent requests for the same element get the same entity
+  private final Object myCreationLock = new Object();
+  // files whose PSI is prepared concurrently before the graph is built for them one by one
+  private static final int FILES_PER_THREAD = 4;
 
   public RefManagerImpl(@NotNull Project project, AnalysisScope scope, @NotNull GlobalInspectionContext context) {
     myDeclarationsFound = false;
@@ -91,7 +103,8 @@ public class RefManagerImpl extends RefManager {
     myContext = context;
     myPsiManager = PsiManager.getInstance(project);
     myRefProject = new RefProjectImpl(this);
-    myProjectIterator = new ProjectIterator();
+    myProjectIterator = new ProjectIterator(true);
+    myBatchIterator = new ProjectIterator(false);
     for (InspectionExtensionsFactory factory : Extensions.getExtensions(InspectionExtensionsFactory.EP_NAME)) {
       final RefManagerExtension extension = factory.createRefManagerExtension(this);
       if (extension != null) {
@@ -108,23 +121,28 @@ public class RefManagerImpl extends RefManager {
 
   @Override
   public void iterate(@NotNull RefVisitor visitor) {
+    // the visitor may create entities, so it's called without the locks
+    final List<RefElement> elements;
     myLock.readLock().lock();
     try {
-      for (RefElement refElement : getSortedElements()) {
-        refElement.accept(visitor);
-      }
-      if (myModules != null) {
-        for (RefModule refModule : myModules.values()) {
-          refModule.accept(visitor);
-        }
-      }
-      for (RefManagerExtension extension : myExtensions.values()) {
-        extension.iterate(visitor);
-      }
+      elements = getSortedElements();
     }
     finally {
       myLock.readLock().unlock();
     }
+    for (RefElement refElement : elements) {
+      refElement.accept(visitor);
+    }
+    final List<RefModule> modules;
+    synchronized (myCreationLock) {
+      modules = myModules == null ? Collections.<RefModule>emptyList() : new ArrayList<RefModule>(myModules.values());
+    }
+    for (RefModule refModule : modules) {
+      refModule.accept(visitor);
+    }
+    for (RefManagerExtension extension : myExtensions.values()) {
+      extension.iterate(visitor);
+    }
   }
 
   public void cleanup() {
@@ -286,13 +304,89 @@ public class RefManagerImpl extends RefManager {
   public void findAllDeclarations() {
     if (!myDeclarationsFound) {
       long before = System.currentTimeMillis();
-      getScope().accept(myProjectIterator);
+      final List<VirtualFile> files = new ArrayList<VirtualFile>();
+      getScope().accept(new PsiElementVisitor() {
+        @Override
+        public void visitElement(PsiElement element) {
+          // an element of a local scope
+          element.accept(myProjectIterator);
+        }
+
+        @Override
+        public void visitFile(PsiFile file) {
+          VirtualFile virtualFile = file.getVirtualFile();
+          if (virtualFile != null) {
+            files.add(virtualFile);
+          }
+          else {
+            file.accept(myProjectIterator);
+          }
+        }
+      });
+
+      int batchSize = Runtime.getRuntime().availableProcessors() * FILES_PER_THREAD;
+      for (int start = 0; start < files.size(); start += batchSize) {
+        List<VirtualFile> batch = files.subList(start, Math.min(files.size(), start + batchSize));
+        prepareFiles(batch);
+        for (final VirtualFile virtualFile : batch) {
+          ApplicationManager.getApplication().runReadAction(new Runnable() {
+            @Override
+            public void run() {
+              PsiFile file = myPsiManager.findFile(virtualFile);
+              if (file != null) {
+                file.accept(myBatchIterator);
+              }
+            }
+          });
+        }
+        myPsiManager.dropResolveCaches();
+      }
       myDeclarationsFound = true;
 
       LOG.info("Total duration of processing project usages:" + (System.currentTimeMillis() - before));
     }
   }
 
+  /**
+   * Parses the files and resolves the references in them concurrently, so that building the graph, which isn't thread-safe,
+   * finds the trees and the resolve results ready. The resolve caches are kept until the whole batch of files is processed.
+   */
+  private void prepareFiles(@NotNull List<VirtualFile> files) {
+    JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, ProgressManager.getInstance().getProgressIndicator(), true, false,
+                                                              new Processor<VirtualFile>() {
+      @Override
+      public boolean process(VirtualFile virtualFile) {
+        PsiFile file = myPsiManager.findFile(virtualFile);
+        if (file == null) return true;
+        for (PsiFile psi : file.getViewProvider().getAllFiles()) {
+          if (getExtension(psi.getLanguage()) == null) continue;
+          try {
+            psi.accept(new PsiRecursiveElementWalkingVisitor() {
+              @Override
+              public void visitElement(PsiElement element) {
+                if (element instanceof PsiPolyVariantReference) {
+                  ((PsiPolyVariantReference)element).multiResolve(false);
+                }
+                else if (element instanceof PsiReference) {
+                  ((PsiReference)element).resolve();
+                }
+                super.visitElement(element);
+              }
+            });
+          }
+          catch (ProcessCanceledException e) {
+            throw e;
+          }
+          catch (Throwable e) {
+            // the graph builder will meet the same problem and report it
+            LOG.debug(e);
+          }
+        }
+        return true;
+      }
+    });
+  }
+
   public boolean isDeclarationsFound() {
     return myDeclarationsFound;
   }
@@ -350,7 +444,16 @@ public class RefManagerImpl extends RefManager {
     return myPsiManager;
   }
 
-  public void removeReference(@NotNull RefElement refElem) {
+  public void removeReference(@NotNull final RefElement refElem) {
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        doRemoveReference(refElem);
+      }
+    });
+  }
+
+  private void doRemoveReference(@NotNull RefElement refElem) {
     myLock.writeLock().lock();
     try {
       final Map<PsiAnchor, RefElement> refTable = getRefTable();
@@ -360,14 +463,7 @@ public class RefManagerImpl extends RefManager {
         extension.removeReference(refElem);
       }
 
-      if (element != null && refTable.remove(ApplicationManager.getApplication().runReadAction(
-          new Computable<PsiAnchor>() {
-            @Override
-            public PsiAnchor compute() {
-              return PsiAnchor.create(element);
-            }
-          }
-      )) != null) return;
+      if (element != null && refTable.remove(PsiAnchor.create(element)) != null) return;
 
       //PsiElement may have been invalidated and new one returned by getElement() is different so we need to do this stuff.
       for (PsiAnchor psiElement : refTable.keySet()) {
@@ -396,6 +492,12 @@ public class RefManagerImpl extends RefManager {
   }
 
   private class ProjectIterator extends PsiElementVisitor {
+    private final boolean myDropResolveCaches;
+
+    private ProjectIterator(boolean dropResolveCaches) {
+      myDropResolveCaches = dropResolveCaches;
+    }
+
     @Override
     public void visitElement(PsiElement element) {
       final RefManagerExtension extension = getExtension(element.getLanguage());
@@ -419,7 +521,9 @@ public class RefManagerImpl extends RefManager {
       for (Language language : relevantLanguages) {
         visitElement(viewProvider.getPsi(language));
       }
-      myPsiManager.dropResolveCaches();
+      if (myDropResolveCaches) {
+        myPsiManager.dropResolveCaches();
+      }
       InjectedLanguageManager.getInstance(myProject).dropFileCaches(file);
     }
   }
@@ -444,6 +548,21 @@ public class RefManagerImpl extends RefManager {
       return null;
     }
 
+    return ApplicationManager.getApplication().runReadAction(new Computable<RefElement>() {
+      @Override
+      public RefElement compute() {
+        synchronized (myCreationLock) {
+          RefElement ref = getFromRefTable(elem);
+          if (ref != null) return ref;
+          return createReference(elem);
+        }
+      }
+    });
+  }
+
+  @Nullable
+  private RefElement createReference(@NotNull final PsiElement elem) {
+
     final RefElementImpl refElement = ApplicationManager.getApplication().runReadAction(new Computable<RefElementImpl>() {
       @Override
       @Nullable
@@ -513,16 +632,10 @@ public class RefManagerImpl extends RefManager {
   }
 
   protected RefElement getFromRefTable(final PsiElement element) {
+    PsiAnchor anchor = createAnchor(element);
     myLock.readLock().lock();
     try {
-      return getRefTable().get(ApplicationManager.getApplication().runReadAction(
-          new Computable<PsiAnchor>() {
-            @Override
-            public PsiAnchor compute() {
-              return PsiAnchor.create(element);
-            }
-          }
-      ));
+      return getRefTable().get(anchor);
     }
     finally {
       myLock.readLock().unlock();
@@ -530,27 +643,39 @@ public class RefManagerImpl extends RefManager {
   }
 
   protected void putToRefTable(final PsiElement element, final RefElement ref) {
+    PsiAnchor anchor = createAnchor(element);
     myLock.writeLock().lock();
     try {
-      getRefTable().put(ApplicationManager.getApplication().runReadAction(
-          new Computable<PsiAnchor>() {
-            @Override
-            public PsiAnchor compute() {
-              return PsiAnchor.create(element);
-            }
-          }
-      ), ref);
+      getRefTable().put(anchor, ref);
     }
     finally {
       myLock.writeLock().unlock();
     }
   }
 
+  private static PsiAnchor createAnchor(final PsiElement element) {
+    return ApplicationManager.getApplication().runReadAction(
+        new Computable<PsiAnchor>() {
+          @Override
+          public PsiAnchor compute() {
+            return PsiAnchor.create(element);
+          }
+        }
+    );
+  }
+
   @Override
   public RefModule getRefModule(Module module) {
     if (module == null) {
       return null;
     }
+    synchronized (myCreationLock) {
+      return getOrCreateRefModule(module);
+    }
+  }
+
+  @NotNull
+  private RefModule getOrCreateRefModule(@NotNull Module module) {
     if (myModules == null) {
       myModules = new THashMap<Module, RefModule>();
     }
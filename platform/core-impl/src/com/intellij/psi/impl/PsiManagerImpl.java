@@ -60,6 +60,7 @@ public class PsiManagerImpl extends PsiManagerEx {
   private final List<PsiTreeChangePreprocessor> myTreeChangePreprocessors = ContainerUtil.createLockFreeCopyOnWriteList();
   private final List<PsiTreeChangeListener> myTreeChangeListeners = ContainerUtil.createLockFreeCopyOnWriteList();
   private boolean myTreeChangeEventIsFiring = false;
+  private PsiFile myFileBeforeTreeChange;
 
   private boolean myIsDisposed;
 
@@ -248,7 +249,7 @@ public class PsiManagerImpl extends PsiManagerEx {
 
   @Override
   public void beforeChildAddition(@NotNull PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILD_ADDITION);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -260,7 +261,7 @@ public class PsiManagerImpl extends PsiManagerEx {
 
   @Override
   public void beforeChildRemoval(@NotNull PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILD_REMOVAL);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -273,7 +274,7 @@ public class PsiManagerImpl extends PsiManagerEx {
 
   @Override
   public void beforeChildReplacement(@NotNull PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILD_REPLACEMENT);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -285,7 +286,7 @@ public class PsiManagerImpl extends PsiManagerEx {
   }
 
   public void beforeChildrenChange(PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILDREN_CHANGE);
     if (LOG.isDebugEnabled()) {
       LOG.debug("beforeChildrenChange: parent = " + event.getParent());
@@ -294,7 +295,7 @@ public class PsiManagerImpl extends PsiManagerEx {
   }
 
   public void beforeChildMovement(PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_CHILD_MOVEMENT);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -307,7 +308,7 @@ public class PsiManagerImpl extends PsiManagerEx {
   }
 
   public void beforePropertyChange(PsiTreeChangeEventImpl event) {
-    beforeChange(true);
+    beforeTreeChange(event);
     event.setCode(PsiTreeChangeEventImpl.PsiEventType.BEFORE_PROPERTY_CHANGE);
     if (LOG.isDebugEnabled()) {
       LOG.debug(
@@ -520,6 +521,25 @@ public class PsiManagerImpl extends PsiManagerEx {
     });
   }
 
+  private void beforeTreeChange(@NotNull PsiTreeChangeEventImpl event) {
+    myFileBeforeTreeChange = event.getFile();
+    try {
+      beforeChange(true);
+    }
+    finally {
+      myFileBeforeTreeChange = null;
+    }
+  }
+
+  /**
+   * @return the file whose PSI is about to change while {@link #ANY_PSI_CHANGE_TOPIC} listeners are notified of it,
+   * or null if the change is not a change of a file tree, e.g. {@link #dropResolveCaches()}
+   */
+  @Nullable
+  public PsiFile getFileBeforeTreeChange() {
+    return myFileBeforeTreeChange;
+  }
+
   @Override
   public void beforeChange(boolean isPhysical) {
     myMessageBus.syncPublisher(ANY_PSI_CHANGE_TOPIC).beforePsiChanged(isPhysical);
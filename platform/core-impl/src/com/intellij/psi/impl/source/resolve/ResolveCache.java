@@ -19,27 +19,48 @@ package com.intellij.psi.impl.source.resolve;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.extensions.Extensions;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.psi.*;
 import com.intellij.psi.impl.AnyPsiChangeListener;
 import com.intellij.psi.impl.PsiManagerImpl;
+import com.intellij.psi.impl.PsiTreeChangePreprocessor;
 import com.intellij.reference.SoftReference;
 import com.intellij.util.containers.ConcurrentWeakHashMap;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.messages.MessageBus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ResolveCache {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.source.resolve.ResolveCache");
   private final ConcurrentMap[] myMaps = new ConcurrentMap[2*2*2]; //boolean physical, boolean incompleteCode, boolean isPoly
   private final RecursionGuard myGuard = RecursionManager.createGuard("resolveCache");
 
+  // results for physical files by the top-level file, null unless the cache is partitioned, see ResolveCache(Project, MessageBus)
+  @Nullable private final ConcurrentMap<PsiFile, FilePartition> myPartitions;
+  @Nullable private final PsiManagerImpl myPsiManager;
+  private final long myBudget;
+  private final AtomicLong myEstimatedSize = new AtomicLong();
+  private final AtomicLong myAccessClock = new AtomicLong();
+  private final Object myEvictionLock = new Object();
+  private final AtomicLong myHits = new AtomicLong();
+  private final AtomicLong myMisses = new AtomicLong();
+  private final AtomicLong myInvalidatedPartitions = new AtomicLong();
+  private final AtomicLong myEvictedPartitions = new AtomicLong();
+
   public static ResolveCache getInstance(Project project) {
     ProgressIndicatorProvider.checkCanceled(); // We hope this method is being called often enough to cancel daemon processes smoothly
     return ServiceManager.getService(project, ResolveCache.class);
@@ -58,13 +79,51 @@ public class ResolveCache {
   }
 
   public ResolveCache(@NotNull MessageBus messageBus) {
+    this(messageBus, null, 0);
+  }
+
+  /**
+   * If the registry says so, keeps the results for each physical file separately: a change of the file drops only its results,
+   * and the others are kept until the out-of-code-block modification count changes. This relies on a
+   * {@link PsiTreeChangePreprocessor} to tell changes inside code blocks, which no one outside the block can refer to,
+   * from other ones; without one all the results are dropped on each change.
+   */
+  public ResolveCache(@NotNull Project project, @NotNull MessageBus messageBus) {
+    this(messageBus, getPartitionedPsiManager(project), Registry.intValue("resolve.cache.per.file.budget.mb") * 1024L * 1024L);
+  }
+
+  /**
+   * @return a cache configured by the registry like the one of the project, which evicts the per-file results beyond the budget
+   */
+  @TestOnly
+  @NotNull
+  public static ResolveCache createWithBudget(@NotNull Project project, long budget) {
+    return new ResolveCache(project.getMessageBus(), getPartitionedPsiManager(project), budget);
+  }
+
+  @Nullable
+  private static PsiManagerImpl getPartitionedPsiManager(@NotNull Project project) {
+    return Registry.is("resolve.cache.per.file") && Extensions.getExtensions(PsiTreeChangePreprocessor.EP_NAME, project).length > 0
+           ? (PsiManagerImpl)PsiManager.getInstance(project) : null;
+  }
+
+  private ResolveCache(@NotNull MessageBus messageBus, @Nullable PsiManagerImpl psiManager, long budget) {
     for (int i = 0; i < myMaps.length; i++) {
       myMaps[i] = createWeakMap();
     }
+    myPsiManager = psiManager;
+    myPartitions = psiManager == null ? null : ResolveCache.<PsiFile, FilePartition>createWeakMap();
+    myBudget = budget;
     messageBus.connect().subscribe(PsiManagerImpl.ANY_PSI_CHANGE_TOPIC, new AnyPsiChangeListener() {
       @Override
       public void beforePsiChanged(boolean isPhysical) {
-        clearCache(isPhysical);
+        if (isPhysical && myPsiManager != null && myPsiManager.getFileBeforeTreeChange() != null) {
+          // partitions are checked against the modification counts when they are used
+          clearMaps(true);
+        }
+        else {
+          clearCache(isPhysical);
+        }
       }
 
       @Override
@@ -78,6 +137,17 @@ public class ResolveCache {
   }
 
   public void clearCache(boolean isPhysical) {
+    clearMaps(isPhysical);
+    if (isPhysical && myPartitions != null) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("All resolve results are dropped, " + getStatistics());
+      }
+      myPartitions.clear();
+      myEstimatedSize.set(0);
+    }
+  }
+
+  private void clearMaps(boolean isPhysical) {
     int startIndex = isPhysical ? 0 : 1;
     for (int i=startIndex;i<2;i++)for (int j=0;j<2;j++)for (int k=0;k<2;k++) myMaps[i*4+j*2+k].clear();
   }
@@ -88,16 +158,23 @@ public class ResolveCache {
                                                                boolean needToPreventRecursion,
                                                                final boolean incompleteCode,
                                                                boolean isPoly,
-                                                               boolean isPhysical) {
+                                                               boolean isPhysical,
+                                                               @Nullable PsiFile containingFile) {
     ProgressIndicatorProvider.checkCanceled();
     ApplicationManager.getApplication().assertReadAccessAllowed();
 
-    ConcurrentMap<TRef, Getter<TResult>> map = getMap(isPhysical, incompleteCode, isPoly);
+    FilePartition partition = null;
+    if (isPhysical && myPartitions != null) {
+      partition = getPartition(containingFile == null ? ref.getElement().getContainingFile() : containingFile);
+    }
+    ConcurrentMap<TRef, Getter<TResult>> map = getMap(partition == null ? myMaps : partition.myMaps, isPhysical, incompleteCode, isPoly);
     Getter<TResult> reference = map.get(ref);
     TResult result = reference == null ? null : reference.get();
-    if (result != null) {
+    if (result != null && (partition == null || isValidResult(result))) {
+      if (partition != null) myHits.incrementAndGet();
       return result;
     }
+    if (partition != null) myMisses.incrementAndGet();
 
     RecursionGuard.StackStamp stamp = myGuard.markStack();
     result = needToPreventRecursion ? myGuard.doPreventingRecursion(Trinity.create(ref, incompleteCode, isPoly), true, new Computable<TResult>() {
@@ -110,11 +187,29 @@ public class ResolveCache {
     LOG.assertTrue(element == null || element.isValid(), result);
 
     if (stamp.mayCacheNow()) {
-      cache(ref, map, result, isPoly);
+      boolean added = cache(ref, map, result, isPoly);
+      if (added && partition != null) {
+        addToSize(partition, estimateSize(result));
+      }
     }
     return result;
   }
 
+  /**
+   * Results of other files may refer to the PSI of a changed code block only if it declares something visible outside,
+   * which changes the out-of-code-block modification count; this is just a safety net.
+   */
+  private static boolean isValidResult(@NotNull Object result) {
+    if (result instanceof PsiElement) return ((PsiElement)result).isValid();
+    if (result instanceof ResolveResult[]) {
+      for (ResolveResult resolveResult : (ResolveResult[])result) {
+        PsiElement element = resolveResult.getElement();
+        if (element != null && !element.isValid()) return false;
+      }
+    }
+    return true;
+  }
+
   @NotNull
   public <T extends PsiPolyVariantReference> ResolveResult[] resolveWithCaching(@NotNull T ref,
                                                                                 @NotNull PolyVariantResolver<T> resolver,
@@ -128,13 +223,14 @@ public class ResolveCache {
                                                                                 boolean needToPreventRecursion,
                                                                                 boolean incompleteCode,
                                                                                 @NotNull PsiFile containingFile) {
-    ResolveResult[] result = resolve(ref, resolver, needToPreventRecursion, incompleteCode, true, containingFile.isPhysical());
+    ResolveResult[] result = resolve(ref, resolver, needToPreventRecursion, incompleteCode, true, containingFile.isPhysical(), containingFile);
     return result == null ? ResolveResult.EMPTY_ARRAY : result;
   }
 
   @Nullable
   public <T extends PsiPolyVariantReference> ResolveResult[] getCachedResults(@NotNull T ref, boolean physical, boolean incompleteCode, boolean isPoly) {
-    Map<T, Getter<ResolveResult[]>> map = getMap(physical, incompleteCode, isPoly);
+    FilePartition partition = physical && myPartitions != null ? getPartition(ref.getElement().getContainingFile()) : null;
+    Map<T, Getter<ResolveResult[]>> map = getMap(partition == null ? myMaps : partition.myMaps, physical, incompleteCode, isPoly);
     Getter<ResolveResult[]> reference = map.get(ref);
     return reference == null ? null : reference.get();
   }
@@ -145,12 +241,128 @@ public class ResolveCache {
                                     @NotNull AbstractResolver<TRef, TResult> resolver,
                                     boolean needToPreventRecursion,
                                     boolean incompleteCode) {
-    return resolve(ref, resolver, needToPreventRecursion, incompleteCode, false, ref.getElement().isPhysical());
+    return resolve(ref, resolver, needToPreventRecursion, incompleteCode, false, ref.getElement().isPhysical(), null);
   }
 
-  private <TRef extends PsiReference,TResult> ConcurrentMap<TRef, Getter<TResult>> getMap(boolean physical, boolean incompleteCode, boolean isPoly) {
+  private static <TRef extends PsiReference,TResult> ConcurrentMap<TRef, Getter<TResult>> getMap(@NotNull ConcurrentMap[] maps,
+                                                                                                  boolean physical,
+                                                                                                  boolean incompleteCode,
+                                                                                                  boolean isPoly) {
     //noinspection unchecked
-    return myMaps[(physical ? 0 : 1)*4 + (incompleteCode ? 0 : 1)*2 + (isPoly ? 0 : 1)];
+    return maps[(physical ? 0 : 1)*4 + (incompleteCode ? 0 : 1)*2 + (isPoly ? 0 : 1)];
+  }
+
+  /**
+   * @return the partition of the top-level file if the cache is partitioned and the file is physical; a partition which is out of date
+   * is replaced with an empty one
+   */
+  @Nullable
+  private FilePartition getPartition(@Nullable PsiFile containingFile) {
+    ConcurrentMap<PsiFile, FilePartition> partitions = myPartitions;
+    if (partitions == null || containingFile == null) return null;
+    PsiFile file = containingFile;
+    PsiElement context = file.getContext();
+    while (context != null) {
+      // results in injected fragments are dropped with the ones of their host
+      file = context.getContainingFile();
+      if (file == null) return null;
+      context = file.getContext();
+    }
+    long outOfCodeBlockCount = myPsiManager.getModificationTracker().getOutOfCodeBlockModificationCount();
+    long fileStamp = file.getModificationStamp();
+    FilePartition partition = partitions.get(file);
+    if (partition != null && (partition.myOutOfCodeBlockCount != outOfCodeBlockCount || partition.myFileStamp != fileStamp)) {
+      if (partitions.remove(file, partition)) {
+        myEstimatedSize.addAndGet(-partition.mySize.get());
+        myInvalidatedPartitions.incrementAndGet();
+      }
+      partition = null;
+    }
+    if (partition == null) {
+      FilePartition newPartition = new FilePartition(outOfCodeBlockCount, fileStamp);
+      partition = partitions.putIfAbsent(file, newPartition);
+      if (partition == null) partition = newPartition;
+    }
+    partition.myLastAccess = myAccessClock.incrementAndGet();
+    return partition;
+  }
+
+  private void addToSize(@NotNull FilePartition partition, long size) {
+    partition.mySize.addAndGet(size);
+    if (myEstimatedSize.addAndGet(size) > myBudget) {
+      evict();
+    }
+  }
+
+  /**
+   * Drops the least recently used partitions until the results take three quarters of the budget.
+   */
+  private void evict() {
+    ConcurrentMap<PsiFile, FilePartition> partitions = myPartitions;
+    if (partitions == null) return;
+    synchronized (myEvictionLock) {
+      List<Map.Entry<PsiFile, FilePartition>> entries = new ArrayList<Map.Entry<PsiFile, FilePartition>>(partitions.entrySet());
+      long size = 0;
+      for (Map.Entry<PsiFile, FilePartition> entry : entries) {
+        size += entry.getValue().mySize.get();
+      }
+      // partitions of collected files are not subtracted when they are gone
+      myEstimatedSize.set(size);
+      if (size <= myBudget) return;
+      Collections.sort(entries, new Comparator<Map.Entry<PsiFile, FilePartition>>() {
+        @Override
+        public int compare(Map.Entry<PsiFile, FilePartition> o1, Map.Entry<PsiFile, FilePartition> o2) {
+          long t1 = o1.getValue().myLastAccess;
+          long t2 = o2.getValue().myLastAccess;
+          return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+        }
+      });
+      long target = myBudget / 4 * 3;
+      for (Map.Entry<PsiFile, FilePartition> entry : entries) {
+        if (myEstimatedSize.get() <= target) break;
+        if (partitions.remove(entry.getKey(), entry.getValue())) {
+          myEstimatedSize.addAndGet(-entry.getValue().mySize.get());
+          myEvictedPartitions.incrementAndGet();
+        }
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Least recently used resolve results are evicted, " + getStatistics());
+      }
+    }
+  }
+
+  /**
+   * A rough number of bytes a cached result takes: the map entry with its references and the array of results.
+   */
+  private static long estimateSize(@Nullable Object result) {
+    return 96 + (result instanceof Object[] ? 16 + 40 * ((Object[])result).length : 0);
+  }
+
+  /**
+   * @return hits and misses of the per-file results and how many partitions were dropped, for profiling; it's also logged
+   * in debug mode when the partitions are evicted or dropped
+   */
+  @NotNull
+  public String getStatistics() {
+    return "hits: " + myHits.get() + ", misses: " + myMisses.get() +
+           ", partitions: " + (myPartitions == null ? 0 : myPartitions.size()) + ", estimated size: " + myEstimatedSize.get() +
+           ", invalidated: " + myInvalidatedPartitions.get() + ", evicted: " + myEvictedPartitions.get();
+  }
+
+  private static class FilePartition {
+    private final ConcurrentMap[] myMaps = new ConcurrentMap[2*2*2]; // only the physical half is used
+    private final long myOutOfCodeBlockCount;
+    private final long myFileStamp;
+    private final AtomicLong mySize = new AtomicLong();
+    private volatile long myLastAccess;
+
+    private FilePartition(long outOfCodeBlockCount, long fileStamp) {
+      myOutOfCodeBlockCount = outOfCodeBlockCount;
+      myFileStamp = fileStamp;
+      for (int i = 0; i < 4; i++) {
+        myMaps[i] = createWeakMap();
+      }
+    }
   }
 
   private static class SoftGetter<T> extends SoftReference<T> implements Getter<T> {
@@ -160,14 +372,17 @@ public class ResolveCache {
   }
   private static final Getter<ResolveResult[]> EMPTY_POLY_RESULT = new StaticGetter<ResolveResult[]>(ResolveResult.EMPTY_ARRAY);
   private static final Getter<Object> NULL_RESULT = new StaticGetter<Object>(null);
-  private static <TRef extends PsiReference, TResult> void cache(@NotNull TRef ref,
-                                                                 @NotNull ConcurrentMap<TRef, Getter<TResult>> map,
-                                                                 TResult result,
-                                                                 boolean isPoly) {
+  /**
+   * @return whether there was no result for the reference
+   */
+  private static <TRef extends PsiReference, TResult> boolean cache(@NotNull TRef ref,
+                                                                    @NotNull ConcurrentMap<TRef, Getter<TResult>> map,
+                                                                    TResult result,
+                                                                    boolean isPoly) {
     // optimization: less contention
     Getter<TResult> cached = map.get(ref);
     if (cached != null && cached.get() == result) {
-      return;
+      return false;
     }
     if (result == null) {
       // no use in creating SoftReference to null
@@ -182,6 +397,6 @@ public class ResolveCache {
     else {
       cached = new SoftGetter<TResult>(result);
     }
-    map.put(ref, cached);
+    return map.put(ref, cached) == null;
   }
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.cache.impl.id;
+
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.InlineKeyDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import gnu.trove.TIntArrayList;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Offsets of the words of a file, so that a search for a word needn't scan the whole text of the file to find its occurrences.
+ * <p/>
+ * Words are the longest runs of java identifier parts other than '$', which is how {@link com.intellij.psi.impl.search.LowLevelSearchUtil}
+ * finds whole words. The offsets are in the text of the file with converted line separators, sorted, and stored as varint deltas.
+ * <p/>
+ * The index is filled only if "indexing.word.positions" is set in the registry at startup, the version of the index depends on it
+ * so that switching it rebuilds the index.
+ */
+public class IdPositionIndex extends FileBasedIndexExtension<IdIndexEntry, TIntArrayList> {
+  @NonNls public static final ID<IdIndexEntry, TIntArrayList> NAME = ID.create("IdPositionIndex");
+
+  private final boolean myEnabled = Registry.is("indexing.word.positions");
+
+  private final FileBasedIndex.InputFilter myInputFilter = new FileBasedIndex.InputFilter() {
+    @Override
+    public boolean acceptInput(final VirtualFile file) {
+      return myEnabled && IdIndex.isIndexable(file.getFileType());
+    }
+  };
+
+  private final DataExternalizer<TIntArrayList> myValueExternalizer = new DataExternalizer<TIntArrayList>() {
+    @Override
+    public void save(final DataOutput out, final TIntArrayList value) throws IOException {
+      DataInputOutputUtil.writeINT(out, value.size());
+      int previous = 0;
+      for (int i = 0; i < value.size(); i++) {
+        int offset = value.getQuick(i);
+        DataInputOutputUtil.writeINT(out, offset - previous);
+        previous = offset;
+      }
+    }
+
+    @Override
+    public TIntArrayList read(final DataInput in) throws IOException {
+      int size = DataInputOutputUtil.readINT(in);
+      TIntArrayList result = new TIntArrayList(size);
+      int offset = 0;
+      for (int i = 0; i < size; i++) {
+        offset += DataInputOutputUtil.readINT(in);
+        result.add(offset);
+      }
+      return result;
+    }
+  };
+
+  private final KeyDescriptor<IdIndexEntry> myKeyDescriptor = new InlineKeyDescriptor<IdIndexEntry>() {
+    @Override
+    public IdIndexEntry fromInt(int n) {
+      return new IdIndexEntry(n);
+    }
+
+    @Override
+    public int toInt(IdIndexEntry idIndexEntry) {
+      return idIndexEntry.getWordHashCode();
+    }
+  };
+
+  private final DataIndexer<IdIndexEntry, TIntArrayList, FileContent> myIndexer = new DataIndexer<IdIndexEntry, TIntArrayList, FileContent>() {
+    @Override
+    @NotNull
+    public Map<IdIndexEntry, TIntArrayList> map(final FileContent inputData) {
+      if (!myEnabled) return Collections.emptyMap();
+
+      final CharSequence text = inputData.getContentAsText();
+      final Map<IdIndexEntry, TIntArrayList> result = new THashMap<IdIndexEntry, TIntArrayList>();
+      int start = -1;
+      for (int i = 0; i <= text.length(); i++) {
+        boolean wordPart = i < text.length() && isWordPart(text.charAt(i));
+        if (wordPart && start < 0) {
+          start = i;
+        }
+        else if (!wordPart && start >= 0) {
+          IdIndexEntry entry = new IdIndexEntry(text.subSequence(start, i).toString(), true);
+          TIntArrayList offsets = result.get(entry);
+          if (offsets == null) {
+            offsets = new TIntArrayList(1);
+            result.put(entry, offsets);
+          }
+          offsets.add(start);
+          start = -1;
+        }
+      }
+      return result;
+    }
+  };
+
+  public static boolean isWordPart(char c) {
+    return Character.isJavaIdentifierPart(c) && c != '$';
+  }
+
+  /**
+   * @param word a sequence of {@link #isWordPart(char) word parts}
+   * @return sorted offsets where the word or a word with the same hash starts in the text of the file,
+   *         or null if the index doesn't know about the file or can't be used now
+   */
+  @Nullable
+  public static int[] getWordOffsets(@NotNull Project project, @NotNull VirtualFile file, @NotNull String word) {
+    if (!(file instanceof VirtualFileWithId) || DumbService.isDumb(project)) return null;
+
+    final TIntArrayList result = new TIntArrayList();
+    FileBasedIndex.getInstance().processValues(NAME, new IdIndexEntry(word, true), file, new FileBasedIndex.ValueProcessor<TIntArrayList>() {
+      @Override
+      public boolean process(VirtualFile file, TIntArrayList value) {
+        result.add(value.toNativeArray());
+        return true;
+      }
+    }, GlobalSearchScope.fileScope(project, file));
+    // the index is disabled or the word was found by another index which is more up to date
+    if (result.isEmpty()) return null;
+    return result.toNativeArray();
+  }
+
+  @Override
+  public int getVersion() {
+    return myEnabled ? 1 : 0;
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  @NotNull
+  @Override
+  public ID<IdIndexEntry, TIntArrayList> getName() {
+    return NAME;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<IdIndexEntry, TIntArrayList, FileContent> getIndexer() {
+    return myIndexer;
+  }
+
+  @Override
+  public DataExternalizer<TIntArrayList> getValueExternalizer() {
+    return myValueExternalizer;
+  }
+
+  @Override
+  public KeyDescriptor<IdIndexEntry> getKeyDescriptor() {
+    return myKeyDescriptor;
+  }
+
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return myInputFilter;
+  }
+}
@@ -19,20 +19,25 @@ package com.intellij.psi.impl.search;
 import com.intellij.lang.ASTNode;
 import com.intellij.lang.injection.InjectedLanguageManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiLanguageInjectionHost;
+import com.intellij.psi.impl.cache.impl.id.IdPositionIndex;
 import com.intellij.psi.impl.source.tree.LeafElement;
 import com.intellij.psi.impl.source.tree.TreeElement;
 import com.intellij.psi.search.TextOccurenceProcessor;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.text.CharArrayUtil;
 import com.intellij.util.text.StringSearcher;
+import gnu.trove.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -162,9 +167,20 @@ public class LowLevelSearchUtil {
       LOG.error("Range for element: '"+scope+"' = "+range+" is out of file '" + file + "' range: " + file.getTextLength());
     }
 
+    Project project = file.getProject();
+    if (scope == file && scopeStart == 0 && endOffset == buffer.length()) {
+      int[] offsets = getIndexedOccurrences(file, buffer, searcher);
+      if (offsets != null) {
+        for (int offset : offsets) {
+          if (progress != null) progress.checkCanceled();
+          if (!processTreeUp(project, processor, scope, searcher, offset, processInjectedPsi, progress)) return false;
+        }
+        return true;
+      }
+    }
+
     final char[] bufferArray = CharArrayUtil.fromSequenceWithoutCopying(buffer);
 
-    Project project = file.getProject();
     do {
       if (progress != null) progress.checkCanceled();
       startOffset  = searchWord(buffer, bufferArray, startOffset, endOffset, searcher, progress);
@@ -180,6 +196,42 @@ public class LowLevelSearchUtil {
     return true;
   }
 
+  /**
+   * @return offsets of the whole word occurrences of the pattern in the text of the file, found by {@link IdPositionIndex},
+   *         or null if the text of the file should be scanned instead
+   */
+  @Nullable
+  static int[] getIndexedOccurrences(@NotNull PsiFile file, @NotNull CharSequence text, @NotNull StringSearcher searcher) {
+    if (!Registry.is("indexing.word.positions")) return null;
+    String pattern = searcher.getPattern();
+    if (pattern.isEmpty() || !searcher.isCaseSensitive() || searcher.isHandleEscapeSequences()) return null;
+    for (int i = 0; i < pattern.length(); i++) {
+      if (!IdPositionIndex.isWordPart(pattern.charAt(i))) return null;
+    }
+    VirtualFile virtualFile = file.getViewProvider().getVirtualFile();
+    // the index doesn't know about unsaved changes
+    if (FileDocumentManager.getInstance().isFileModified(virtualFile)) return null;
+    int[] offsets = IdPositionIndex.getWordOffsets(file.getProject(), virtualFile, pattern);
+    return offsets == null ? null : getWholeWordOccurrences(offsets, text, pattern);
+  }
+
+  /**
+   * @param offsets where the pattern or another word with the same hash starts
+   * @return the offsets where the pattern occurs in the text as a whole word
+   */
+  @NotNull
+  static int[] getWholeWordOccurrences(@NotNull int[] offsets, @NotNull CharSequence text, @NotNull String pattern) {
+    TIntArrayList result = new TIntArrayList(offsets.length);
+    for (int offset : offsets) {
+      int end = offset + pattern.length();
+      if (end > text.length() || !StringUtil.startsWith(text, offset, pattern)) continue;
+      if (offset > 0 && IdPositionIndex.isWordPart(text.charAt(offset - 1))) continue;
+      if (end < text.length() && IdPositionIndex.isWordPart(text.charAt(end))) continue;
+      result.add(offset);
+    }
+    return result.toNativeArray();
+  }
+
   public static int searchWord(@NotNull CharSequence text,
                                int startOffset,
                                int endOffset,
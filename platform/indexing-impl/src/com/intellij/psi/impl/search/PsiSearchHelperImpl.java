@@ -22,6 +22,8 @@ import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.application.ReadActionProcessor;
 import com.intellij.openapi.application.Result;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
@@ -37,8 +39,10 @@ import com.intellij.psi.impl.cache.impl.id.IdIndex;
 import com.intellij.psi.impl.cache.impl.id.IdIndexEntry;
 import com.intellij.psi.search.*;
 import com.intellij.psi.util.PsiUtilCore;
+import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.Processor;
+import com.intellij.util.SmartList;
 import com.intellij.util.codeInsight.CommentUtilCore;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.MultiMap;
@@ -202,7 +206,12 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
       progress.setText(PsiBundle.message("psi.search.for.word.progress", text));
     }
 
-    final AsyncFuture<Boolean> result = processPsiFileRootsAsync(fileSet, new Processor<PsiElement>() {
+    final AsyncFuture<Boolean> result = processPsiFileRootsAsync(fileSet, new Condition<VirtualFile>() {
+      @Override
+      public boolean value(VirtualFile file) {
+        return mayContainOccurrences(file, Collections.singletonList(searcher));
+      }
+    }, new Processor<PsiElement>() {
       @Override
       public boolean process(final PsiElement psiRoot) {
         return ApplicationManager.getApplication().runReadAction(new Computable<Boolean>() {
@@ -222,8 +231,38 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
     });
   }
 
+  /**
+   * Checks the text of a candidate file from the index before its PSI and document are created: most of the files
+   * from the index do contain the words, but those which don't are skipped at the cost of loading the text.
+   * Files whose PSI is already loaded are not checked, PSI has the text already.
+   *
+   * @return false if the file surely has no occurrences
+   */
+  private boolean mayContainOccurrences(@NotNull final VirtualFile file, @NotNull Collection<StringSearcher> searchers) {
+    if (!file.isValid()) return false;
+    // the text of PSI may differ from the one on disk
+    if (file instanceof LightVirtualFile || file.getFileType().isBinary()) return true;
+    boolean loaded = ApplicationManager.getApplication().runReadAction(new Computable<Boolean>() {
+      @Override
+      public Boolean compute() {
+        // a file deleted meanwhile is skipped by the caller
+        return !file.isValid() ||
+               FileDocumentManager.getInstance().getCachedDocument(file) != null ||
+               myManager.getFileManager().getCachedPsiFile(file) != null;
+      }
+    });
+    if (loaded) return true;
+    CharSequence text = LoadTextUtil.loadText(file);
+    char[] textArray = CharArrayUtil.fromSequenceWithoutCopying(text);
+    for (StringSearcher searcher : searchers) {
+      if (LowLevelSearchUtil.searchWord(text, textArray, 0, text.length(), searcher, null) >= 0) return true;
+    }
+    return false;
+  }
+
   @NotNull
   private AsyncFuture<Boolean> processPsiFileRootsAsync(@NotNull List<VirtualFile> files,
+                                                        @NotNull final Condition<VirtualFile> textFilter,
                                                         @NotNull final Processor<PsiElement> psiRootProcessor,
                                                         final ProgressIndicator progress) {
     myManager.startBatchFilesProcessingMode();
@@ -236,12 +275,12 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
       completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgressAsync(files, progress, false, new Processor<VirtualFile>() {
       @Override
       public boolean process(final VirtualFile vfile) {
-        final PsiFile file = ApplicationManager.getApplication().runReadAction(new Computable<PsiFile>() {
+        final PsiFile file = textFilter.value(vfile) ? ApplicationManager.getApplication().runReadAction(new Computable<PsiFile>() {
           @Override
           public PsiFile compute() {
             return vfile.isValid() ? myManager.findFile(vfile) : null;
           }
-        });
+        }) : null;
         if (file != null && !(file instanceof PsiBinaryFile)) {
           file.getViewProvider().getContents(); // load contents outside readaction
           try {
@@ -652,7 +691,16 @@ public class PsiSearchHelperImpl implements PsiSearchHelper {
     }
 
     final AsyncFuture<Boolean> result =
-      processPsiFileRootsAsync(new ArrayList<VirtualFile>(candidateFiles.keySet()), new Processor<PsiElement>() {
+      processPsiFileRootsAsync(new ArrayList<VirtualFile>(candidateFiles.keySet()), new Condition<VirtualFile>() {
+        @Override
+        public boolean value(VirtualFile file) {
+          List<StringSearcher> fileSearchers = new SmartList<StringSearcher>();
+          for (RequestWithProcessor singleRequest : candidateFiles.get(file)) {
+            fileSearchers.add(searchers.get(singleRequest));
+          }
+          return mayContainOccurrences(file, fileSearchers);
+        }
+      }, new Processor<PsiElement>() {
         @Override
         public boolean process(final PsiElement psiRoot) {
           TooManyUsagesStatus.getFrom(progress).pauseProcessingIfTooManyUsages();
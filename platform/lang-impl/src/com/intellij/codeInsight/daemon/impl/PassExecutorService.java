@@ -17,6 +17,7 @@
 package com.intellij.codeInsight.daemon.impl;
 
 import com.intellij.codeHighlighting.HighlightingPass;
+import com.intellij.codeHighlighting.Pass;
 import com.intellij.codeHighlighting.TextEditorHighlightingPass;
 import com.intellij.concurrency.Job;
 import com.intellij.concurrency.JobImpl;
@@ -30,6 +31,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.TextEditor;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
@@ -45,6 +47,7 @@ import com.intellij.util.Consumer;
 import com.intellij.util.SmartList;
 import com.intellij.util.containers.ContainerUtil;
 import gnu.trove.THashMap;
+import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.TestOnly;
@@ -52,6 +55,7 @@ import org.jetbrains.annotations.TestOnly;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * @author cdr
@@ -63,6 +67,12 @@ public abstract class PassExecutorService implements Disposable {
   private final Project myProject;
   private volatile boolean isDisposed;
   private final AtomicInteger nextPassId = new AtomicInteger(100);
+  // pass class -> time in queue and time of collectInformation()
+  private final ConcurrentMap<String, LatencyHistogram[]> myLatencies = new ConcurrentHashMap<String, LatencyHistogram[]>();
+
+  // added to the priority of the job, the pool runs tasks with lower priority values first
+  private static final int SLOW_PASS_PRIORITY_DELTA = 5;
+  private static final int BACKGROUND_EDITOR_PRIORITY_DELTA = 10;
 
   public PassExecutorService(Project project) {
     myProject = project;
@@ -72,6 +82,9 @@ public abstract class PassExecutorService implements Disposable {
   public void dispose() {
     cancelAll(true);
     isDisposed = true;
+    if (LOG.isDebugEnabled() && !myLatencies.isEmpty()) {
+      LOG.debug("Pass latencies:\n" + dumpLatencies());
+    }
   }
 
   public void cancelAll(boolean waitForTermination) {
@@ -103,6 +116,9 @@ public abstract class PassExecutorService implements Disposable {
     // null keys are ok
     Map<Document, List<FileEditor>> documentToEditors = new HashMap<Document, List<FileEditor>>();
     Map<FileEditor, List<TextEditorHighlightingPass>> textPasses = new HashMap<FileEditor, List<TextEditorHighlightingPass>>(passesMap.size());
+    Editor focusedEditor = ApplicationManager.getApplication().isDispatchThread() && !myProject.isDisposed()
+                           ? FileEditorManager.getInstance(myProject).getSelectedTextEditor() : null;
+    Set<Document> focusedDocuments = new THashSet<Document>();
     for (Map.Entry<FileEditor, HighlightingPass[]> entry : passesMap.entrySet()) {
       FileEditor fileEditor = entry.getKey();
       HighlightingPass[] passes = entry.getValue();
@@ -111,6 +127,9 @@ public abstract class PassExecutorService implements Disposable {
         Editor editor = ((TextEditor)fileEditor).getEditor();
         LOG.assertTrue(!(editor instanceof EditorWindow));
         document = editor.getDocument();
+        if (editor == focusedEditor || focusedEditor == null) {
+          focusedDocuments.add(document);
+        }
       }
 
       for (int i = 0; i < passes.length; i++) {
@@ -159,8 +178,10 @@ public abstract class PassExecutorService implements Disposable {
     List<ScheduledPass> freePasses = new ArrayList<ScheduledPass>(documentToEditors.size()*5);
     List<ScheduledPass> dependentPasses = new ArrayList<ScheduledPass>(documentToEditors.size()*10);
     final AtomicInteger threadsToStartCountdown = new AtomicInteger(0);
-    for (List<FileEditor> fileEditors : documentToEditors.values()) {
+    for (Map.Entry<Document, List<FileEditor>> entry : documentToEditors.entrySet()) {
+      List<FileEditor> fileEditors = entry.getValue();
       List<TextEditorHighlightingPass> passes = textPasses.get(fileEditors.get(0));
+      int documentPriority = focusedDocuments.contains(entry.getKey()) ? jobPriority : jobPriority + BACKGROUND_EDITOR_PRIORITY_DELTA;
       threadsToStartCountdown.addAndGet(passes.size());
 
       // create one scheduled pass per unique id (possibly for multiple file editors. they all will be applied at the pass finish)
@@ -180,7 +201,7 @@ public abstract class PassExecutorService implements Disposable {
         }
         if (newId != passId) {
           createScheduledPass(fileEditors, currentPass, toBeSubmitted, passes, freePasses, dependentPasses, updateProgress, threadsToStartCountdown,
-                              jobPriority);
+                              documentPriority);
           passId = newId;
         }
       }
@@ -196,6 +217,23 @@ public abstract class PassExecutorService implements Disposable {
     }
   }
 
+  /**
+   * Passes which highlight what the user looks at go first, the ones computing markers or running inspections for the whole file
+   * and the passes of editors other than the selected one wait for free threads.
+   */
+  private static int getPassPriority(@NotNull TextEditorHighlightingPass pass, int documentPriority) {
+    switch (pass.getId()) {
+      case Pass.UPDATE_FOLDING:
+      case Pass.UPDATE_VISIBLE:
+      case Pass.POPUP_HINTS:
+      case Pass.UPDATE_ALL:
+      case Pass.VISIBLE_LINE_MARKERS:
+        return documentPriority;
+      default:
+        return documentPriority + SLOW_PASS_PRIORITY_DELTA;
+    }
+  }
+
   @NotNull
   private ScheduledPass createScheduledPass(@NotNull List<FileEditor> fileEditors,
                                             @NotNull TextEditorHighlightingPass pass,
@@ -211,7 +249,7 @@ public abstract class PassExecutorService implements Disposable {
     Pair<Document, Integer> key = Pair.create(document, passId);
     ScheduledPass scheduledPass = toBeSubmitted.get(key);
     if (scheduledPass != null) return scheduledPass;
-    scheduledPass = new ScheduledPass(fileEditors, pass, updateProgress, threadsToStartCountdown, jobPriority);
+    scheduledPass = new ScheduledPass(fileEditors, pass, updateProgress, threadsToStartCountdown, getPassPriority(pass, jobPriority));
     toBeSubmitted.put(key, scheduledPass);
     for (int predecessorId : pass.getCompletionPredecessorIds()) {
       ScheduledPass predecessor = findOrCreatePredecessorPass(fileEditors, document, toBeSubmitted, textEditorHighlightingPasses, freePasses, dependentPasses,
@@ -271,6 +309,7 @@ public abstract class PassExecutorService implements Disposable {
 
   private void submit(@NotNull ScheduledPass pass) {
     if (!pass.myUpdateProgress.isCanceled()) {
+      pass.mySubmitTime = System.currentTimeMillis();
       Job<Void> job = JobLauncher.getInstance().submitToJobThread(pass.myJobPriority, pass, new Consumer<Future>() {
         @Override
         public void consume(Future future) {
@@ -301,6 +340,9 @@ public abstract class PassExecutorService implements Disposable {
     private final Collection<ScheduledPass> mySuccessorsOnCompletion = new ArrayList<ScheduledPass>();
     private final Collection<ScheduledPass> mySuccessorsOnSubmit = new ArrayList<ScheduledPass>();
     private final DaemonProgressIndicator myUpdateProgress;
+    // the result would not be shown, so the pass neither collects nor applies it, and the file stays dirty for it
+    private final boolean myEditorsHidden;
+    private volatile long mySubmitTime;
 
     private ScheduledPass(@NotNull List<FileEditor> fileEditors,
                           @NotNull TextEditorHighlightingPass pass,
@@ -313,6 +355,7 @@ public abstract class PassExecutorService implements Disposable {
       myJobPriority = jobPriority;
       myRunningPredecessorsCount = new AtomicInteger(0);
       myUpdateProgress = progressIndicator;
+      myEditorsHidden = areHidden(fileEditors);
     }
 
     @Override
@@ -334,6 +377,7 @@ public abstract class PassExecutorService implements Disposable {
       if (myUpdateProgress.isCanceled()) return;
 
       log(myUpdateProgress, myPass, "Started. ");
+      final long started = System.currentTimeMillis();
 
       for (ScheduledPass successor : mySuccessorsOnSubmit) {
         int predecessorsToRun = successor.myRunningPredecessorsCount.decrementAndGet();
@@ -353,7 +397,10 @@ public abstract class PassExecutorService implements Disposable {
                   return;
                 }
 
-                if (!myUpdateProgress.isCanceled()) {
+                if (myEditorsHidden) {
+                  log(myUpdateProgress, myPass, "Skipped for hidden editors ");
+                }
+                else if (!myUpdateProgress.isCanceled()) {
                   myPass.collectInformation(myUpdateProgress);
                 }
               }
@@ -382,9 +429,10 @@ public abstract class PassExecutorService implements Disposable {
       }, myUpdateProgress);
 
       log(myUpdateProgress, myPass, "Finished. ");
+      recordLatency(myPass, started - mySubmitTime, System.currentTimeMillis() - started);
 
       if (!myUpdateProgress.isCanceled()) {
-        applyInformationToEditorsLater(myFileEditors, myPass, myUpdateProgress, myThreadsToStartCountdown);
+        applyInformationToEditorsLater(myFileEditors, myPass, myUpdateProgress, myThreadsToStartCountdown, myEditorsHidden);
         for (ScheduledPass successor : mySuccessorsOnCompletion) {
           int predecessorsToRun = successor.myRunningPredecessorsCount.decrementAndGet();
           if (predecessorsToRun == 0) {
@@ -401,15 +449,81 @@ public abstract class PassExecutorService implements Disposable {
     }
   }
 
+  /**
+   * Passes of editors which aren't shown are not run; they complete at once and let their successors finish the same way.
+   * Swing components may only be queried in the event dispatch thread, so the editors are considered shown when the passes
+   * are submitted from another one.
+   */
+  private boolean areHidden(@NotNull List<FileEditor> fileEditors) {
+    if (!ApplicationManager.getApplication().isDispatchThread()) return false;
+    for (FileEditor fileEditor : fileEditors) {
+      if (!isHidden(fileEditor)) return false;
+    }
+    return true;
+  }
+
+  protected boolean isHidden(@NotNull FileEditor fileEditor) {
+    return !ApplicationManager.getApplication().isUnitTestMode() && !fileEditor.getComponent().isDisplayable();
+  }
+
+  private void recordLatency(@NotNull TextEditorHighlightingPass pass, long waited, long collected) {
+    String name = pass.getClass().getName();
+    LatencyHistogram[] histograms = myLatencies.get(name);
+    if (histograms == null) {
+      histograms = ConcurrencyUtil.cacheOrGet(myLatencies, name, new LatencyHistogram[]{new LatencyHistogram(), new LatencyHistogram()});
+    }
+    histograms[0].add(waited);
+    histograms[1].add(collected);
+  }
+
+  /**
+   * @return for each pass class, how long its passes waited for a thread and how long they collected information
+   */
+  @NotNull
+  public String dumpLatencies() {
+    StringBuilder result = new StringBuilder();
+    for (Map.Entry<String, LatencyHistogram[]> entry : new TreeMap<String, LatencyHistogram[]>(myLatencies).entrySet()) {
+      result.append(entry.getKey()).append(": waited ").append(entry.getValue()[0])
+        .append("; collected ").append(entry.getValue()[1]).append('\n');
+    }
+    return result.toString();
+  }
+
+  /**
+   * Counts of durations by power-of-two buckets of milliseconds: below 1, below 2, below 4 and so on.
+   */
+  static class LatencyHistogram {
+    private static final int BUCKETS = 16;
+    private final AtomicIntegerArray myCounts = new AtomicIntegerArray(BUCKETS);
+
+    void add(long millis) {
+      int bucket = millis <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+      myCounts.incrementAndGet(bucket);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder();
+      for (int i = 0; i < BUCKETS; i++) {
+        int count = myCounts.get(i);
+        if (count == 0) continue;
+        if (result.length() > 0) result.append(", ");
+        result.append(i == BUCKETS - 1 ? ">=" + (1 << (i - 1)) : "<" + (1 << i)).append("ms:").append(count);
+      }
+      return result.toString();
+    }
+  }
+
   private void applyInformationToEditorsLater(@NotNull final List<FileEditor> fileEditors,
                                               @NotNull final TextEditorHighlightingPass pass,
                                               @NotNull final DaemonProgressIndicator updateProgress,
-                                              @NotNull final AtomicInteger threadsToStartCountdown) {
+                                              @NotNull final AtomicInteger threadsToStartCountdown,
+                                              final boolean skipped) {
     final boolean testMode = ApplicationManager.getApplication().isUnitTestMode();
     ApplicationManager.getApplication().invokeLater(new DumbAwareRunnable() {
       @Override
       public void run() {
-        doApplyInformationToEditors(updateProgress, pass, fileEditors, threadsToStartCountdown, testMode);
+        doApplyInformationToEditors(updateProgress, pass, fileEditors, threadsToStartCountdown, testMode, skipped);
       }
     }, ModalityState.stateForComponent(fileEditors.get(0).getComponent()));
   }
@@ -418,7 +532,8 @@ public abstract class PassExecutorService implements Disposable {
                                            @NotNull TextEditorHighlightingPass pass,
                                            @NotNull List<FileEditor> fileEditors,
                                            @NotNull AtomicInteger threadsToStartCountdown,
-                                           boolean testMode) {
+                                           boolean testMode,
+                                           boolean skipped) {
     ApplicationManager.getApplication().assertIsDispatchThread();
     if (isDisposed() || myProject.isDisposed()) {
       updateProgress.cancel();
@@ -427,30 +542,36 @@ public abstract class PassExecutorService implements Disposable {
       log(updateProgress, pass, " is canceled during apply, sorry");
       return;
     }
-    boolean applied = false;
-    for (final FileEditor fileEditor : fileEditors) {
-      LOG.assertTrue(fileEditor != null);
-      try {
-        if (testMode || fileEditor.getComponent().isDisplayable()) {
-          if (!applied) {
-            applied = true;
-            log(updateProgress, pass, " Applied");
-            pass.applyInformationToEditor();
-          }
-          afterApplyInformationToEditor(pass, fileEditor, updateProgress);
-
-          if (pass.isRunIntentionPassAfter() && fileEditor instanceof TextEditor && !updateProgress.isCanceled()) {
-            Editor editor = ((TextEditor)fileEditor).getEditor();
-            ShowIntentionsPass ip = new ShowIntentionsPass(myProject, editor, -1);
-            ip.setId(nextPassId.incrementAndGet());
-            threadsToStartCountdown.incrementAndGet();
-            submit(new ScheduledPass(fileEditors, ip, updateProgress, threadsToStartCountdown, Job.DEFAULT_PRIORITY));
+    if (skipped) {
+      // nothing was collected, applying would wipe out the highlighting and mark the file up to date
+      log(updateProgress, pass, " Not applied to hidden editors");
+    }
+    else {
+      boolean applied = false;
+      for (final FileEditor fileEditor : fileEditors) {
+        LOG.assertTrue(fileEditor != null);
+        try {
+          if (testMode || fileEditor.getComponent().isDisplayable()) {
+            if (!applied) {
+              applied = true;
+              log(updateProgress, pass, " Applied");
+              pass.applyInformationToEditor();
+            }
+            afterApplyInformationToEditor(pass, fileEditor, updateProgress);
+
+            if (pass.isRunIntentionPassAfter() && fileEditor instanceof TextEditor && !updateProgress.isCanceled()) {
+              Editor editor = ((TextEditor)fileEditor).getEditor();
+              ShowIntentionsPass ip = new ShowIntentionsPass(myProject, editor, -1);
+              ip.setId(nextPassId.incrementAndGet());
+              threadsToStartCountdown.incrementAndGet();
+              submit(new ScheduledPass(fileEditors, ip, updateProgress, threadsToStartCountdown, Job.DEFAULT_PRIORITY));
+            }
           }
         }
-      }
-      catch (RuntimeException e) {
-        log(updateProgress, pass, "Error " + e);
-        throw e;
+        catch (RuntimeException e) {
+          log(updateProgress, pass, "Error " + e);
+          throw e;
+        }
       }
     }
     if (threadsToStartCountdown.decrementAndGet() == 0) {
@@ -67,6 +67,8 @@ public class InspectionApplication {
   public String myProfilePath = null;
   public boolean myRunWithEditorSettings = false;
   public boolean myRunGlobalToolsOnly = false;
+  public int myShardCount = 1;
+  public String myShardPath = null;
   private Project myProject;
   private int myVerboseLevel = 0;
   public String myOutputFormat = null;
@@ -74,6 +76,7 @@ public class InspectionApplication {
   public boolean myErrorCodeRequired = true;
 
   @NonNls public static final String DESCRIPTIONS = ".descriptions";
+  @NonNls public static final String TIMINGS = ".timings";
   @NonNls public static final String PROFILE = "profile";
   @NonNls public static final String INSPECTIONS_NODE = "inspections";
   @NonNls public static final String XML_EXTENSION = ".xml";
@@ -120,6 +123,8 @@ public class InspectionApplication {
   private void run() {
 
     File tmpDir = null;
+    File shardsDir = null;
+    InspectionShards shards = null;
     try {
       myProjectPath = myProjectPath.replace(File.separatorChar, '/');
       VirtualFile vfsProject = LocalFileSystem.getInstance().findFileByPath(myProjectPath);
@@ -164,7 +169,11 @@ public class InspectionApplication {
       im.setProfile(inspectionProfile.getName());
 
       final AnalysisScope scope;
-      if (mySourceDirectory == null) {
+      if (myShardPath != null) {
+        scope = new AnalysisScope(myProject, InspectionShards.loadShard(new File(myShardPath)));
+        inspectionContext.setSkipGlobalTools(true);
+      }
+      else if (mySourceDirectory == null) {
         scope = new AnalysisScope(myProject);
       }
       else {
@@ -210,15 +219,32 @@ public class InspectionApplication {
         }
       }
 
+      if (myShardCount > 1 && myShardPath == null && !myRunGlobalToolsOnly) {
+        logMessage(1, "Starting " + myShardCount + " workers");
+        shardsDir = FileUtil.createTempDirectory("inspections", "shards");
+        shards = InspectionShards.start(this, scope, myShardCount, shardsDir, myVerboseLevel >= 2);
+        logMessageLn(1, InspectionsBundle.message("inspection.done"));
+      }
+      final InspectionShards workers = shards;
+
       final List<File> inspectionsResults = new ArrayList<File>();
       ProgressManager.getInstance().runProcess(new Runnable() {
         @Override
         public void run() {
           if (!GlobalInspectionContextUtil.canRunInspections(myProject, false)) {
-            if (myErrorCodeRequired) System.exit(1);
+            if (myErrorCodeRequired) {
+              if (workers != null) workers.destroy();
+              System.exit(1);
+            }
             return;
           }
-          inspectionContext.launchInspectionsOffline(scope, resultsDataPath, myRunGlobalToolsOnly, inspectionsResults);
+          if (workers != null) {
+            // the workers run local tools over the shards of the scope
+            inspectionContext.launchInspectionsOffline(scope, workers.getGlobalOutputPath(), true, new ArrayList<File>());
+          }
+          else {
+            inspectionContext.launchInspectionsOffline(scope, resultsDataPath, myRunGlobalToolsOnly, inspectionsResults);
+          }
           logMessageLn(1, "\n" +
                           InspectionsBundle.message("inspection.capitalized.done") +
                           "\n");
@@ -258,6 +284,17 @@ public class InspectionApplication {
           logMessageLn(2, text);
         }
       });
+      if (shards != null) {
+        logMessage(1, "Waiting for workers");
+        Collection<Integer> failed = shards.waitFor();
+        if (!failed.isEmpty()) {
+          logError("Inspection of shards " + failed + " failed");
+          if (myErrorCodeRequired) System.exit(1);
+          return;
+        }
+        inspectionsResults.addAll(shards.merge(new File(resultsDataPath)));
+        logMessageLn(1, InspectionsBundle.message("inspection.done"));
+      }
       final String descriptionsFile = resultsDataPath + File.separatorChar + DESCRIPTIONS + XML_EXTENSION;
       describeInspections(descriptionsFile,
                           myRunWithEditorSettings ? null : inspectionProfile.getName());
@@ -281,13 +318,23 @@ public class InspectionApplication {
     catch (Throwable e) {
       LOG.error(e);
       logError(e.getMessage());
-      if (myErrorCodeRequired) System.exit(1);
+      if (myErrorCodeRequired) {
+        if (shards != null) shards.destroy();
+        System.exit(1);
+      }
     }
     finally {
+      // workers left running after a failure would keep the shards directory in use
+      if (shards != null) {
+        shards.destroy();
+      }
       // delete tmp dir
       if (tmpDir != null) {
         FileUtil.delete(tmpDir);
       }
+      if (shardsDir != null) {
+        FileUtil.delete(shardsDir);
+      }
     }
   }
 
@@ -418,6 +465,10 @@ public class InspectionApplication {
     myVerboseLevel = verboseLevel;
   }
 
+  public int getVerboseLevel() {
+    return myVerboseLevel;
+  }
+
   private void logMessage(int minVerboseLevel, String message) {
     if (myVerboseLevel >= minVerboseLevel) {
       System.out.print(message);
@@ -93,6 +93,12 @@ public class InspectionMain implements ApplicationStarter {
         else if ("-t".equals(arg)) {
           myApplication.myErrorCodeRequired = false;
         }
+        else if ("-shards".equals(arg)) {
+          myApplication.myShardCount = Integer.parseInt(args[++i]);
+        }
+        else if (InspectionShards.SHARD_OPTION.equals(arg)) {
+          myApplication.myShardPath = args[++i];
+        }
         else {
           System.err.println("unexpected argument: " + arg);
           printHelp();
@@ -103,6 +109,10 @@ public class InspectionMain implements ApplicationStarter {
       e.printStackTrace();
       printHelp();
     }
+    catch (NumberFormatException e) {
+      e.printStackTrace();
+      printHelp();
+    }
 
     myApplication.myRunGlobalToolsOnly = System.getProperty("idea.no.local.inspections") != null;
   }
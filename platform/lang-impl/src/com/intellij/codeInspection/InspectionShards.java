@@ -0,0 +1,365 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection;
+
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiFile;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Offline inspection of a big scope by several worker processes on the same machine.
+ * <p/>
+ * The files of the scope are split into shards of about the same size, and each worker inspects its shard with local tools only,
+ * while global tools, which need the whole scope, run in this process. The reports of the workers and of the global tools
+ * are merged in a stable order, so that the result doesn't depend on the number of shards.
+ * <p/>
+ * A worker runs the same application with its own config and system directories, since the indices can't be shared by processes.
+ * The system directories are kept between runs, so that the workers only update the indices of the changed files next time.
+ */
+@SuppressWarnings({"UseOfSystemOutOrSystemErr"})
+class InspectionShards {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.InspectionShards");
+
+  @NonNls static final String SHARD_OPTION = "-shard";
+  @NonNls private static final String MAIN_CLASS = "com.intellij.idea.Main";
+  @NonNls private static final String SHARDS_SYSTEM_DIR = "inspection-shards";
+  private static final long WORKER_EXIT_TIMEOUT = 10000;
+  @NonNls private static final String[] OWN_JVM_PROPERTIES = {
+    "-D" + PathManager.PROPERTY_SYSTEM_PATH + "=", "-D" + PathManager.PROPERTY_CONFIG_PATH + "=", "-D" + PathManager.PROPERTY_PLUGINS_PATH + "=",
+    "-D" + PathManager.PROPERTY_LOG_PATH + "=", "-agentlib:jdwp", "-Xrunjdwp", "-Xdebug"
+  };
+
+  private final File myGlobalOutputDir;
+  private final List<File> myOutputDirs = new ArrayList<File>();
+  private final List<OSProcessHandler> myWorkers = new ArrayList<OSProcessHandler>();
+  private final Set<Integer> myFailedShards = Collections.synchronizedSet(new TreeSet<Integer>());
+
+  private InspectionShards(@NotNull File dir) {
+    myGlobalOutputDir = new File(dir, "global");
+    myOutputDirs.add(myGlobalOutputDir);
+  }
+
+  /**
+   * Splits the files of the scope into shards and starts a worker for each of them
+   */
+  @NotNull
+  static InspectionShards start(@NotNull InspectionApplication application,
+                                @NotNull AnalysisScope scope,
+                                int shardCount,
+                                @NotNull File dir,
+                                final boolean printOutput) throws IOException, ExecutionException {
+    final List<VirtualFile> files = new ArrayList<VirtualFile>();
+    scope.accept(new PsiElementVisitor() {
+      @Override
+      public void visitFile(PsiFile file) {
+        VirtualFile virtualFile = file.getVirtualFile();
+        if (virtualFile != null) {
+          files.add(virtualFile);
+        }
+      }
+    });
+
+    final InspectionShards shards = new InspectionShards(dir);
+    List<List<VirtualFile>> partition = partition(files, shardCount);
+    boolean started = false;
+    try {
+      startWorkers(application, shards, partition, dir, printOutput);
+      started = true;
+    }
+    finally {
+      if (!started) {
+        shards.destroy();
+      }
+    }
+    return shards;
+  }
+
+  private static void startWorkers(@NotNull InspectionApplication application,
+                                   @NotNull final InspectionShards shards,
+                                   @NotNull List<List<VirtualFile>> partition,
+                                   @NotNull File dir,
+                                   final boolean printOutput) throws IOException, ExecutionException {
+    for (int i = 0; i < partition.size(); i++) {
+      final int shard = i;
+      File shardFile = new File(dir, "shard" + i + ".txt");
+      StringBuilder paths = new StringBuilder();
+      for (VirtualFile file : partition.get(i)) {
+        paths.append(file.getPath()).append('\n');
+      }
+      FileUtil.writeToFile(shardFile, paths.toString());
+      File outputDir = new File(dir, "shard" + i);
+      shards.myOutputDirs.add(outputDir);
+
+      OSProcessHandler handler = new OSProcessHandler(createWorkerCommandLine(application, i, shardFile, outputDir, dir));
+      handler.addProcessListener(new ProcessAdapter() {
+        @Override
+        public void onTextAvailable(ProcessEvent event, Key outputType) {
+          if (printOutput) {
+            System.out.print("[" + shard + "] " + event.getText());
+          }
+        }
+
+        @Override
+        public void processTerminated(ProcessEvent event) {
+          if (event.getExitCode() != 0) {
+            shards.myFailedShards.add(shard);
+          }
+        }
+      });
+      handler.startNotify();
+      shards.myWorkers.add(handler);
+    }
+  }
+
+  /**
+   * Splits the files into the given number of shards, the biggest files first to the shard which is the smallest so far.
+   * The result depends only on the paths and the sizes of the files.
+   */
+  @NotNull
+  static List<List<VirtualFile>> partition(@NotNull Collection<VirtualFile> files, int shardCount) {
+    List<VirtualFile> sorted = new ArrayList<VirtualFile>(files);
+    Collections.sort(sorted, new Comparator<VirtualFile>() {
+      @Override
+      public int compare(VirtualFile o1, VirtualFile o2) {
+        long l1 = o1.getLength();
+        long l2 = o2.getLength();
+        if (l1 != l2) return l1 > l2 ? -1 : 1;
+        return o1.getPath().compareTo(o2.getPath());
+      }
+    });
+    List<List<VirtualFile>> shards = new ArrayList<List<VirtualFile>>(shardCount);
+    long[] sizes = new long[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards.add(new ArrayList<VirtualFile>());
+    }
+    for (VirtualFile file : sorted) {
+      int smallest = 0;
+      for (int i = 1; i < shardCount; i++) {
+        if (sizes[i] < sizes[smallest]) smallest = i;
+      }
+      shards.get(smallest).add(file);
+      // an empty file still costs something to inspect
+      sizes[smallest] += file.getLength() + 1;
+    }
+    return shards;
+  }
+
+  @NotNull
+  private static GeneralCommandLine createWorkerCommandLine(@NotNull InspectionApplication application,
+                                                            int shard,
+                                                            @NotNull File shardFile,
+                                                            @NotNull File outputDir,
+                                                            @NotNull File dir) throws IOException {
+    File configDir = new File(dir, "config" + shard);
+    final File configPath = new File(PathManager.getConfigPath());
+    FileUtil.copyDir(configPath, configDir, new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        // the lock of the running application
+        return !(file.getName().equals("port") && configPath.equals(file.getParentFile()));
+      }
+    });
+    File systemDir = new File(new File(PathManager.getSystemPath(), SHARDS_SYSTEM_DIR), String.valueOf(shard));
+
+    GeneralCommandLine commandLine = new GeneralCommandLine();
+    commandLine.setExePath(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    commandLine.setWorkDirectory(PathManager.getBinPath());
+    for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (!isOwnJvmProperty(argument)) {
+        commandLine.addParameter(argument);
+      }
+    }
+    commandLine.addParameter("-D" + PathManager.PROPERTY_CONFIG_PATH + "=" + configDir.getPath());
+    commandLine.addParameter("-D" + PathManager.PROPERTY_SYSTEM_PATH + "=" + systemDir.getPath());
+    commandLine.addParameter("-D" + PathManager.PROPERTY_PLUGINS_PATH + "=" + PathManager.getPluginsPath());
+    commandLine.addParameters("-classpath", System.getProperty("java.class.path"), MAIN_CLASS);
+
+    commandLine.addParameters("inspect", application.myProjectPath, StringUtil.notNullize(application.myStubProfile), outputDir.getPath());
+    if (application.myProfileName != null) {
+      commandLine.addParameters("-profileName", application.myProfileName);
+    }
+    if (application.myProfilePath != null) {
+      commandLine.addParameters("-profilePath", application.myProfilePath);
+    }
+    if (application.myRunWithEditorSettings) {
+      commandLine.addParameter("-e");
+    }
+    commandLine.addParameters("-v" + application.getVerboseLevel(), SHARD_OPTION, shardFile.getPath());
+    return commandLine;
+  }
+
+  private static boolean isOwnJvmProperty(@NotNull String argument) {
+    for (String prefix : OWN_JVM_PROPERTIES) {
+      if (argument.startsWith(prefix)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return files of the shard which a worker should inspect
+   */
+  @NotNull
+  static List<VirtualFile> loadShard(@NotNull File shardFile) throws IOException {
+    List<VirtualFile> files = new ArrayList<VirtualFile>();
+    LocalFileSystem fileSystem = LocalFileSystem.getInstance();
+    for (String path : StringUtil.splitByLines(FileUtil.loadFile(shardFile))) {
+      VirtualFile file = fileSystem.findFileByPath(path);
+      if (file != null) {
+        files.add(file);
+      }
+      else {
+        LOG.info("File of the shard not found: " + path);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * @return where the global tools should write their results
+   */
+  @NotNull
+  String getGlobalOutputPath() {
+    return myGlobalOutputDir.getPath();
+  }
+
+  /**
+   * @return indices of the shards whose workers have failed
+   */
+  @NotNull
+  Collection<Integer> waitFor() {
+    for (OSProcessHandler worker : myWorkers) {
+      worker.waitFor();
+    }
+    return myFailedShards;
+  }
+
+  /**
+   * Stops the workers which are still running, e.g. when the inspection has failed, and waits a bit for them to exit,
+   * so that their directories can be deleted.
+   */
+  void destroy() {
+    for (OSProcessHandler worker : myWorkers) {
+      if (!worker.isProcessTerminated()) {
+        worker.destroyProcess();
+      }
+    }
+    for (OSProcessHandler worker : myWorkers) {
+      worker.waitFor(WORKER_EXIT_TIMEOUT);
+    }
+  }
+
+  /**
+   * Merges the results of the tools reported by the workers and by the global tools into the output directory.
+   * Problems of each tool are sorted by file and line, so that the same problems always give the same report.
+   *
+   * @return the merged results
+   */
+  @NotNull
+  List<File> merge(@NotNull File outputDir) throws IOException, JDOMException {
+    Map<String, List<File>> toolResults = new TreeMap<String, List<File>>();
+    for (File dir : myOutputDirs) {
+      File[] files = dir.listFiles();
+      if (files == null) continue;
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith(".") || !name.endsWith(InspectionApplication.XML_EXTENSION)) continue;
+        List<File> results = toolResults.get(name);
+        if (results == null) {
+          results = new ArrayList<File>();
+          toolResults.put(name, results);
+        }
+        results.add(file);
+      }
+    }
+
+    outputDir.mkdirs();
+    List<File> merged = new ArrayList<File>();
+    for (Map.Entry<String, List<File>> entry : toolResults.entrySet()) {
+      Element root = null;
+      List<Element> problems = new ArrayList<Element>();
+      for (File file : entry.getValue()) {
+        Element fileRoot = JDOMUtil.loadDocument(file).getRootElement();
+        for (Object child : fileRoot.getChildren()) {
+          problems.add((Element)child);
+        }
+        if (root == null) {
+          root = (Element)fileRoot.clone();
+          root.removeContent();
+        }
+      }
+      assert root != null;
+      sortProblems(problems);
+      for (Element problem : problems) {
+        root.addContent((Element)problem.detach());
+      }
+      File result = new File(outputDir, entry.getKey());
+      JDOMUtil.writeDocument(new Document(root), result, "\n");
+      merged.add(result);
+    }
+
+    File timings = new File(myGlobalOutputDir, InspectionApplication.TIMINGS + InspectionApplication.XML_EXTENSION);
+    if (timings.exists()) {
+      FileUtil.copy(timings, new File(outputDir, timings.getName()));
+    }
+    return merged;
+  }
+
+  static void sortProblems(@NotNull List<Element> problems) {
+    final Map<Element, String> texts = new HashMap<Element, String>();
+    for (Element problem : problems) {
+      texts.put(problem, JDOMUtil.writeElement(problem, "\n"));
+    }
+    Collections.sort(problems, new Comparator<Element>() {
+      @Override
+      public int compare(Element o1, Element o2) {
+        int result = StringUtil.compare(o1.getChildText("file"), o2.getChildText("file"), false);
+        if (result != 0) return result;
+        result = getLine(o1) - getLine(o2);
+        if (result != 0) return result;
+        return texts.get(o1).compareTo(texts.get(o2));
+      }
+    });
+  }
+
+  private static int getLine(@NotNull Element problem) {
+    String line = problem.getChildText("line");
+    return line == null ? 0 : StringUtil.parseInt(line.trim(), 0);
+  }
+}
@@ -46,6 +46,7 @@ import com.intellij.openapi.ui.MessageType;
 import com.intellij.openapi.util.JDOMUtil;
 import com.intellij.openapi.util.NotNullLazyValue;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.ToolWindowId;
@@ -56,6 +57,7 @@ import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.ui.content.*;
 import com.intellij.util.Processor;
 import com.intellij.util.TripleFunction;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.HashMap;
 import com.intellij.util.ui.UIUtil;
 import gnu.trove.THashMap;
@@ -70,10 +72,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 public class GlobalInspectionContextImpl extends GlobalInspectionContextBase implements GlobalInspectionContext {
   private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.ex.GlobalInspectionContextImpl");
@@ -82,6 +81,11 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
   private Content myContent = null;
 
   private AnalysisUIOptions myUIOptions;
+  private boolean mySkipGlobalTools;
+  private final Map<String, Long> myToolTimes = new TreeMap<String, Long>();
+  @Nullable private InspectionResultsCache myResultsCache;
+  @NonNls private static final String TIMINGS_NODE = "timings";
+  @NonNls private static final String GRAPH_TIME = "<graph>";
 
   public GlobalInspectionContextImpl(@NotNull Project project, @NotNull NotNullLazyValue<ContentManager> contentManager) {
     super(project);
@@ -94,6 +98,13 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
     return myContentManager.getValue();
   }
 
+  /**
+   * Global tools need the whole scope, so they are skipped when an offline inspection worker inspects only a shard of it
+   */
+  public void setSkipGlobalTools(boolean skipGlobalTools) {
+    mySkipGlobalTools = skipGlobalTools;
+  }
+
   public synchronized void addView(@NotNull InspectionResultsView view, String title) {
     if (myContent != null) return;
     myContentManager.getValue().addContentManagerListener(new ContentManagerAdapter() {
@@ -143,6 +154,10 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
     setCurrentScope(scope);
 
     DefaultInspectionToolPresentation.setOutputPath(outputPath);
+    InspectionProfile profile = getCurrentProfile();
+    if (outputPath != null && profile != null && Registry.is("inspections.offline.results.cache")) {
+      myResultsCache = InspectionResultsCache.open(getProject(), profile);
+    }
     try {
       ApplicationManager.getApplication().runReadAction(new Runnable() {
         @Override
@@ -203,6 +218,10 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
             }
           });
 
+          if (outputPath != null) {
+            writeToolTimes(outputPath);
+          }
+
           for (Element element : globalTools.keySet()) {
             final String toolName = globalTools.get(element).getShortName();
             element.setAttribute(LOCAL_TOOL_ATTRIBUTE, Boolean.toString(false));
@@ -229,6 +248,10 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
       });
     }
     finally {
+      if (myResultsCache != null) {
+        myResultsCache.close();
+        myResultsCache = null;
+      }
       DefaultInspectionToolPresentation.setOutputPath(null);
     }
   }
@@ -317,7 +340,9 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
     appendPairedInspectionsForUnfairTools(globalTools, globalSimpleTools, localTools);
 
     ((RefManagerImpl)getRefManager()).initializeAnnotators();
-    runGlobalTools(scope, inspectionManager, globalTools);
+    if (!mySkipGlobalTools) {
+      runGlobalTools(scope, inspectionManager, globalTools);
+    }
     if (runGlobalToolsOnly) return;
 
     final PsiManager psiManager = PsiManager.getInstance(getProject());
@@ -347,7 +372,7 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
                                                                    file.getTextLength(), LocalInspectionsPass.EMPTY_PRIORITY_RANGE, true);
         try {
           final List<LocalInspectionToolWrapper> lTools = getWrappersFromTools(localTools, file);
-          pass.doInspectInBatch(GlobalInspectionContextImpl.this, inspectionManager, lTools);
+          inspectLocalTools(virtualFile, pass, inspectionManager, lTools);
 
           JobLauncher.getInstance().invokeConcurrentlyUnderProgress(globalSimpleTools, myProgressIndicator, false, new Processor<Tools>() {
             @Override
@@ -391,40 +416,92 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
     }
   }
 
-  private void runGlobalTools(@NotNull AnalysisScope scope, @NotNull InspectionManagerEx inspectionManager, @NotNull List<Tools> globalTools) {
-    final List<InspectionToolWrapper> needRepeatSearchRequest = new ArrayList<InspectionToolWrapper>();
+  /**
+   * Writes the output of local tools saved in a previous offline run instead of running them if the file and what it depends on
+   * haven't changed since.
+   */
+  private void inspectLocalTools(@NotNull VirtualFile virtualFile,
+                                 @NotNull LocalInspectionsPass pass,
+                                 @NotNull InspectionManagerEx inspectionManager,
+                                 @NotNull List<LocalInspectionToolWrapper> lTools) {
+    InspectionResultsCache cache = myResultsCache;
+    String key = cache == null ? null : cache.getKey(virtualFile);
+    if (key == null) {
+      pass.doInspectInBatch(this, inspectionManager, lTools);
+      return;
+    }
+    Map<String, String> cached = cache.get(virtualFile, key);
+    if (cached != null) {
+      for (Map.Entry<String, String> entry : cached.entrySet()) {
+        DefaultInspectionToolPresentation.appendOutput(entry.getKey(), true, entry.getValue());
+      }
+      return;
+    }
+    DefaultInspectionToolPresentation.startRecordingOutput();
+    boolean completed = false;
+    try {
+      pass.doInspectInBatch(this, inspectionManager, lTools);
+      completed = true;
+    }
+    finally {
+      Map<String, String> output = DefaultInspectionToolPresentation.stopRecordingOutput();
+      if (completed) {
+        cache.put(virtualFile, key, output);
+      }
+    }
+  }
+
+  private void runGlobalTools(@NotNull final AnalysisScope scope,
+                              @NotNull final InspectionManagerEx inspectionManager,
+                              @NotNull List<Tools> globalTools) {
+    final List<InspectionToolWrapper> needRepeatSearchRequest = Collections.synchronizedList(new ArrayList<InspectionToolWrapper>());
+    synchronized (myToolTimes) {
+      myToolTimes.clear();
+    }
 
+    // tools which need the graph annotate it, so they run one after another once it's built; the others are independent
+    List<InspectionToolWrapper> graphTools = new ArrayList<InspectionToolWrapper>();
+    List<List<InspectionToolWrapper>> tasks = new ArrayList<List<InspectionToolWrapper>>();
     for (Tools tools : globalTools) {
       for (ScopeToolState state : tools.getTools()) {
         InspectionToolWrapper toolWrapper = state.getTool();
-        GlobalInspectionTool tool = (GlobalInspectionTool)toolWrapper.getTool();
-        InspectionToolPresentation toolPresentation = getPresentation(toolWrapper);
-        try {
-          if (tool.isGraphNeeded()) {
-            try {
-              ((RefManagerImpl)getRefManager()).findAllDeclarations();
-            }
-            catch (Throwable e) {
-              getStdJobDescriptors().BUILD_GRAPH.setDoneAmount(0);
-              throw e;
-            }
-          }
-          tool.runInspection(scope, inspectionManager, this, toolPresentation);
-          if (tool.queryExternalUsagesRequests(inspectionManager, this, toolPresentation)) {
-            needRepeatSearchRequest.add(toolWrapper);
-          }
+        getPresentation(toolWrapper);
+        if (((GlobalInspectionTool)toolWrapper.getTool()).isGraphNeeded()) {
+          graphTools.add(toolWrapper);
         }
-        catch (ProcessCanceledException e) {
-          throw e;
+        else {
+          tasks.add(Collections.singletonList(toolWrapper));
         }
-        catch (IndexNotReadyException e) {
-          throw e;
-        }
-        catch (Throwable e) {
-          LOG.error(e);
+      }
+    }
+    if (!graphTools.isEmpty() && buildGraph()) {
+      tasks.add(0, graphTools);
+    }
+
+    final IndexNotReadyException[] indexNotReady = new IndexNotReadyException[1];
+    Processor<List<InspectionToolWrapper>> processor = new Processor<List<InspectionToolWrapper>>() {
+      @Override
+      public boolean process(List<InspectionToolWrapper> toolWrappers) {
+        for (InspectionToolWrapper toolWrapper : toolWrappers) {
+          try {
+            runGlobalTool(scope, inspectionManager, toolWrapper, needRepeatSearchRequest);
+          }
+          catch (IndexNotReadyException e) {
+            indexNotReady[0] = e;
+            return false;
+          }
         }
+        return true;
       }
+    };
+    if (Registry.is("inspections.global.tools.parallel")) {
+      JobLauncher.getInstance().invokeConcurrentlyUnderProgress(tasks, myProgressIndicator, true, false, processor);
     }
+    else {
+      ContainerUtil.process(tasks, processor);
+    }
+    if (indexNotReady[0] != null) throw indexNotReady[0];
+
     for (GlobalInspectionContextExtension extension : myExtensions.values()) {
       try {
         extension.performPostRunActivities(needRepeatSearchRequest, this);
@@ -441,6 +518,88 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
     }
   }
 
+  /**
+   * @return false if the graph couldn't be built, so that tools which need it can't run
+   */
+  private boolean buildGraph() {
+    long start = System.currentTimeMillis();
+    try {
+      ((RefManagerImpl)getRefManager()).findAllDeclarations();
+      return true;
+    }
+    catch (ProcessCanceledException e) {
+      throw e;
+    }
+    catch (IndexNotReadyException e) {
+      throw e;
+    }
+    catch (Throwable e) {
+      getStdJobDescriptors().BUILD_GRAPH.setDoneAmount(0);
+      LOG.error(e);
+      return false;
+    }
+    finally {
+      addToolTime(GRAPH_TIME, System.currentTimeMillis() - start);
+    }
+  }
+
+  private void runGlobalTool(@NotNull AnalysisScope scope,
+                             @NotNull InspectionManagerEx inspectionManager,
+                             @NotNull InspectionToolWrapper toolWrapper,
+                             @NotNull List<InspectionToolWrapper> needRepeatSearchRequest) {
+    GlobalInspectionTool tool = (GlobalInspectionTool)toolWrapper.getTool();
+    InspectionToolPresentation toolPresentation = getPresentation(toolWrapper);
+    long start = System.currentTimeMillis();
+    try {
+      tool.runInspection(scope, inspectionManager, this, toolPresentation);
+      if (tool.queryExternalUsagesRequests(inspectionManager, this, toolPresentation)) {
+        needRepeatSearchRequest.add(toolWrapper);
+      }
+    }
+    catch (ProcessCanceledException e) {
+      throw e;
+    }
+    catch (IndexNotReadyException e) {
+      throw e;
+    }
+    catch (Throwable e) {
+      LOG.error(e);
+    }
+    finally {
+      addToolTime(toolWrapper.getShortName(), System.currentTimeMillis() - start);
+    }
+  }
+
+  private void addToolTime(@NotNull String name, long time) {
+    synchronized (myToolTimes) {
+      Long old = myToolTimes.get(name);
+      myToolTimes.put(name, old == null ? time : old + time);
+    }
+  }
+
+  /**
+   * Writes how long each global tool took, in milliseconds, next to the offline results.
+   */
+  private void writeToolTimes(@NotNull String outputPath) {
+    Element root = new Element(TIMINGS_NODE);
+    synchronized (myToolTimes) {
+      if (myToolTimes.isEmpty()) return;
+      for (Map.Entry<String, Long> entry : myToolTimes.entrySet()) {
+        Element tool = new Element("tool");
+        tool.setAttribute("name", entry.getKey());
+        tool.setAttribute("time", String.valueOf(entry.getValue()));
+        root.addContent(tool);
+      }
+    }
+    try {
+      new File(outputPath).mkdirs();
+      JDOMUtil.writeDocument(new Document(root), new File(outputPath, InspectionApplication.TIMINGS + ".xml"), "\n");
+    }
+    catch (IOException e) {
+      LOG.error(e);
+    }
+  }
+
   private void appendPairedInspectionsForUnfairTools(@NotNull List<Tools> globalTools,
                                                      @NotNull List<Tools> globalSimpleTools,
                                                      @NotNull List<Tools> localTools) {
@@ -578,7 +737,7 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
 
   private final Map<InspectionToolWrapper, InspectionToolPresentation> myPresentationMap = new THashMap<InspectionToolWrapper, InspectionToolPresentation>();
   @NotNull
-  public InspectionToolPresentation getPresentation(@NotNull InspectionToolWrapper toolWrapper) {
+  public synchronized InspectionToolPresentation getPresentation(@NotNull InspectionToolWrapper toolWrapper) {
     InspectionToolPresentation presentation = myPresentationMap.get(toolWrapper);
     if (presentation == null) {
       String presentationClass = StringUtil.notNullize(toolWrapper.myEP == null ? null : toolWrapper.myEP.presentation,
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection.ex;
+
+import com.intellij.codeInspection.InspectionProfile;
+import com.intellij.ide.plugins.IdeaPluginDescriptor;
+import com.intellij.ide.plugins.PluginManagerCore;
+import com.intellij.openapi.application.ApplicationInfo;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ContentIterator;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.WriteExternalException;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.FileUtilRt;
+import com.intellij.openapi.vfs.*;
+import com.intellij.psi.stubs.ObjectStubTree;
+import com.intellij.psi.stubs.SerializationManagerEx;
+import com.intellij.psi.stubs.StubTreeLoader;
+import com.intellij.util.Processor;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentHashMap;
+import gnu.trove.THashMap;
+import org.jdom.Element;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Output of local tools of the offline inspection, kept between runs by the path of the file.
+ * <p/>
+ * The output for a file is reused if the content of the file is the same, and so are the inspection profile, the build and the plugins,
+ * and the fingerprint of the dependencies of the file. Local tools resolve references within the module of the file and what
+ * it depends on, and some of them search for usages in the modules which depend on it, so the fingerprint combines the paths and
+ * the structure of the files of all these modules and of their dependencies, and the roots of their libraries and SDKs.
+ * The structure of a file is its stub tree as stored in the index, so editing a method body only invalidates the output
+ * of the edited file; files which can't have stubs are represented by their length and time stamp, and aren't read.
+ * It's computed once per module in a run.
+ * <p/>
+ * The output of the files which don't exist anymore is removed when the cache is opened.
+ */
+class InspectionResultsCache {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.ex.InspectionResultsCache");
+  private static final int VERSION = 1;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final Project myProject;
+  private final File myFile;
+  private final byte[] myEnvironmentHash;
+  @Nullable private PersistentHashMap<String, CachedOutput> myMap;
+  private final Map<Module, byte[]> myModuleFingerprints = new THashMap<Module, byte[]>();
+  private final Map<VirtualFile, byte[]> myContentHashes = new THashMap<VirtualFile, byte[]>();
+  private final Map<VirtualFile, byte[]> myStructureHashes = new THashMap<VirtualFile, byte[]>();
+
+  private InspectionResultsCache(@NotNull Project project, @NotNull File file, @NotNull byte[] environmentHash) throws IOException {
+    myProject = project;
+    myFile = file;
+    myEnvironmentHash = environmentHash;
+    myMap = createMap(file);
+    removeDeletedFiles(myMap);
+  }
+
+  /**
+   * @return null if the cache can't be opened
+   */
+  @Nullable
+  static InspectionResultsCache open(@NotNull Project project, @NotNull InspectionProfile profile) {
+    return open(project, profile, new File(new File(PathManager.getSystemPath(), "inspections"), "results." + VERSION));
+  }
+
+  @Nullable
+  static InspectionResultsCache open(@NotNull Project project, @NotNull InspectionProfile profile, @NotNull File file) {
+    try {
+      return new InspectionResultsCache(project, file, getEnvironmentHash(profile));
+    }
+    catch (IOException e) {
+      LOG.info("Inspection results cache is corrupted, it will be recreated", e);
+      PersistentHashMap.deleteFilesStartingWith(file);
+      try {
+        return new InspectionResultsCache(project, file, getEnvironmentHash(profile));
+      }
+      catch (IOException e1) {
+        LOG.warn(e1);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * @return the key which the output of local tools for the file is valid for, or null if the file can't be cached
+   */
+  @Nullable
+  String getKey(@NotNull VirtualFile file) {
+    Module module = ProjectRootManager.getInstance(myProject).getFileIndex().getModuleForFile(file);
+    if (module == null) return null;
+    MessageDigest digest = createDigest();
+    digest.update(myEnvironmentHash);
+    digest.update(getModuleFingerprint(module));
+    digest.update(getContentHash(file));
+    return toHex(digest.digest());
+  }
+
+  /**
+   * @return output of each local tool by its short name, or null if there is none for the key
+   */
+  @Nullable
+  Map<String, String> get(@NotNull VirtualFile file, @NotNull String key) {
+    if (myMap == null) return null;
+    try {
+      CachedOutput output = myMap.get(file.getPath());
+      return output != null && output.key.equals(key) ? output.output : null;
+    }
+    catch (IOException e) {
+      reset(e);
+      return null;
+    }
+  }
+
+  void put(@NotNull VirtualFile file, @NotNull String key, @NotNull Map<String, String> output) {
+    if (myMap == null) return;
+    try {
+      myMap.put(file.getPath(), new CachedOutput(key, output));
+    }
+    catch (IOException e) {
+      reset(e);
+    }
+  }
+
+  void close() {
+    if (myMap != null) {
+      try {
+        myMap.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+      myMap = null;
+    }
+  }
+
+  private void reset(@NotNull IOException e) {
+    LOG.info("Inspection results cache is corrupted, it will be recreated", e);
+    close();
+    PersistentHashMap.deleteFilesStartingWith(myFile);
+  }
+
+  @NotNull
+  private byte[] getModuleFingerprint(@NotNull Module module) {
+    byte[] fingerprint = myModuleFingerprints.get(module);
+    if (fingerprint != null) return fingerprint;
+
+    final Set<Module> modules = new TreeSet<Module>(new Comparator<Module>() {
+      @Override
+      public int compare(Module o1, Module o2) {
+        return o1.getName().compareTo(o2.getName());
+      }
+    });
+    // the modules which may use the file, and what they see
+    Set<Module> dependents = new HashSet<Module>();
+    ModuleUtilCore.collectModulesDependsOn(module, dependents);
+    for (Module dependent : dependents) {
+      modules.add(dependent);
+      OrderEnumerator.orderEntries(dependent).recursively().forEachModule(new Processor<Module>() {
+        @Override
+        public boolean process(Module module) {
+          modules.add(module);
+          return true;
+        }
+      });
+    }
+
+    final VirtualFile baseDir = myProject.getBaseDir();
+    final Map<String, byte[]> files = new TreeMap<String, byte[]>();
+    for (Module dependency : modules) {
+      ModuleRootManager.getInstance(dependency).getFileIndex().iterateContent(new ContentIterator() {
+        @Override
+        public boolean processFile(VirtualFile file) {
+          if (!file.isDirectory()) {
+            String path = baseDir == null ? null : VfsUtilCore.getRelativePath(file, baseDir, '/');
+            files.put(path == null ? file.getPath() : path, getStructureHash(file));
+          }
+          return true;
+        }
+      });
+    }
+
+    MessageDigest digest = createDigest();
+    for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+      digest.update(entry.getKey().getBytes(UTF_8));
+      digest.update(entry.getValue());
+    }
+    Map<String, String> roots = new TreeMap<String, String>();
+    for (Module dependency : modules) {
+      for (VirtualFile root : OrderEnumerator.orderEntries(dependency).getAllLibrariesAndSdkClassesRoots()) {
+        VirtualFile jar = JarFileSystem.getInstance().getVirtualFileForJar(root);
+        // a downloaded library gets a new time stamp, but the same name and size
+        roots.put(root.getUrl(), String.valueOf(jar != null ? jar.getLength() : root.getTimeStamp()));
+      }
+    }
+    for (Map.Entry<String, String> entry : roots.entrySet()) {
+      digest.update(entry.getKey().getBytes(UTF_8));
+      digest.update(entry.getValue().getBytes(UTF_8));
+    }
+    fingerprint = digest.digest();
+    myModuleFingerprints.put(module, fingerprint);
+    return fingerprint;
+  }
+
+  private static void removeDeletedFiles(@NotNull PersistentHashMap<String, CachedOutput> map) throws IOException {
+    final List<String> deleted = new ArrayList<String>();
+    map.processKeysWithExistingMapping(new Processor<String>() {
+      @Override
+      public boolean process(String path) {
+        if (!new File(path).exists()) {
+          deleted.add(path);
+        }
+        return true;
+      }
+    });
+    for (String path : deleted) {
+      map.remove(path);
+    }
+  }
+
+  @NotNull
+  private byte[] getStructureHash(@NotNull final VirtualFile file) {
+    byte[] hash = myStructureHashes.get(file);
+    if (hash != null) return hash;
+    MessageDigest digest = createDigest();
+    ObjectStubTree tree = null;
+    final StubTreeLoader loader = StubTreeLoader.getInstance();
+    if (loader.canHaveStub(file)) {
+      tree = ApplicationManager.getApplication().runReadAction(new Computable<ObjectStubTree>() {
+        @Override
+        public ObjectStubTree compute() {
+          return loader.readFromVFile(myProject, file);
+        }
+      });
+    }
+    if (tree != null) {
+      BufferExposingByteArrayOutputStream stream = new BufferExposingByteArrayOutputStream();
+      SerializationManagerEx.getInstanceEx().serialize(tree.getRoot(), stream);
+      digest.update(stream.getInternalBuffer(), 0, stream.size());
+    }
+    else {
+      // not indexed yet, or has no structure: any change of the file invalidates the dependent output
+      digest.update((file.getLength() + ":" + file.getTimeStamp()).getBytes(UTF_8));
+    }
+    hash = digest.digest();
+    myStructureHashes.put(file, hash);
+    return hash;
+  }
+
+  @NotNull
+  private byte[] getContentHash(@NotNull VirtualFile file) {
+    byte[] hash = myContentHashes.get(file);
+    if (hash != null) return hash;
+    MessageDigest digest = createDigest();
+    if (file.getFileType().isBinary() || FileUtilRt.isTooLarge(file.getLength())) {
+      digest.update((file.getLength() + ":" + file.getTimeStamp()).getBytes(UTF_8));
+    }
+    else {
+      try {
+        digest.update(file.contentsToByteArray());
+      }
+      catch (IOException e) {
+        // the file will be inspected again next time
+        digest.update(String.valueOf(System.nanoTime()).getBytes(UTF_8));
+      }
+    }
+    hash = digest.digest();
+    myContentHashes.put(file, hash);
+    return hash;
+  }
+
+  @NotNull
+  private static byte[] getEnvironmentHash(@NotNull InspectionProfile profile) {
+    MessageDigest digest = createDigest();
+    digest.update(ApplicationInfo.getInstance().getBuild().asString().getBytes(UTF_8));
+    for (IdeaPluginDescriptor plugin : PluginManagerCore.getPlugins()) {
+      if (plugin.isEnabled()) {
+        digest.update((plugin.getPluginId().getIdString() + ":" + plugin.getVersion()).getBytes(UTF_8));
+      }
+    }
+    String settings = profile.getName();
+    if (profile instanceof InspectionProfileImpl) {
+      try {
+        @NonNls Element element = new Element("profile");
+        ((InspectionProfileImpl)profile).writeExternal(element);
+        settings = JDOMUtil.writeElement(element, "\n");
+      }
+      catch (WriteExternalException e) {
+        LOG.info(e);
+      }
+    }
+    digest.update(settings.getBytes(UTF_8));
+    return digest.digest();
+  }
+
+  @NotNull
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @NotNull
+  private static String toHex(@NotNull byte[] bytes) {
+    StringBuilder result = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return result.toString();
+  }
+
+  @NotNull
+  private static PersistentHashMap<String, CachedOutput> createMap(@NotNull File file) throws IOException {
+    file.getParentFile().mkdirs();
+    return new PersistentHashMap<String, CachedOutput>(file, new EnumeratorStringDescriptor(), new DataExternalizer<CachedOutput>() {
+      @Override
+      public void save(DataOutput out, CachedOutput value) throws IOException {
+        out.writeUTF(value.key);
+        out.writeInt(value.output.size());
+        for (Map.Entry<String, String> entry : value.output.entrySet()) {
+          out.writeUTF(entry.getKey());
+          IOUtil.writeString(entry.getValue(), out);
+        }
+      }
+
+      @Override
+      public CachedOutput read(DataInput in) throws IOException {
+        String key = in.readUTF();
+        int size = in.readInt();
+        Map<String, String> output = new LinkedHashMap<String, String>(size);
+        for (int i = 0; i < size; i++) {
+          output.put(in.readUTF(), IOUtil.readString(in));
+        }
+        return new CachedOutput(key, output);
+      }
+    });
+  }
+
+  private static class CachedOutput {
+    private final String key;
+    private final Map<String, String> output;
+
+    private CachedOutput(@NotNull String key, @NotNull Map<String, String> output) {
+      this.key = key;
+      this.output = output;
+    }
+  }
+}
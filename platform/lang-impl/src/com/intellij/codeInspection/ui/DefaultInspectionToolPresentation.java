@@ -61,6 +61,7 @@ public class DefaultInspectionToolPresentation implements ProblemDescriptionsPro
   protected InspectionNode myToolNode;
 
   private static final Object lock = new Object();
+  private static final ThreadLocal<Map<String, String>> ourRecordedOutput = new ThreadLocal<Map<String, String>>();
   private Map<RefEntity, CommonProblemDescriptor[]> myProblemElements;
   private Map<String, Set<RefEntity>> myContents = null;
   private Set<RefModule> myModulesProblems = null;
@@ -244,9 +245,35 @@ public class DefaultInspectionToolPresentation implements ProblemDescriptionsPro
     exportResults(descriptions, refElement, parentNode);
     final List list = parentNode.getChildren();
 
-    @NonNls final String ext = ".xml";
-    final String fileName = ourOutputPath + File.separator + myToolWrapper.getShortName() + ext;
     final PathMacroManager pathMacroManager = PathMacroManager.getInstance(getContext().getProject());
+    final CharArrayWriter writer = new CharArrayWriter();
+    try {
+      for (Object o : list) {
+        final Element element = (Element)o;
+        pathMacroManager.collapsePaths(element);
+        JDOMUtil.writeElement(element, writer, "\n");
+      }
+    }
+    catch (IOException e) {
+      LOG.error(e);
+      return;
+    }
+    final String problems = writer.toString();
+    final String shortName = myToolWrapper.getShortName();
+    final Map<String, String> recorded = ourRecordedOutput.get();
+    if (recorded != null) {
+      final String previous = recorded.get(shortName);
+      recorded.put(shortName, previous == null ? problems : previous + "\n" + problems);
+    }
+    appendOutput(shortName, myToolWrapper instanceof LocalInspectionToolWrapper, problems);
+  }
+
+  /**
+   * Appends problems exported by a tool to its file in the output directory of the offline inspection.
+   */
+  public static void appendOutput(@NotNull String toolShortName, boolean local, @NotNull String problems) {
+    @NonNls final String ext = ".xml";
+    final String fileName = ourOutputPath + File.separator + toolShortName + ext;
     PrintWriter printWriter = null;
     try {
       new File(ourOutputPath).mkdirs();
@@ -254,13 +281,9 @@ public class DefaultInspectionToolPresentation implements ProblemDescriptionsPro
       final CharArrayWriter writer = new CharArrayWriter();
       if (!file.exists()) {
         writer.append("<").append(InspectionsBundle.message("inspection.problems")).append(" " + GlobalInspectionContextImpl.LOCAL_TOOL_ATTRIBUTE + "=\"")
-          .append(Boolean.toString(myToolWrapper instanceof LocalInspectionToolWrapper)).append("\">\n");
-      }
-      for (Object o : list) {
-        final Element element = (Element)o;
-        pathMacroManager.collapsePaths(element);
-        JDOMUtil.writeElement(element, writer, "\n");
+          .append(Boolean.toString(local)).append("\">\n");
       }
+      writer.append(problems);
       printWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName, true), "UTF-8")));
       printWriter.append("\n");
       printWriter.append(writer.toString());
@@ -275,6 +298,24 @@ public class DefaultInspectionToolPresentation implements ProblemDescriptionsPro
     }
   }
 
+  /**
+   * Starts collecting the output which local tools write in this thread, so that it may be written again by
+   * {@link #appendOutput(String, boolean, String)} without running the tools.
+   */
+  public static void startRecordingOutput() {
+    ourRecordedOutput.set(new LinkedHashMap<String, String>());
+  }
+
+  /**
+   * @return output written since {@link #startRecordingOutput()} by the short name of the tool
+   */
+  @NotNull
+  public static Map<String, String> stopRecordingOutput() {
+    final Map<String, String> recorded = ourRecordedOutput.get();
+    ourRecordedOutput.remove();
+    return recorded == null ? Collections.<String, String>emptyMap() : recorded;
+  }
+
   @Override
   @NotNull
   public Collection<CommonProblemDescriptor> getProblemDescriptors() {
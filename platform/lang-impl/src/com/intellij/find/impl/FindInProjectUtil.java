@@ -17,8 +17,10 @@
 package com.intellij.find.impl;
 
 import com.intellij.BundleBase;
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.find.*;
 import com.intellij.find.ngrams.TrigramIndex;
+import com.intellij.find.ngrams.TrigramQuery;
 import com.intellij.navigation.ItemPresentation;
 import com.intellij.openapi.actionSystem.DataContext;
 import com.intellij.openapi.actionSystem.LangDataKeys;
@@ -29,6 +31,7 @@ import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
 import com.intellij.openapi.fileTypes.FileTypeManager;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
@@ -67,12 +70,15 @@ import com.intellij.util.indexing.FileBasedIndex;
 import gnu.trove.THashSet;
 import gnu.trove.TIntHashSet;
 import gnu.trove.TIntIterator;
+import gnu.trove.TObjectLongHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 public class FindInProjectUtil {
@@ -201,15 +207,11 @@ public class FindInProjectUtil {
     final Collection<PsiFile> psiFiles = getFilesToSearchIn(findModel, project, psiDirectory);
     try {
       final Set<PsiFile> largeFiles = new THashSet<PsiFile>();
-
-      int i = 0;
-      long totalFilesSize = 0;
-      int count = 0;
-      final boolean[] warningShown = {false};
+      final List<PsiFile> filesToScan = new ArrayList<PsiFile>(psiFiles.size());
+      final TObjectLongHashMap<PsiFile> fileLengths = new TObjectLongHashMap<PsiFile>(psiFiles.size());
 
       for (final PsiFile psiFile : psiFiles) {
         final VirtualFile virtualFile = psiFile.getVirtualFile();
-        final int index = i++;
         if (virtualFile == null) continue;
 
         long fileLength = UsageViewManagerImpl.getFileLength(virtualFile);
@@ -221,29 +223,68 @@ public class FindInProjectUtil {
           largeFiles.add(psiFile);
           continue;
         }
+        filesToScan.add(psiFile);
+        fileLengths.put(psiFile, fileLength);
+      }
 
-        if (progress != null) {
-          progress.checkCanceled();
-          progress.setFraction((double)index / psiFiles.size());
-          String text = FindBundle.message("find.searching.for.string.in.file.progress",
-                                           findModel.getStringToFind(), virtualFile.getPresentableUrl());
-          progress.setText(text);
-          progress.setText2(FindBundle.message("find.searching.for.string.in.file.occurrences.progress", count));
-        }
+      final FindModel textModel = createTextFilterModel(findModel);
+      final FindManager findManager = FindManager.getInstance(project);
+      final long start = System.currentTimeMillis();
+      final AtomicInteger processedFiles = new AtomicInteger();
+      final AtomicLong processedBytes = new AtomicLong();
+      final AtomicInteger count = new AtomicInteger();
+      final long[] totalFilesSize = {0};
+      final boolean[] warningShown = {false};
+      final Object usagesLock = new Object();
+
+      // files are read and scanned in parallel, but only the files which contain the string get their documents and
+      // produce usages, one at a time, since the consumer and the search in comments and literals aren't thread-safe
+      JobLauncher.getInstance().invokeConcurrentlyUnderProgress(filesToScan, progress, false, false, new Processor<PsiFile>() {
+        @Override
+        public boolean process(PsiFile psiFile) {
+          final VirtualFile virtualFile = psiFile.getVirtualFile();
+          long fileLength = fileLengths.get(psiFile);
+          if (progress != null) {
+            progress.checkCanceled();
+            String text = FindBundle.message("find.searching.for.string.in.file.progress",
+                                             findModel.getStringToFind(), virtualFile.getPresentableUrl());
+            progress.setText(text);
+          }
 
-        int countInFile = processUsagesInFile(psiFile, findModel, consumer);
+          if (textModel == null || mayContainMatches(virtualFile, textModel, findManager)) {
+            String warning = null;
+            synchronized (usagesLock) {
+              int countInFile = processUsagesInFile(psiFile, findModel, consumer);
+
+              count.addAndGet(countInFile);
+              if (countInFile > 0) {
+                totalFilesSize[0] += fileLength;
+                if (totalFilesSize[0] > FILES_SIZE_LIMIT && !warningShown[0]) {
+                  warningShown[0] = true;
+                  warning = FindBundle.message("find.excessive.total.size.prompt",
+                                               UsageViewManagerImpl.presentableSize(totalFilesSize[0]),
+                                               ApplicationNamesInfo.getInstance().getProductName());
+                }
+              }
+            }
+            // the other workers keep searching while the user is asked
+            if (warning != null) {
+              UsageLimitUtil.showAndCancelIfAborted(project, warning);
+            }
+          }
 
-        count += countInFile;
-        if (countInFile > 0) {
-          totalFilesSize += fileLength;
-          if (totalFilesSize > FILES_SIZE_LIMIT && !warningShown[0]) {
-            warningShown[0] = true;
-            String message = FindBundle.message("find.excessive.total.size.prompt", UsageViewManagerImpl.presentableSize(totalFilesSize),
-                                                ApplicationNamesInfo.getInstance().getProductName());
-            UsageLimitUtil.showAndCancelIfAborted(project, message);
+          int processed = processedFiles.incrementAndGet();
+          long bytes = processedBytes.addAndGet(fileLength);
+          if (progress != null) {
+            progress.setFraction((double)processed / filesToScan.size());
+            long time = Math.max(System.currentTimeMillis() - start, 1);
+            progress.setText2(FindBundle.message("find.searching.for.string.in.file.speed.progress",
+                                                 FindBundle.message("find.searching.for.string.in.file.occurrences.progress", count.get()),
+                                                 processed * 1000L / time, bytes * 1000L / time / (1024 * 1024)));
           }
+          return true;
         }
-      }
+      });
 
 
       if (!largeFiles.isEmpty()) {
@@ -259,6 +300,47 @@ public class FindInProjectUtil {
     }
   }
 
+  /**
+   * @return the model to tell quickly whether a file has any match, or null if every file should be searched
+   */
+  @Nullable
+  private static FindModel createTextFilterModel(@NotNull FindModel findModel) {
+    if (findModel.getStringToFind().isEmpty()) return null;
+    // a pattern may match within a comment or a literal, but not in the whole text, e.g. when it's anchored to their start
+    if (findModel.isRegularExpressions() && (findModel.isInCommentsOnly() || findModel.isInStringLiteralsOnly())) return null;
+    FindModel textModel = (FindModel)findModel.clone();
+    // a match in comments or literals is a match in the whole text
+    textModel.setInCommentsOnly(false);
+    textModel.setInStringLiteralsOnly(false);
+    textModel.setForward(true);
+    if (textModel.isRegularExpressions() && textModel.compileRegExp() == null) return null;
+    return textModel;
+  }
+
+  /**
+   * Looks for a match in the text of the file without creating its document, unless it's already loaded.
+   */
+  private static boolean mayContainMatches(@NotNull VirtualFile virtualFile,
+                                           @NotNull FindModel textModel,
+                                           @NotNull FindManager findManager) {
+    if (!virtualFile.isValid()) return false;
+    final Document document = FileDocumentManager.getInstance().getCachedDocument(virtualFile);
+    CharSequence text;
+    if (document == null) {
+      text = LoadTextUtil.loadText(virtualFile);
+    }
+    else {
+      text = ApplicationManager.getApplication().runReadAction(new Computable<CharSequence>() {
+        @Override
+        public CharSequence compute() {
+          // a copy, the document may change once the read action is over
+          return document.getText();
+        }
+      });
+    }
+    return findManager.findString(text, 0, textModel, virtualFile).isStringFound();
+  }
+
   private static int processUsagesInFile(@NotNull final PsiFile psiFile,
                                          @NotNull final FindModel findModel,
                                          @NotNull final Processor<UsageInfo> consumer) {
@@ -433,6 +515,18 @@ public class FindInProjectUtil {
     boolean fast = false;
 
     String stringToFind = findModel.getStringToFind();
+    if (findModel.isRegularExpressions()) {
+      TrigramQuery query = TrigramIndex.ENABLED ? TrigramQuery.forRegExp(stringToFind) : null;
+      if (query == null) {
+        return new Pair<Boolean, Collection<PsiFile>>(false, Collections.<PsiFile>emptyList());
+      }
+      for (VirtualFile hit : query.findFiles(scope)) {
+        ContainerUtil.addIfNotNull(resultFiles, pm.findFile(hit));
+      }
+      filterMaskedFiles(resultFiles, fileMaskRegExp);
+      return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
+    }
+
     if (TrigramIndex.ENABLED) {
       TIntHashSet trigrams = TrigramBuilder.buildTrigram(stringToFind);
       TIntIterator it = trigrams.iterator();
@@ -522,8 +616,8 @@ public class FindInProjectUtil {
   }
 
   private static boolean canOptimizeForFastWordSearch(@NotNull final FindModel findModel) {
-    return !findModel.isRegularExpressions()
-           && (findModel.getCustomScope() == null || findModel.getCustomScope() instanceof GlobalSearchScope);
+    // regular expressions are fast only with the trigram query, which requires no more than the expression does
+    return findModel.getCustomScope() == null || findModel.getCustomScope() instanceof GlobalSearchScope;
   }
 
   private static int addToUsages(@NotNull Document document, @NotNull Processor<UsageInfo> consumer, @NotNull FindModel findModel,
@@ -0,0 +1,586 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.util.text.TrigramBuilder;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.indexing.FileBasedIndex;
+import gnu.trove.THashSet;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Trigrams which a text must contain to match a regular expression, as an AND/OR expression over the trigrams of {@link TrigramIndex}.
+ * <p/>
+ * The expression is built from the syntax of the regular expression: a literal requires its trigrams, a concatenation requires
+ * the trigrams of all its parts, an alternation requires the trigrams of one of its alternatives, and anything which may match
+ * an unknown or empty text requires nothing. Short parts are kept as sets of exact strings as long as the sets are small,
+ * so that e.g. "get(Name|Value)" requires the trigrams of "getname" or of "getvalue".
+ * <p/>
+ * Trigrams are case-insensitive, so the same query serves case-sensitive and case-insensitive searches.
+ */
+public class TrigramQuery {
+  private static final int ALL = 0;
+  private static final int TRIGRAMS = 1;
+  private static final int AND = 2;
+  private static final int OR = 3;
+
+  private static final int MAX_EXACT_STRINGS = 16;
+  private static final TrigramQuery ANY_TEXT = new TrigramQuery(ALL, null, Collections.<TrigramQuery>emptyList());
+
+  private final int myOperation;
+  @Nullable private final TIntHashSet myTrigrams;
+  @NotNull private final List<TrigramQuery> myOperands;
+
+  private TrigramQuery(int operation, @Nullable TIntHashSet trigrams, @NotNull List<TrigramQuery> operands) {
+    myOperation = operation;
+    myTrigrams = trigrams;
+    myOperands = operands;
+  }
+
+  /**
+   * @return null if the expression is invalid or may match a text without any trigram known in advance
+   */
+  @Nullable
+  public static TrigramQuery forRegExp(@NotNull String regExp) {
+    try {
+      Pattern.compile(regExp);
+    }
+    catch (PatternSyntaxException e) {
+      return null;
+    }
+    try {
+      RegExpParser parser = new RegExpParser(regExp);
+      TrigramQuery query = parser.parse().toQuery();
+      return query.myOperation == ALL ? null : query;
+    }
+    catch (UnsupportedSyntaxException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return files in the scope which contain the required trigrams
+   */
+  @NotNull
+  public Set<VirtualFile> findFiles(@NotNull GlobalSearchScope scope) {
+    switch (myOperation) {
+      case TRIGRAMS:
+        Set<Integer> keys = new THashSet<Integer>(myTrigrams.size());
+        for (TIntIterator it = myTrigrams.iterator(); it.hasNext(); ) {
+          keys.add(it.next());
+        }
+        Set<VirtualFile> files = new THashSet<VirtualFile>();
+        FileBasedIndex.getInstance().getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(files), scope);
+        return files;
+
+      case AND:
+        Set<VirtualFile> result = null;
+        for (TrigramQuery operand : myOperands) {
+          Set<VirtualFile> operandFiles = operand.findFiles(scope);
+          if (result == null) {
+            result = operandFiles;
+          }
+          else {
+            result.retainAll(operandFiles);
+          }
+          if (result.isEmpty()) break;
+        }
+        return result == null ? new THashSet<VirtualFile>() : result;
+
+      case OR:
+        Set<VirtualFile> union = new THashSet<VirtualFile>();
+        for (TrigramQuery operand : myOperands) {
+          union.addAll(operand.findFiles(scope));
+        }
+        return union;
+
+      default:
+        throw new IllegalStateException("Query requires no trigrams");
+    }
+  }
+
+  @NotNull
+  private static TrigramQuery trigrams(@NotNull String text) {
+    TIntHashSet trigrams = TrigramBuilder.buildTrigram(text);
+    return trigrams.isEmpty() ? ANY_TEXT : new TrigramQuery(TRIGRAMS, trigrams, Collections.<TrigramQuery>emptyList());
+  }
+
+  @NotNull
+  private static TrigramQuery and(@NotNull TrigramQuery q1, @NotNull TrigramQuery q2) {
+    if (q1.myOperation == ALL) return q2;
+    if (q2.myOperation == ALL) return q1;
+    if (q1.myOperation == TRIGRAMS && q2.myOperation == TRIGRAMS) {
+      TIntHashSet trigrams = new TIntHashSet(q1.myTrigrams.toArray());
+      trigrams.addAll(q2.myTrigrams.toArray());
+      return new TrigramQuery(TRIGRAMS, trigrams, Collections.<TrigramQuery>emptyList());
+    }
+    return new TrigramQuery(AND, null, flatten(AND, q1, q2));
+  }
+
+  @NotNull
+  private static TrigramQuery or(@NotNull TrigramQuery q1, @NotNull TrigramQuery q2) {
+    if (q1.myOperation == ALL || q2.myOperation == ALL) return ANY_TEXT;
+    return new TrigramQuery(OR, null, flatten(OR, q1, q2));
+  }
+
+  @NotNull
+  private static List<TrigramQuery> flatten(int operation, @NotNull TrigramQuery q1, @NotNull TrigramQuery q2) {
+    List<TrigramQuery> operands = new ArrayList<TrigramQuery>();
+    for (TrigramQuery query : new TrigramQuery[]{q1, q2}) {
+      if (query.myOperation == operation) {
+        operands.addAll(query.myOperands);
+      }
+      else {
+        operands.add(query);
+      }
+    }
+    return operands;
+  }
+
+  @Override
+  public String toString() {
+    switch (myOperation) {
+      case TRIGRAMS:
+        int[] trigrams = myTrigrams.toArray();
+        Arrays.sort(trigrams);
+        StringBuilder result = new StringBuilder();
+        for (int trigram : trigrams) {
+          if (result.length() > 0) result.append(' ');
+          result.append((char)(trigram >> 16 & 0xFF)).append((char)(trigram >> 8 & 0xFF)).append((char)(trigram & 0xFF));
+        }
+        return result.toString();
+      case AND:
+      case OR:
+        return "(" + StringUtil.join(myOperands, myOperation == AND ? " & " : " | ") + ")";
+      default:
+        return "*";
+    }
+  }
+
+  /**
+   * What a part of the regular expression matches: either one of a few exact strings, or a text which requires the query.
+   */
+  private static class Match {
+    private static final Match EMPTY = new Match(Collections.singleton(""), ANY_TEXT);
+    private static final Match ANY = new Match(null, ANY_TEXT);
+
+    @Nullable private final Set<String> myExact;
+    @NotNull private final TrigramQuery myQuery;
+
+    private Match(@Nullable Set<String> exact, @NotNull TrigramQuery query) {
+      myExact = exact;
+      myQuery = query;
+    }
+
+    @NotNull
+    static Match exact(@NotNull Set<String> strings) {
+      return strings.size() > MAX_EXACT_STRINGS ? new Match(null, toQuery(strings)) : new Match(strings, ANY_TEXT);
+    }
+
+    @NotNull
+    TrigramQuery toQuery() {
+      return myExact == null ? myQuery : toQuery(myExact);
+    }
+
+    @NotNull
+    private static TrigramQuery toQuery(@NotNull Set<String> strings) {
+      TrigramQuery result = null;
+      for (String string : strings) {
+        TrigramQuery query = trigrams(string);
+        result = result == null ? query : or(result, query);
+      }
+      return result == null ? ANY_TEXT : result;
+    }
+
+    @NotNull
+    Match alternate(@NotNull Match other) {
+      if (myExact != null && other.myExact != null) {
+        Set<String> strings = new LinkedHashSet<String>(myExact);
+        strings.addAll(other.myExact);
+        return exact(strings);
+      }
+      return new Match(null, or(toQuery(), other.toQuery()));
+    }
+
+    @NotNull
+    Match optional() {
+      return myExact == null ? ANY : alternate(EMPTY);
+    }
+  }
+
+  private static class UnsupportedSyntaxException extends Exception {
+  }
+
+  /**
+   * Parses the syntax of {@link Pattern}, giving up on the constructs whose matches are hard to tell.
+   */
+  private static class RegExpParser {
+    private final String myText;
+    private int myPos;
+
+    private RegExpParser(@NotNull String text) {
+      myText = text;
+    }
+
+    @NotNull
+    Match parse() throws UnsupportedSyntaxException {
+      Match result = parseAlternation();
+      if (myPos < myText.length()) throw new UnsupportedSyntaxException();
+      return result;
+    }
+
+    private boolean atEnd() {
+      return myPos >= myText.length();
+    }
+
+    private char peek() {
+      return myText.charAt(myPos);
+    }
+
+    private boolean consume(@NotNull String prefix) {
+      if (myText.startsWith(prefix, myPos)) {
+        myPos += prefix.length();
+        return true;
+      }
+      return false;
+    }
+
+    @NotNull
+    private Match parseAlternation() throws UnsupportedSyntaxException {
+      Match result = parseConcatenation();
+      while (consume("|")) {
+        result = result.alternate(parseConcatenation());
+      }
+      return result;
+    }
+
+    /**
+     * Consecutive exact parts are joined into strings, so that the trigrams crossing their boundaries are required too.
+     */
+    @NotNull
+    private Match parseConcatenation() throws UnsupportedSyntaxException {
+      TrigramQuery query = ANY_TEXT;
+      Set<String> strings = Collections.singleton("");
+      boolean exact = true;
+      while (!atEnd() && peek() != '|' && peek() != ')') {
+        Match next = parseRepetition();
+        if (next.myExact != null && strings.size() * next.myExact.size() <= MAX_EXACT_STRINGS) {
+          Set<String> joined = new LinkedHashSet<String>();
+          for (String s1 : strings) {
+            for (String s2 : next.myExact) {
+              joined.add(s1 + s2);
+            }
+          }
+          strings = joined;
+          continue;
+        }
+        exact = false;
+        query = and(query, Match.toQuery(strings));
+        if (next.myExact != null) {
+          strings = next.myExact;
+        }
+        else {
+          query = and(query, next.myQuery);
+          strings = Collections.singleton("");
+        }
+      }
+      return exact ? Match.exact(strings) : new Match(null, and(query, Match.toQuery(strings)));
+    }
+
+    @NotNull
+    private Match parseRepetition() throws UnsupportedSyntaxException {
+      Match result = parseAtom();
+      while (!atEnd()) {
+        char c = peek();
+        if (c == '?' || c == '*') {
+          myPos++;
+          result = c == '?' ? result.optional() : Match.ANY;
+        }
+        else if (c == '+') {
+          myPos++;
+          result = new Match(null, result.toQuery());
+        }
+        else if (c == '{') {
+          int end = myText.indexOf('}', myPos);
+          if (end < 0) throw new UnsupportedSyntaxException();
+          String bounds = myText.substring(myPos + 1, end);
+          myPos = end + 1;
+          int comma = bounds.indexOf(',');
+          int min;
+          try {
+            min = Integer.parseInt((comma < 0 ? bounds : bounds.substring(0, comma)).trim());
+          }
+          catch (NumberFormatException e) {
+            throw new UnsupportedSyntaxException();
+          }
+          if (min == 0) {
+            result = Match.ANY;
+          }
+          else if (!bounds.equals("1")) {
+            result = new Match(null, result.toQuery());
+          }
+        }
+        else {
+          break;
+        }
+        // reluctant and possessive quantifiers match the same texts
+        if (!consume("?")) consume("+");
+      }
+      return result;
+    }
+
+    @NotNull
+    private Match parseAtom() throws UnsupportedSyntaxException {
+      char c = peek();
+      myPos++;
+      switch (c) {
+        case '(':
+          return parseGroup();
+        case '[':
+          return parseCharClass();
+        case '.':
+          return Match.ANY;
+        case '^':
+        case '$':
+          return Match.EMPTY;
+        case '\\':
+          return parseEscape();
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+        case ')':
+          throw new UnsupportedSyntaxException();
+        default:
+          return literal(String.valueOf(c));
+      }
+    }
+
+    @NotNull
+    private Match parseGroup() throws UnsupportedSyntaxException {
+      boolean lookaround = false;
+      if (consume("?")) {
+        if (consume("=") || consume("!") || consume("<=") || consume("<!")) {
+          lookaround = true;
+        }
+        else if (consume(":") || consume(">")) {
+          // non-capturing or independent group
+        }
+        else if (!atEnd() && peek() == '<') {
+          int end = myText.indexOf('>', myPos);
+          if (end < 0) throw new UnsupportedSyntaxException();
+          myPos = end + 1;
+        }
+        else {
+          // flags, either for the rest of the expression or for the group
+          int start = myPos;
+          while (!atEnd() && peek() != ')' && peek() != ':') myPos++;
+          String flags = myText.substring(start, myPos);
+          // whitespace and comments are ignored in this mode, and literal mode has no syntax at all
+          if (flags.contains("x") || atEnd()) throw new UnsupportedSyntaxException();
+          if (consume(")")) return Match.EMPTY;
+          myPos++;
+        }
+      }
+      Match result = parseAlternation();
+      if (!consume(")")) throw new UnsupportedSyntaxException();
+      return lookaround ? Match.EMPTY : result;
+    }
+
+    @NotNull
+    private Match parseCharClass() throws UnsupportedSyntaxException {
+      Set<String> chars = new LinkedHashSet<String>();
+      boolean any = consume("^");
+      boolean first = true;
+      while (true) {
+        if (atEnd()) throw new UnsupportedSyntaxException();
+        char c = peek();
+        if (c == ']' && !first) {
+          myPos++;
+          break;
+        }
+        first = false;
+        if (c == '[' || myText.startsWith("&&", myPos)) {
+          // unions and intersections of classes
+          any = true;
+          skipCharClass();
+          break;
+        }
+        myPos++;
+        char from = c;
+        if (c == '\\') {
+          if (atEnd()) throw new UnsupportedSyntaxException();
+          Character escaped = parseEscapedChar();
+          if (escaped == null) {
+            any = true;
+            continue;
+          }
+          from = escaped.charValue();
+        }
+        if (myText.startsWith("-", myPos) && myPos + 1 < myText.length() && myText.charAt(myPos + 1) != ']') {
+          myPos++;
+          char to = peek();
+          myPos++;
+          if (to == '\\') {
+            Character escaped = parseEscapedChar();
+            if (escaped == null) throw new UnsupportedSyntaxException();
+            to = escaped.charValue();
+          }
+          if (to - from >= MAX_EXACT_STRINGS) {
+            any = true;
+            continue;
+          }
+          for (char ch = from; ch <= to; ch++) {
+            chars.add(String.valueOf(StringUtil.toLowerCase(ch)));
+          }
+        }
+        else {
+          chars.add(String.valueOf(StringUtil.toLowerCase(from)));
+        }
+      }
+      return any || chars.size() > MAX_EXACT_STRINGS ? Match.ANY : Match.exact(chars);
+    }
+
+    private void skipCharClass() throws UnsupportedSyntaxException {
+      int depth = 1;
+      while (depth > 0) {
+        if (atEnd()) throw new UnsupportedSyntaxException();
+        char c = peek();
+        myPos++;
+        if (c == '\\') {
+          myPos++;
+        }
+        else if (c == '[') {
+          depth++;
+        }
+        else if (c == ']') {
+          depth--;
+        }
+      }
+    }
+
+    @NotNull
+    private Match parseEscape() throws UnsupportedSyntaxException {
+      if (atEnd()) throw new UnsupportedSyntaxException();
+      char c = peek();
+      if (c == 'Q') {
+        myPos++;
+        int end = myText.indexOf("\\E", myPos);
+        String quoted = myText.substring(myPos, end < 0 ? myText.length() : end);
+        myPos = end < 0 ? myText.length() : end + 2;
+        return literal(quoted);
+      }
+      if ("bBAGZz".indexOf(c) >= 0) {
+        myPos++;
+        return Match.EMPTY;
+      }
+      if (c == 'k') {
+        int end = myText.indexOf('>', myPos);
+        if (end < 0) throw new UnsupportedSyntaxException();
+        myPos = end + 1;
+        return Match.ANY;
+      }
+      if (Character.isDigit(c) && c != '0') {
+        // back reference
+        while (!atEnd() && Character.isDigit(peek())) myPos++;
+        return Match.ANY;
+      }
+      Character escaped = parseEscapedChar();
+      return escaped == null ? Match.ANY : literal(String.valueOf(escaped.charValue()));
+    }
+
+    /**
+     * @return the character after a backslash, or null for a predefined class of characters
+     */
+    @Nullable
+    private Character parseEscapedChar() throws UnsupportedSyntaxException {
+      char c = peek();
+      myPos++;
+      switch (c) {
+        case 't': return '\t';
+        case 'n': return '\n';
+        case 'r': return '\r';
+        case 'f': return '\f';
+        case 'a': return '\u0007';
+        case 'e': return '\u001B';
+        case 'x':
+          if (consume("{")) {
+            int end = myText.indexOf('}', myPos);
+            if (end < 0) throw new UnsupportedSyntaxException();
+            int code = parseHex(myText.substring(myPos, end));
+            myPos = end + 1;
+            if (code > Character.MAX_VALUE) throw new UnsupportedSyntaxException();
+            return (char)code;
+          }
+          return (char)parseHex(take(2));
+        case 'u':
+          return (char)parseHex(take(4));
+        case 'p':
+        case 'P':
+          if (consume("{")) {
+            int end = myText.indexOf('}', myPos);
+            if (end < 0) throw new UnsupportedSyntaxException();
+            myPos = end + 1;
+          }
+          else {
+            myPos++;
+          }
+          return null;
+        case 'd': case 'D': case 's': case 'S': case 'w': case 'W':
+        case 'h': case 'H': case 'v': case 'V': case 'R': case 'X':
+          return null;
+        default:
+          if (Character.isLetterOrDigit(c)) {
+            // octal, control characters and the rest
+            throw new UnsupportedSyntaxException();
+          }
+          return c;
+      }
+    }
+
+    @NotNull
+    private String take(int length) throws UnsupportedSyntaxException {
+      if (myPos + length > myText.length()) throw new UnsupportedSyntaxException();
+      String result = myText.substring(myPos, myPos + length);
+      myPos += length;
+      return result;
+    }
+
+    private static int parseHex(@NotNull String text) throws UnsupportedSyntaxException {
+      try {
+        return Integer.parseInt(text, 16);
+      }
+      catch (NumberFormatException e) {
+        throw new UnsupportedSyntaxException();
+      }
+    }
+
+    @NotNull
+    private static Match literal(@NotNull String text) {
+      return Match.exact(Collections.singleton(StringUtil.toLowerCase(text)));
+    }
+  }
+}
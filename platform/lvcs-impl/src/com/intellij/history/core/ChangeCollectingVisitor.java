@@ -47,6 +47,10 @@ public class ChangeCollectingVisitor extends ChangeVisitor {
     return myPath;
   }
 
+  public String getProjectId() {
+    return myProjectId;
+  }
+
   @Override
   public void begin(ChangeSet c) throws StopVisitingException {
     myCurrentChangeSet = c;
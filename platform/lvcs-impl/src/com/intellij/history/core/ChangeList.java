@@ -24,6 +24,7 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.Clock;
 import com.intellij.util.Consumer;
 import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.TestOnly;
 
 import java.util.ArrayList;
@@ -103,6 +104,11 @@ public class ChangeList {
     return true;
   }
 
+  @NotNull
+  public Content storeContent(@NotNull String path, @NotNull Content content) {
+    return myStorage.storeContent(path, content);
+  }
+
   @TestOnly
   public List<ChangeSet> getChangesInTests() {
     List<ChangeSet> result = new ArrayList<ChangeSet>();
@@ -133,20 +139,19 @@ public class ChangeList {
           }
 
           private ChangeSet fetchNext() {
+            // the storage is read without holding the lock so that recording of new changes is not blocked
             if (currentBlock == null) {
               synchronized (ChangeList.this) {
                 if (myCurrentChangeSet != null) {
                   currentBlock = new ChangeSetHolder(-1, myCurrentChangeSet);
                 }
-                else {
-                  currentBlock = myStorage.readPrevious(-1, recursionGuard);
-                }
+              }
+              if (currentBlock == null) {
+                currentBlock = myStorage.readPrevious(-1, recursionGuard);
               }
             }
             else {
-              synchronized (ChangeList.this) {
-                currentBlock = myStorage.readPrevious(currentBlock.id, recursionGuard);
-              }
+              currentBlock = myStorage.readPrevious(currentBlock.id, recursionGuard);
             }
             if (currentBlock == null) return null;
             return currentBlock.changeSet;
@@ -171,6 +176,29 @@ public class ChangeList {
     v.finished();
   }
 
+  /**
+   * Visits change sets in the same order as {@link #accept(ChangeVisitor)}, but reads from the storage only change sets which may affect
+   * the path the visitor currently tracks. The path is requested anew for every change set since it changes on renames and moves.
+   */
+  public void collectChanges(ChangeCollectingVisitor v) {
+    try {
+      ChangeSet current;
+      synchronized (this) {
+        current = myCurrentChangeSet;
+      }
+      if (current != null) current.accept(v);
+
+      ChangeSetHolder block = myStorage.readPreviousAffecting(-1, v.getPath(), v.getProjectId());
+      while (block != null) {
+        block.changeSet.accept(v);
+        block = myStorage.readPreviousAffecting(block.id, v.getPath(), v.getProjectId());
+      }
+    }
+    catch (ChangeVisitor.StopVisitingException e) {
+    }
+    v.finished();
+  }
+
   public synchronized void purgeObsolete(long period) {
     myStorage.purge(period, myIntervalBetweenActivities, new Consumer<ChangeSet>() {
       public void consume(ChangeSet changeSet) {
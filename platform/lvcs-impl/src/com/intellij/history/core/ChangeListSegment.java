@@ -0,0 +1,414 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.history.utils.LocalHistoryLog;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.DataInputOutputUtil;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectProcedure;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * One file of the append-only change set log. A segment holds change sets with consecutive record ids starting from {@link #getFirstRecordId()}.
+ * Only the last segment of the log is appended to; when it is sealed, offsets and timestamps of its records are saved next to it,
+ * so that the segment is not scanned on the next start.
+ * <p/>
+ * Each segment also indexes its records by {@link ChangeSetKeys}. The index of the segment being appended to is kept in memory,
+ * indices of sealed segments are saved together with their record tables and loaded on demand.
+ * <p/>
+ * Appending is done by a single writer, records are read from any thread: a record becomes visible to readers only after it has
+ * been completely written. The file is accessed through {@link RandomAccessFile} rather than a channel, since an interrupted reader
+ * would close a channel for everyone. Records are written straight to the file without buffering, but the file is not synced:
+ * an appended record survives a crash of the IDE, not necessarily of the OS.
+ */
+class ChangeListSegment {
+  private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 4; // record id, timestamp, last id, data length
+  private static final String INDEX_SUFFIX = ".index";
+
+  private final File myDataFile;
+  private final RandomAccessFile myFile; // guarded by itself, since reading and writing moves the file pointer
+  private final int myFirstRecordId;
+
+  private volatile long[] myOffsets;
+  private volatile long[] myTimestamps;
+  private volatile int myCount;
+  private long myLength;
+  private long myLastId;
+  private boolean isSealed;
+
+  // key -> ascending ids of records registered under the key
+  private TIntObjectHashMap<TIntArrayList> myPathIndex = new TIntObjectHashMap<TIntArrayList>();
+  private SoftReference<TIntObjectHashMap<TIntArrayList>> mySealedPathIndex;
+  private long myPathIndexOffset;
+
+  private ChangeListSegment(@NotNull File dataFile, int firstRecordId) throws IOException {
+    myDataFile = dataFile;
+    myFirstRecordId = firstRecordId;
+    myFile = new RandomAccessFile(dataFile, "rw");
+    myOffsets = new long[16];
+    myTimestamps = new long[16];
+  }
+
+  @NotNull
+  static ChangeListSegment create(@NotNull File dataFile, int firstRecordId) throws IOException {
+    return new ChangeListSegment(dataFile, firstRecordId);
+  }
+
+  /**
+   * Opens an existing segment. Records of an unsealed segment are scanned; a record left incomplete by a crash is cut off.
+   */
+  @NotNull
+  static ChangeListSegment open(@NotNull File dataFile, int firstRecordId) throws IOException {
+    ChangeListSegment result = new ChangeListSegment(dataFile, firstRecordId);
+    try {
+      if (!result.loadIndex()) result.scan();
+    }
+    catch (IOException e) {
+      result.close();
+      throw e;
+    }
+    return result;
+  }
+
+  public int getFirstRecordId() {
+    return myFirstRecordId;
+  }
+
+  /**
+   * @return id of the last record or {@code getFirstRecordId() - 1} if the segment is empty
+   */
+  public int getLastRecordId() {
+    return myFirstRecordId + myCount - 1;
+  }
+
+  public boolean contains(int recordId) {
+    return recordId >= myFirstRecordId && recordId < myFirstRecordId + myCount;
+  }
+
+  public long getTimestamp(int recordId) {
+    return myTimestamps[recordId - myFirstRecordId];
+  }
+
+  public long getLength() {
+    return myLength;
+  }
+
+  public long getLastId() {
+    return myLastId;
+  }
+
+  public boolean isSealed() {
+    return isSealed;
+  }
+
+  public void append(int recordId, long timestamp, long lastId, byte[] data, int length, int[] keys) throws IOException {
+    assert !isSealed : "segment is sealed: " + myDataFile;
+    assert recordId == myFirstRecordId + myCount : "unexpected record id: " + recordId + " in " + myDataFile;
+
+    ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+    buffer.putInt(recordId).putLong(timestamp).putLong(lastId).putInt(length).put(data, 0, length);
+    synchronized (myFile) {
+      myFile.seek(myLength);
+      myFile.write(buffer.array());
+    }
+
+    addRecord(myLength, timestamp);
+    myLength += RECORD_HEADER_SIZE + length;
+    myLastId = lastId;
+    indexRecord(recordId, keys);
+  }
+
+  /**
+   * @return the greatest id of a record which precedes {@code beforeRecordId} and is registered under one of the keys, or 0 if there is no such record
+   */
+  public synchronized int findPrevious(int beforeRecordId, int[] keys) throws IOException {
+    TIntObjectHashMap<TIntArrayList> index;
+    try {
+      index = getPathIndex();
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.warn("cannot load path index of " + myDataFile + ", records will be scanned", e);
+      return findPreviousByScanning(beforeRecordId, keys);
+    }
+    int result = 0;
+    for (int each : keys) {
+      TIntArrayList ids = index.get(each);
+      if (ids == null) continue;
+
+      int position = ids.binarySearch(beforeRecordId);
+      int previous = (position >= 0 ? position : -position - 1) - 1;
+      if (previous >= 0) result = Math.max(result, ids.get(previous));
+    }
+    return result;
+  }
+
+  private int findPreviousByScanning(int beforeRecordId, int[] keys) throws IOException {
+    TIntHashSet queryKeys = new TIntHashSet(keys);
+    for (int each = Math.min(beforeRecordId - 1, getLastRecordId()); each >= myFirstRecordId; each--) {
+      for (int key : ChangeSetKeys.getKeys(readChangeSet(each))) {
+        if (queryKeys.contains(key)) return each;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @throws CorruptedRecordException if the record was read but is not valid
+   * @throws IOException if the record cannot be read
+   */
+  @NotNull
+  public ChangeSet readChangeSet(int recordId) throws IOException {
+    int index = recordId - myFirstRecordId;
+    if (index < 0 || index >= myCount) throw new IOException("record " + recordId + " is not in " + myDataFile);
+    long offset = myOffsets[index];
+
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    readFully(header, offset);
+    if (header.getInt(0) != recordId) {
+      throw new CorruptedRecordException("unexpected record " + header.getInt(0) + " at offset " + offset + " in " + myDataFile + ", expected " + recordId, null);
+    }
+    ByteBuffer data = ByteBuffer.allocate(header.getInt(RECORD_HEADER_SIZE - 4));
+    readFully(data, offset + RECORD_HEADER_SIZE);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data.array()));
+    try {
+      return new ChangeSet(in);
+    }
+    catch (IOException e) {
+      // the data is in memory already, so it's the record which is broken
+      throw new CorruptedRecordException("cannot read record " + recordId + " at offset " + offset + " in " + myDataFile, e);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Stops appending to the segment and saves its record table and path index.
+   */
+  public synchronized void seal() throws IOException {
+    if (isSealed) return;
+    isSealed = true;
+
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile())));
+    try {
+      int count = myCount;
+      out.writeLong(myLength);
+      out.writeLong(myLastId);
+      out.writeInt(count);
+      for (int i = 0; i < count; i++) {
+        out.writeLong(myOffsets[i]);
+        out.writeLong(myTimestamps[i]);
+      }
+
+      myPathIndexOffset = out.size();
+      DataInputOutputUtil.writeINT(out, myPathIndex.size());
+      final IOException[] exception = new IOException[1];
+      myPathIndex.forEachEntry(new TIntObjectProcedure<TIntArrayList>() {
+        @Override
+        public boolean execute(int key, TIntArrayList ids) {
+          try {
+            out.writeInt(key);
+            DataInputOutputUtil.writeINT(out, ids.size());
+            int prev = myFirstRecordId;
+            for (int i = 0; i < ids.size(); i++) {
+              DataInputOutputUtil.writeINT(out, ids.get(i) - prev);
+              prev = ids.get(i);
+            }
+            return true;
+          }
+          catch (IOException e) {
+            exception[0] = e;
+            return false;
+          }
+        }
+      });
+      if (exception[0] != null) throw exception[0];
+    }
+    finally {
+      out.close();
+    }
+    mySealedPathIndex = new SoftReference<TIntObjectHashMap<TIntArrayList>>(myPathIndex);
+    myPathIndex = null;
+  }
+
+  public void close() {
+    try {
+      myFile.close();
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.warn("cannot close " + myDataFile, e);
+    }
+  }
+
+  public void delete() {
+    close();
+    FileUtil.delete(getIndexFile());
+    FileUtil.delete(myDataFile);
+  }
+
+  private boolean loadIndex() {
+    File indexFile = getIndexFile();
+    if (!indexFile.exists()) return false;
+
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      try {
+        long length = in.readLong();
+        if (length != myFile.length()) return false;
+        long lastId = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          addRecord(in.readLong(), in.readLong());
+        }
+        myLength = length;
+        myLastId = lastId;
+        myPathIndexOffset = 8 + 8 + 4 + count * (8 + 8);
+        myPathIndex = null;
+        isSealed = true;
+        return true;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.info("cannot load index of " + myDataFile + ", the segment will be scanned", e);
+      myCount = 0;
+      return false;
+    }
+  }
+
+  private void scan() throws IOException {
+    long size = myFile.length();
+    long offset = 0;
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    while (offset + RECORD_HEADER_SIZE <= size) {
+      header.clear();
+      readFully(header, offset);
+      int recordId = header.getInt(0);
+      int length = header.getInt(RECORD_HEADER_SIZE - 4);
+      if (recordId != myFirstRecordId + myCount || length < 0 || offset + RECORD_HEADER_SIZE + length > size) break;
+
+      addRecord(offset, header.getLong(4));
+      myLastId = header.getLong(12);
+      offset += RECORD_HEADER_SIZE + length;
+      indexRecord(recordId, ChangeSetKeys.getKeys(readChangeSet(recordId)));
+    }
+    if (offset < size) {
+      LocalHistoryLog.LOG.warn("incomplete record at offset " + offset + " in " + myDataFile + " is dropped");
+      myFile.setLength(offset);
+    }
+    myLength = offset;
+  }
+
+  private synchronized void indexRecord(int recordId, int[] keys) {
+    for (int each : keys) {
+      TIntArrayList ids = myPathIndex.get(each);
+      if (ids == null) {
+        ids = new TIntArrayList(1);
+        myPathIndex.put(each, ids);
+      }
+      ids.add(recordId);
+    }
+  }
+
+  private TIntObjectHashMap<TIntArrayList> getPathIndex() throws IOException {
+    if (myPathIndex != null) return myPathIndex;
+
+    TIntObjectHashMap<TIntArrayList> result = mySealedPathIndex == null ? null : mySealedPathIndex.get();
+    if (result == null) {
+      result = loadPathIndex();
+      mySealedPathIndex = new SoftReference<TIntObjectHashMap<TIntArrayList>>(result);
+    }
+    return result;
+  }
+
+  private TIntObjectHashMap<TIntArrayList> loadPathIndex() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getIndexFile())));
+    try {
+      if (in.skip(myPathIndexOffset) != myPathIndexOffset) throw new EOFException("cannot read path index of " + myDataFile);
+
+      int size = DataInputOutputUtil.readINT(in);
+      TIntObjectHashMap<TIntArrayList> result = new TIntObjectHashMap<TIntArrayList>(size);
+      for (int i = 0; i < size; i++) {
+        int key = in.readInt();
+        int count = DataInputOutputUtil.readINT(in);
+        TIntArrayList ids = new TIntArrayList(count);
+        int prev = myFirstRecordId;
+        for (int j = 0; j < count; j++) {
+          prev += DataInputOutputUtil.readINT(in);
+          ids.add(prev);
+        }
+        result.put(key, ids);
+      }
+      return result;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private void addRecord(long offset, long timestamp) {
+    int count = myCount;
+    if (count == myOffsets.length) {
+      // readers may access the arrays concurrently, so replace them instead of modifying in place
+      myOffsets = Arrays.copyOf(myOffsets, count * 2);
+      myTimestamps = Arrays.copyOf(myTimestamps, count * 2);
+    }
+    myOffsets[count] = offset;
+    myTimestamps[count] = timestamp;
+    myCount = count + 1;
+  }
+
+  private void readFully(ByteBuffer buffer, long offset) throws IOException {
+    synchronized (myFile) {
+      if (offset + buffer.capacity() > myFile.length()) {
+        throw new CorruptedRecordException("unexpected end of " + myDataFile + " at offset " + offset, null);
+      }
+      myFile.seek(offset);
+      myFile.readFully(buffer.array(), 0, buffer.capacity());
+    }
+  }
+
+  private File getIndexFile() {
+    return new File(myDataFile.getPath() + INDEX_SUFFIX);
+  }
+
+  @Override
+  public String toString() {
+    return myDataFile.getPath();
+  }
+
+  /**
+   * Thrown when the data of a record is not what it's expected to be, as opposed to an I/O failure which may not happen next time.
+   */
+  static class CorruptedRecordException extends IOException {
+    CorruptedRecordException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+}
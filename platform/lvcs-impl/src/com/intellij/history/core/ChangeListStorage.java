@@ -16,9 +16,11 @@
 
 package com.intellij.history.core;
 
+import com.intellij.history.core.changes.Change;
 import com.intellij.history.core.changes.ChangeSet;
 import com.intellij.util.Consumer;
 import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public interface ChangeListStorage {
@@ -26,10 +28,31 @@ public interface ChangeListStorage {
 
   long nextId();
 
+  /**
+   * May be called from any thread concurrently with {@link #writeNextSet(ChangeSet)} and {@link #purge(long, int, Consumer)}.
+   *
+   * @param id id of the previously read change set or -1 to read the last one
+   */
   @Nullable
   ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard);
 
+  /**
+   * Same as {@link #readPrevious(int, TIntHashSet)} but skips change sets which definitely don't affect the path (see {@link Change#affectsPath(String)})
+   * and don't put labels for the project.
+   *
+   * @param id id of the previously read change set or -1 to read the last one
+   */
+  @Nullable
+  ChangeSetHolder readPreviousAffecting(int id, @NotNull String path, @Nullable String projectId);
+
   void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor);
 
   void writeNextSet(ChangeSet changeSet);
+
+  /**
+   * Takes over the content of a file revision which is about to be recorded and returns the content to be recorded instead,
+   * which may be stored more compactly.
+   */
+  @NotNull
+  Content storeContent(@NotNull String path, @NotNull Content content);
 }
\ No newline at end of file
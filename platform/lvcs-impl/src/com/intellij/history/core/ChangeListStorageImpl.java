@@ -25,31 +25,57 @@ import com.intellij.notification.NotificationListener;
 import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
 import com.intellij.openapi.application.PathManager;
-import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.Clock;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.newvfs.ManagingFS;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.Consumer;
-import com.intellij.util.io.storage.AbstractStorage;
+import com.intellij.util.concurrency.SequentialTaskExecutor;
 import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 import javax.swing.event.HyperlinkEvent;
-import java.io.DataInputStream;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.text.DateFormat;
 import java.text.MessageFormat;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores change sets in an append-only log split into segments ({@link ChangeListSegment}); a new segment is started every day
+ * or when the current one grows too large. Change sets are identified by consecutive record ids.
+ * <p/>
+ * Writing and purging are serialized, reading doesn't take any locks. Purging doesn't rewrite anything: it moves the first valid
+ * record id forward and deletes segments which contain obsolete records only.
+ * <p/>
+ * Contents of changed files are kept in {@link DeltaContentStorage} next to the change sets.
+ */
 public class ChangeListStorageImpl implements ChangeListStorage {
-  private static final int VERSION = 5;
-  private static final String STORAGE_FILE = "changes";
+  private static final int VERSION = 7;
+  private static final String HEADER_FILE = "changes.header";
+  private static final String CONTENTS_FILE = "contents";
+  private static final String SEGMENT_PREFIX = "changes.";
+  private static final Pattern SEGMENT_NAME = Pattern.compile("changes\\.(\\d+)");
+
+  private static final long SEGMENT_PERIOD = 24 * 60 * 60 * 1000; // one day
+  private static final long MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  private static final ChangeListSegment[] NO_SEGMENTS = new ChangeListSegment[0];
 
   private final File myStorageDir;
-  private LocalHistoryStorage myStorage;
+  private volatile ChangeListSegment[] mySegments = NO_SEGMENTS;
+  private volatile int myFirstRecord;
+  private volatile DeltaContentStorage myContents;
+  private long myFSTimestamp;
   private long myLastId;
 
-  private boolean isCompletelyBroken = false;
+  private volatile boolean isCompletelyBroken = false;
 
   public ChangeListStorageImpl(File storageDir) throws IOException {
     myStorageDir = storageDir;
@@ -57,58 +83,144 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   private synchronized void initStorage(File storageDir) throws IOException {
-    String path = storageDir.getPath() + "/" + STORAGE_FILE;
-
-    LocalHistoryStorage result = new LocalHistoryStorage(path);
-
     long fsTimestamp = getVFSTimestamp();
 
-    int storedVersion = result.getVersion();
+    int storedVersion = -1;
+    long storedFSTimestamp = -1;
+    int firstRecord = 1;
+    long lastId = 0;
+    File headerFile = new File(storageDir, HEADER_FILE);
+    if (headerFile.exists()) {
+      try {
+        DataInputStream in = new DataInputStream(new FileInputStream(headerFile));
+        try {
+          storedVersion = in.readInt();
+          storedFSTimestamp = in.readLong();
+          firstRecord = in.readInt();
+          lastId = in.readLong();
+        }
+        finally {
+          in.close();
+        }
+      }
+      catch (IOException e) {
+        LocalHistoryLog.LOG.info("cannot read local history header", e);
+        storedVersion = -1;
+      }
+    }
+
     boolean versionMismatch = storedVersion != VERSION;
-    boolean timestampMismatch = result.getFSTimestamp() != fsTimestamp;
-    if (versionMismatch || timestampMismatch) {
+    boolean timestampMismatch = storedFSTimestamp != fsTimestamp;
+    ChangeListSegment[] segments = null;
+    if (!versionMismatch && !timestampMismatch) {
+      try {
+        segments = openSegments(storageDir, firstRecord);
+      }
+      catch (IOException e) {
+        LocalHistoryLog.LOG.warn("cannot open local history segments, rebuilding...", e);
+      }
+    }
+    if (segments == null) {
       if (versionMismatch) {
         LocalHistoryLog.LOG.info(MessageFormat.format(
           "local history version mismatch (was: {0}, expected: {1}), rebuilding...", storedVersion, VERSION));
       }
-      if (timestampMismatch) LocalHistoryLog.LOG.info("FS has been rebuild, rebuilding local history...");
-      result.dispose();
+      else if (timestampMismatch) LocalHistoryLog.LOG.info("FS has been rebuild, rebuilding local history...");
       if (!FileUtil.delete(storageDir)) {
         throw new IOException("cannot clear storage dir: " + storageDir);
       }
-      result = new LocalHistoryStorage(path);
-      result.setVersion(VERSION);
-      result.setFSTimestamp(fsTimestamp);
+      segments = NO_SEGMENTS;
+      firstRecord = 1;
+      lastId = 0;
     }
 
-    myLastId = result.getLastId();
-    myStorage = result;
+    myFSTimestamp = fsTimestamp;
+    myFirstRecord = firstRecord;
+    // the header keeps the last id in case all the segments have been purged
+    myLastId = Math.max(lastId, segments.length > 0 ? segments[segments.length - 1].getLastId() : 0);
+    mySegments = segments;
+    writeHeader();
+
+    myContents = new DeltaContentStorage(new File(storageDir, CONTENTS_FILE), new SequentialTaskExecutor(PooledThreadExecutor.INSTANCE));
+  }
+
+  @NotNull
+  private static ChangeListSegment[] openSegments(File storageDir, int firstRecord) throws IOException {
+    List<Integer> ids = new ArrayList<Integer>();
+    File[] files = storageDir.listFiles();
+    if (files != null) {
+      for (File each : files) {
+        Matcher m = SEGMENT_NAME.matcher(each.getName());
+        if (m.matches()) ids.add(Integer.parseInt(m.group(1)));
+      }
+    }
+    Integer[] sortedIds = ids.toArray(new Integer[ids.size()]);
+    Arrays.sort(sortedIds);
+
+    List<ChangeListSegment> result = new ArrayList<ChangeListSegment>();
+    try {
+      for (int firstId : sortedIds) {
+        ChangeListSegment segment = ChangeListSegment.open(getSegmentFile(storageDir, firstId), firstId);
+        if (segment.getLastRecordId() < Math.max(firstId, firstRecord)) {
+          // empty or already purged
+          segment.delete();
+          continue;
+        }
+        if (!result.isEmpty()) {
+          ChangeListSegment prev = result.get(result.size() - 1);
+          if (prev.getLastRecordId() + 1 != firstId) throw new IOException("records are missing before " + segment);
+          prev.seal();
+        }
+        result.add(segment);
+      }
+      if (!result.isEmpty() && result.get(0).getFirstRecordId() > firstRecord) {
+        throw new IOException("records are missing before " + result.get(0));
+      }
+    }
+    catch (IOException e) {
+      for (ChangeListSegment each : result) {
+        each.close();
+      }
+      throw e;
+    }
+    return result.toArray(new ChangeListSegment[result.size()]);
+  }
+
+  private static File getSegmentFile(File storageDir, int firstRecordId) {
+    return new File(storageDir, SEGMENT_PREFIX + firstRecordId);
+  }
+
+  private void writeHeader() throws IOException {
+    FileUtil.createDirectory(myStorageDir);
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(myStorageDir, HEADER_FILE)));
+    try {
+      out.writeInt(VERSION);
+      out.writeLong(myFSTimestamp);
+      out.writeInt(myFirstRecord);
+      out.writeLong(myLastId);
+    }
+    finally {
+      out.close();
+    }
   }
 
   private static long getVFSTimestamp() {
     return ManagingFS.getInstance().getCreationTimestamp();
   }
 
-  private void handleError(Throwable e, @Nullable String message) {
-    long storageTimestamp = -1;
+  private synchronized void handleError(Throwable e, @Nullable String message) {
+    long storageTimestamp = myFSTimestamp;
 
     long vfsTimestamp = getVFSTimestamp();
     long timestamp = System.currentTimeMillis();
 
-    try {
-      storageTimestamp = myStorage.getFSTimestamp();
-    }
-    catch (Exception ex) {
-      LocalHistoryLog.LOG.warn("cannot read storage timestamp", ex);
-    }
-
     LocalHistoryLog.LOG.error("Local history is broken" +
                               "(version:" + VERSION +
                               ",current timestamp:" + DateFormat.getDateTimeInstance().format(timestamp) +
                               ",storage timestamp:" + DateFormat.getDateTimeInstance().format(storageTimestamp) +
                               ",vfs timestamp:" + DateFormat.getDateTimeInstance().format(vfsTimestamp) + ")\n" + message, e);
 
-    myStorage.dispose();
+    closeStorage();
     try {
       FileUtil.delete(myStorageDir);
       initStorage(myStorageDir);
@@ -150,7 +262,19 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   public synchronized void close() {
-    myStorage.dispose();
+    closeStorage();
+  }
+
+  private void closeStorage() {
+    ChangeListSegment[] segments = mySegments;
+    mySegments = NO_SEGMENTS;
+    for (ChangeListSegment each : segments) {
+      each.close();
+    }
+    if (myContents != null) {
+      myContents.close();
+      myContents = null;
+    }
   }
 
   public synchronized long nextId() {
@@ -158,121 +282,214 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   @Nullable
-  public synchronized ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
+  public ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
     if (isCompletelyBroken) return null;
 
-    int prevId = 0;
-    try {
-      prevId = id == -1 ? myStorage.getLastRecord() : doReadPrevSafely(id, recursionGuard);
-      if (prevId == 0) return null;
+    ChangeListSegment[] segments = mySegments;
+    int recordId = id == -1 ? getLastRecord(segments) : id - 1;
+    if (recordId < myFirstRecord) return null;
 
-      return doReadBlock(prevId);
-    }
-    catch (Throwable e) {
-      String message = null;
-      if (prevId != 0) {
-        try {
-          Pair<Long, Integer> prevOS = myStorage.getOffsetAndSize(prevId);
-          long prevRecordTimestamp = myStorage.getTimestamp(prevId);
-          int lastRecord = myStorage.getLastRecord();
-          Pair<Long, Integer> lastOS = myStorage.getOffsetAndSize(lastRecord);
-          long lastRecordTimestamp = myStorage.getTimestamp(lastRecord);
-
-          message = "invalid record is: " + prevId + " offset: " + prevOS.first + " size: " + prevOS.second
-                    + " (created " + DateFormat.getDateTimeInstance().format(prevRecordTimestamp) + ") "
-                    + "last record is: " + lastRecord + " offset: " + lastOS.first + " size: " + lastOS.second
-                    + " (created " + DateFormat.getDateTimeInstance().format(lastRecordTimestamp) + ")";
+    ChangeListSegment segment = findSegment(segments, recordId);
+    if (segment == null) return null;
+
+    return readRecord(segments, segment, recordId);
+  }
+
+  @Nullable
+  public ChangeSetHolder readPreviousAffecting(int id, @NotNull String path, @Nullable String projectId) {
+    if (path.isEmpty()) return readPrevious(id, null); // every change affects the root
+
+    if (isCompletelyBroken) return null;
+
+    ChangeListSegment[] segments = mySegments;
+    int before = id == -1 ? getLastRecord(segments) + 1 : id;
+    int[] keys = ChangeSetKeys.getQueryKeys(path, projectId);
+
+    for (int i = segments.length - 1; i >= 0; i--) {
+      ChangeListSegment segment = segments[i];
+      if (segment.getFirstRecordId() >= before) continue;
+
+      int recordId;
+      try {
+        recordId = segment.findPrevious(before, keys);
+      }
+      catch (IOException e) {
+        if (segment.getLastRecordId() < myFirstRecord || isCompletelyBroken) return null;
+        if (e instanceof ChangeListSegment.CorruptedRecordException) {
+          handleError(e, "cannot find records affecting " + path + " in " + segment);
         }
-        catch (Exception e1) {
-          message = "cannot retrieve more debug info: " + e1.getMessage();
+        else {
+          LocalHistoryLog.LOG.warn("cannot find records affecting " + path + " in " + segment, e);
         }
+        return null;
+      }
+      if (recordId != 0) {
+        return recordId < myFirstRecord ? null : readRecord(segments, segment, recordId);
       }
+      if (segment.getFirstRecordId() <= myFirstRecord) return null;
+    }
+    return null;
+  }
+
+  @Nullable
+  private ChangeSetHolder readRecord(ChangeListSegment[] segments, ChangeListSegment segment, int recordId) {
+    try {
+      return new ChangeSetHolder(recordId, readChangeSet(segment, recordId));
+    }
+    catch (Throwable e) {
+      // the record may have been purged and its segment deleted while being read
+      if (recordId < myFirstRecord || isCompletelyBroken) return null;
 
-      handleError(e, message);
+      if (e instanceof IOException && !(e instanceof ChangeListSegment.CorruptedRecordException)) {
+        // the storage is fine, only this query fails
+        LocalHistoryLog.LOG.warn("cannot read record " + recordId + " in " + segment, e);
+        return null;
+      }
+
+      handleError(e, "invalid record is: " + recordId + " in " + segment
+                     + " (created " + DateFormat.getDateTimeInstance().format(segment.getTimestamp(recordId)) + ") "
+                     + "last record is: " + getLastRecord(segments));
       return null;
     }
   }
 
   @NotNull
-  private ChangeSetHolder doReadBlock(int id) throws IOException {
-    DataInputStream in = myStorage.readStream(id);
-    try {
-      return new ChangeSetHolder(id, new ChangeSet(in));
-    }
-    finally {
-      in.close();
+  private ChangeSet readChangeSet(@NotNull ChangeListSegment segment, int recordId) throws IOException {
+    ChangeSet result = segment.readChangeSet(recordId);
+    DeltaContentStorage contents = myContents;
+    if (contents != null) contents.resolveContents(result);
+    return result;
+  }
+
+  private static int getLastRecord(ChangeListSegment[] segments) {
+    return segments.length == 0 ? 0 : segments[segments.length - 1].getLastRecordId();
+  }
+
+  @Nullable
+  private static ChangeListSegment findSegment(ChangeListSegment[] segments, int recordId) {
+    int low = 0;
+    int high = segments.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      ChangeListSegment segment = segments[mid];
+      if (recordId < segment.getFirstRecordId()) {
+        high = mid - 1;
+      }
+      else if (recordId > segment.getLastRecordId()) {
+        low = mid + 1;
+      }
+      else {
+        return segment;
+      }
     }
+    return null;
   }
 
   public synchronized void writeNextSet(ChangeSet changeSet) {
     if (isCompletelyBroken) return;
 
     try {
-      AbstractStorage.StorageDataOutput out = myStorage.writeStream(myStorage.createNextRecord(), true);
+      BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
       try {
         changeSet.write(out);
       }
       finally {
         out.close();
       }
-      myStorage.setLastId(myLastId);
-      myStorage.force();
+
+      long timestamp = Clock.getTime();
+      ChangeListSegment[] segments = mySegments;
+      ChangeListSegment active = segments.length == 0 ? null : segments[segments.length - 1];
+      int recordId = active == null ? myFirstRecord : active.getLastRecordId() + 1;
+
+      if (active != null && !active.isSealed() &&
+          (timestamp - active.getTimestamp(active.getFirstRecordId()) >= SEGMENT_PERIOD || active.getLength() >= MAX_SEGMENT_SIZE)) {
+        active.seal();
+      }
+      if (active == null || active.isSealed()) {
+        active = ChangeListSegment.create(getSegmentFile(myStorageDir, recordId), recordId);
+        mySegments = ArrayUtil.append(segments, active, ChangeListSegment.class);
+      }
+      // the record goes straight to the file, which is what forcing the buffered storage used to do; the file is not synced
+      active.append(recordId, timestamp, myLastId, bytes.getInternalBuffer(), bytes.size(), ChangeSetKeys.getKeys(changeSet));
     }
     catch (IOException e) {
       handleError(e, null);
     }
   }
 
+  @NotNull
+  public synchronized Content storeContent(@NotNull String path, @NotNull Content content) {
+    // transient contents are subclasses which don't own their VFS contents
+    if (myContents == null || content.getClass() != StoredContent.class) return content;
+    return myContents.store(path, (StoredContent)content);
+  }
+
   public synchronized void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
     if (isCompletelyBroken) return;
 
-    TIntHashSet recursionGuard = new TIntHashSet(1000);
-
     try {
-      int firstObsoleteId = findFirstObsoleteBlock(period, intervalBetweenActivities, recursionGuard);
+      int firstObsoleteId = findFirstObsoleteRecord(period, intervalBetweenActivities);
       if (firstObsoleteId == 0) return;
 
-      int eachBlockId = firstObsoleteId;
+      ChangeListSegment[] segments = mySegments;
+      for (int each = firstObsoleteId; each >= myFirstRecord; each--) {
+        ChangeListSegment segment = findSegment(segments, each);
+        if (segment == null) throw new IOException("record " + each + " not found");
+        ChangeSet changeSet;
+        try {
+          changeSet = readChangeSet(segment, each);
+        }
+        catch (IOException e) {
+          if (e instanceof ChangeListSegment.CorruptedRecordException) throw e;
+          // nothing has been purged yet, so it will be retried next time
+          LocalHistoryLog.LOG.warn("cannot read record " + each + " in " + segment + ", purging is postponed", e);
+          return;
+        }
+        processor.consume(changeSet);
+      }
+
+      myFirstRecord = firstObsoleteId + 1;
+      writeHeader();
 
-      while (eachBlockId != 0) {
-        processor.consume(doReadBlock(eachBlockId).changeSet);
-        eachBlockId = doReadPrevSafely(eachBlockId, recursionGuard);
+      int firstAlive = 0;
+      while (firstAlive < segments.length && segments[firstAlive].getLastRecordId() < myFirstRecord) {
+        firstAlive++;
+      }
+      if (firstAlive > 0) {
+        mySegments = Arrays.copyOfRange(segments, firstAlive, segments.length);
+        for (int i = 0; i < firstAlive; i++) {
+          segments[i].delete();
+        }
       }
-      myStorage.deleteRecordsUpTo(firstObsoleteId);
-      myStorage.force();
     }
     catch (IOException e) {
       handleError(e, null);
     }
   }
 
-  private int findFirstObsoleteBlock(long period, int intervalBetweenActivities, TIntHashSet recursionGuard) throws IOException {
+  private int findFirstObsoleteRecord(long period, int intervalBetweenActivities) {
     long prevTimestamp = 0;
     long length = 0;
 
-    int last = myStorage.getLastRecord();
-    while (last != 0) {
-      long t = myStorage.getTimestamp(last);
-      if (prevTimestamp == 0) prevTimestamp = t;
-
-      long delta = prevTimestamp - t;
-      prevTimestamp = t;
+    ChangeListSegment[] segments = mySegments;
+    for (int i = segments.length - 1; i >= 0; i--) {
+      ChangeListSegment segment = segments[i];
+      for (int each = segment.getLastRecordId(); each >= Math.max(segment.getFirstRecordId(), myFirstRecord); each--) {
+        long t = segment.getTimestamp(each);
+        if (prevTimestamp == 0) prevTimestamp = t;
 
-      // we sum only intervals between changes during one 'day' (intervalBetweenActivities) and add '1' between two 'days'
-      length += delta < intervalBetweenActivities ? delta : 1;
+        long delta = prevTimestamp - t;
+        prevTimestamp = t;
 
-      if (length >= period) return last;
+        // we sum only intervals between changes during one 'day' (intervalBetweenActivities) and add '1' between two 'days'
+        length += delta < intervalBetweenActivities ? delta : 1;
 
-      last = doReadPrevSafely(last, recursionGuard);
+        if (length >= period) return each;
+      }
     }
 
     return 0;
   }
-
-  private int doReadPrevSafely(int id, TIntHashSet recursionGuard) throws IOException {
-    recursionGuard.add(id);
-    int prev = myStorage.getPrevRecord(id);
-    if (!recursionGuard.add(prev)) throw new IOException("Recursive records found");
-    return prev;
-  }
-}
\ No newline at end of file
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.Change;
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.history.core.changes.PutLabelChange;
+import com.intellij.history.core.changes.StructuralChange;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Computes keys of the path index of change sets. A change set is registered under the 'exact' key of every path its changes affect,
+ * under the 'under' key of every ancestor of these paths and under the 'project' key of every project it puts labels for.
+ * So a change set which affects a path, its ancestor or its descendant (see {@link Change#affectsPath(String)}), or the project
+ * can be found by one of {@link #getQueryKeys(String, String)}.
+ * <p/>
+ * Keys are hashes, so lookups may return unrelated change sets, which are to be filtered out by the caller.
+ */
+final class ChangeSetKeys {
+  private static final int EXACT = 1;
+  private static final int UNDER = 2;
+  private static final int PROJECT = 3;
+
+  private ChangeSetKeys() {
+  }
+
+  @NotNull
+  static int[] getKeys(@NotNull ChangeSet changeSet) {
+    TIntHashSet result = new TIntHashSet();
+    for (Change each : changeSet.getChanges()) {
+      if (each instanceof StructuralChange) {
+        addPathKeys(result, ((StructuralChange)each).getPath());
+        addPathKeys(result, ((StructuralChange)each).getOldPath());
+      }
+      else if (each instanceof PutLabelChange) {
+        result.add(key(PROJECT, ((PutLabelChange)each).getProjectId()));
+      }
+    }
+    return result.toArray();
+  }
+
+  private static void addPathKeys(TIntHashSet result, String path) {
+    result.add(key(EXACT, path));
+    for (String parent = parentOf(path); parent != null; parent = parentOf(parent)) {
+      result.add(key(UNDER, parent));
+    }
+  }
+
+  @NotNull
+  static int[] getQueryKeys(@NotNull String path, @Nullable String projectId) {
+    TIntHashSet result = new TIntHashSet();
+    result.add(key(UNDER, path));
+    for (String each = path; each != null; each = parentOf(each)) {
+      result.add(key(EXACT, each));
+    }
+    if (projectId != null) {
+      result.add(key(PROJECT, projectId));
+    }
+    return result.toArray();
+  }
+
+  @Nullable
+  private static String parentOf(String path) {
+    String parent = Paths.getParentOf(path);
+    return parent.isEmpty() || parent.length() >= path.length() ? null : parent;
+  }
+
+  private static int key(int kind, String value) {
+    // case-insensitive hashing keeps the index valid whatever case sensitivity is used for comparing paths
+    int hash = kind;
+    for (int i = 0; i < value.length(); i++) {
+      hash = 31 * hash + Character.toLowerCase(value.charAt(i));
+    }
+    return hash;
+  }
+}
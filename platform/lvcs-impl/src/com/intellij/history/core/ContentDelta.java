@@ -0,0 +1,171 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.history.core;
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.util.io.DataInputOutputUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Binary delta between two byte arrays. A delta is the length of the target followed by a sequence of instructions,
+ * each either copies a range of the base or inserts literal bytes.
+ * <p/>
+ * Matches are looked up by a rolling hash of {@link #BLOCK}-byte windows of the target in the index of block-aligned windows of the base
+ * and then extended in both directions, so every insertion or deletion costs about a block of literal bytes plus a couple of instructions.
+ */
+final class ContentDelta {
+  private static final int BLOCK = 16;
+  private static final int MULTIPLIER = 31;
+  private static final int MAX_CANDIDATES = 8;
+
+  private static final int COPY = 0;
+  private static final int INSERT = 1;
+
+  private ContentDelta() {
+  }
+
+  @NotNull
+  static byte[] compute(@NotNull byte[] base, @NotNull byte[] target) {
+    try {
+      BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream(target.length / 16 + 16);
+      DataOutputStream out = new DataOutputStream(bytes);
+      DataInputOutputUtil.writeINT(out, target.length);
+
+      int blocks = base.length / BLOCK;
+      if (blocks == 0 || target.length < BLOCK) {
+        writeInsert(out, target, 0, target.length);
+        out.close();
+        return bytes.toByteArray();
+      }
+
+      int mask = Integer.highestOneBit(blocks) * 4 - 1;
+      int[] heads = new int[mask + 1];
+      Arrays.fill(heads, -1);
+      int[] next = new int[blocks];
+      // later blocks go first in the chains, so lookups prefer the nearest occurrence of repeated text at the end of the file
+      for (int i = 0; i < blocks; i++) {
+        int slot = hash(base, i * BLOCK) & mask;
+        next[i] = heads[slot];
+        heads[slot] = i;
+      }
+
+      int highPower = 1;
+      for (int i = 1; i < BLOCK; i++) {
+        highPower *= MULTIPLIER;
+      }
+
+      int pending = 0; // start of the literal bytes which haven't been written yet
+      int pos = 0;
+      int hash = hash(target, 0);
+      while (true) {
+        int bestOffset = -1;
+        int bestLength = 0;
+        int candidates = 0;
+        for (int block = heads[hash & mask]; block != -1 && candidates < MAX_CANDIDATES; block = next[block], candidates++) {
+          int offset = block * BLOCK;
+          int length = matchForward(base, offset, target, pos);
+          if (length >= BLOCK && length > bestLength) {
+            bestOffset = offset;
+            bestLength = length;
+          }
+        }
+
+        if (bestOffset != -1) {
+          int start = pos;
+          while (bestOffset > 0 && start > pending && base[bestOffset - 1] == target[start - 1]) {
+            bestOffset--;
+            start--;
+            bestLength++;
+          }
+          writeInsert(out, target, pending, start - pending);
+          writeCopy(out, bestOffset, bestLength);
+          pos = start + bestLength;
+          pending = pos;
+          if (pos + BLOCK > target.length) break;
+          hash = hash(target, pos);
+        }
+        else {
+          if (pos + BLOCK >= target.length) break;
+          hash = (hash - (target[pos] & 0xff) * highPower) * MULTIPLIER + (target[pos + BLOCK] & 0xff);
+          pos++;
+        }
+      }
+      writeInsert(out, target, pending, target.length - pending);
+      out.close();
+      return bytes.toByteArray();
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e); // cannot happen with an in-memory stream
+    }
+  }
+
+  @NotNull
+  static byte[] apply(@NotNull byte[] base, @NotNull byte[] delta) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+    byte[] result = new byte[DataInputOutputUtil.readINT(in)];
+    int pos = 0;
+    while (pos < result.length) {
+      int instruction = DataInputOutputUtil.readINT(in);
+      int length = instruction >>> 1;
+      if (length > result.length - pos) throw new IOException("corrupted delta");
+      if ((instruction & 1) == COPY) {
+        int offset = DataInputOutputUtil.readINT(in);
+        if (offset < 0 || offset > base.length - length) throw new IOException("corrupted delta");
+        System.arraycopy(base, offset, result, pos, length);
+      }
+      else {
+        in.readFully(result, pos, length);
+      }
+      pos += length;
+    }
+    return result;
+  }
+
+  private static int hash(byte[] bytes, int offset) {
+    int result = 0;
+    for (int i = offset; i < offset + BLOCK; i++) {
+      result = result * MULTIPLIER + (bytes[i] & 0xff);
+    }
+    return result;
+  }
+
+  private static int matchForward(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+    int max = Math.min(base.length - baseOffset, target.length - targetOffset);
+    int length = 0;
+    while (length < max && base[baseOffset + length] == target[targetOffset + length]) {
+      length++;
+    }
+    return length;
+  }
+
+  private static void writeCopy(DataOutputStream out, int offset, int length) throws IOException {
+    DataInputOutputUtil.writeINT(out, length << 1 | COPY);
+    DataInputOutputUtil.writeINT(out, offset);
+  }
+
+  private static void writeInsert(DataOutputStream out, byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0) return;
+    DataInputOutputUtil.writeINT(out, length << 1 | INSERT);
+    out.write(bytes, offset, length);
+  }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.Change;
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.history.core.changes.ContentChange;
+import com.intellij.history.utils.LocalHistoryLog;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.openapi.util.io.ByteSequence;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.storage.AbstractStorage;
+import com.intellij.util.io.storage.RefCountingStorage;
+import gnu.trove.TObjectHashingStrategy;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Stores contents of file revisions recorded by local history.
+ * <p/>
+ * A recorded content is first registered as a reference to the VFS content it has been acquired from and then compacted in background:
+ * if the same content is already stored, the record becomes an alias of it; otherwise it is stored as a binary delta ({@link ContentDelta})
+ * against the content stored previously for the same file, or as a full snapshot. Delta chains are at most {@link #MAX_CHAIN_LENGTH} long,
+ * so reconstruction of a revision never applies more deltas than that.
+ * <p/>
+ * Records are reference counted: a delta or an alias holds a reference to its base, so a base outlives all the records depending on it
+ * whatever order they are purged in. Content hashes and the last records of files are remembered for the current session only.
+ * <p/>
+ * Contents are loaded concurrently with each other and with the expensive part of compaction; only modifications of records are exclusive.
+ * <p/>
+ * Change sets refer to the records by id, so {@link #VERSION} may only be changed together with the version of {@link ChangeListStorageImpl}.
+ */
+final class DeltaContentStorage {
+  private static final int VERSION = 1;
+  static final int MAX_CHAIN_LENGTH = 16;
+  private static final int MAX_REMEMBERED_FILES = 1000;
+
+  private static final byte PENDING = 0;
+  private static final byte FULL = 1;
+  private static final byte DELTA = 2;
+  private static final byte ALIAS = 3;
+
+  private static final TObjectHashingStrategy<byte[]> DIGEST_STRATEGY = new TObjectHashingStrategy<byte[]>() {
+    @Override
+    public int computeHashCode(byte[] digest) {
+      return (digest[0] & 0xff) | (digest[1] & 0xff) << 8 | (digest[2] & 0xff) << 16 | (digest[3] & 0xff) << 24;
+    }
+
+    @Override
+    public boolean equals(byte[] d1, byte[] d2) {
+      return MessageDigest.isEqual(d1, d2);
+    }
+  };
+
+  private final RefCountingStorage myStorage;
+  private final ReentrantReadWriteLock myLock = new ReentrantReadWriteLock();
+  private final Lock myReadLock = myLock.readLock();
+  private final Lock myWriteLock = myLock.writeLock();
+  private final Executor myExecutor;
+  private final MessageDigest myDigest;
+  private final TObjectIntHashMap<byte[]> myRecordsByDigest = new TObjectIntHashMap<byte[]>(DIGEST_STRATEGY);
+  // guarded by itself, since it's looked up under the read lock and reordered on access
+  private final Map<String, Integer> myLastRecords = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+      return size() > MAX_REMEMBERED_FILES;
+    }
+  };
+  private volatile boolean isClosed;
+
+  /**
+   * @param executor executes compaction of the contents registered via {@link #store(String, StoredContent)} sequentially
+   */
+  DeltaContentStorage(@NotNull File file, @NotNull Executor executor) throws IOException {
+    myStorage = openStorage(file.getPath());
+    myExecutor = executor;
+    try {
+      myDigest = MessageDigest.getInstance("SHA1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e.getMessage());
+    }
+  }
+
+  private static RefCountingStorage openStorage(String path) throws IOException {
+    RefCountingStorage result = new RefCountingStorage(path);
+    if (result.getVersion() != VERSION) {
+      result.dispose();
+      AbstractStorage.deleteFiles(path);
+      result = new RefCountingStorage(path);
+      result.setVersion(VERSION);
+    }
+    return result;
+  }
+
+  /**
+   * Takes over the reference to the VFS content of the given content and returns the content to be recorded instead.
+   */
+  @NotNull
+  StoredContent store(@NotNull final String path, @NotNull StoredContent content) {
+    final int contentId = content.getContentId();
+    if (contentId <= 0) return content;
+    final int recordId;
+    myWriteLock.lock();
+    try {
+      if (isClosed) return content;
+      recordId = myStorage.acquireNewRecord();
+      writePending(recordId, contentId);
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.warn("cannot store content of " + path, e);
+      return content;
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+    myExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        compact(recordId, contentId, path, null);
+      }
+    });
+    return StoredContent.forDeltaRecord(this, recordId);
+  }
+
+  /**
+   * Stores and compacts the content synchronously.
+   *
+   * @return id of the record
+   */
+  int store(@NotNull String path, @NotNull byte[] bytes) throws IOException {
+    int recordId;
+    myWriteLock.lock();
+    try {
+      if (isClosed) throw new IOException("content storage is closed");
+      recordId = myStorage.acquireNewRecord();
+      writePending(recordId, 0);
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+    compact(recordId, 0, path, bytes);
+    return recordId;
+  }
+
+  /**
+   * Makes the contents of a change set read from disk refer to this storage.
+   */
+  void resolveContents(@NotNull ChangeSet changeSet) {
+    for (Change each : changeSet.getChanges()) {
+      if (each instanceof ContentChange) {
+        Content content = ((ContentChange)each).getOldContent();
+        if (content instanceof StoredContent) ((StoredContent)content).resolveDeltaRecord(this);
+      }
+    }
+  }
+
+  private void compact(int recordId, int contentId, @NotNull String path, @Nullable byte[] bytes) {
+    try {
+      int baseId = 0;
+      Header baseHeader = null;
+      byte[] baseBytes = null;
+      myReadLock.lock();
+      try {
+        if (!isPending(recordId, contentId)) return;
+        Integer last;
+        synchronized (myLastRecords) {
+          last = myLastRecords.get(path);
+        }
+        if (last != null && isAlive(last)) {
+          Header header = readHeader(last);
+          if ((header.kind == FULL || header.kind == DELTA) && header.depth < MAX_CHAIN_LENGTH) {
+            baseId = last;
+            baseHeader = header;
+            baseBytes = load(last);
+          }
+        }
+      }
+      finally {
+        myReadLock.unlock();
+      }
+
+      // the expensive part is done without the lock, the record is rechecked afterwards
+      if (bytes == null) bytes = getFS().contentsToByteArray(contentId);
+      byte[] digest = digest(bytes);
+      byte[] delta = baseBytes == null ? null : ContentDelta.compute(baseBytes, bytes);
+
+      myWriteLock.lock();
+      try {
+        if (!isPending(recordId, contentId)) return;
+
+        int sameId = myRecordsByDigest.get(digest);
+        int lastId;
+        if (sameId != 0) {
+          myStorage.acquireRecord(sameId);
+          writeRecord(recordId, ALIAS, null, sameId, 0, ArrayUtil.EMPTY_BYTE_ARRAY);
+          lastId = sameId;
+        }
+        else {
+          if (delta != null && delta.length < bytes.length / 2 && isSame(baseId, baseHeader)) {
+            myStorage.acquireRecord(baseId);
+            writeRecord(recordId, DELTA, digest, baseId, baseHeader.depth + 1, delta);
+          }
+          else {
+            writeRecord(recordId, FULL, digest, 0, 0, bytes);
+          }
+          myRecordsByDigest.put(digest, recordId);
+          lastId = recordId;
+        }
+        synchronized (myLastRecords) {
+          myLastRecords.put(path, lastId);
+        }
+        if (contentId != 0) getFS().releaseContent(contentId);
+      }
+      finally {
+        myWriteLock.unlock();
+      }
+    }
+    catch (IOException e) {
+      // the record stays a valid reference to the VFS content
+      LocalHistoryLog.LOG.warn("cannot compact content of " + path, e);
+    }
+  }
+
+  @NotNull
+  byte[] load(int recordId) throws IOException {
+    List<byte[]> deltas = new ArrayList<byte[]>();
+    byte[] result = null;
+    myReadLock.lock();
+    try {
+      if (isClosed) throw new IOException("content storage is closed");
+      result = loadChain(recordId, deltas);
+    }
+    finally {
+      myReadLock.unlock();
+    }
+    for (int i = deltas.size() - 1; i >= 0; i--) {
+      result = ContentDelta.apply(result, deltas.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of deltas applied to reconstruct contents of the record
+   */
+  int getChainLength(int recordId) throws IOException {
+    List<byte[]> deltas = new ArrayList<byte[]>();
+    myReadLock.lock();
+    try {
+      if (isClosed) throw new IOException("content storage is closed");
+      loadChain(recordId, deltas);
+    }
+    finally {
+      myReadLock.unlock();
+    }
+    return deltas.size();
+  }
+
+  /**
+   * @return contents of the base of the record, the deltas to be applied to it are added to the list from the last one
+   */
+  @NotNull
+  private byte[] loadChain(int recordId, List<byte[]> deltas) throws IOException {
+    byte[] result = null;
+    int id = recordId;
+    while (result == null) {
+      DataInputStream in = myStorage.readStream(id);
+      try {
+        byte kind = in.readByte();
+        if (kind == PENDING) {
+          int contentId = in.readInt();
+          result = contentId == 0 ? ArrayUtil.EMPTY_BYTE_ARRAY : getFS().contentsToByteArray(contentId);
+        }
+        else if (kind == ALIAS) {
+          id = in.readInt();
+        }
+        else {
+          in.skipBytes(myDigest.getDigestLength());
+          if (kind == FULL) {
+            result = FileUtil.loadBytes(in);
+          }
+          else {
+            id = in.readInt();
+            in.readInt();
+            deltas.add(FileUtil.loadBytes(in));
+          }
+        }
+      }
+      finally {
+        in.close();
+      }
+      if (deltas.size() > MAX_CHAIN_LENGTH) throw new IOException("delta chain is broken at " + recordId);
+    }
+    return result;
+  }
+
+  void release(int recordId) {
+    myWriteLock.lock();
+    try {
+      if (isClosed) return;
+      int id = recordId;
+      while (id != 0) {
+        if (myStorage.getRefCount(id) > 1) {
+          myStorage.releaseRecord(id);
+          return;
+        }
+        Header header = readHeader(id);
+        if (header.digest != null && myRecordsByDigest.get(header.digest) == id) {
+          myRecordsByDigest.remove(header.digest);
+        }
+        myStorage.releaseRecord(id);
+
+        if (header.kind == PENDING) {
+          if (header.link != 0) getFS().releaseContent(header.link);
+          return;
+        }
+        id = header.link; // the base of a delta or the target of an alias
+      }
+    }
+    catch (IOException e) {
+      LocalHistoryLog.LOG.warn("cannot release content " + recordId, e);
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  void close() {
+    myWriteLock.lock();
+    try {
+      if (isClosed) return;
+      isClosed = true;
+      myStorage.dispose();
+    }
+    finally {
+      myWriteLock.unlock();
+    }
+  }
+
+  private boolean isAlive(int recordId) {
+    return myStorage.getRefCount(recordId) > 0;
+  }
+
+  private boolean isPending(int recordId, int contentId) throws IOException {
+    if (isClosed || !isAlive(recordId)) return false;
+    Header header = readHeader(recordId);
+    return header.kind == PENDING && header.link == contentId;
+  }
+
+  private boolean isSame(int recordId, Header header) throws IOException {
+    if (!isAlive(recordId)) return false;
+    Header current = readHeader(recordId);
+    return current.kind == header.kind && MessageDigest.isEqual(current.digest, header.digest);
+  }
+
+  private void writePending(int recordId, int contentId) throws IOException {
+    BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream(5);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(PENDING);
+    out.writeInt(contentId);
+    out.close();
+    myStorage.writeBytes(recordId, new ByteSequence(bytes.getInternalBuffer(), 0, bytes.size()), false);
+  }
+
+  private void writeRecord(int recordId, byte kind, @Nullable byte[] digest, int link, int depth, byte[] body) throws IOException {
+    BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream(body.length + 32);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(kind);
+    if (digest != null) out.write(digest);
+    if (kind != FULL) out.writeInt(link);
+    if (kind == DELTA) out.writeInt(depth);
+    out.write(body);
+    out.close();
+    myStorage.writeBytes(recordId, new ByteSequence(bytes.getInternalBuffer(), 0, bytes.size()), false);
+  }
+
+  @NotNull
+  private Header readHeader(int recordId) throws IOException {
+    DataInputStream in = myStorage.readStream(recordId);
+    try {
+      Header result = new Header();
+      result.kind = in.readByte();
+      if (result.kind == PENDING || result.kind == ALIAS) {
+        result.link = in.readInt();
+      }
+      else {
+        result.digest = new byte[myDigest.getDigestLength()];
+        in.readFully(result.digest);
+        if (result.kind == DELTA) {
+          result.link = in.readInt();
+          result.depth = in.readInt();
+        }
+      }
+      return result;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private byte[] digest(byte[] bytes) {
+    synchronized (myDigest) {
+      myDigest.reset();
+      return myDigest.digest(bytes);
+    }
+  }
+
+  private static PersistentFS getFS() {
+    return (PersistentFS)PersistentFS.getInstance();
+  }
+
+  private static class Header {
+    byte kind;
+    @Nullable byte[] digest;
+    int link;
+    int depth;
+  }
+}
@@ -15,9 +15,11 @@
  */
 package com.intellij.history.core;
 
+import com.intellij.history.core.changes.Change;
 import com.intellij.history.core.changes.ChangeSet;
 import com.intellij.util.Consumer;
 import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
@@ -28,28 +30,51 @@ public class InMemoryChangeListStorage implements ChangeListStorage {
   private List<ChangeSet> mySets = new ArrayList<ChangeSet>();
 
   @Override
-  public void close() {
+  public synchronized void close() {
   }
 
   @Override
-  public long nextId() {
+  public synchronized long nextId() {
     return myCurrentId++;
   }
 
   @Override
   @Nullable
-  public ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
+  public synchronized ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
     if (mySets.isEmpty()) return null;
     if (id == -1) return new ChangeSetHolder(mySets.size() - 1, mySets.get(mySets.size() - 1));
     return id == 0 ? null : new ChangeSetHolder(id -1, mySets.get(id - 1));
   }
 
   @Override
-  public void writeNextSet(ChangeSet changeSet) {
+  @Nullable
+  public synchronized ChangeSetHolder readPreviousAffecting(int id, @NotNull String path, @Nullable String projectId) {
+    ChangeSetHolder result = readPrevious(id, null);
+    while (result != null && !affects(result.changeSet, path, projectId)) {
+      result = readPrevious(result.id, null);
+    }
+    return result;
+  }
+
+  private static boolean affects(ChangeSet changeSet, String path, @Nullable String projectId) {
+    for (Change each : changeSet.getChanges()) {
+      if (each.affectsPath(path) || (projectId != null && each.affectsProject(projectId))) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized void writeNextSet(ChangeSet changeSet) {
     mySets.add(changeSet);
   }
 
+  @NotNull
+  @Override
+  public Content storeContent(@NotNull String path, @NotNull Content content) {
+    return content;
+  }
+
   @Override
-  public void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
+  public synchronized void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
   }
 }
@@ -63,7 +63,7 @@ public class LocalHistoryFacade {
   }
 
   public void contentChanged(String path, Content oldContent, long oldTimestamp) {
-    addChange(new ContentChange(myChangeList.nextId(), path, oldContent, oldTimestamp));
+    addChange(new ContentChange(myChangeList.nextId(), path, myChangeList.storeContent(path, oldContent), oldTimestamp));
   }
 
   public void renamed(String path, String oldName) {
@@ -153,6 +153,10 @@ public class LocalHistoryFacade {
     myChangeList.accept(v);
   }
 
+  public void collectChanges(ChangeCollectingVisitor v) {
+    myChangeList.collectChanges(v);
+  }
+
   public String revertUpTo(@NotNull final RootEntry root,
                            @NotNull String path,
                            final ChangeSet targetChangeSet,
@@ -55,9 +55,9 @@ public class RevisionsCollector extends ChangeSetsProcessor {
 
   @Override
   protected Pair<String, List<ChangeSet>> collectChanges() {
-    // todo optimize to not collect all change sets + do not process changes twice
+    // todo do not process changes twice
     ChangeCollectingVisitor v = new ChangeCollectingVisitor(myPath, myProjectId, myPattern);
-    myFacade.accept(v);
+    myFacade.collectChanges(v);
     return Pair.create(v.getPath(), v.getChanges());
   }
 
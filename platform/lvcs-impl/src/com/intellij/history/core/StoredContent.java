@@ -19,16 +19,23 @@ package com.intellij.history.core;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS;
 import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+/**
+ * Refers either to a VFS content (positive ids) or to a record of {@link DeltaContentStorage} (negative ids). A content read from disk
+ * gets to know the storage of its record from the change list storage which has read it.
+ */
 public class StoredContent extends Content {
   private static final int UNAVAILABLE = 0;
 
   private int myContentId;
+  @Nullable private DeltaContentStorage myDeltaStorage;
 
   public static StoredContent acquireContent(byte[] bytes) {
     return new StoredContent(getFS().storeUnlinkedContent(bytes));
@@ -52,6 +59,16 @@ public class StoredContent extends Content {
     };
   }
 
+  static StoredContent forDeltaRecord(@NotNull DeltaContentStorage storage, int recordId) {
+    StoredContent result = new StoredContent(-recordId);
+    result.myDeltaStorage = storage;
+    return result;
+  }
+
+  void resolveDeltaRecord(@NotNull DeltaContentStorage storage) {
+    if (myContentId < 0) myDeltaStorage = storage;
+  }
+
   @TestOnly
   public StoredContent(int contentId) {
     myContentId = contentId;
@@ -72,6 +89,7 @@ public class StoredContent extends Content {
     //if (!isAvailable()) throw new RuntimeException("content is not available");
     try {
       if (myContentId == UNAVAILABLE) return ArrayUtil.EMPTY_BYTE_ARRAY;
+      if (myContentId < 0) return getDeltaStorage().load(-myContentId);
       return getFS().contentsToByteArray(myContentId);
     }
     catch (IOException e) {
@@ -89,6 +107,12 @@ public class StoredContent extends Content {
     return ((PersistentFS)PersistentFS.getInstance());
   }
 
+  private DeltaContentStorage getDeltaStorage() throws IOException {
+    DeltaContentStorage result = myDeltaStorage;
+    if (result == null) throw new IOException("content storage is not available");
+    return result;
+  }
+
   public int getContentId() {
     return myContentId;
   }
@@ -96,7 +120,12 @@ public class StoredContent extends Content {
   @Override
   public void release() {
     if (myContentId == UNAVAILABLE) return;
-    getFS().releaseContent(myContentId);
+    if (myContentId < 0) {
+      if (myDeltaStorage != null) myDeltaStorage.release(-myContentId);
+    }
+    else {
+      getFS().releaseContent(myContentId);
+    }
     myContentId = UNAVAILABLE;
   }
 
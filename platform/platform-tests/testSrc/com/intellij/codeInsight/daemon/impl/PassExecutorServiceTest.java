@@ -0,0 +1,91 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeHighlighting.HighlightingPass;
+import com.intellij.codeHighlighting.TextEditorHighlightingPass;
+import com.intellij.concurrency.Job;
+import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.fileEditor.impl.text.TextEditorProvider;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.testFramework.LightPlatformCodeInsightTestCase;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PassExecutorServiceTest extends LightPlatformCodeInsightTestCase {
+  private final List<String> myLog = Collections.synchronizedList(new ArrayList<String>());
+
+  public void testPassOfShownEditorIsApplied() throws Exception {
+    runPass(false);
+    assertEquals(Arrays.asList("collect", "apply", "afterApply"), myLog);
+  }
+
+  public void testPassOfHiddenEditorIsNeitherCollectedNorApplied() throws Exception {
+    runPass(true);
+    assertEmpty(myLog);
+  }
+
+  private void runPass(final boolean hidden) throws Exception {
+    configureFromFileText("a.txt", "text");
+    PassExecutorService service = new PassExecutorService(getProject()) {
+      @Override
+      protected void afterApplyInformationToEditor(TextEditorHighlightingPass pass, FileEditor fileEditor, ProgressIndicator updateProgress) {
+        myLog.add("afterApply");
+      }
+
+      @Override
+      protected boolean isHidden(@NotNull FileEditor fileEditor) {
+        return hidden;
+      }
+    };
+    try {
+      TextEditorHighlightingPass pass = new TextEditorHighlightingPass(getProject(), getEditor().getDocument(), false) {
+        @Override
+        public void doCollectInformation(@NotNull ProgressIndicator progress) {
+          myLog.add("collect");
+        }
+
+        @Override
+        public void doApplyInformationToEditor() {
+          myLog.add("apply");
+        }
+      };
+      pass.setId(1);
+      DaemonProgressIndicator progress = new DaemonProgressIndicator();
+      progress.start();
+      FileEditor fileEditor = TextEditorProvider.getInstance().getTextEditor(getEditor());
+      service.submitPasses(Collections.singletonMap(fileEditor, new HighlightingPass[]{pass}), progress, Job.DEFAULT_PRIORITY);
+
+      long deadline = System.currentTimeMillis() + 10000;
+      while (progress.isRunning() && System.currentTimeMillis() < deadline) {
+        service.waitFor(50);
+        UIUtil.dispatchAllInvocationEvents();
+      }
+      // the update stops even if nothing is applied
+      assertFalse(progress.isRunning());
+      assertFalse(progress.isCanceled());
+    }
+    finally {
+      Disposer.dispose(service);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightVirtualFile;
+import org.jdom.Element;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class InspectionShardsTest {
+  @Test
+  public void testPartitionBalancesSizes() {
+    List<VirtualFile> files = Arrays.asList(file("a", 10), file("b", 7), file("c", 5), file("d", 3), file("e", 2));
+    List<List<VirtualFile>> shards = InspectionShards.partition(files, 2);
+    assertEquals(2, shards.size());
+    assertEquals("[/a, /d]", shards.get(0).toString());
+    assertEquals("[/b, /c, /e]", shards.get(1).toString());
+  }
+
+  @Test
+  public void testPartitionDoesNotDependOnOrder() {
+    List<VirtualFile> files = new ArrayList<VirtualFile>();
+    for (int i = 0; i < 20; i++) {
+      files.add(file("f" + i, i % 4));
+    }
+    List<List<VirtualFile>> expected = InspectionShards.partition(files, 3);
+    Collections.reverse(files);
+    assertEquals(expected.toString(), InspectionShards.partition(files, 3).toString());
+  }
+
+  @Test
+  public void testPartitionWithMoreShardsThanFiles() {
+    List<List<VirtualFile>> shards = InspectionShards.partition(Collections.<VirtualFile>singletonList(file("a", 0)), 3);
+    assertEquals("[[/a], [], []]", shards.toString());
+  }
+
+  @Test
+  public void testSortProblems() {
+    List<Element> problems = new ArrayList<Element>(Arrays.asList(problem("b.java", "1", "x"),
+                                                                  problem("a.java", "10", "y"),
+                                                                  problem("a.java", "9", "z"),
+                                                                  problem("a.java", "9", "w"),
+                                                                  problem("a.java", null, "v")));
+    InspectionShards.sortProblems(problems);
+    List<String> descriptions = new ArrayList<String>();
+    for (Element problem : problems) {
+      descriptions.add(problem.getChildText("description"));
+    }
+    assertEquals(Arrays.asList("v", "w", "z", "y", "x"), descriptions);
+  }
+
+  private static VirtualFile file(String name, final long length) {
+    return new LightVirtualFile(name) {
+      @Override
+      public long getLength() {
+        return length;
+      }
+
+      @Override
+      public String toString() {
+        return getPath();
+      }
+    };
+  }
+
+  private static Element problem(String file, String line, String description) {
+    Element problem = new Element("problem");
+    problem.addContent(new Element("file").setText(file));
+    if (line != null) {
+      problem.addContent(new Element("line").setText(line));
+    }
+    problem.addContent(new Element("description").setText(description));
+    return problem;
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection.ex;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.ModuleRootModificationUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.PsiTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+public class InspectionResultsCacheTest extends PlatformTestCase {
+  private File myCacheFile;
+  private InspectionProfileImpl myProfile;
+
+  @Override
+  public void setUp() throws Exception {
+    initPlatformLangPrefix();
+    super.setUp();
+    myCacheFile = new File(createTempDirectory(), "results");
+    myProfile = InspectionProfileImpl.createSimple("test", getProject());
+  }
+
+  public void testOutputIsReusedForUnchangedFile() throws Exception {
+    VirtualFile file = createFile(createModule("a"), "a.txt", "a");
+
+    InspectionResultsCache cache = openCache();
+    String key = cache.getKey(file);
+    assertNotNull(key);
+    cache.put(file, key, Collections.singletonMap("Tool", "<problem/>"));
+    cache.close();
+
+    cache = openCache();
+    try {
+      assertEquals(key, cache.getKey(file));
+      assertEquals(Collections.singletonMap("Tool", "<problem/>"), cache.get(file, key));
+    }
+    finally {
+      cache.close();
+    }
+  }
+
+  public void testChangeInDependentModuleInvalidatesOutput() throws Exception {
+    Module a = createModule("a");
+    Module b = createModule("b");
+    Module c = createModule("c");
+    ModuleRootModificationUtil.addDependency(b, a);
+    VirtualFile fileA = createFile(a, "a.txt", "a");
+    VirtualFile fileB = createFile(b, "b.txt", "b");
+    VirtualFile fileC = createFile(c, "c.txt", "c");
+
+    InspectionResultsCache cache = openCache();
+    String keyA = cache.getKey(fileA);
+    String keyC = cache.getKey(fileC);
+    cache.close();
+
+    setText(fileB, "uses a");
+
+    cache = openCache();
+    try {
+      // a tool may have searched b for usages of a
+      assertFalse(keyA.equals(cache.getKey(fileA)));
+      assertEquals(keyC, cache.getKey(fileC));
+    }
+    finally {
+      cache.close();
+    }
+  }
+
+  public void testOutputOfDeletedFileIsRemoved() throws Exception {
+    VirtualFile file = createFile(createModule("a"), "a.txt", "a");
+    File ioFile = new File(file.getPath());
+
+    InspectionResultsCache cache = openCache();
+    String key = cache.getKey(file);
+    assertNotNull(key);
+    cache.put(file, key, Collections.singletonMap("Tool", "<problem/>"));
+    cache.close();
+
+    assertTrue(ioFile.delete());
+    cache = openCache();
+    cache.close();
+
+    // the same file created again is inspected again
+    FileUtil.writeToFile(ioFile, "a");
+    file = getVirtualFile(ioFile);
+    cache = openCache();
+    try {
+      assertEquals(key, cache.getKey(file));
+      assertNull(cache.get(file, key));
+    }
+    finally {
+      cache.close();
+    }
+  }
+
+  private InspectionResultsCache openCache() {
+    InspectionResultsCache cache = InspectionResultsCache.open(getProject(), myProfile, myCacheFile);
+    assertNotNull(cache);
+    return cache;
+  }
+
+  private VirtualFile createFile(Module module, String name, String text) throws IOException {
+    File dir = createTempDir(module.getName());
+    File file = new File(dir, name);
+    FileUtil.writeToFile(file, text);
+    PsiTestUtil.addContentRoot(module, getVirtualFile(dir));
+    VirtualFile virtualFile = getVirtualFile(file);
+    assertNotNull(virtualFile);
+    return virtualFile;
+  }
+
+  private static void setText(VirtualFile file, String text) throws IOException {
+    FileUtil.writeToFile(new File(file.getPath()), text);
+    file.refresh(false, false);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import junit.framework.TestCase;
+
+public class TrigramQueryTest extends TestCase {
+  public void testLiteral() {
+    assertQuery("xyz yzz zoo zzo", "XyzZoo");
+  }
+
+  public void testEscapes() {
+    assertQuery("q.z xq. xyz yzx zxq", "xyz\\x78q\\.z");
+    assertQuery("q.z xq. xyz yzx zxq", "xyz\\Qxq.z\\E");
+  }
+
+  public void testConcatenationAroundUnknownText() {
+    assertQuery("qwz wzv xyz", "xyz.*qwzv");
+    assertQuery("qwz wzv xyz", "xyz\\w+qwzv");
+    assertQuery("qxy", "(?<n>qxy)\\k<n>z");
+  }
+
+  public void testAlternation() {
+    assertQuery("(qxy xyz | qwz wzv)", "qxyz|qwzv");
+    assertQuery("(qxy xyz | qwz qxq xqw)", "qx(yz|qwz)");
+  }
+
+  public void testOptionalAndRepeatedParts() {
+    assertQuery("(qxy xyz | qxz)", "qxy?z");
+    assertQuery("qxy xyz zqz", "(qxyz)+zqz");
+    assertQuery("qxy xyz", "(?i)(?:qxyz){2,}");
+  }
+
+  public void testCharacterClasses() {
+    assertQuery("(qxa xaz | qxb xbz | qxc xcz)", "qx[a-c]z");
+    assertQuery("(]qz qzw | qzw xqz | qzw yqz)", "[\\]xy]qzw");
+    assertQuery("qwz zzv", "qwz[^a]zzv");
+    assertQuery("zqw", "qx[a-z]zqw");
+  }
+
+  public void testNothingRequired() {
+    assertNull(TrigramQuery.forRegExp("xy"));
+    assertNull(TrigramQuery.forRegExp("qxyz|.*"));
+    assertNull(TrigramQuery.forRegExp("(qxyz)*"));
+    assertNull(TrigramQuery.forRegExp("(?x)qxyz"));
+    assertNull(TrigramQuery.forRegExp("qx(yz"));
+  }
+
+  private static void assertQuery(String expected, String regExp) {
+    TrigramQuery query = TrigramQuery.forRegExp(regExp);
+    assertNotNull(regExp, query);
+    assertEquals(regExp, expected, query.toString());
+  }
+}
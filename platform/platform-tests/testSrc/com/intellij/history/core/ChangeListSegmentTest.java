@@ -0,0 +1,236 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.*;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class ChangeListSegmentTest extends TempDirTestCase {
+  @Test
+  public void testAppendingAndReading() throws Exception {
+    ChangeListSegment s = ChangeListSegment.create(new File(myTempDir, "segment"), 5);
+    try {
+      append(s, 5, "one", 10);
+      append(s, 6, "two", 20);
+
+      assertEquals(5, s.getFirstRecordId());
+      assertEquals(6, s.getLastRecordId());
+      assertTrue(s.contains(6));
+      assertFalse(s.contains(7));
+      assertEquals(20, s.getTimestamp(6));
+      assertEquals("one", s.readChangeSet(5).getName());
+      assertEquals("two", s.readChangeSet(6).getName());
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void testReopeningUnsealed() throws Exception {
+    File file = new File(myTempDir, "segment");
+    ChangeListSegment s = ChangeListSegment.create(file, 1);
+    append(s, 1, "one", 10);
+    append(s, 2, "two", 20);
+    s.close();
+
+    s = ChangeListSegment.open(file, 1);
+    try {
+      assertFalse(s.isSealed());
+      assertEquals(2, s.getLastRecordId());
+      assertEquals(2, s.getLastId());
+      assertEquals(20, s.getTimestamp(2));
+      assertEquals("two", s.readChangeSet(2).getName());
+
+      append(s, 3, "three", 30);
+      assertEquals("three", s.readChangeSet(3).getName());
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void testReopeningSealed() throws Exception {
+    File file = new File(myTempDir, "segment");
+    ChangeListSegment s = ChangeListSegment.create(file, 1);
+    append(s, 1, "one", 10);
+    append(s, 2, "two", 20);
+    s.seal();
+    s.close();
+
+    s = ChangeListSegment.open(file, 1);
+    try {
+      assertTrue(s.isSealed());
+      assertEquals(2, s.getLastRecordId());
+      assertEquals(10, s.getTimestamp(1));
+      assertEquals("one", s.readChangeSet(1).getName());
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void testDroppingIncompleteRecord() throws Exception {
+    File file = new File(myTempDir, "segment");
+    ChangeListSegment s = ChangeListSegment.create(file, 1);
+    append(s, 1, "one", 10);
+    append(s, 2, "two", 20);
+    s.close();
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(raf.length() - 3);
+    raf.close();
+
+    s = ChangeListSegment.open(file, 1);
+    try {
+      assertEquals(1, s.getLastRecordId());
+      append(s, 2, "new two", 30);
+      assertEquals("new two", s.readChangeSet(2).getName());
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void testFindingByPath() throws Exception {
+    File file = new File(myTempDir, "segment");
+    ChangeListSegment s = ChangeListSegment.create(file, 1);
+    append(s, 1, "one", 10, new CreateFileChange(nextId(), "/dir/file"));
+    append(s, 2, "two", 20, new CreateFileChange(nextId(), "/other/file"));
+    append(s, 3, "three", 30, new RenameChange(nextId(), "/dir2", "dir"));
+    append(s, 4, "four", 40, new PutLabelChange(nextId(), "label", "project"));
+
+    assertFound(s, "/dir2/file", null, 3, 0);
+    assertFound(s, "/dir/file", null, 3, 1, 0);
+    assertFound(s, "/dir", null, 3, 1, 0);
+    assertFound(s, "/", null, 3, 2, 1, 0);
+    assertFound(s, "/other/file", "project", 4, 2, 0);
+
+    s.seal();
+    s.close();
+
+    s = ChangeListSegment.open(file, 1);
+    try {
+      assertFound(s, "/dir/file", "project", 4, 3, 1, 0);
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void testReadingFromInterruptedThread() throws Exception {
+    ChangeListSegment s = ChangeListSegment.create(new File(myTempDir, "segment"), 1);
+    try {
+      append(s, 1, "one", 10);
+      Thread.currentThread().interrupt();
+      try {
+        assertEquals("one", s.readChangeSet(1).getName());
+      }
+      finally {
+        assertTrue(Thread.interrupted());
+      }
+      append(s, 2, "two", 20);
+      assertEquals("two", s.readChangeSet(2).getName());
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void testFindingByPathWhenIndexIsTruncated() throws Exception {
+    File file = new File(myTempDir, "segment");
+    ChangeListSegment s = ChangeListSegment.create(file, 1);
+    append(s, 1, "one", 10, new CreateFileChange(nextId(), "/dir/file"));
+    append(s, 2, "two", 20, new CreateFileChange(nextId(), "/other/file"));
+    s.seal();
+    s.close();
+
+    // cut off the path index, leaving the record table
+    RandomAccessFile raf = new RandomAccessFile(new File(file.getPath() + ".index"), "rw");
+    raf.setLength(8 + 8 + 4 + 2 * (8 + 8));
+    raf.close();
+
+    s = ChangeListSegment.open(file, 1);
+    try {
+      assertTrue(s.isSealed());
+      assertFound(s, "/dir/file", null, 1, 0);
+      assertFound(s, "/other", null, 2, 0);
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void testCorruptedRecord() throws Exception {
+    File file = new File(myTempDir, "segment");
+    ChangeListSegment s = ChangeListSegment.create(file, 1);
+    try {
+      append(s, 1, "one", 10);
+
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      raf.writeInt(42); // record id in the header
+      raf.close();
+
+      try {
+        s.readChangeSet(1);
+        fail();
+      }
+      catch (ChangeListSegment.CorruptedRecordException ignored) {
+      }
+    }
+    finally {
+      s.close();
+    }
+  }
+
+  private static void assertFound(ChangeListSegment s, String path, String projectId, int... expected) throws IOException {
+    int[] keys = ChangeSetKeys.getQueryKeys(path, projectId);
+    int before = s.getLastRecordId() + 1;
+    for (int each : expected) {
+      int found = s.findPrevious(before, keys);
+      assertEquals(each, found);
+      before = found;
+    }
+  }
+
+  private static void append(ChangeListSegment s, int recordId, String name, long timestamp, Change... changes) throws IOException {
+    ChangeSet changeSet = new ChangeSet(recordId, timestamp);
+    changeSet.setName(name);
+    for (Change each : changes) {
+      changeSet.addChange(each);
+    }
+    changeSet.lock();
+
+    BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    changeSet.write(out);
+    out.close();
+    s.append(recordId, timestamp, recordId, bytes.getInternalBuffer(), bytes.size(), ChangeSetKeys.getKeys(changeSet));
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.history.core;
+
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.history.core.changes.ContentChange;
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.zip.DeflaterOutputStream;
+
+public class DeltaContentStorageTest extends TempDirTestCase {
+  private static final Executor SAME_THREAD = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private DeltaContentStorage s;
+
+  @Before
+  public void setUp() throws Exception {
+    s = new DeltaContentStorage(getStorageFile(), SAME_THREAD);
+  }
+
+  @After
+  public void tearDown() {
+    s.close();
+  }
+
+  private File getStorageFile() {
+    return new File(myTempDir, "contents");
+  }
+
+  @Test
+  public void testDelta() throws Exception {
+    assertDelta("", "");
+    assertDelta("", "abc");
+    assertDelta("abc", "");
+    assertDelta("0123456789abcdefghijklmnopqrstuvwxyz", "0123456789abcdefghijklmnopqrstuvwxyz");
+    assertDelta("0123456789abcdefghijklmnopqrstuvwxyz", "xx0123456789abcdefgHIJklmnopqrstuvwxyz0123456789abcdefghijkl");
+
+    Random r = new Random(0);
+    byte[] base = randomText(r, 10000);
+    byte[] target = base;
+    for (int i = 0; i < 20; i++) {
+      target = edit(r, target);
+    }
+    byte[] delta = assertDelta(base, target);
+    assertTrue(delta.length < target.length / 10);
+  }
+
+  @Test
+  public void testStoringRevisions() throws Exception {
+    Random r = new Random(0);
+    List<byte[]> revisions = new ArrayList<byte[]>();
+    List<Integer> ids = new ArrayList<Integer>();
+    byte[] content = randomText(r, 5000);
+    for (int i = 0; i < DeltaContentStorage.MAX_CHAIN_LENGTH * 3; i++) {
+      revisions.add(content);
+      ids.add(s.store("file", content));
+      content = edit(r, content);
+    }
+
+    for (int i = 0; i < ids.size(); i++) {
+      assertArrayEquals(revisions.get(i), s.load(ids.get(i)));
+    }
+  }
+
+  @Test
+  public void testDeduplication() throws Exception {
+    int id1 = s.store("file1", "content".getBytes());
+    int id2 = s.store("file2", "content".getBytes());
+    assertEquals("content", new String(s.load(id2)));
+
+    s.release(id1);
+    assertEquals("content", new String(s.load(id2)));
+  }
+
+  @Test
+  public void testReleasingBasesFirst() throws Exception {
+    Random r = new Random(0);
+    byte[] content = randomText(r, 5000);
+    List<Integer> ids = new ArrayList<Integer>();
+    for (int i = 0; i < 5; i++) {
+      ids.add(s.store("file", content));
+      content = edit(r, content);
+    }
+    int last = s.store("file", content);
+
+    for (int each : ids) {
+      s.release(each);
+    }
+    assertArrayEquals(content, s.load(last));
+  }
+
+  @Test
+  public void testReopening() throws Exception {
+    int id = s.store("file", "content".getBytes());
+    s.close();
+
+    s = new DeltaContentStorage(getStorageFile(), SAME_THREAD);
+    assertEquals("content", new String(s.load(id)));
+  }
+
+  @Test
+  public void testEditingSessionIsStoredCompactly() throws Exception {
+    Random r = new Random(0);
+    byte[] content = randomText(r, 64 * 1024);
+    int revisionCount = 30;
+
+    List<byte[]> revisions = new ArrayList<byte[]>();
+    List<Integer> ids = new ArrayList<Integer>();
+    long fullCopiesSize = 0;
+    for (int i = 0; i < revisionCount; i++) {
+      for (int j = 0; j < 5; j++) {
+        content = edit(r, content);
+      }
+      revisions.add(content);
+      fullCopiesSize += deflatedSize(content);
+      ids.add(s.store("fixture.json", content));
+    }
+
+    for (int i = revisionCount - 1; i >= 0; i--) {
+      assertArrayEquals(revisions.get(i), s.load(ids.get(i)));
+    }
+    s.close();
+
+    long storageSize = 0;
+    for (File each : myTempDir.listFiles()) {
+      storageSize += each.length();
+    }
+    assertTrue(storageSize + " vs " + fullCopiesSize, storageSize < fullCopiesSize / 3);
+    s = new DeltaContentStorage(getStorageFile(), SAME_THREAD);
+  }
+
+  @Test
+  public void testRevisionsOfLongHistoryAreReconstructedFromShortChains() throws Exception {
+    List<byte[]> revisions = new ArrayList<byte[]>();
+    List<Integer> ids = storeLongHistory(revisions);
+
+    int longest = 0;
+    for (int i = 0; i < ids.size(); i++) {
+      int length = s.getChainLength(ids.get(i));
+      assertTrue(i + ": " + length, length <= DeltaContentStorage.MAX_CHAIN_LENGTH);
+      longest = Math.max(longest, length);
+      assertArrayEquals(revisions.get(i), s.load(ids.get(i)));
+    }
+    assertEquals(DeltaContentStorage.MAX_CHAIN_LENGTH, longest);
+  }
+
+  @Test
+  public void testLoadingRevisionsOfLongHistoryPerformance() throws Exception {
+    final List<Integer> ids = storeLongHistory(new ArrayList<byte[]>());
+    PlatformTestUtil.startPerformanceTest("loading all revisions of a long history", 2000, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        for (int i = 0; i < 10; i++) {
+          for (int id : ids) {
+            s.load(id);
+          }
+        }
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private List<Integer> storeLongHistory(List<byte[]> revisions) throws IOException {
+    Random r = new Random(0);
+    byte[] content = randomText(r, 64 * 1024);
+    List<Integer> ids = new ArrayList<Integer>();
+    for (int i = 0; i < DeltaContentStorage.MAX_CHAIN_LENGTH * 10; i++) {
+      content = edit(r, content);
+      revisions.add(content);
+      ids.add(s.store("file", content));
+    }
+    return ids;
+  }
+
+  @Test
+  public void testResolvingContentsOfChangeSetsReadFromDisk() throws Exception {
+    int id = s.store("file", "content".getBytes());
+
+    ChangeSet changeSet = new ChangeSet(1, 1);
+    changeSet.addChange(new ContentChange(nextId(), "file", new StoredContent(-id), 1));
+    BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    changeSet.write(out);
+    out.close();
+
+    ChangeSet read = new ChangeSet(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    Content content = ((ContentChange)read.getChanges().get(0)).getOldContent();
+    try {
+      content.getBytes();
+      fail("the content doesn't know its storage yet");
+    }
+    catch (RuntimeException ignored) {
+    }
+
+    s.resolveContents(read);
+    assertEquals("content", new String(content.getBytes()));
+  }
+
+  private static byte[] assertDelta(String base, String target) throws IOException {
+    return assertDelta(base.getBytes(), target.getBytes());
+  }
+
+  private static byte[] assertDelta(byte[] base, byte[] target) throws IOException {
+    byte[] delta = ContentDelta.compute(base, target);
+    assertArrayEquals(target, ContentDelta.apply(base, delta));
+    return delta;
+  }
+
+  private static byte[] randomText(Random r, int length) {
+    String[] words = {"{", "}", "\"id\": ", "\"name\": ", "\"value\", ", "true, ", "null, ", "12345, ", "\n", "  "};
+    StringBuilder result = new StringBuilder(length + 16);
+    while (result.length() < length) {
+      result.append(words[r.nextInt(words.length)]);
+    }
+    return result.toString().getBytes();
+  }
+
+  private static byte[] edit(Random r, byte[] content) {
+    int offset = r.nextInt(content.length + 1);
+    int removed = r.nextBoolean() ? Math.min(r.nextInt(50), content.length - offset) : 0;
+    byte[] inserted = randomText(r, r.nextInt(30));
+
+    byte[] result = new byte[content.length - removed + inserted.length];
+    System.arraycopy(content, 0, result, 0, offset);
+    System.arraycopy(inserted, 0, result, offset, inserted.length);
+    System.arraycopy(content, offset + removed, result, offset + inserted.length, content.length - offset - removed);
+    return result;
+  }
+
+  private static long deflatedSize(byte[] content) throws IOException {
+    BufferExposingByteArrayOutputStream bytes = new BufferExposingByteArrayOutputStream();
+    DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+    out.write(content);
+    out.close();
+    return bytes.size();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.ex;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.util.TimeoutUtil;
+import com.intellij.util.ui.UIUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class LineStatusTrackerTest extends LightPlatformTestCase {
+  // more than the tracker diffs incrementally
+  private static final int LINES = 6000;
+
+  private Document myDocument;
+  private LineStatusTracker myTracker;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDocument = new DocumentImpl("a\nb\nc\n");
+    myTracker = LineStatusTracker.createOn(null, myDocument, getProject());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myTracker.release();
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testRangesAreCalculatedInBackground() {
+    myTracker.initialize("a\nb\nc\n", new LineStatusTracker.RevisionPack(0, VcsRevisionNumber.NULL));
+    waitForRanges();
+    assertEquals(Collections.<Range>emptyList(), myTracker.getRanges());
+
+    myTracker.initialize("a\nX\nc\n", new LineStatusTracker.RevisionPack(1, VcsRevisionNumber.NULL));
+    waitForRanges();
+    assertEquals(Arrays.asList(new Range(1, 2, 1, 2, Range.MODIFIED)), myTracker.getRanges());
+  }
+
+  public void testRangesAfterBulkUpdate() {
+    myTracker.initialize("a\nb\nc\n", new LineStatusTracker.RevisionPack(0, VcsRevisionNumber.NULL));
+    waitForRanges();
+
+    myTracker.startBulkUpdate();
+    insertString(myDocument.getTextLength(), "d\n");
+    myTracker.finishBulkUpdate();
+
+    waitForRanges();
+    assertEquals(Arrays.asList(new Range(3, 4, 3, 3, Range.INSERTED)), myTracker.getRanges());
+  }
+
+  public void testLastRangesAreReturnedWhileRecalculating() {
+    myTracker.initialize("a\nX\nc\n", new LineStatusTracker.RevisionPack(0, VcsRevisionNumber.NULL));
+    waitForRanges();
+    List<Range> ranges = myTracker.getRanges();
+
+    insertString(myDocument.getTextLength(), StringUtil.repeat("d\n", LINES));
+    assertTrue(myTracker.isCalculatingRanges());
+    assertSame(ranges, myTracker.getRanges());
+
+    waitForRanges();
+    assertEquals(Arrays.asList(new Range(1, 2, 1, 2, Range.MODIFIED), new Range(3, 3 + LINES, 3, 3, Range.INSERTED)),
+                 myTracker.getRanges());
+  }
+
+  public void testTypingDoesNotPostponeRecalculation() {
+    myTracker.initialize("a\nb\nc\n", new LineStatusTracker.RevisionPack(0, VcsRevisionNumber.NULL));
+    waitForRanges();
+
+    insertString(myDocument.getTextLength(), StringUtil.repeat("d\n", LINES));
+    long deadline = System.currentTimeMillis() + 10000;
+    while (myTracker.isCalculatingRanges()) {
+      assertTrue("the ranges are never calculated", System.currentTimeMillis() < deadline);
+      insertString(0, "X");
+      TimeoutUtil.sleep(10);
+      UIUtil.dispatchAllInvocationEvents();
+    }
+    assertEquals(Arrays.asList(new Range(0, 1, 0, 1, Range.MODIFIED), new Range(3, 3 + LINES, 3, 3, Range.INSERTED)),
+                 myTracker.getRanges());
+
+    // the ranges are updated incrementally again
+    insertString(myDocument.getLineStartOffset(1), "b");
+    assertFalse(myTracker.isCalculatingRanges());
+    assertEquals(Arrays.asList(new Range(0, 2, 0, 2, Range.MODIFIED), new Range(3, 3 + LINES, 3, 3, Range.INSERTED)),
+                 myTracker.getRanges());
+  }
+
+  private void insertString(final int offset, final String text) {
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        myDocument.insertString(offset, text);
+      }
+    });
+  }
+
+  private void waitForRanges() {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (myTracker.isCalculatingRanges()) {
+      assertTrue("the ranges are never calculated", System.currentTimeMillis() < deadline);
+      TimeoutUtil.sleep(10);
+      UIUtil.dispatchAllInvocationEvents();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.search;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.registry.Registry;
+import com.intellij.openapi.util.registry.RegistryValue;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.impl.cache.impl.id.IdIndexEntry;
+import com.intellij.psi.impl.cache.impl.id.IdPositionIndex;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.util.indexing.FileContentImpl;
+import com.intellij.util.text.StringSearcher;
+import gnu.trove.TIntArrayList;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+public class IdPositionIndexTest extends LightPlatformTestCase {
+  private RegistryValue myWordPositions;
+  private boolean myOldValue;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myWordPositions = Registry.get("indexing.word.positions");
+    myOldValue = myWordPositions.asBoolean();
+    myWordPositions.setValue(true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myWordPositions.setValue(myOldValue);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testSameOccurrencesAsScanning() {
+    doTest("foo", "foo bar foo.foo(fooBar, barfoo, foo_1, $foo, foo$)", 0, 8, 12, 40, 45);
+  }
+
+  public void testWordAtStartAndEndOfFile() {
+    doTest("foo", "foo + foo", 0, 6);
+    doTest("foo", "foo", 0);
+  }
+
+  public void testNoOccurrences() {
+    doTest("foo", "fooo bar");
+  }
+
+  public void testHashCollision() {
+    // "Aa" and "BB" have the same hash, so the index keeps their offsets together
+    assertEquals(new IdIndexEntry("Aa", true), new IdIndexEntry("BB", true));
+    assertEquals("[0, 3, 11, 14]", Arrays.toString(index("Aa", "Aa BB AaBB BB Aa")));
+    doTest("Aa", "Aa BB AaBB BB Aa", 0, 14);
+    doTest("BB", "Aa BB AaBB BB Aa", 3, 11);
+  }
+
+  public void testUnsavedDocumentIsScanned() throws IOException {
+    final VirtualFile file = ApplicationManager.getApplication().runWriteAction(new ThrowableComputable<VirtualFile, IOException>() {
+      @Override
+      public VirtualFile compute() throws IOException {
+        VirtualFile file = getSourceRoot().createChildData(this, "a.txt");
+        VfsUtil.saveText(file, "foo bar");
+        return file;
+      }
+    });
+    PsiFile psiFile = getPsiManager().findFile(file);
+    assertNotNull(psiFile);
+    final Document document = FileDocumentManager.getInstance().getDocument(file);
+    assertNotNull(document);
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        document.insertString(0, "foo ");
+      }
+    });
+    assertTrue(FileDocumentManager.getInstance().isFileModified(file));
+
+    StringSearcher searcher = new StringSearcher("foo", true, true, false);
+    assertNull(LowLevelSearchUtil.getIndexedOccurrences(psiFile, document.getCharsSequence(), searcher));
+  }
+
+  private static void doTest(String word, String text, int... expected) {
+    assertEquals(Arrays.toString(expected), Arrays.toString(scan(word, text)));
+    assertEquals(Arrays.toString(expected), Arrays.toString(LowLevelSearchUtil.getWholeWordOccurrences(index(word, text), text, word)));
+  }
+
+  private static int[] index(String word, String text) {
+    Map<IdIndexEntry, TIntArrayList> offsets =
+      new IdPositionIndex().getIndexer().map(new FileContentImpl(new LightVirtualFile("a.txt", text), text, null));
+    TIntArrayList result = offsets.get(new IdIndexEntry(word, true));
+    return result == null ? new int[0] : result.toNativeArray();
+  }
+
+  private static int[] scan(String word, String text) {
+    StringSearcher searcher = new StringSearcher(word, true, true, false);
+    TIntArrayList result = new TIntArrayList();
+    int offset = 0;
+    while (offset < text.length()) {
+      offset = LowLevelSearchUtil.searchWord(text, offset, text.length(), searcher, null);
+      if (offset < 0) break;
+      result.add(offset);
+      offset++;
+    }
+    return result.toNativeArray();
+  }
+}
@@ -76,6 +76,20 @@ public class UsageNodeTreeBuilderTest extends LightPlatformTestCase {
     assertEquals("[Even[1[0, 2], 2[12, 14], 3[102]], Odd[1[1, 3], 2[13, 15], 3[101, 103, 105]], 5[10003, 10001, 10002]]", groupNode.toString());
   }
 
+  public void testGroupChildrenAreLoadedOnDemand() throws Exception {
+    GroupNode groupNode = buildUsageTree(new int[]{0, 1, 0}, new UsageGroupingRule[] {new OddEvenGroupingRule()});
+    GroupNode even = (GroupNode)groupNode.getChildAt(0);
+    assertFalse(even.areChildrenLoaded());
+    assertFalse(even.isLeaf());
+    assertEquals(2, even.getRecursiveUsageCount());
+    UsageNode usageNode = even.getUsageNodes().iterator().next();
+    assertSame(even, usageNode.getParent());
+
+    assertEquals(2, even.getChildCount());
+    assertTrue(even.areChildrenLoaded());
+    assertEquals(0, even.getIndex(usageNode));
+  }
+
   private static Usage createUsage(int index) {
     return new MockUsage(index);
   }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import gnu.trove.TIntArrayList;
+import junit.framework.TestCase;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Diffs files of 10k, 100k and 1M lines against edited copies, where a small part of the lines are unique
+ * (like lines with identifiers) and the rest repeat often (like braces and blank lines).
+ */
+public class DiffPerformanceTest extends TestCase {
+  public void testPatience10k() {
+    doTestPatience(10000, 20);
+  }
+
+  public void testPatience100k() {
+    doTestPatience(100000, 200);
+  }
+
+  public void testPatience1M() {
+    doTestPatience(1000000, 1000);
+  }
+
+  public void testMyers10k() {
+    doTestMyers(10000, 20);
+  }
+
+  public void testMyers100k() {
+    doTestMyers(100000, 300);
+  }
+
+  public void testMyers1M() {
+    doTestMyers(1000000, 2000);
+  }
+
+  private static void doTestPatience(int lines, int expectedMs) {
+    final int[] ids1 = generate(lines);
+    final int[] ids2 = edit(new Random(1), ids1, lines / 100);
+    PlatformTestUtil.startPerformanceTest("patience diff of " + lines + " lines", expectedMs, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        Diff.Change change = Diff.buildChanges(ids1, ids2);
+        assertNotNull(change);
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private static void doTestMyers(int lines, int expectedMs) {
+    final int[] ids1 = generate(lines);
+    final int[] ids2 = edit(new Random(1), ids1, lines / 100);
+    PlatformTestUtil.startPerformanceTest("Myers diff of " + lines + " lines", expectedMs, new ThrowableRunnable() {
+      @Override
+      public void run() throws Throwable {
+        BitSet changes1 = new BitSet(ids1.length);
+        BitSet changes2 = new BitSet(ids2.length);
+        new MyersLCS(ids1, ids2, changes1, changes2).execute();
+        assertEquals(ids1.length - changes1.cardinality(), ids2.length - changes2.cardinality());
+      }
+    }).cpuBound().assertTiming();
+  }
+
+  private static int[] generate(int lines) {
+    Random random = new Random(0);
+    int[] result = new int[lines];
+    for (int i = 0; i < lines; i++) {
+      result[i] = random.nextInt(4) == 0 ? lines + i : random.nextInt(20);
+    }
+    return result;
+  }
+
+  private static int[] edit(Random random, int[] ids, int edits) {
+    TIntArrayList result = new TIntArrayList(ids.length + edits * 5);
+    for (int i = 0; i < ids.length; i++) {
+      if (random.nextInt(ids.length) < edits) {
+        for (int j = random.nextInt(5); j > 0; j--) {
+          result.add(random.nextInt(20));
+        }
+        i += random.nextInt(5);
+      }
+      if (i < ids.length) result.add(ids[i]);
+    }
+    return result.toNativeArray();
+  }
+}
@@ -45,13 +45,25 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
   private final List<UsageNode> myUsageNodes = new SmartList<UsageNode>();
   @NotNull private final UsageViewTreeModelBuilder myUsageTreeModel;
   private volatile int myRecursiveUsageCount = 0;
+  // children which are not in the tree model yet, they get there when the children of this node are accessed for the first time
+  private final List<DefaultMutableTreeNode> myPendingNodes = new SmartList<DefaultMutableTreeNode>();
+  private boolean myChildrenLoaded;
 
   public GroupNode(@Nullable UsageGroup group, int ruleIndex, @NotNull UsageViewTreeModelBuilder treeModel) {
+    this(group, ruleIndex, treeModel, true);
+  }
+
+  /**
+   * @param childrenLoaded false to keep the children out of the tree model until someone asks for them,
+   *                       so that the nodes of a group the user never expands cost no tree events
+   */
+  private GroupNode(@Nullable UsageGroup group, int ruleIndex, @NotNull UsageViewTreeModelBuilder treeModel, boolean childrenLoaded) {
     super(treeModel);
     myUsageTreeModel = treeModel;
     setUserObject(group);
     myGroup = group;
     myRuleIndex = ruleIndex;
+    myChildrenLoaded = childrenLoaded;
   }
 
   @Override
@@ -64,6 +76,7 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
   public String toString() {
     String result = "";
     if (myGroup != null) result = myGroup.getText(null);
+    ensureChildrenLoaded();
     if (children == null) {
       return result;
     }
@@ -74,7 +87,7 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
     synchronized (lock) {
       GroupNode node = mySubgroupNodes.get(group);
       if (node == null) {
-        final GroupNode node1 = node = new GroupNode(group, ruleIndex, getBuilder());
+        final GroupNode node1 = node = new GroupNode(group, ruleIndex, getBuilder(), false);
         mySubgroupNodes.put(group, node);
 
         addNode(node1, edtQueue);
@@ -84,7 +97,7 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
   }
 
   void addNode(@NotNull final DefaultMutableTreeNode node, @NotNull Consumer<Runnable> edtQueue) {
-    if (!getBuilder().isDetachedMode()) {
+    if (!getBuilder().isDetachedMode() && !addPending(node)) {
       edtQueue.consume(new Runnable() {
         @Override
         public void run() {
@@ -98,10 +111,78 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
     return (UsageViewTreeModelBuilder)myTreeModel;
   }
 
+  /**
+   * @return false if the children are loaded and the node should be inserted into the tree model
+   */
+  private boolean addPending(@NotNull DefaultMutableTreeNode node) {
+    synchronized (lock) {
+      if (myChildrenLoaded) return false;
+      // the node is not a child yet, but knows its path
+      node.setParent(this);
+      myPendingNodes.add(node);
+      return true;
+    }
+  }
+
+  /**
+   * Moves the pending children to the tree model, in the same order as they would have been inserted one by one.
+   * No events are fired: the tree hasn't asked for the children of this node before.
+   */
+  private void ensureChildrenLoaded() {
+    synchronized (lock) {
+      if (myChildrenLoaded) return;
+      myChildrenLoaded = true;
+      for (DefaultMutableTreeNode node : myPendingNodes) {
+        node.setParent(null);
+        insert(node, node instanceof UsageNode ? getNodeIndex((UsageNode)node) : getNodeInsertionIndex(node));
+      }
+      myPendingNodes.clear();
+    }
+  }
+
+  boolean areChildrenLoaded() {
+    synchronized (lock) {
+      return myChildrenLoaded;
+    }
+  }
+
+  @Override
+  public int getChildCount() {
+    ensureChildrenLoaded();
+    return super.getChildCount();
+  }
+
+  @Override
+  public TreeNode getChildAt(int index) {
+    ensureChildrenLoaded();
+    return super.getChildAt(index);
+  }
+
+  @Override
+  public int getIndex(TreeNode aChild) {
+    ensureChildrenLoaded();
+    return super.getIndex(aChild);
+  }
+
+  @Override
+  public Enumeration children() {
+    ensureChildrenLoaded();
+    return super.children();
+  }
+
+  @Override
+  public boolean isLeaf() {
+    synchronized (lock) {
+      if (!myChildrenLoaded) return myPendingNodes.isEmpty();
+    }
+    return super.isLeaf();
+  }
+
   @Override
   public void removeAllChildren() {
     synchronized (lock) {
       ApplicationManager.getApplication().assertIsDispatchThread();
+      myPendingNodes.clear();
       super.removeAllChildren();
       mySubgroupNodes.clear();
       myRecursiveUsageCount = 0;
@@ -147,6 +228,7 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
     boolean removed;
     synchronized (lock) {
       removed = myUsageNodes.remove(usage);
+      myPendingNodes.remove(usage);
     }
     if (removed) {
       doUpdate();
@@ -160,6 +242,7 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
     boolean removed;
     synchronized (lock) {
       removed = myUsageNodes.removeAll(usages);
+      myPendingNodes.removeAll(usages);
     }
 
     Collection<GroupNode> groupNodes = mySubgroupNodes.values();
@@ -205,10 +288,13 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
     }
 
     if (!getBuilder().isDetachedMode()) {
+      final boolean pending = addPending(node);
       edtQueue.consume(new Runnable() {
         @Override
         public void run() {
-          myTreeModel.insertNodeInto(node, GroupNode.this, getNodeIndex(node));
+          if (!pending) {
+            myTreeModel.insertNodeInto(node, GroupNode.this, getNodeIndex(node));
+          }
           incrementUsageCount();
         }
       });
@@ -254,9 +340,11 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
     GroupNode groupNode = this;
     while (true) {
       groupNode.myRecursiveUsageCount++;
-      final GroupNode node = groupNode;
-      myTreeModel.nodeChanged(node);
       TreeNode parent = groupNode.getParent();
+      // the tree doesn't show the node if the children of its parent aren't loaded
+      if (!(parent instanceof GroupNode) || ((GroupNode)parent).areChildrenLoaded()) {
+        getBuilder().nodeChangedLater(groupNode);
+      }
       if (!(parent instanceof GroupNode)) return;
       groupNode = (GroupNode)parent;
     }
@@ -292,10 +380,13 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
 
   @Override
   protected boolean isDataReadOnly() {
-    Enumeration enumeration = children();
-    while (enumeration.hasMoreElements()) {
-      Node node = (Node)enumeration.nextElement();
-      if (node.isReadOnly()) return true;
+    synchronized (lock) {
+      for (GroupNode node : mySubgroupNodes.values()) {
+        if (node.isReadOnly()) return true;
+      }
+      for (UsageNode node : myUsageNodes) {
+        if (node.isReadOnly()) return true;
+      }
     }
     return false;
   }
@@ -367,10 +458,13 @@ public class GroupNode extends Node implements Navigatable, Comparable<GroupNode
 
   @Override
   protected boolean isDataExcluded() {
-    Enumeration enumeration = children();
-    while (enumeration.hasMoreElements()) {
-      Node node = (Node)enumeration.nextElement();
-      if (!node.isExcluded()) return false;
+    synchronized (lock) {
+      for (GroupNode node : mySubgroupNodes.values()) {
+        if (!node.isExcluded()) return false;
+      }
+      for (UsageNode node : myUsageNodes) {
+        if (!node.isExcluded()) return false;
+      }
     }
     return true;
   }
@@ -15,16 +15,23 @@
  */
 package com.intellij.usages.impl;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.usages.UsageTarget;
 import com.intellij.usages.UsageViewPresentation;
 import com.intellij.usages.UsageViewSettings;
 import com.intellij.util.Consumer;
 import com.intellij.util.ui.UIUtil;
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
 
+import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeNode;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class UsageViewTreeModelBuilder extends DefaultTreeModel {
   private final RootGroupNode myRootNode;
@@ -35,6 +42,17 @@ public class UsageViewTreeModelBuilder extends DefaultTreeModel {
   private UsageTargetNode[] myTargetNodes;
   private final String myTargetsNodeText;
   private final boolean myDetachedMode;
+  private final Set<TreeNode> myChangedNodes = new LinkedHashSet<TreeNode>();
+  private final Runnable myFireNodesChanged = new Runnable() {
+    @Override
+    public void run() {
+      List<TreeNode> nodes = new ArrayList<TreeNode>(myChangedNodes);
+      myChangedNodes.clear();
+      for (TreeNode node : nodes) {
+        nodeChanged(node);
+      }
+    }
+  };
 
   public UsageViewTreeModelBuilder(UsageViewPresentation presentation, UsageTarget[] targets) {
     //noinspection HardCodedStringLiteral
@@ -124,6 +142,18 @@ public class UsageViewTreeModelBuilder extends DefaultTreeModel {
     }
   }
 
+  /**
+   * Notifies about the change of the node once for all the changes made until the next event is dispatched,
+   * e.g. when the usage count of a group changes for each of thousands of usages.
+   */
+  void nodeChangedLater(@NotNull TreeNode node) {
+    ApplicationManager.getApplication().assertIsDispatchThread();
+    if (myChangedNodes.isEmpty()) {
+      SwingUtilities.invokeLater(myFireNodesChanged);
+    }
+    myChangedNodes.add(node);
+  }
+
   public boolean isDetachedMode() {
     return myDetachedMode;
   }
@@ -24,6 +24,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * @author dyoma
@@ -52,12 +54,56 @@ public class Diff {
     Enumerator<T> enumerator = new Enumerator<T>(objects1.length + objects2.length, ContainerUtil.<T>canonicalStrategy());
     int[] ints1 = enumerator.enumerate(objects1, startShift, endCut);
     int[] ints2 = enumerator.enumerate(objects2, startShift, endCut);
-    Reindexer reindexer = new Reindexer();
-    int[][] discarded = reindexer.discardUnique(ints1, ints2);
-    IntLCS intLCS = new IntLCS(discarded[0], discarded[1]);
-    intLCS.execute();
+    return buildChanges(ints1, ints2, startShift);
+  }
+
+  /**
+   * Same as {@link #buildChanges(Object[], Object[])} for sequences which are already enumerated, i.e. equal elements have equal ids.
+   */
+  @Nullable
+  public static Change buildChanges(@NotNull int[] ids1, @NotNull int[] ids2) throws FilesTooBigForDiffException {
+    int startShift = 0;
+    int size = Math.min(ids1.length, ids2.length);
+    while (startShift < size && ids1[startShift] == ids2[startShift]) {
+      startShift++;
+    }
+    int endCut = 0;
+    size -= startShift;
+    while (endCut < size && ids1[ids1.length - endCut - 1] == ids2[ids2.length - endCut - 1]) {
+      endCut++;
+    }
+    return buildChanges(Arrays.copyOfRange(ids1, startShift, ids1.length - endCut),
+                        Arrays.copyOfRange(ids2, startShift, ids2.length - endCut), startShift);
+  }
+
+  @Nullable
+  private static Change buildChanges(int[] ints1, int[] ints2, int startShift) {
+    BitSet changes1 = new BitSet(ints1.length);
+    BitSet changes2 = new BitSet(ints2.length);
+    new PatienceLCS(ints1, ints2, changes1, changes2).execute();
+
     ChangeBuilder builder = new ChangeBuilder(startShift);
-    reindexer.reindex(intLCS.getPaths(), builder);
+    int x = 0;
+    int y = 0;
+    while (x < ints1.length || y < ints2.length) {
+      int startX = x;
+      while (x < ints1.length && y < ints2.length && !changes1.get(x) && !changes2.get(y)) {
+        x++;
+        y++;
+      }
+      if (x > startX) builder.addEqual(x - startX);
+      int dx = 0;
+      int dy = 0;
+      while (x < ints1.length && changes1.get(x)) {
+        dx++;
+        x++;
+      }
+      while (y < ints2.length && changes2.get(y)) {
+        dy++;
+        y++;
+      }
+      if (dx != 0 || dy != 0) builder.addChange(dx, dy);
+    }
     return builder.getFirstChange();
   }
 
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.BitSet;
+
+/**
+ * Linear space variant of the Myers O(ND) difference algorithm: the middle snake of the shortest edit script is found
+ * by searching from both ends simultaneously and the halves are processed the same way.
+ * <p/>
+ * If the middle snake can't be found within a limited number of steps, the furthest reaching point is taken instead,
+ * so the script may be not the shortest one for very different inputs, but the running time stays bounded.
+ */
+final class MyersLCS {
+  private final int[] myFirst;
+  private final int[] mySecond;
+  private final BitSet myChanges1;
+  private final BitSet myChanges2;
+
+  private final int[] myForward;
+  private final int[] myBackward;
+  private final int myOffset;
+  private final int myMaxCost;
+
+  /**
+   * @param changes1 receives indices of the elements of the first sequence which are not in the common subsequence
+   * @param changes2 same for the second sequence
+   */
+  MyersLCS(int[] first, int[] second, BitSet changes1, BitSet changes2) {
+    myFirst = first;
+    mySecond = second;
+    myChanges1 = changes1;
+    myChanges2 = changes2;
+
+    int size = first.length + second.length + 3;
+    myForward = new int[size];
+    myBackward = new int[size];
+    myOffset = second.length + 1;
+    myMaxCost = Math.max(256, 1 << ((32 - Integer.numberOfLeadingZeros(size)) / 2));
+  }
+
+  public void execute() {
+    TIntArrayList stack = new TIntArrayList();
+    push(stack, 0, myFirst.length, 0, mySecond.length);
+    while (!stack.isEmpty()) {
+      int end2 = stack.remove(stack.size() - 1);
+      int start2 = stack.remove(stack.size() - 1);
+      int end1 = stack.remove(stack.size() - 1);
+      int start1 = stack.remove(stack.size() - 1);
+
+      while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+        start1++;
+        start2++;
+      }
+      while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+        end1--;
+        end2--;
+      }
+
+      if (start1 == end1) {
+        myChanges2.set(start2, end2);
+      }
+      else if (start2 == end2) {
+        myChanges1.set(start1, end1);
+      }
+      else {
+        long split = findSplit(start1, end1, start2, end2);
+        int x = (int)(split >>> 32);
+        int y = (int)split;
+        if ((x == start1 && y == start2) || (x == end1 && y == end2)) {
+          // no progress can be made
+          myChanges1.set(start1, end1);
+          myChanges2.set(start2, end2);
+        }
+        else {
+          push(stack, x, end1, y, end2);
+          push(stack, start1, x, start2, y);
+        }
+      }
+    }
+  }
+
+  private static void push(TIntArrayList stack, int start1, int end1, int start2, int end2) {
+    stack.add(start1);
+    stack.add(end1);
+    stack.add(start2);
+    stack.add(end2);
+  }
+
+  /**
+   * Diagonals are numbered by x - y and addressed with myOffset, the arrays keep the furthest x reached on each diagonal.
+   *
+   * @return point of the middle snake (or of the furthest reaching path) encoded as x << 32 | y
+   */
+  private long findSplit(int start1, int end1, int start2, int end2) {
+    int[] forward = myForward;
+    int[] backward = myBackward;
+    int offset = myOffset;
+
+    int minDiagonal = start1 - end2;
+    int maxDiagonal = end1 - start2;
+    int forwardMid = start1 - start2;
+    int backwardMid = end1 - end2;
+    boolean odd = ((forwardMid - backwardMid) & 1) != 0;
+
+    int forwardMin = forwardMid;
+    int forwardMax = forwardMid;
+    int backwardMin = backwardMid;
+    int backwardMax = backwardMid;
+    forward[offset + forwardMid] = start1;
+    backward[offset + backwardMid] = end1;
+
+    for (int cost = 1; ; cost++) {
+      if (forwardMin > minDiagonal) {
+        forward[offset + --forwardMin - 1] = -1;
+      }
+      else {
+        forwardMin++;
+      }
+      if (forwardMax < maxDiagonal) {
+        forward[offset + ++forwardMax + 1] = -1;
+      }
+      else {
+        forwardMax--;
+      }
+      for (int d = forwardMax; d >= forwardMin; d -= 2) {
+        int low = forward[offset + d - 1];
+        int high = forward[offset + d + 1];
+        int x = low >= high ? low + 1 : high;
+        int y = x - d;
+        while (x < end1 && y < end2 && myFirst[x] == mySecond[y]) {
+          x++;
+          y++;
+        }
+        forward[offset + d] = x;
+        if (odd && backwardMin <= d && d <= backwardMax && backward[offset + d] <= x) {
+          return encode(x, y);
+        }
+      }
+
+      if (backwardMin > minDiagonal) {
+        backward[offset + --backwardMin - 1] = Integer.MAX_VALUE;
+      }
+      else {
+        backwardMin++;
+      }
+      if (backwardMax < maxDiagonal) {
+        backward[offset + ++backwardMax + 1] = Integer.MAX_VALUE;
+      }
+      else {
+        backwardMax--;
+      }
+      for (int d = backwardMax; d >= backwardMin; d -= 2) {
+        int low = backward[offset + d - 1];
+        int high = backward[offset + d + 1];
+        int x = low < high ? low : high - 1;
+        int y = x - d;
+        while (x > start1 && y > start2 && myFirst[x - 1] == mySecond[y - 1]) {
+          x--;
+          y--;
+        }
+        backward[offset + d] = x;
+        if (!odd && forwardMin <= d && d <= forwardMax && x <= forward[offset + d]) {
+          return encode(x, y);
+        }
+      }
+
+      if (cost >= myMaxCost) {
+        return findFurthestPoint(start1, end1, start2, end2, forwardMin, forwardMax, backwardMin, backwardMax);
+      }
+    }
+  }
+
+  private long findFurthestPoint(int start1, int end1, int start2, int end2,
+                                 int forwardMin, int forwardMax, int backwardMin, int backwardMax) {
+    int forwardBest = -1;
+    int forwardBestX = 0;
+    for (int d = forwardMax; d >= forwardMin; d -= 2) {
+      int x = Math.min(myForward[myOffset + d], end1);
+      int y = x - d;
+      if (end2 < y) {
+        x = end2 + d;
+        y = end2;
+      }
+      if (forwardBest < x + y) {
+        forwardBest = x + y;
+        forwardBestX = x;
+      }
+    }
+
+    int backwardBest = Integer.MAX_VALUE;
+    int backwardBestX = 0;
+    for (int d = backwardMax; d >= backwardMin; d -= 2) {
+      int x = Math.max(start1, myBackward[myOffset + d]);
+      int y = x - d;
+      if (y < start2) {
+        x = start2 + d;
+        y = start2;
+      }
+      if (x + y < backwardBest) {
+        backwardBest = x + y;
+        backwardBestX = x;
+      }
+    }
+
+    if ((end1 + end2) - backwardBest < forwardBest - (start1 + start2)) {
+      return encode(forwardBestX, forwardBest - forwardBestX);
+    }
+    return encode(backwardBestX, backwardBest - backwardBestX);
+  }
+
+  private static long encode(int x, int y) {
+    return (long)x << 32 | y & 0xffffffffL;
+  }
+}
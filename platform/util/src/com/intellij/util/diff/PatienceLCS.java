@@ -0,0 +1,215 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIntHashMap;
+
+import java.util.BitSet;
+
+/**
+ * Patience diff: elements which occur exactly once in both sequences are matched in the longest order they share
+ * and become anchors splitting the sequences into independent parts, which are processed the same way.
+ * Parts without such elements are compared by {@link MyersLCS} after discarding the elements which don't occur in the other part at all.
+ * <p/>
+ * Anchoring keeps huge inputs with few changes cheap: the expensive comparison only runs on the small parts between anchors.
+ */
+final class PatienceLCS {
+  private static final int DUPLICATE = -1;
+
+  private final int[] myFirst;
+  private final int[] mySecond;
+  private final BitSet myChanges1;
+  private final BitSet myChanges2;
+
+  /**
+   * @param changes1 receives indices of the elements of the first sequence which are not in the common subsequence
+   * @param changes2 same for the second sequence
+   */
+  PatienceLCS(int[] first, int[] second, BitSet changes1, BitSet changes2) {
+    myFirst = first;
+    mySecond = second;
+    myChanges1 = changes1;
+    myChanges2 = changes2;
+  }
+
+  public void execute() {
+    TIntArrayList stack = new TIntArrayList();
+    push(stack, 0, myFirst.length, 0, mySecond.length);
+    while (!stack.isEmpty()) {
+      int end2 = stack.remove(stack.size() - 1);
+      int start2 = stack.remove(stack.size() - 1);
+      int end1 = stack.remove(stack.size() - 1);
+      int start1 = stack.remove(stack.size() - 1);
+
+      while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+        start1++;
+        start2++;
+      }
+      while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+        end1--;
+        end2--;
+      }
+
+      if (start1 == end1) {
+        myChanges2.set(start2, end2);
+        continue;
+      }
+      if (start2 == end2) {
+        myChanges1.set(start1, end1);
+        continue;
+      }
+
+      int[] anchors = findAnchors(start1, end1, start2, end2);
+      if (anchors.length == 0) {
+        compareWithMyers(start1, end1, start2, end2);
+        continue;
+      }
+      int x = start1;
+      int y = start2;
+      for (int i = 0; i < anchors.length; i += 2) {
+        push(stack, x, anchors[i], y, anchors[i + 1]);
+        x = anchors[i] + 1;
+        y = anchors[i + 1] + 1;
+      }
+      push(stack, x, end1, y, end2);
+    }
+  }
+
+  private static void push(TIntArrayList stack, int start1, int end1, int start2, int end2) {
+    stack.add(start1);
+    stack.add(end1);
+    stack.add(start2);
+    stack.add(end2);
+  }
+
+  /**
+   * @return positions of the anchors in both sequences as x1, y1, x2, y2, ..., increasing in both coordinates
+   */
+  private int[] findAnchors(int start1, int end1, int start2, int end2) {
+    TIntIntHashMap unique1 = findUnique(myFirst, start1, end1);
+    TIntIntHashMap unique2 = findUnique(mySecond, start2, end2);
+
+    // candidates ordered by the position in the second sequence
+    TIntArrayList xs = new TIntArrayList();
+    TIntArrayList ys = new TIntArrayList();
+    for (int y = start2; y < end2; y++) {
+      int id = mySecond[y];
+      if (unique2.get(id) != y) continue;
+      int x = unique1.containsKey(id) ? unique1.get(id) : DUPLICATE;
+      if (x == DUPLICATE) continue;
+      xs.add(x);
+      ys.add(y);
+    }
+    int count = xs.size();
+    if (count == 0) return new int[0];
+
+    // longest increasing subsequence of xs by patience sorting: piles keep the candidate with the smallest x on top
+    int[] pileTops = new int[count];
+    int[] previous = new int[count];
+    int piles = 0;
+    for (int i = 0; i < count; i++) {
+      int x = xs.get(i);
+      int low = 0;
+      int high = piles;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (xs.get(pileTops[mid]) < x) {
+          low = mid + 1;
+        }
+        else {
+          high = mid;
+        }
+      }
+      previous[i] = low > 0 ? pileTops[low - 1] : -1;
+      pileTops[low] = i;
+      if (low == piles) piles++;
+    }
+
+    int[] result = new int[piles * 2];
+    int index = pileTops[piles - 1];
+    for (int i = piles - 1; i >= 0; i--) {
+      result[i * 2] = xs.get(index);
+      result[i * 2 + 1] = ys.get(index);
+      index = previous[index];
+    }
+    return result;
+  }
+
+  /**
+   * @return map from each id to its only position in the range or to {@link #DUPLICATE}
+   */
+  private static TIntIntHashMap findUnique(int[] ids, int start, int end) {
+    TIntIntHashMap result = new TIntIntHashMap(end - start);
+    for (int i = start; i < end; i++) {
+      int id = ids[i];
+      if (result.containsKey(id)) {
+        result.put(id, DUPLICATE);
+      }
+      else {
+        result.put(id, i);
+      }
+    }
+    return result;
+  }
+
+  private void compareWithMyers(int start1, int end1, int start2, int end2) {
+    TIntArrayList kept1 = discard(myFirst, start1, end1, mySecond, start2, end2, myChanges1);
+    TIntArrayList kept2 = discard(mySecond, start2, end2, myFirst, start1, end1, myChanges2);
+
+    int[] ids1 = new int[kept1.size()];
+    for (int i = 0; i < ids1.length; i++) {
+      ids1[i] = myFirst[kept1.get(i)];
+    }
+    int[] ids2 = new int[kept2.size()];
+    for (int i = 0; i < ids2.length; i++) {
+      ids2[i] = mySecond[kept2.get(i)];
+    }
+
+    BitSet changes1 = new BitSet(ids1.length);
+    BitSet changes2 = new BitSet(ids2.length);
+    new MyersLCS(ids1, ids2, changes1, changes2).execute();
+    for (int i = changes1.nextSetBit(0); i >= 0; i = changes1.nextSetBit(i + 1)) {
+      myChanges1.set(kept1.get(i));
+    }
+    for (int i = changes2.nextSetBit(0); i >= 0; i = changes2.nextSetBit(i + 1)) {
+      myChanges2.set(kept2.get(i));
+    }
+  }
+
+  /**
+   * Marks the elements which don't occur in the other range as changed.
+   *
+   * @return positions of the remaining elements
+   */
+  private static TIntArrayList discard(int[] ids, int start, int end, int[] otherIds, int otherStart, int otherEnd, BitSet changes) {
+    TIntHashSet other = new TIntHashSet(otherEnd - otherStart);
+    for (int i = otherStart; i < otherEnd; i++) {
+      other.add(otherIds[i]);
+    }
+    TIntArrayList result = new TIntArrayList(end - start);
+    for (int i = start; i < end; i++) {
+      if (other.contains(ids[i])) {
+        result.add(i);
+      }
+      else {
+        changes.set(i);
+      }
+    }
+    return result;
+  }
+}
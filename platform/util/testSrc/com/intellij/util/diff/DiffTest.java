@@ -19,6 +19,9 @@ import com.intellij.util.ArrayUtil;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
 
 /**
  * @author dyoma
@@ -85,4 +88,85 @@ public class DiffTest extends TestCase {
     System.out.println("Duration: " +(System.currentTimeMillis() - start));
   }
 
+  public void testRandomChanges() throws FilesTooBigForDiffException {
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      int[] ids1 = randomIds(random, random.nextInt(30), 1 + random.nextInt(8));
+      int[] ids2 = randomIds(random, random.nextInt(30), 1 + random.nextInt(8));
+      checkApplying(ids1, ids2, Diff.buildChanges(ids1, ids2));
+    }
+  }
+
+  public void testMyersIsShortest() throws FilesTooBigForDiffException {
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      int[] ids1 = randomIds(random, random.nextInt(30), 1 + random.nextInt(5));
+      int[] ids2 = randomIds(random, random.nextInt(30), 1 + random.nextInt(5));
+      BitSet changes1 = new BitSet();
+      BitSet changes2 = new BitSet();
+      new MyersLCS(ids1, ids2, changes1, changes2).execute();
+
+      int distance = new IntLCS(ids1, ids2).execute();
+      assertEquals(distance, changes1.cardinality() + changes2.cardinality());
+      assertEquals(ids1.length - changes1.cardinality(), ids2.length - changes2.cardinality());
+    }
+  }
+
+  public void testHugeInput() throws FilesTooBigForDiffException {
+    Random random = new Random(0);
+    int[] ids1 = randomIds(random, 200000, 1000);
+    int[] ids2 = randomIds(random, 200000, 1000);
+    checkApplying(ids1, ids2, Diff.buildChanges(ids1, ids2));
+  }
+
+  public void testInsertedFunctionIsOneHunk() throws FilesTooBigForDiffException {
+    String[] before = {"void func1() {", "  x += 1", "}", "", "void func2() {", "  x += 2", "}"};
+    String[] after = {"void func1() {", "  x += 1", "}", "", "void func15() {", "  x += 1.5", "}", "", "void func2() {", "  x += 2", "}"};
+    IntLCSTest.checkLastChange(Diff.buildChanges(before, after), 4, 4, 4, 0);
+  }
+
+  public void testUniqueLinesAnchorMovedBlock() throws FilesTooBigForDiffException {
+    Diff.Change change = Diff.buildChanges(new String[]{"a", "b", "c", "d", "e"}, new String[]{"c", "d", "e", "a", "b"});
+    IntLCSTest.checkChange(change, 0, 0, 0, 2);
+    IntLCSTest.checkLastChange(change.link, 5, 3, 2, 0);
+  }
+
+  public void testRepeatedLinesFollowUniqueAnchors() throws FilesTooBigForDiffException {
+    Diff.Change change = Diff.buildChanges(new String[]{"{", "foo", "}", "{", "bar", "}"}, new String[]{"{", "bar", "}", "{", "foo", "}"});
+    IntLCSTest.checkChange(change, 1, 1, 1, 1);
+    IntLCSTest.checkLastChange(change.link, 4, 4, 1, 1);
+  }
+
+  private static int[] randomIds(Random random, int length, int alphabet) {
+    int[] result = new int[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = random.nextInt(alphabet);
+    }
+    return result;
+  }
+
+  private static void checkApplying(int[] ids1, int[] ids2, Diff.Change change) {
+    int[] result = new int[ids2.length];
+    int x = 0;
+    int y = 0;
+    for (; change != null; change = change.link) {
+      assertTrue(change.line0 >= x);
+      assertEquals(change.line0 - x, change.line1 - y);
+      while (x < change.line0) {
+        assertEquals(ids1[x], ids2[y]);
+        result[y++] = ids1[x++];
+      }
+      x += change.deleted;
+      for (int i = 0; i < change.inserted; i++) {
+        result[y] = ids2[y];
+        y++;
+      }
+    }
+    assertEquals(ids1.length - x, ids2.length - y);
+    while (x < ids1.length) {
+      result[y++] = ids1[x++];
+    }
+    assertTrue(Arrays.equals(ids2, result));
+  }
+
 }
@@ -478,6 +478,14 @@ public abstract class AbstractVcs<ComList extends CommittedChangeList> extends S
     return false;
   }
 
+  /**
+   * Returns true if the change provider may be asked for the changes under different VCS roots concurrently,
+   * each request getting the dirty scope of its roots only.
+   */
+  public boolean allowsConcurrentChangeRequests() {
+    return false;
+  }
+
   public <S> List<S> filterUniqueRoots(final List<S> in, final Convertor<S, VirtualFile> convertor) {
     new FilterDescendantVirtualFileConvertible(convertor, FilePathComparator.getInstance()).doFilter(in);
     return in;
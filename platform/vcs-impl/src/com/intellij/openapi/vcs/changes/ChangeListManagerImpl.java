@@ -45,6 +45,7 @@ import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.EditorNotifications;
 import com.intellij.util.*;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.concurrency.Semaphore;
 import com.intellij.util.containers.MultiMap;
 import com.intellij.util.continuation.ContinuationPause;
@@ -56,10 +57,13 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
+import org.jetbrains.ide.PooledThreadExecutor;
 
 import javax.swing.*;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicReference;
@@ -85,6 +89,10 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
     return VcsUtil.createExecutor("Change List Updater");
   }
 
+  // runs change providers of independent VCS roots, see AbstractVcs#allowsConcurrentChangeRequests
+  private static final BoundedTaskExecutor ourChangeRequestsExecutor =
+    new BoundedTaskExecutor(PooledThreadExecutor.INSTANCE, Runtime.getRuntime().availableProcessors());
+
   private final Modifier myModifier;
 
   private FileHolderComposite myComposite;
@@ -576,10 +584,10 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
   }
 
   private void iterateScopes(DataHolder dataHolder, List<VcsDirtyScope> scopes, boolean wasEverythingDirty) {
-    final ChangeListManagerGate gate = dataHolder.getChangeListWorker().createSelfGate();
-    // do actual requests about file statuses
-    final UpdatingChangeListBuilder builder = new UpdatingChangeListBuilder(dataHolder.getChangeListWorker(),
-      dataHolder.getComposite(), myUpdater.getIsStoppedGetter(), myIgnoredIdeaLevel, gate);
+    // the worker and the holders are copies owned by this update, so providers running concurrently only need to agree with each other
+    final Object mergeLock = new Object();
+    final ChangeListManagerGate gate = dataHolder.getChangeListWorker().createSelfGate(mergeLock);
+    final List<UpdatingChangeListBuilder> builders = new ArrayList<UpdatingChangeListBuilder>();
 
     for (final VcsDirtyScope scope : scopes) {
       myUpdateChangesProgressIndicator.checkCanceled();
@@ -592,17 +600,81 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
       myChangesViewManager.setBusy(true);
       dataHolder.notifyStartProcessingChanges(adjustedScope);
 
-      actualUpdate(builder, adjustedScope, vcs, dataHolder, gate);
+      try {
+        final Collection<? extends VcsModifiableDirtyScope> parts =
+          vcs.allowsConcurrentChangeRequests() && adjustedScope instanceof VcsDirtyScopeImpl
+          ? ((VcsDirtyScopeImpl)adjustedScope).splitByIndependentRoots()
+          : Collections.singletonList(adjustedScope);
+        if (parts.size() == 1) {
+          actualUpdate(createBuilder(dataHolder, gate, mergeLock, builders), adjustedScope, vcs, gate);
+        }
+        else {
+          updateConcurrently(parts, vcs, dataHolder, gate, mergeLock, builders);
+        }
+      }
+      finally {
+        if (!myUpdater.isStopped()) {
+          dataHolder.notifyDoneProcessingChanges();
+        }
+      }
 
       if (myUpdateException != null) break;
     }
     synchronized (myDataLock) {
-      if (myAdditionalInfo == null) {
+      for (UpdatingChangeListBuilder builder : builders) {
+        if (myAdditionalInfo != null) break;
         myAdditionalInfo = builder.getAdditionalInfo();
       }
     }
   }
 
+  private UpdatingChangeListBuilder createBuilder(DataHolder dataHolder, ChangeListManagerGate gate, Object mergeLock,
+                                                  List<UpdatingChangeListBuilder> builders) {
+    final UpdatingChangeListBuilder builder = new UpdatingChangeListBuilder(dataHolder.getChangeListWorker(),
+      dataHolder.getComposite(), myUpdater.getIsStoppedGetter(), myIgnoredIdeaLevel, gate, mergeLock);
+    builders.add(builder);
+    return builder;
+  }
+
+  /**
+   * Requests the changes of independent parts of a dirty scope on {@link #ourChangeRequestsExecutor}
+   * and waits for all of them, so the update never leaves requests running behind.
+   */
+  private void updateConcurrently(Collection<? extends VcsModifiableDirtyScope> parts, final AbstractVcs vcs, DataHolder dataHolder,
+                                  final ChangeListManagerGate gate, Object mergeLock, List<UpdatingChangeListBuilder> builders) {
+    final List<Future<?>> futures = new ArrayList<Future<?>>(parts.size());
+    for (final VcsModifiableDirtyScope part : parts) {
+      final UpdatingChangeListBuilder builder = createBuilder(dataHolder, gate, mergeLock, builders);
+      futures.add(ourChangeRequestsExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          actualUpdate(builder, part, vcs, gate);
+        }
+      }));
+    }
+
+    Throwable failure = null;
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          // requests are stopped through the progress indicator, they still touch the data until they notice it
+          interrupted = true;
+        }
+        catch (ExecutionException e) {
+          if (failure == null) failure = e.getCause();
+          break;
+        }
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+    if (failure != null) Rethrow.reThrowRuntime(failure);
+  }
+
   private void clearCurrentRevisionsCache(final VcsInvalidated invalidated) {
     final ContentRevisionCache cache = ProjectLevelVcsManager.getInstance(myProject).getContentRevisionCache();
     if (invalidated.isEverythingDirty()) {
@@ -675,11 +747,12 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
   }
 
   private void actualUpdate(final UpdatingChangeListBuilder builder, final VcsDirtyScope scope, final AbstractVcs vcs,
-                            final DataHolder dataHolder, final ChangeListManagerGate gate) {
+                            final ChangeListManagerGate gate) {
     try {
       final ChangeProvider changeProvider = vcs.getChangeProvider();
       if (changeProvider != null) {
         final FoldersCutDownWorker foldersCutDownWorker = new FoldersCutDownWorker();
+        final long start = System.currentTimeMillis();
         try {
           builder.setCurrent(scope, foldersCutDownWorker);
           changeProvider.getChanges(scope, builder, myUpdateChangesProgressIndicator, gate);
@@ -687,15 +760,14 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
         catch (final VcsException e) {
           handleUpdateException(e);
         }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("changes under " + scope.getAffectedContentRoots() + " requested in " + (System.currentTimeMillis() - start) + " ms");
+        }
       }
     } catch (ProcessCanceledException ignore) {
     } catch (Throwable t) {
       LOG.debug(t);
       Rethrow.reThrowRuntime(t);
-    } finally {
-      if (!myUpdater.isStopped()) {
-        dataHolder.notifyDoneProcessingChanges();
-      }
     }
   }
 
@@ -711,16 +783,19 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
       });
     }
 
-    if (myUpdateException == null) {
-      if (ApplicationManager.getApplication().isUnitTestMode()) {
-        AbstractVcsHelper helper = AbstractVcsHelper.getInstance(myProject);
-        if (helper instanceof AbstractVcsHelperImpl && ((AbstractVcsHelperImpl)helper).handleCustom(e)) {
-          return;
+    // change providers of different roots may fail concurrently
+    synchronized (myDataLock) {
+      if (myUpdateException == null) {
+        if (ApplicationManager.getApplication().isUnitTestMode()) {
+          AbstractVcsHelper helper = AbstractVcsHelper.getInstance(myProject);
+          if (helper instanceof AbstractVcsHelperImpl && ((AbstractVcsHelperImpl)helper).handleCustom(e)) {
+            return;
+          }
+          //noinspection CallToPrintStackTrace
+          e.printStackTrace();
         }
-        //noinspection CallToPrintStackTrace
-        e.printStackTrace();
+        myUpdateException = e;
       }
-      myUpdateException = e;
     }
   }
 
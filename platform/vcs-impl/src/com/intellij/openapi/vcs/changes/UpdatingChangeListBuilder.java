@@ -31,6 +31,10 @@ import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 
+/**
+ * Several builders sharing the same lock may be fed by change providers running concurrently: the lock guards all the updates
+ * of the change list worker and of the file holders. The lock is always taken inside a read action, never the other way round.
+ */
 class UpdatingChangeListBuilder implements ChangelistBuilder {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vcs.changes.UpdatingChangeListBuilder");
   private final ChangeListWorker myChangeListWorker;
@@ -42,17 +46,20 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
   private final IgnoredFilesComponent myIgnoredFilesComponent;
   private final FileIndexFacade myIndex;
   private final ChangeListManagerGate myGate;
+  private final Object myLock;
   private Factory<JComponent> myAdditionalInfo;
 
   UpdatingChangeListBuilder(final ChangeListWorker changeListWorker,
                             final FileHolderComposite composite,
                             final Getter<Boolean> disposedGetter,
-                            final IgnoredFilesComponent ignoredFilesComponent, final ChangeListManagerGate gate) {
+                            final IgnoredFilesComponent ignoredFilesComponent, final ChangeListManagerGate gate,
+                            final Object lock) {
     myChangeListWorker = changeListWorker;
     myComposite = composite;
     myDisposedGetter = disposedGetter;
     myIgnoredFilesComponent = ignoredFilesComponent;
     myGate = gate;
+    myLock = lock;
     myIndex = PeriodicalTasksCloser.getInstance().safeGetService(changeListWorker.getProject(), FileIndexFacade.class);
   }
 
@@ -83,12 +90,14 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
     ApplicationManager.getApplication().runReadAction(new Runnable() {
       public void run() {
         if (ChangeListManagerImpl.isUnder(change, myScope)) {
-          if (changeList != null) {
-            LOG.debug("[processChangeInList-1] to add change to cl");
-            myChangeListWorker.addChangeToList(changeList.getName(), change, vcsKey);
-          } else {
-            LOG.debug("[processChangeInList-1] to add to corresponding list");
-            myChangeListWorker.addChangeToCorrespondingList(change, vcsKey);
+          synchronized (myLock) {
+            if (changeList != null) {
+              LOG.debug("[processChangeInList-1] to add change to cl");
+              myChangeListWorker.addChangeToList(changeList.getName(), change, vcsKey);
+            } else {
+              LOG.debug("[processChangeInList-1] to add to corresponding list");
+              myChangeListWorker.addChangeToCorrespondingList(change, vcsKey);
+            }
           }
         } else {
           LOG.debug("[processChangeInList-1] not under scope");
@@ -102,9 +111,11 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
 
     LocalChangeList list = null;
     if (changeListName != null) {
-      list = myChangeListWorker.getCopyByName(changeListName);
-      if (list == null) {
-        list = myGate.addChangeList(changeListName, null);
+      synchronized (myLock) {
+        list = myChangeListWorker.getCopyByName(changeListName);
+        if (list == null) {
+          list = myGate.addChangeList(changeListName, null);
+        }
       }
     }
     processChangeInList(change, list, vcsKey);
@@ -112,7 +123,9 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
 
   @Override
   public void removeRegisteredChangeFor(FilePath path) {
-    myChangeListWorker.removeRegisteredChangeFor(path);
+    synchronized (myLock) {
+      myChangeListWorker.removeRegisteredChangeFor(path);
+    }
   }
 
   private boolean isExcluded(final VirtualFile file) {
@@ -133,17 +146,20 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
     checkIfDisposed();
     if (isExcluded(file)) return;
     if (myScope.belongsTo(new FilePathImpl(file))) {
-      if (myIgnoredFilesComponent.isIgnoredFile(file)) {
-        myComposite.getIgnoredFileHolder().addFile(file);
-      }
-      else if (myComposite.getIgnoredFileHolder().containsFile(file)) {
-        // does not need to add: parent dir is already added
-      }
-      else {
-        myComposite.getVFHolder(FileHolder.HolderType.UNVERSIONED).addFile(file);
+      final boolean ignored = myIgnoredFilesComponent.isIgnoredFile(file);
+      synchronized (myLock) {
+        if (ignored) {
+          myComposite.getIgnoredFileHolder().addFile(file);
+        }
+        else if (myComposite.getIgnoredFileHolder().containsFile(file)) {
+          // does not need to add: parent dir is already added
+        }
+        else {
+          myComposite.getVFHolder(FileHolder.HolderType.UNVERSIONED).addFile(file);
+        }
+        // if a file was previously marked as switched through recursion, remove it from switched list
+        myChangeListWorker.removeSwitched(file);
       }
-      // if a file was previously marked as switched through recursion, remove it from switched list
-      myChangeListWorker.removeSwitched(file);
     }
   }
 
@@ -156,7 +172,9 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
     final FilePath file = locallyDeletedChange.getPath();
     if (FileTypeManager.getInstance().isFileIgnored(file.getName())) return;
     if (myScope.belongsTo(file)) {
-      myChangeListWorker.addLocallyDeleted(locallyDeletedChange);
+      synchronized (myLock) {
+        myChangeListWorker.addLocallyDeleted(locallyDeletedChange);
+      }
     }
   }
 
@@ -168,7 +186,9 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
       if (LOG.isDebugEnabled()) {
         LOG.debug("processModifiedWithoutCheckout " + file);
       }
-      myComposite.getVFHolder(FileHolder.HolderType.MODIFIED_WITHOUT_EDITING).addFile(file);
+      synchronized (myLock) {
+        myComposite.getVFHolder(FileHolder.HolderType.MODIFIED_WITHOUT_EDITING).addFile(file);
+      }
     }
   }
 
@@ -177,7 +197,9 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
     checkIfDisposed();
     if (isExcluded(file)) return;
     if (myScope.belongsTo(new FilePathImpl(file))) {
-      myComposite.getIgnoredFileHolder().addFile(file);
+      synchronized (myLock) {
+        myComposite.getIgnoredFileHolder().addFile(file);
+      }
     }
   }
 
@@ -186,7 +208,9 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
     checkIfDisposed();
     if (myScope.belongsTo(new FilePathImpl(file))) {
       if (myFoldersCutDownWorker.addCurrent(file)) {
-        myComposite.getVFHolder(FileHolder.HolderType.LOCKED).addFile(file);
+        synchronized (myLock) {
+          myComposite.getVFHolder(FileHolder.HolderType.LOCKED).addFile(file);
+        }
       }
     }
   }
@@ -195,7 +219,9 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
     if (file == null) return;
     checkIfDisposed();
     if (myScope.belongsTo(new FilePathImpl(file))) {
-      ((LogicallyLockedHolder) myComposite.get(FileHolder.HolderType.LOGICALLY_LOCKED)).add(file, logicalLock);
+      synchronized (myLock) {
+        ((LogicallyLockedHolder) myComposite.get(FileHolder.HolderType.LOGICALLY_LOCKED)).add(file, logicalLock);
+      }
     }
   }
 
@@ -204,7 +230,9 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
     checkIfDisposed();
     if (isExcluded(file)) return;
     if (myScope.belongsTo(new FilePathImpl(file))) {
-      myChangeListWorker.addSwitched(file, branch, recursive);
+      synchronized (myLock) {
+        myChangeListWorker.addSwitched(file, branch, recursive);
+      }
     }
   }
 
@@ -212,7 +240,9 @@ class UpdatingChangeListBuilder implements ChangelistBuilder {
     if (file == null) return;
     checkIfDisposed();
     if (myScope.belongsTo(new FilePathImpl(file))) {
-      ((SwitchedFileHolder) myComposite.get(FileHolder.HolderType.ROOT_SWITCH)).addFile(file, branch, false);
+      synchronized (myLock) {
+        ((SwitchedFileHolder) myComposite.get(FileHolder.HolderType.ROOT_SWITCH)).addFile(file, branch, false);
+      }
     }
   }
 
@@ -34,6 +34,7 @@ import com.intellij.util.containers.Convertor;
 import com.intellij.util.containers.MultiMap;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
@@ -577,4 +578,49 @@ public class VcsDirtyScopeImpl extends VcsModifiableDirtyScope {
   public void setWasEverythingDirty(boolean wasEverythingDirty) {
     myWasEverythingDirty = wasEverythingDirty;
   }
+
+  /**
+   * Splits the scope into scopes which can be processed independently: each of them contains the dirty paths of one VCS root
+   * together with the paths of the roots nested into it.
+   *
+   * @return the scope itself if it can't be split
+   */
+  @NotNull
+  public Collection<VcsDirtyScopeImpl> splitByIndependentRoots() {
+    if (myAffectedContentRoots.size() < 2 || myAffectedContentRoots.contains(null)) {
+      return Collections.singletonList(this);
+    }
+    final VirtualFile[] allRoots = myVcsManager.getRootsUnderVcs(myVcs);
+    final Map<VirtualFile, VcsDirtyScopeImpl> result = new LinkedHashMap<VirtualFile, VcsDirtyScopeImpl>();
+    for (VirtualFile root : myAffectedContentRoots) {
+      VirtualFile topRoot = root;
+      for (VirtualFile each : allRoots) {
+        if (VfsUtilCore.isAncestor(each, topRoot, true)) {
+          topRoot = each;
+        }
+      }
+      VcsDirtyScopeImpl scope = result.get(topRoot);
+      if (scope == null) {
+        scope = new VcsDirtyScopeImpl(myVcs, myProject);
+        scope.myWasEverythingDirty = myWasEverythingDirty;
+        result.put(topRoot, scope);
+      }
+      scope.myAffectedContentRoots.add(root);
+      copyPaths(myDirtyFiles, scope.myDirtyFiles, root);
+      copyPaths(myDirtyDirectoriesRecursively, scope.myDirtyDirectoriesRecursively, root);
+    }
+    if (result.size() < 2) {
+      return Collections.singletonList(this);
+    }
+    return result.values();
+  }
+
+  private static void copyPaths(Map<VirtualFile, THashSet<FilePath>> from, Map<VirtualFile, THashSet<FilePath>> to, VirtualFile root) {
+    final THashSet<FilePath> paths = from.get(root);
+    if (paths != null) {
+      final THashSet<FilePath> copy = new THashSet<FilePath>();
+      copy.addAll(paths);
+      to.put(root, copy);
+    }
+  }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.ex;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProgressIndicator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Lines of a document (without line separators) identified by hashes of their text, so they can be diffed
+ * without creating a string per line.
+ */
+final class DocumentLines {
+  private final CharSequence myText;
+  private final int[] myStarts;
+  private final int[] myEnds;
+  private final int[] myHashes;
+  private final int myFrom;
+  private final int myTo;
+
+  private DocumentLines(CharSequence text, int[] starts, int[] ends, int[] hashes, int from, int to) {
+    myText = text;
+    myStarts = starts;
+    myEnds = ends;
+    myHashes = hashes;
+    myFrom = from;
+    myTo = to;
+  }
+
+  /**
+   * Takes lines [from, to) of the current document text, which must not be modified while the result is used.
+   */
+  @NotNull
+  static DocumentLines create(@NotNull Document document, int from, int to) {
+    return create(document, document.getCharsSequence(), from, to, null);
+  }
+
+  /**
+   * Takes all the lines of a copy of the document text, so the result may be used after the document is modified.
+   * Must be called under read action.
+   */
+  @NotNull
+  static DocumentLines snapshot(@NotNull Document document, @Nullable ProgressIndicator indicator) {
+    return create(document, document.getText(), 0, document.getLineCount(), indicator);
+  }
+
+  private static DocumentLines create(Document document, CharSequence text, int from, int to, @Nullable ProgressIndicator indicator) {
+    to = Math.min(to, document.getLineCount());
+    from = Math.min(from, to);
+    int count = to - from;
+    int[] starts = new int[count];
+    int[] ends = new int[count];
+    for (int i = 0; i < count; i++) {
+      starts[i] = document.getLineStartOffset(from + i);
+      ends[i] = document.getLineEndOffset(from + i);
+      if (indicator != null && (i & 0xfff) == 0) indicator.checkCanceled();
+    }
+    int[] hashes = new int[count];
+    for (int i = 0; i < count; i++) {
+      hashes[i] = hash(text, starts[i], ends[i]);
+    }
+    return new DocumentLines(text, starts, ends, hashes, 0, count);
+  }
+
+  /**
+   * @return view of lines [from, to) of these lines
+   */
+  @NotNull
+  DocumentLines subLines(int from, int to) {
+    to = Math.min(myFrom + to, myTo);
+    from = Math.min(myFrom + from, to);
+    return new DocumentLines(myText, myStarts, myEnds, myHashes, from, to);
+  }
+
+  int getLineCount() {
+    return myTo - myFrom;
+  }
+
+  @NotNull
+  int[] getHashes() {
+    int[] result = new int[myTo - myFrom];
+    System.arraycopy(myHashes, myFrom, result, 0, result.length);
+    return result;
+  }
+
+  boolean isLineEqual(int line, @NotNull DocumentLines other, int otherLine) {
+    int start = myStarts[myFrom + line];
+    int length = myEnds[myFrom + line] - start;
+    int otherStart = other.myStarts[other.myFrom + otherLine];
+    if (other.myEnds[other.myFrom + otherLine] - otherStart != length) return false;
+    for (int i = 0; i < length; i++) {
+      if (myText.charAt(start + i) != other.myText.charAt(otherStart + i)) return false;
+    }
+    return true;
+  }
+
+  private static int hash(CharSequence text, int start, int end) {
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      result = 31 * result + text.charAt(i);
+    }
+    return result;
+  }
+}
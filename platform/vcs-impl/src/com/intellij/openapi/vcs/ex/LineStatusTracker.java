@@ -17,6 +17,7 @@ package com.intellij.openapi.vcs.ex;
 
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.command.undo.UndoConstants;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
@@ -28,7 +29,10 @@ import com.intellij.openapi.editor.markup.*;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
 import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
@@ -41,9 +45,11 @@ import com.intellij.ui.EditorNotificationPanel;
 import com.intellij.util.diff.FilesTooBigForDiffException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -55,6 +61,10 @@ import java.util.ListIterator;
 public class LineStatusTracker {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vcs.ex.LineStatusTracker");
   private static final Key<CanNotCalculateDiffPanel> PANEL_KEY = new Key<CanNotCalculateDiffPanel>("LineStatusTracker.CanNotCalculateDiffPanel");
+  /**
+   * Changes affecting more lines are diffed in background together with the rest of the document
+   */
+  private static final int MAX_INCREMENTAL_DIFF_LINES = 5000;
 
   private final Object myLock = new Object();
   // true -> have contents
@@ -64,6 +74,26 @@ public class LineStatusTracker {
   private final Document myUpToDateDocument;
 
   private List<Range> myRanges;
+  /**
+   * Immutable copy of myRanges which can be read without any locks. It's kept while the ranges are recalculated in background,
+   * and replaced once the result is applied.
+   */
+  private volatile List<Range> myRangesSnapshot = Collections.emptyList();
+  /**
+   * Hashed lines of myUpToDateDocument, available after the ranges have been calculated for the current base revision
+   */
+  @Nullable private DocumentLines myUpToDateLines;
+  /**
+   * Indicator of the background calculation of the ranges; not null while the calculation is in progress
+   */
+  @Nullable private ProgressIndicator myFullDiffIndicator;
+  /**
+   * Lines changed since the document was read by the background calculation: the first line, the last line as of the read document
+   * and the number of lines inserted since then; myDirtyFirstLine is -1 if the document hasn't been changed
+   */
+  private int myDirtyFirstLine = -1;
+  private int myDirtyLastLine;
+  private int myDirtyLinesShift;
 
   private final Project myProject;
 
@@ -105,10 +135,14 @@ public class LineStatusTracker {
         myBaseRevisionNumber = baseRevisionNumber;
         myPreviousBaseRevision = null;
 
+        cancelFullDiff();
+        // the ranges refer to lines of the previous base revision
+        removeHighlightersFromMarkupModel();
+        myUpToDateLines = null;
         myUpToDateDocument.setReadOnly(false);
         myUpToDateDocument.replaceString(0, myUpToDateDocument.getTextLength(), upToDateContent);
         myUpToDateDocument.setReadOnly(true);
-        reinstallRanges();
+        scheduleFullDiff();
 
         if (myDocumentListener == null) {
           myDocumentListener = new MyDocumentListener();
@@ -135,24 +169,147 @@ public class LineStatusTracker {
     }
   }
 
-  private void reinstallRanges() {
-    myApplication.assertReadAccessAllowed();
-
+  /**
+   * Calculates the ranges in background, the current ranges are kept until the result is applied. The result is discarded
+   * if the calculation is cancelled. Changes of the document made meanwhile are diffed incrementally once the result is applied,
+   * so typing doesn't restart the calculation.
+   */
+  private void scheduleFullDiff() {
     synchronized (myLock) {
+      cancelFullDiff();
       removeAnathema();
-      removeHighlightersFromMarkupModel();
+      myDirtyFirstLine = -1;
+
+      final ProgressIndicator indicator = new EmptyProgressIndicator();
+      myFullDiffIndicator = indicator;
+      myApplication.executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            ProgressManager.getInstance().runProcess(new Runnable() {
+              @Override
+              public void run() {
+                calculateFullDiff(indicator);
+              }
+            }, indicator);
+          }
+          catch (ProcessCanceledException ignore) {
+          }
+        }
+      });
+    }
+  }
+
+  private void cancelFullDiff() {
+    synchronized (myLock) {
+      if (myFullDiffIndicator != null) {
+        myFullDiffIndicator.cancel();
+        myFullDiffIndicator = null;
+      }
+    }
+  }
+
+  private void calculateFullDiff(@NotNull final ProgressIndicator indicator) {
+    final DocumentLines[] lines = new DocumentLines[2];
+    myApplication.runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (myLock) {
+          // the up-to-date document is modified under the lock only, and every modification cancels the calculation
+          indicator.checkCanceled();
+          lines[1] = myUpToDateLines != null ? myUpToDateLines : DocumentLines.snapshot(myUpToDateDocument, indicator);
+          lines[0] = DocumentLines.snapshot(myDocument, indicator);
+          myDirtyFirstLine = -1;
+        }
+      }
+    });
+
+    List<Range> ranges;
+    try {
+      ranges = new RangesBuilder(lines[0], lines[1], 0, 0).getRanges();
+    }
+    catch (FilesTooBigForDiffException e) {
+      ranges = null;
+    }
+    indicator.checkCanceled();
+
+    final List<Range> result = ranges;
+    myApplication.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        applyFullDiff(indicator, lines[1], result);
+      }
+    }, ModalityState.any());
+  }
+
+  private void applyFullDiff(@NotNull ProgressIndicator indicator, @NotNull DocumentLines upToDateLines, @Nullable List<Range> ranges) {
+    synchronized (myLock) {
+      if (myReleased || indicator != myFullDiffIndicator || indicator.isCanceled()) return;
+      myFullDiffIndicator = null;
+      myUpToDateLines = upToDateLines;
+
+      if (ranges == null) {
+        installAnathema();
+        removeHighlightersFromMarkupModel();
+        return;
+      }
+      for (Range range : myRanges) {
+        if (range.getHighlighter() != null) {
+          range.getHighlighter().dispose();
+        }
+      }
+      myRanges = ranges;
       try {
-        myRanges = new RangesBuilder(myDocument, myUpToDateDocument).getRanges();
+        if (myDirtyFirstLine >= 0) {
+          // the changes made during the calculation are diffed as a single one
+          myDocumentListener.prepareChange(myDirtyFirstLine, myDirtyLastLine);
+          if (!myDocumentListener.applyChange(myDirtyLinesShift)) return;
+        }
       }
       catch (FilesTooBigForDiffException e) {
-        myRanges.clear();
         installAnathema();
+        removeHighlightersFromMarkupModel();
         return;
       }
+      finally {
+        myDirtyFirstLine = -1;
+      }
       for (final Range range : myRanges) {
-        range.setHighlighter(createHighlighter(range));
+        if (!range.hasHighlighter()) range.setHighlighter(createHighlighter(range));
       }
+      publishRanges();
+    }
+  }
+
+  /**
+   * Records a change of the given lines of the current document made during the background calculation
+   */
+  private void markDirty(int firstLine, int lastLine) {
+    if (myDirtyFirstLine < 0) {
+      myDirtyFirstLine = firstLine;
+      myDirtyLastLine = lastLine;
+      myDirtyLinesShift = 0;
+    }
+    else {
+      // lines before the first changed one are the same in the read document, the following ones are shifted
+      myDirtyFirstLine = Math.min(myDirtyFirstLine, firstLine);
+      myDirtyLastLine = Math.max(myDirtyLastLine, lastLine - myDirtyLinesShift);
+    }
+  }
+
+  @TestOnly
+  boolean isCalculatingRanges() {
+    synchronized (myLock) {
+      return myFullDiffIndicator != null;
+    }
+  }
+
+  private void publishRanges() {
+    List<Range> snapshot = new ArrayList<Range>(myRanges.size());
+    for (Range range : myRanges) {
+      snapshot.add(new Range(range.getOffset1(), range.getOffset2(), range.getUOffset1(), range.getUOffset2(), range.getType()));
     }
+    myRangesSnapshot = Collections.unmodifiableList(snapshot);
   }
 
   private void removeAnathema() {
@@ -202,6 +359,7 @@ public class LineStatusTracker {
 
   public void release() {
     synchronized (myLock) {
+      cancelFullDiff();
       if (myDocumentListener != null) {
         myDocument.removeDocumentListener(myDocumentListener);
       }
@@ -219,12 +377,12 @@ public class LineStatusTracker {
     return myVirtualFile;
   }
 
+  /**
+   * @return immutable snapshot of the ranges, may be called from any thread. While the ranges are being recalculated in background,
+   * the last calculated ones are returned.
+   */
   public List<Range> getRanges() {
-    myApplication.assertReadAccessAllowed();
-
-    synchronized (myLock) {
-      return myRanges;
-    }
+    return myRangesSnapshot;
   }
 
   public Document getUpToDateDocument() {
@@ -237,6 +395,7 @@ public class LineStatusTracker {
       if (myReleased) return;
 
       myBulkUpdate = true;
+      cancelFullDiff();
       removeAnathema();
       removeHighlightersFromMarkupModel();
     }
@@ -250,6 +409,7 @@ public class LineStatusTracker {
         }
       }
       myRanges.clear();
+      publishRanges();
     }
   }
 
@@ -258,7 +418,7 @@ public class LineStatusTracker {
       if (myReleased) return;
 
       myBulkUpdate = false;
-      reinstallRanges();
+      scheduleFullDiff();
     }
   }
 
@@ -275,6 +435,8 @@ public class LineStatusTracker {
       if (BaseLoadState.LOADED.equals(myBaseLoaded) && myPreviousBaseRevision == null) {
         myPreviousBaseRevision = myUpToDateDocument.getText();
       }
+      cancelFullDiff();
+      myUpToDateLines = null;
       myUpToDateDocument.setReadOnly(false);
       myUpToDateDocument.setText("");
       myUpToDateDocument.setReadOnly(true);
@@ -300,42 +462,57 @@ public class LineStatusTracker {
         if (myReleased) return;
         if (myBulkUpdate || myAnathemaThrown || BaseLoadState.LOADED != myBaseLoaded) return;
         try {
-          myFirstChangedLine = myDocument.getLineNumber(e.getOffset());
-          myLastChangedLine = myDocument.getLineNumber(e.getOffset() + e.getOldLength());
-          if (StringUtil.endsWithChar(e.getOldFragment(), '\n')) myLastChangedLine++;
+          int firstChangedLine = myDocument.getLineNumber(e.getOffset());
+          int lastChangedLine = myDocument.getLineNumber(e.getOffset() + e.getOldLength());
+          if (StringUtil.endsWithChar(e.getOldFragment(), '\n')) lastChangedLine++;
 
           myLinesBeforeChange = myDocument.getLineNumber(e.getOffset() + e.getOldLength()) - myDocument.getLineNumber(e.getOffset());
 
-          Range firstChangedRange = getLastRangeBeforeLine(myFirstChangedLine);
-
-          if (firstChangedRange == null) {
-            myUpToDateFirstLine = myFirstChangedLine;
-          }
-          else if (firstChangedRange.containsLine(myFirstChangedLine)) {
-            myFirstChangedLine = firstChangedRange.getOffset1();
-            myUpToDateFirstLine = firstChangedRange.getUOffset1();
+          if (myFullDiffIndicator != null) {
+            markDirty(firstChangedLine, lastChangedLine);
           }
           else {
-            myUpToDateFirstLine = firstChangedRange.getUOffset2() + myFirstChangedLine - firstChangedRange.getOffset2();
-          }
-
-          Range myLastChangedRange = getLastRangeBeforeLine(myLastChangedLine);
-
-          if (myLastChangedRange == null) {
-            myUpToDateLastLine = myLastChangedLine;
-          }
-          else if (myLastChangedRange.containsLine(myLastChangedLine)) {
-            myUpToDateLastLine = myLastChangedRange.getUOffset2();
-            myLastChangedLine = myLastChangedRange.getOffset2();
-          }
-          else {
-            myUpToDateLastLine = myLastChangedRange.getUOffset2() + myLastChangedLine - myLastChangedRange.getOffset2();
+            prepareChange(firstChangedLine, lastChangedLine);
           }
         } catch (ProcessCanceledException ignore) {
         }
       }
     }
 
+    /**
+     * Extends the changed lines to the ranges they touch
+     */
+    void prepareChange(int firstChangedLine, int lastChangedLine) {
+      myFirstChangedLine = firstChangedLine;
+      myLastChangedLine = lastChangedLine;
+
+      Range firstChangedRange = getLastRangeBeforeLine(myFirstChangedLine);
+
+      if (firstChangedRange == null) {
+        myUpToDateFirstLine = myFirstChangedLine;
+      }
+      else if (firstChangedRange.containsLine(myFirstChangedLine)) {
+        myFirstChangedLine = firstChangedRange.getOffset1();
+        myUpToDateFirstLine = firstChangedRange.getUOffset1();
+      }
+      else {
+        myUpToDateFirstLine = firstChangedRange.getUOffset2() + myFirstChangedLine - firstChangedRange.getOffset2();
+      }
+
+      Range myLastChangedRange = getLastRangeBeforeLine(myLastChangedLine);
+
+      if (myLastChangedRange == null) {
+        myUpToDateLastLine = myLastChangedLine;
+      }
+      else if (myLastChangedRange.containsLine(myLastChangedLine)) {
+        myUpToDateLastLine = myLastChangedRange.getUOffset2();
+        myLastChangedLine = myLastChangedRange.getOffset2();
+      }
+      else {
+        myUpToDateLastLine = myLastChangedRange.getUOffset2() + myLastChangedLine - myLastChangedRange.getOffset2();
+      }
+    }
+
     @Nullable
     private Range getLastRangeBeforeLine(int line) {
       Range result = null;
@@ -359,69 +536,91 @@ public class LineStatusTracker {
           int linesAfterChange = line - myDocument.getLineNumber(e.getOffset());
           int linesShift = linesAfterChange - myLinesBeforeChange;
 
-          List<Range> rangesAfterChange = getRangesAfter(myRanges, myLastChangedLine);
-          List<Range> rangesBeforeChange = getRangesBefore(myRanges, myFirstChangedLine);
+          if (myFullDiffIndicator != null) {
+            myDirtyLinesShift += linesShift;
+            return;
+          }
+          if (applyChange(linesShift)) {
+            publishRanges();
+          }
+        } catch (ProcessCanceledException ignore) {
+        } catch (FilesTooBigForDiffException e1) {
+          installAnathema();
+          removeHighlightersFromMarkupModel();
+        }
+      }
+    }
+
+    /**
+     * Rediffs the lines prepared by {@link #prepareChange(int, int)} after they have been shifted by the given number of lines
+     *
+     * @return false if the change is too big and the ranges are calculated in background instead
+     */
+    boolean applyChange(int linesShift) throws FilesTooBigForDiffException {
+      List<Range> rangesAfterChange = getRangesAfter(myRanges, myLastChangedLine);
+      List<Range> rangesBeforeChange = getRangesBefore(myRanges, myFirstChangedLine);
 
-          List<Range> changedRanges = getChangedRanges(myFirstChangedLine, myLastChangedLine);
+      List<Range> changedRanges = getChangedRanges(myFirstChangedLine, myLastChangedLine);
 
-          int newSize = rangesBeforeChange.size() + changedRanges.size() + rangesAfterChange.size();
-          if (myRanges.size() != newSize) {
-            LOG.info("Ranges: " + myRanges + "; first changed line: " + myFirstChangedLine + "; last changed line: " + myLastChangedLine);
-            LOG.assertTrue(false);
-          }
+      int newSize = rangesBeforeChange.size() + changedRanges.size() + rangesAfterChange.size();
+      if (myRanges.size() != newSize) {
+        LOG.info("Ranges: " + myRanges + "; first changed line: " + myFirstChangedLine + "; last changed line: " + myLastChangedLine);
+        LOG.assertTrue(false);
+      }
 
 
-          myLastChangedLine += linesShift;
+      myLastChangedLine += linesShift;
 
+      if (myUpToDateLines == null ||
+          myLastChangedLine - myFirstChangedLine > MAX_INCREMENTAL_DIFF_LINES ||
+          myUpToDateLastLine - myUpToDateFirstLine > MAX_INCREMENTAL_DIFF_LINES) {
+        scheduleFullDiff();
+        return false;
+      }
 
-          List<Range> newChangedRanges = getNewChangedRanges();
+      List<Range> newChangedRanges = getNewChangedRanges();
 
-          shiftRanges(rangesAfterChange, linesShift);
+      shiftRanges(rangesAfterChange, linesShift);
 
-          if (!changedRanges.equals(newChangedRanges)) {
-            replaceRanges(changedRanges, newChangedRanges);
+      if (!changedRanges.equals(newChangedRanges)) {
+        replaceRanges(changedRanges, newChangedRanges);
 
-            myRanges = new ArrayList<Range>();
+        myRanges = new ArrayList<Range>();
 
-            myRanges.addAll(rangesBeforeChange);
-            myRanges.addAll(newChangedRanges);
-            myRanges.addAll(rangesAfterChange);
+        myRanges.addAll(rangesBeforeChange);
+        myRanges.addAll(newChangedRanges);
+        myRanges.addAll(rangesAfterChange);
 
-            myRanges = mergeRanges(myRanges);
+        myRanges = mergeRanges(myRanges);
 
-            for (Range range : myRanges) {
-              if (!range.hasHighlighter()) range.setHighlighter(createHighlighter(range));
-            }
+        for (Range range : myRanges) {
+          if (!range.hasHighlighter()) range.setHighlighter(createHighlighter(range));
+        }
 
-            if (myRanges.isEmpty() && myVirtualFile != null) {
-              SwingUtilities.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                  FileDocumentManager.getInstance().saveDocument(e.getDocument());
-                  boolean[] stillEmpty = new boolean[1];
-                  synchronized (myLock) {
-                    stillEmpty[0] = myRanges.isEmpty();
-                  }
-                  if (stillEmpty[0]) {
-                    // file was modified, and now it's not -> dirty local change
-                    myVcsDirtyScopeManager.fileDirty(myVirtualFile);
-                  }
-                }
-              });
+        if (myRanges.isEmpty() && myVirtualFile != null) {
+          SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              FileDocumentManager.getInstance().saveDocument(myDocument);
+              boolean[] stillEmpty = new boolean[1];
+              synchronized (myLock) {
+                stillEmpty[0] = myRanges.isEmpty();
+              }
+              if (stillEmpty[0]) {
+                // file was modified, and now it's not -> dirty local change
+                myVcsDirtyScopeManager.fileDirty(myVirtualFile);
+              }
             }
-          }
-        } catch (ProcessCanceledException ignore) {
-        } catch (FilesTooBigForDiffException e1) {
-          installAnathema();
-          removeHighlightersFromMarkupModel();
+          });
         }
       }
+      return true;
     }
 
     private List<Range> getNewChangedRanges() throws FilesTooBigForDiffException {
-      List<String> lines = new DocumentWrapper(myDocument).getLines(myFirstChangedLine, myLastChangedLine);
-      List<String> uLines = new DocumentWrapper(myUpToDateDocument)
-        .getLines(myUpToDateFirstLine, myUpToDateLastLine);
+      assert myUpToDateLines != null;
+      DocumentLines lines = DocumentLines.create(myDocument, myFirstChangedLine, myLastChangedLine + 1);
+      DocumentLines uLines = myUpToDateLines.subLines(myUpToDateFirstLine, myUpToDateLastLine + 1);
       return new RangesBuilder(lines, uLines, myFirstChangedLine, myUpToDateFirstLine).getRanges();
     }
 
@@ -452,8 +651,10 @@ public class LineStatusTracker {
 
     private void replaceRanges(List<Range> rangesInChange, List<Range> newRangesInChange) {
       for (Range range : rangesInChange) {
-        range.getHighlighter().dispose();
-        range.setHighlighter(null);
+        if (range.getHighlighter() != null) {
+          range.getHighlighter().dispose();
+          range.setHighlighter(null);
+        }
       }
       for (Range range : newRangesInChange) {
         range.setHighlighter(createHighlighter(range));
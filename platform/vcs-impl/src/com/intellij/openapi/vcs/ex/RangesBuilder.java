@@ -20,6 +20,9 @@ import com.intellij.util.ArrayUtil;
 import com.intellij.util.diff.Diff;
 import com.intellij.util.diff.FilesTooBigForDiffException;
 
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -48,6 +51,41 @@ public class RangesBuilder {
 
   }
 
+  /**
+   * Diffs lines by their hashes. Lines matched by equal hashes are compared afterwards, so a hash collision is reported as a modified line.
+   */
+  RangesBuilder(@NotNull DocumentLines current, @NotNull DocumentLines upToDate, int shift, int uShift) throws FilesTooBigForDiffException {
+    myRanges = new ArrayList<Range>();
+
+    int line = 0;
+    int uLine = 0;
+    for (Diff.Change ch = Diff.buildChanges(upToDate.getHashes(), current.getHashes()); ch != null; ch = ch.link) {
+      addCollisions(current, upToDate, line, uLine, ch.line1 - line, shift, uShift);
+      addRange(Range.createOn(ch, shift, uShift));
+      line = ch.line1 + ch.inserted;
+      uLine = ch.line0 + ch.deleted;
+    }
+    addCollisions(current, upToDate, line, uLine, current.getLineCount() - line, shift, uShift);
+  }
+
+  private void addCollisions(DocumentLines current, DocumentLines upToDate, int line, int uLine, int count, int shift, int uShift) {
+    for (int i = 0; i < count; i++) {
+      if (!current.isLineEqual(line + i, upToDate, uLine + i)) {
+        addRange(new Range(shift + line + i, shift + line + i + 1, uShift + uLine + i, uShift + uLine + i + 1, Range.MODIFIED));
+      }
+    }
+  }
+
+  private void addRange(Range range) {
+    int last = myRanges.size() - 1;
+    if (last >= 0 && myRanges.get(last).canBeMergedWith(range)) {
+      myRanges.set(last, myRanges.get(last).mergeWith(range));
+    }
+    else {
+      myRanges.add(range);
+    }
+  }
+
   public List<Range> getRanges() {
     return myRanges;
   }
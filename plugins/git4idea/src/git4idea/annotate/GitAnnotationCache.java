@@ -0,0 +1,231 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.PersistentHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * !! application-level
+ *
+ * Keeps the results of 'git blame' on disk by the path of the file, for a few latest annotated revisions of each file.
+ * A blame of a revision never changes, so nothing is invalidated here: when the file changes, a newer revision is annotated,
+ * and the blame of an older one may be used to compute it incrementally.
+ * <p/>
+ * The number of files is limited: when it's exceeded, the files stored least recently are removed.
+ */
+public class GitAnnotationCache implements Disposable {
+  private static final Logger LOG = Logger.getInstance(GitAnnotationCache.class);
+  private static final int VERSION = 2;
+  private static final int REVISIONS_PER_FILE = 3;
+  private static final int MAX_FILES = 2000;
+
+  private final File myFile;
+  private final int myMaxFiles;
+  @Nullable private PersistentHashMap<String, Entry> myMap;
+  private int myFileCount = -1;
+
+  public GitAnnotationCache() {
+    this(new File(new File(new File(PathManager.getSystemPath(), "vcs"), "git_blame"), "blame." + VERSION), MAX_FILES);
+  }
+
+  GitAnnotationCache(@NotNull File file, int maxFiles) {
+    myFile = file;
+    myMaxFiles = maxFiles;
+  }
+
+  static GitAnnotationCache getInstance() {
+    return ServiceManager.getService(GitAnnotationCache.class);
+  }
+
+  /**
+   * @param path absolute path of the file, separated by '/'
+   * @return blames of the file, the latest annotated first
+   */
+  @NotNull
+  synchronized List<GitBlame> get(@NotNull String path) {
+    PersistentHashMap<String, Entry> map = getMap();
+    if (map == null) return Collections.emptyList();
+    try {
+      Entry entry = map.get(path);
+      return entry == null ? Collections.<GitBlame>emptyList() : entry.myBlames;
+    }
+    catch (IOException e) {
+      reset(e);
+      return Collections.emptyList();
+    }
+  }
+
+  synchronized void put(@NotNull String path, @NotNull GitBlame blame) {
+    PersistentHashMap<String, Entry> map = getMap();
+    if (map == null) return;
+    try {
+      if (myFileCount < 0) {
+        myFileCount = map.getAllKeysWithExistingMapping().size();
+      }
+      List<GitBlame> blames = new ArrayList<GitBlame>(REVISIONS_PER_FILE);
+      blames.add(blame);
+      Entry previous = map.get(path);
+      if (previous != null) {
+        for (GitBlame old : previous.myBlames) {
+          if (blames.size() >= REVISIONS_PER_FILE) break;
+          if (!old.getRevision().equals(blame.getRevision())) {
+            blames.add(old);
+          }
+        }
+      }
+      else {
+        myFileCount++;
+      }
+      map.put(path, new Entry(System.currentTimeMillis(), blames));
+      if (myFileCount > myMaxFiles) {
+        removeOldest(map, myMaxFiles * 3 / 4);
+      }
+    }
+    catch (IOException e) {
+      reset(e);
+    }
+  }
+
+  /**
+   * Removes the files stored least recently, so that the given number of files remains.
+   * The space they took is reclaimed when the map is compacted on opening.
+   */
+  private void removeOldest(@NotNull PersistentHashMap<String, Entry> map, int remaining) throws IOException {
+    final List<Pair<String, Long>> files = new ArrayList<Pair<String, Long>>();
+    for (String path : map.getAllKeysWithExistingMapping()) {
+      Entry entry = map.get(path);
+      if (entry != null) {
+        files.add(Pair.create(path, entry.myTime));
+      }
+    }
+    Collections.sort(files, new Comparator<Pair<String, Long>>() {
+      @Override
+      public int compare(Pair<String, Long> o1, Pair<String, Long> o2) {
+        return o1.second.compareTo(o2.second);
+      }
+    });
+    for (int i = 0; i < files.size() - remaining; i++) {
+      map.remove(files.get(i).first);
+    }
+    myFileCount = Math.min(files.size(), remaining);
+  }
+
+  synchronized int getFileCount() throws IOException {
+    PersistentHashMap<String, Entry> map = getMap();
+    return map == null ? 0 : map.getAllKeysWithExistingMapping().size();
+  }
+
+  @Nullable
+  private PersistentHashMap<String, Entry> getMap() {
+    if (myMap == null) {
+      try {
+        myMap = createMap();
+      }
+      catch (IOException e) {
+        LOG.info("Couldn't open the annotation cache, it will be recreated", e);
+        PersistentHashMap.deleteFilesStartingWith(myFile);
+        try {
+          myMap = createMap();
+        }
+        catch (IOException e1) {
+          LOG.warn(e1);
+        }
+      }
+    }
+    return myMap;
+  }
+
+  @NotNull
+  private PersistentHashMap<String, Entry> createMap() throws IOException {
+    myFile.getParentFile().mkdirs();
+    return new PersistentHashMap<String, Entry>(myFile, new EnumeratorStringDescriptor(), new DataExternalizer<Entry>() {
+      @Override
+      public void save(DataOutput out, Entry value) throws IOException {
+        out.writeLong(value.myTime);
+        out.writeInt(value.myBlames.size());
+        for (GitBlame blame : value.myBlames) {
+          blame.write(out);
+        }
+      }
+
+      @Override
+      public Entry read(DataInput in) throws IOException {
+        long time = in.readLong();
+        int size = in.readInt();
+        List<GitBlame> blames = new ArrayList<GitBlame>(size);
+        for (int i = 0; i < size; i++) {
+          blames.add(GitBlame.read(in));
+        }
+        return new Entry(time, blames);
+      }
+    });
+  }
+
+  private void reset(@NotNull IOException e) {
+    LOG.info("Annotation cache is corrupted, it will be recreated", e);
+    close();
+    PersistentHashMap.deleteFilesStartingWith(myFile);
+    myFileCount = -1;
+  }
+
+  private void close() {
+    if (myMap != null) {
+      try {
+        myMap.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+      myMap = null;
+    }
+  }
+
+  @Override
+  public synchronized void dispose() {
+    close();
+  }
+
+  /**
+   * Blames of a file, the latest annotated first, and the time when they were stored
+   */
+  private static final class Entry {
+    private final long myTime;
+    @NotNull private final List<GitBlame> myBlames;
+
+    private Entry(long time, @NotNull List<GitBlame> blames) {
+      myTime = time;
+      myBlames = blames;
+    }
+  }
+}
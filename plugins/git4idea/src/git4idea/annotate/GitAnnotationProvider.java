@@ -20,6 +20,8 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FilePathImpl;
@@ -29,22 +31,24 @@ import com.intellij.openapi.vcs.history.VcsAbstractHistorySession;
 import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsFileUtil;
 import com.intellij.vcsUtil.VcsUtil;
 import git4idea.GitFileRevision;
 import git4idea.GitRevisionNumber;
 import git4idea.GitUtil;
+import git4idea.GitVcs;
 import git4idea.commands.GitCommand;
 import git4idea.commands.GitSimpleHandler;
+import git4idea.config.GitVersionSpecialty;
+import git4idea.util.GitFileUtils;
 import git4idea.util.StringScanner;
 import git4idea.history.GitHistoryUtils;
 import git4idea.i18n.GitBundle;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Git annotation provider implementation.
@@ -64,6 +68,10 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
    * The committer time key for annotations
    */
   @NonNls private static final String COMMITTER_TIME_KEY = "committer-time";
+  /**
+   * Starts the lines with commit hashes in the output of 'git log', printed by the %x01 placeholder
+   */
+  private static final char COMMIT_MARKER = '\u0001';
   private static final Logger LOG = Logger.getInstance(GitAnnotationProvider.class);
 
   /**
@@ -146,70 +154,267 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
                                      final VcsFileRevision revision,
                                      final List<VcsFileRevision> revisions,
                                      final VirtualFile file) throws VcsException {
-    GitSimpleHandler h = new GitSimpleHandler(myProject, GitUtil.getGitRoot(repositoryFilePath), GitCommand.BLAME);
+    VirtualFile root = GitUtil.getGitRoot(repositoryFilePath);
+    String revisionName = revision == null ? "HEAD" : revision.getRevisionNumber().asString();
+    GitBlame blame = null;
+    List<String> lines = null;
+    if (Registry.is("git.annotate.cache")) {
+      String hash = resolveCommit(root, revisionName);
+      if (hash != null) {
+        String key = root.getPath() + "/" + VcsFileUtil.relativePath(root, repositoryFilePath);
+        GitAnnotationCache cache = GitAnnotationCache.getInstance();
+        List<GitBlame> cached = cache.get(key);
+        if (!cached.isEmpty()) {
+          byte[] content = GitFileUtils.getFileContent(myProject, root, hash, VcsFileUtil.relativePath(root, repositoryFilePath));
+          lines = splitLines(new String(content, file.getCharset()));
+          blame = blameIncrementally(root, repositoryFilePath, hash, cached, lines.size(), file);
+        }
+        if (blame == null) {
+          blame = new GitBlame(hash);
+          lines = new ArrayList<String>();
+          blame(root, repositoryFilePath, hash, Collections.<int[]>emptyList(), file, blame, lines);
+        }
+        if (blame.isComplete() && !blame.hasUncommittedLines()) {
+          cache.put(key, blame);
+        }
+      }
+    }
+    if (blame == null) {
+      blame = new GitBlame(revisionName);
+      lines = new ArrayList<String>();
+      blame(root, repositoryFilePath, revisionName, Collections.<int[]>emptyList(), file, blame, lines);
+    }
+
+    GitFileAnnotation annotation = new GitFileAnnotation(myProject, file, revision == null, revision == null ? null : revision.getRevisionNumber());
+    for (int i = 0; i < lines.size(); i++) {
+      String hash = blame.getHash(i);
+      if (hash == null) {
+        annotation.appendLineInfo(null, null, null, lines.get(i), i + 1);
+      }
+      else {
+        Date date = new Date(blame.getTime(i));
+        annotation.appendLineInfo(date, new GitRevisionNumber(hash, date), blame.getAuthor(i), lines.get(i), i + 1);
+      }
+    }
+    annotation.addLogEntries(revisions);
+    return annotation;
+  }
+
+  /**
+   * Annotates the revision starting from the blame of an earlier revision of the file, if one of the cached blames is on its
+   * first-parent chain: only the lines changed since then are blamed again.
+   * <p/>
+   * The blame is shifted through the change of each commit on the chain which touched the file, and not through the diff between
+   * the two revisions: a line deleted and re-added later would be the same in the diff, but Git blames the commit which re-added it.
+   * Git blames a line which is the same in a merge and its first parent on that parent, so the chain is followed as well.
+   *
+   * @return null if no cached blame suits, or if too many lines have changed for that to pay off
+   */
+  @Nullable
+  private GitBlame blameIncrementally(@NotNull VirtualFile root,
+                                      @NotNull FilePath filePath,
+                                      @NotNull String hash,
+                                      @NotNull List<GitBlame> cached,
+                                      int lineCount,
+                                      @NotNull VirtualFile file) throws VcsException {
+    for (GitBlame old : cached) {
+      if (old.getRevision().equals(hash)) {
+        return old.getLineCount() == lineCount ? old : null;
+      }
+    }
+    for (GitBlame old : cached) {
+      List<Pair<String, List<int[]>>> changes = getFirstParentChanges(root, filePath, old.getRevision(), hash);
+      if (changes == null) continue;
+      GitBlame blame = old;
+      for (Pair<String, List<int[]>> change : changes) {
+        blame = blame.advance(change.first, change.second);
+        if (blame == null) break;
+      }
+      if (blame != null) {
+        blame = blame.advance(hash, lineCount, Collections.<int[]>emptyList());
+      }
+      if (blame == null) {
+        LOG.info("Diff of " + filePath + " doesn't match its blame at " + old.getRevision());
+        return null;
+      }
+      List<int[]> ranges = blame.getUnknownRanges();
+      int changed = 0;
+      for (int[] range : ranges) {
+        changed += range[1] - range[0] + 1;
+      }
+      if (changed * 2 > lineCount) return null;
+      if (ranges.size() > 1 && !supportsMultipleRanges()) {
+        ranges = Collections.singletonList(new int[]{ranges.get(0)[0], ranges.get(ranges.size() - 1)[1]});
+      }
+      if (!ranges.isEmpty()) {
+        blame(root, filePath, hash, ranges, file, blame, null);
+      }
+      return blame.isComplete() ? blame : null;
+    }
+    return null;
+  }
+
+  private boolean supportsMultipleRanges() {
+    GitVcs vcs = GitVcs.getInstance(myProject);
+    return vcs != null && GitVersionSpecialty.KNOWS_MULTIPLE_BLAME_RANGES.existsIn(vcs.getVersion());
+  }
+
+  /**
+   * Runs 'git blame' and fills the blame with its results.
+   *
+   * @param ranges 1-based inclusive ranges of lines to blame, empty to blame the whole file
+   * @param lines  collects the lines of the file if not null, requires the whole file to be blamed
+   */
+  private void blame(@NotNull VirtualFile root,
+                     @NotNull FilePath filePath,
+                     @NotNull String revision,
+                     @NotNull List<int[]> ranges,
+                     @NotNull VirtualFile file,
+                     @NotNull GitBlame blame,
+                     @Nullable List<String> lines) throws VcsException {
+    GitSimpleHandler h = new GitSimpleHandler(myProject, root, GitCommand.BLAME);
     h.setStdoutSuppressed(true);
     h.setCharset(file.getCharset());
     h.addParameters("-p", "-l", "-t", "-w");
-    if (revision == null) {
-      h.addParameters("HEAD");
-    }
-    else {
-      h.addParameters(revision.getRevisionNumber().asString());
+    for (int[] range : ranges) {
+      h.addParameters("-L", range[0] + "," + range[1]);
     }
+    h.addParameters(revision);
     h.endOptions();
-    h.addRelativePaths(repositoryFilePath);
+    h.addRelativePaths(filePath);
     String output = h.run();
-    GitFileAnnotation annotation = new GitFileAnnotation(myProject, file, revision == null, revision == null ? null : revision.getRevisionNumber());
-    class CommitInfo {
-      Date date;
-      String author;
-      GitRevisionNumber revision;
-    }
-    HashMap<String, CommitInfo> commits = new HashMap<String, CommitInfo>();
     for (StringScanner s = new StringScanner(output); s.hasMoreData();) {
       // parse header line
       String commitHash = s.spaceToken();
-      if (commitHash.equals(GitRevisionNumber.NOT_COMMITTED_HASH)) {
-        commitHash = null;
-      }
       s.spaceToken(); // skip revision line number
       String s1 = s.spaceToken();
       int lineNum = Integer.parseInt(s1);
       s.nextLine();
       // parse commit information
-      CommitInfo commit = commits.get(commitHash);
-      if (commit != null) {
+      int commit;
+      if (blame.hasCommit(commitHash)) {
+        commit = blame.getCommitIndex(commitHash);
         while (s.hasMoreData() && !s.startsWith('\t')) {
           s.nextLine();
         }
       }
       else {
-        commit = new CommitInfo();
+        boolean committed = !commitHash.equals(GitRevisionNumber.NOT_COMMITTED_HASH);
+        String author = null;
+        long time = 0;
         while (s.hasMoreData() && !s.startsWith('\t')) {
           String key = s.spaceToken();
           String value = s.line();
-          if (commitHash != null && AUTHOR_KEY.equals(key)) {
-            commit.author = value;
+          if (committed && AUTHOR_KEY.equals(key)) {
+            author = value;
           }
-          if (commitHash != null && COMMITTER_TIME_KEY.equals(key)) {
-            commit.date = GitUtil.parseTimestampWithNFEReport(value, h, output);
-            commit.revision = new GitRevisionNumber(commitHash, commit.date);
+          if (committed && COMMITTER_TIME_KEY.equals(key)) {
+            time = GitUtil.parseTimestampWithNFEReport(value, h, output).getTime();
           }
         }
-        commits.put(commitHash, commit);
+        commit = blame.addCommit(commitHash, time, author);
       }
       // parse line
       if (!s.hasMoreData()) {
         // if the file is empty, the next line will not start with tab and it will be
-        // empty.  
+        // empty.
         continue;
       }
       s.skipChars(1);
       String line = s.line(true);
-      annotation.appendLineInfo(commit.date, commit.revision, commit.author, line, lineNum);
+      blame.setLine(lineNum - 1, commit);
+      if (lines != null) {
+        lines.add(line);
+      }
     }
-    annotation.addLogEntries(revisions);
-    return annotation;
+  }
+
+  /**
+   * @return the full hash of the commit, or null if it can't be resolved
+   */
+  @Nullable
+  private String resolveCommit(@NotNull VirtualFile root, @NotNull String revision) {
+    GitSimpleHandler h = new GitSimpleHandler(myProject, root, GitCommand.REV_PARSE);
+    h.setSilent(true);
+    h.addParameters("--verify", revision + "^{commit}");
+    try {
+      String hash = h.run().trim();
+      return hash.length() == 40 ? hash : null;
+    }
+    catch (VcsException e) {
+      LOG.info("Couldn't resolve " + revision, e);
+      return null;
+    }
+  }
+
+  /**
+   * @return the hunks of 'git diff -U0' for each commit which changed the file on the first-parent chain from the ancestor (exclusive)
+   *         to the descendant, oldest first; for merges the diff with the first parent;
+   *         null if the ancestor is not on the first-parent chain of the descendant
+   */
+  @Nullable
+  private List<Pair<String, List<int[]>>> getFirstParentChanges(@NotNull VirtualFile root, @NotNull FilePath filePath,
+                                                                @NotNull String ancestor, @NotNull String descendant) throws VcsException {
+    GitSimpleHandler revList = new GitSimpleHandler(myProject, root, GitCommand.REV_LIST);
+    revList.setSilent(true);
+    revList.setStdoutSuppressed(true);
+    revList.addParameters("--first-parent", "--parents", ancestor + ".." + descendant);
+    List<String> chain = StringUtil.split(revList.run(), "\n");
+    if (chain.isEmpty()) return null;
+    // the walk stops at the first commit reachable from the ancestor, which must be the ancestor itself
+    List<String> oldest = StringUtil.split(chain.get(chain.size() - 1), " ");
+    if (oldest.size() < 2 || !oldest.get(1).equals(ancestor)) return null;
+
+    GitSimpleHandler h = new GitSimpleHandler(myProject, root, GitCommand.LOG);
+    h.setSilent(true);
+    h.setStdoutSuppressed(true);
+    // merges which differ from the first parent are shown even if they are the same as another parent
+    h.addParameters("--first-parent", "--full-history", "-m", "--reverse", "-U0", "--no-color", "--no-ext-diff", "--no-renames",
+                    "--format=%x01%H", ancestor + ".." + descendant);
+    h.endOptions();
+    h.addRelativePaths(filePath);
+    List<Pair<String, List<int[]>>> result = new ArrayList<Pair<String, List<int[]>>>();
+    List<int[]> hunks = null;
+    for (StringScanner s = new StringScanner(h.run()); s.hasMoreData();) {
+      if (s.tryConsume(COMMIT_MARKER)) {
+        hunks = new ArrayList<int[]>();
+        result.add(Pair.create(s.line().trim(), hunks));
+      }
+      else if (hunks != null && s.tryConsume("@@ -")) {
+        int[] hunk = new int[4];
+        parseRange(s.spaceToken(), hunk, 0);
+        s.tryConsume('+');
+        parseRange(s.spaceToken(), hunk, 2);
+        s.nextLine();
+        hunks.add(hunk);
+      }
+      else {
+        s.nextLine();
+      }
+    }
+    return result;
+  }
+
+  private static void parseRange(@NotNull String range, @NotNull int[] hunk, int offset) {
+    int comma = range.indexOf(',');
+    hunk[offset] = Integer.parseInt(comma < 0 ? range : range.substring(0, comma));
+    hunk[offset + 1] = comma < 0 ? 1 : Integer.parseInt(range.substring(comma + 1));
+  }
+
+  /**
+   * Splits the content into lines as Git does, keeping the line separators.
+   */
+  @NotNull
+  private static List<String> splitLines(@NotNull String content) {
+    List<String> lines = new ArrayList<String>();
+    int start = 0;
+    while (start < content.length()) {
+      int end = content.indexOf('\n', start);
+      end = end < 0 ? content.length() : end + 1;
+      lines.add(content.substring(start, end));
+      start = end;
+    }
+    return lines;
   }
 
   @Override
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import git4idea.GitRevisionNumber;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TLongArrayList;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of 'git blame' of a file at some revision without the content of the file: the commit of each line,
+ * with the commit time and author which the annotation shows.
+ * <p/>
+ * Lines not known yet have no commit, see {@link #isComplete()}.
+ */
+final class GitBlame {
+  private static final int UNKNOWN = -1;
+
+  @NotNull private final String myRevision;
+  private final List<String> myHashes = new ArrayList<String>();
+  private final TLongArrayList myTimes = new TLongArrayList();
+  private final List<String> myAuthors = new ArrayList<String>();
+  private final TObjectIntHashMap<String> myCommitIndices = new TObjectIntHashMap<String>();
+  private final TIntArrayList myLines = new TIntArrayList();
+
+  /**
+   * @param revision full hash of the annotated revision
+   */
+  GitBlame(@NotNull String revision) {
+    myRevision = revision;
+  }
+
+  @NotNull
+  String getRevision() {
+    return myRevision;
+  }
+
+  int getLineCount() {
+    return myLines.size();
+  }
+
+  /**
+   * @param time committer time in milliseconds
+   * @return index of the commit, which is the same for the same hash
+   */
+  int addCommit(@NotNull String hash, long time, @Nullable String author) {
+    if (myCommitIndices.containsKey(hash)) return myCommitIndices.get(hash);
+    int index = myHashes.size();
+    myHashes.add(hash);
+    myTimes.add(time);
+    myAuthors.add(author);
+    myCommitIndices.put(hash, index);
+    return index;
+  }
+
+  boolean hasCommit(@NotNull String hash) {
+    return myCommitIndices.containsKey(hash);
+  }
+
+  int getCommitIndex(@NotNull String hash) {
+    return myCommitIndices.get(hash);
+  }
+
+  /**
+   * @param line 0-based line number, the list of lines grows if needed
+   */
+  void setLine(int line, int commit) {
+    while (myLines.size() <= line) {
+      myLines.add(UNKNOWN);
+    }
+    myLines.set(line, commit);
+  }
+
+  boolean isComplete() {
+    for (int i = 0; i < myLines.size(); i++) {
+      if (myLines.get(i) == UNKNOWN) return false;
+    }
+    return true;
+  }
+
+  boolean hasUncommittedLines() {
+    return myCommitIndices.containsKey(GitRevisionNumber.NOT_COMMITTED_HASH);
+  }
+
+  /**
+   * @return null for uncommitted lines
+   */
+  @Nullable
+  String getHash(int line) {
+    String hash = myHashes.get(myLines.get(line));
+    return GitRevisionNumber.NOT_COMMITTED_HASH.equals(hash) ? null : hash;
+  }
+
+  long getTime(int line) {
+    return myTimes.get(myLines.get(line));
+  }
+
+  @Nullable
+  String getAuthor(int line) {
+    return myAuthors.get(myLines.get(line));
+  }
+
+  /**
+   * Creates the blame of a later revision of the file, where the lines not touched by the diff between the revisions
+   * keep their commits, and the others are left to be blamed again.
+   * <p/>
+   * Lines are kept even if they were deleted and re-added in between, so the diff must come from a single commit
+   * rather than span several commits changing the file.
+   *
+   * @param revision  the later revision, this revision must be its ancestor
+   * @param lineCount number of lines in the later revision
+   * @param hunks     hunks of the diff between the revisions: start and length in this revision, then in the later one,
+   *                  start lines are 1-based and refer to the line before the hunk if its length is 0, as 'git diff -U0' prints them
+   * @return null if the diff doesn't match the number of lines
+   */
+  @Nullable
+  GitBlame advance(@NotNull String revision, int lineCount, @NotNull List<int[]> hunks) {
+    GitBlame result = new GitBlame(revision);
+    for (int i = 0; i < myHashes.size(); i++) {
+      result.addCommit(myHashes.get(i), myTimes.get(i), myAuthors.get(i));
+    }
+    int oldLine = 0;
+    int newLine = 0;
+    for (int[] hunk : hunks) {
+      int oldStart = hunk[1] == 0 ? hunk[0] : hunk[0] - 1;
+      int newStart = hunk[3] == 0 ? hunk[2] : hunk[2] - 1;
+      if (oldStart - oldLine != newStart - newLine || oldStart < oldLine || oldStart + hunk[1] > myLines.size()) return null;
+      while (newLine < newStart) {
+        result.setLine(newLine++, myLines.get(oldLine++));
+      }
+      for (int i = 0; i < hunk[3]; i++) {
+        result.setLine(newLine++, UNKNOWN);
+      }
+      oldLine += hunk[1];
+    }
+    if (myLines.size() - oldLine != lineCount - newLine) return null;
+    while (newLine < lineCount) {
+      result.setLine(newLine++, myLines.get(oldLine++));
+    }
+    return result;
+  }
+
+  /**
+   * Same as {@link #advance(String, int, List)} for the number of lines which follows from the hunks.
+   */
+  @Nullable
+  GitBlame advance(@NotNull String revision, @NotNull List<int[]> hunks) {
+    int lineCount = myLines.size();
+    for (int[] hunk : hunks) {
+      lineCount += hunk[3] - hunk[1];
+    }
+    return advance(revision, lineCount, hunks);
+  }
+
+  /**
+   * @return 1-based inclusive ranges of lines without a commit
+   */
+  @NotNull
+  List<int[]> getUnknownRanges() {
+    List<int[]> result = new ArrayList<int[]>();
+    int start = -1;
+    for (int i = 0; i <= myLines.size(); i++) {
+      boolean unknown = i < myLines.size() && myLines.get(i) == UNKNOWN;
+      if (unknown && start < 0) {
+        start = i;
+      }
+      else if (!unknown && start >= 0) {
+        result.add(new int[]{start + 1, i});
+        start = -1;
+      }
+    }
+    return result;
+  }
+
+  void write(@NotNull DataOutput out) throws IOException {
+    out.writeUTF(myRevision);
+    out.writeInt(myHashes.size());
+    for (int i = 0; i < myHashes.size(); i++) {
+      out.writeUTF(myHashes.get(i));
+      out.writeLong(myTimes.get(i));
+      String author = myAuthors.get(i);
+      out.writeUTF(author == null ? "" : author);
+    }
+    out.writeInt(myLines.size());
+    for (int i = 0; i < myLines.size(); i++) {
+      out.writeInt(myLines.get(i));
+    }
+  }
+
+  @NotNull
+  static GitBlame read(@NotNull DataInput in) throws IOException {
+    GitBlame blame = new GitBlame(in.readUTF());
+    int commits = in.readInt();
+    for (int i = 0; i < commits; i++) {
+      blame.addCommit(in.readUTF(), in.readLong(), in.readUTF());
+    }
+    int lines = in.readInt();
+    for (int i = 0; i < lines; i++) {
+      int commit = in.readInt();
+      if (commit < 0 || commit >= commits) throw new IOException("Invalid commit index " + commit);
+      blame.setLine(i, commit);
+    }
+    return blame;
+  }
+}
@@ -149,7 +149,7 @@ public class GitLineHandler extends GitTextHandler {
   private void notifyLine(final String line, final Key outputType) {
     String trimmed = LineHandlerHelper.trimLineSeparator(line);
     // if line ends with return, then it is a progress line, ignore it
-    if (myVcs != null && !"\r".equals(line.substring(trimmed.length()))) {
+    if (myVcs != null && !(line.length() == trimmed.length() + 1 && line.charAt(trimmed.length()) == '\r')) {
       if (outputType == ProcessOutputTypes.STDOUT && !isStdoutSuppressed() && !mySilent && !StringUtil.isEmptyOrSpaces(line)) {
         myVcs.showMessages(trimmed);
         LOG.info(line.trim());
@@ -158,7 +158,7 @@ public class GitLineHandler extends GitTextHandler {
         myVcs.showErrorMessages(trimmed);
         LOG.info(line.trim());
       }
-      else {
+      else if (LOG.isDebugEnabled()) {
         LOG.debug(line.trim());
       }
     }
@@ -101,6 +101,17 @@ public enum GitVersionSpecialty {
     public boolean existsIn(@NotNull GitVersion version) {
       return SystemInfo.isWindows && version.isOlderOrEqual(new GitVersion(1, 7, 0, 2));
     }
+  },
+
+  /**
+   * {@code git blame} accepts several {@code -L} options to annotate several ranges of lines at once.
+   * Since 1.8.4.
+   */
+  KNOWS_MULTIPLE_BLAME_RANGES {
+    @Override
+    public boolean existsIn(@NotNull GitVersion version) {
+      return version.isLaterOrEqual(new GitVersion(1, 8, 4, 0));
+    }
   };
 
   public abstract boolean existsIn(@NotNull GitVersion version);
@@ -48,6 +48,7 @@ import git4idea.history.browser.SymbolicRefs;
 import git4idea.history.browser.SymbolicRefsI;
 import git4idea.history.wholeTree.AbstractHash;
 import git4idea.history.wholeTree.CommitHashPlusParents;
+import git4idea.history.wholeTree.GitCommitGraph;
 import git4idea.history.wholeTree.GitCommitsSequentialIndex;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -375,7 +376,7 @@ public class GitHistoryUtils {
     final AtomicBoolean criticalFailure = new AtomicBoolean();
     while (currentPath.get() != null && firstCommitParent.get() != null) {
       logHandler.set(getLogHandler(project, finalRoot, logParser, currentPath.get(), firstCommitParent.get(), parameters));
-      final MyTokenAccumulator accumulator = new MyTokenAccumulator(logParser);
+      final GitLogRecordAccumulator accumulator = new GitLogRecordAccumulator(logParser);
       final Semaphore semaphore = new Semaphore();
 
       logHandler.get().addLineListener(new GitLineHandlerAdapter() {
@@ -479,45 +480,6 @@ public class GitHistoryUtils {
     return null;
   }
 
-  private static class MyTokenAccumulator {
-    private final StringBuilder myBuffer = new StringBuilder();
-
-    private boolean myNotStarted = true;
-    private GitLogParser myParser;
-
-    public MyTokenAccumulator(GitLogParser parser) {
-      myParser = parser;
-    }
-
-    @Nullable
-    public GitLogRecord acceptLine(String s) {
-      final boolean lineEnd = s.startsWith(GitLogParser.RECORD_START);
-      if (lineEnd && (!myNotStarted)) {
-        final String line = myBuffer.toString();
-        myBuffer.setLength(0);
-        myBuffer.append(s.substring(GitLogParser.RECORD_START.length()));
-
-        return processResult(line);
-      }
-      else {
-        myBuffer.append(lineEnd ? s.substring(GitLogParser.RECORD_START.length()) : s);
-        myBuffer.append("\n");
-      }
-      myNotStarted = false;
-
-      return null;
-    }
-
-    public GitLogRecord processLast() {
-      return processResult(myBuffer.toString());
-    }
-
-    private GitLogRecord processResult(final String line) {
-      return myParser.parseOneRecord(line);
-    }
-
-  }
-
   /**
    * Get history for the file
    *
@@ -668,8 +630,7 @@ public class GitHistoryUtils {
 
     final VcsException[] exc = new VcsException[1];
     final Semaphore semaphore = new Semaphore();
-    final StringBuilder sb = new StringBuilder();
-    final Ref<Boolean> skipFirst = new Ref<Boolean>(true);
+    final GitLogRecordAccumulator accumulator = new GitLogRecordAccumulator(parser);
     h.addLineListener(new GitLineHandlerAdapter() {
       @Override
       public void onLineAvailable(final String line, final Key outputType) {
@@ -679,16 +640,7 @@ public class GitHistoryUtils {
               h.cancel();
               return;
             }
-            //if (line.charAt(line.length() - 1) != '\u0003') {
-            if ((! line.startsWith("\u0001")) || skipFirst.get()) {
-              if (sb.length() > 0) {
-                sb.append("\n");
-              }
-              sb.append(line);
-              skipFirst.set(false);
-              return;
-            }
-            takeLine(project, line, sb, parser, refs, root, exc, h, gitCommitConsumer);
+            takeRecord(project, accumulator.acceptLine(line), refs, root, exc, h, gitCommitConsumer);
           }
         } catch (ProcessCanceledException e) {
           h.cancel();
@@ -707,25 +659,19 @@ public class GitHistoryUtils {
     semaphore.down();
     h.start();
     semaphore.waitFor();
-    takeLine(project, "", sb, parser, refs, root, exc, h, gitCommitConsumer);
+    takeRecord(project, accumulator.processLast(), refs, root, exc, h, gitCommitConsumer);
     gitCommitConsumer.finished();
     if (exc[0] != null) {
       throw exc[0];
     }
   }
 
-  private static void takeLine(final Project project, String line,
-                               StringBuilder sb,
-                               GitLogParser parser,
-                               SymbolicRefsI refs,
-                               VirtualFile root,
-                               VcsException[] exc, GitLineHandler h, AsynchConsumer<GitHeavyCommit> gitCommitConsumer) {
-    final String text = sb.toString();
-    sb.setLength(0);
-    sb.append(line);
-    if (text.length() == 0) return;
-    GitLogRecord record = parser.parseOneRecord(text);
-
+  private static void takeRecord(final Project project,
+                                 @Nullable GitLogRecord record,
+                                 SymbolicRefsI refs,
+                                 VirtualFile root,
+                                 VcsException[] exc, GitLineHandler h, AsynchConsumer<GitHeavyCommit> gitCommitConsumer) {
+    if (record == null || exc[0] != null) return;
     final GitHeavyCommit gitCommit;
     try {
       gitCommit = createCommit(project, refs, root, record);
@@ -946,6 +892,109 @@ public class GitHistoryUtils {
     consumer.finished();
   }
 
+  /**
+   * Reads hashes, parents, commit times, authors and committers of the commits reachable from HEAD, branches, remotes and tags
+   * but not from the given commits, in the order Git prints them.
+   *
+   * @param excluded commits whose history is not needed
+   */
+  public static void loadCommitGraph(@NotNull Project project, @NotNull VirtualFile root, @NotNull Collection<String> excluded,
+                                     @NotNull final GitCommitGraph.RecordConsumer consumer) throws VcsException {
+    final GitLineHandler h = new GitLineHandler(project, root, GitCommand.LOG);
+    final GitLogParser parser = new GitLogParser(project, HASH, PARENTS, COMMIT_TIME, AUTHOR_NAME, AUTHOR_EMAIL,
+                                                 COMMITTER_NAME, COMMITTER_EMAIL);
+    h.setSilent(true);
+    h.setStdoutSuppressed(true);
+    h.addParameters(parser.getPretty(), "--encoding=UTF-8", "HEAD", "--branches", "--remotes", "--tags");
+    if (!excluded.isEmpty()) {
+      h.addParameters("--not");
+      h.addParameters(new ArrayList<String>(excluded));
+    }
+    h.endOptions();
+
+    final Semaphore semaphore = new Semaphore();
+    final VcsException[] exception = new VcsException[1];
+    h.addLineListener(new GitLineHandlerListener() {
+      @Override
+      public void onLineAvailable(String line, Key outputType) {
+        if (!ProcessOutputTypes.STDOUT.equals(outputType) || exception[0] != null || line.length() == 0) return;
+        try {
+          ProgressManager.checkCanceled();
+          GitLogRecord record = parser.parseOneRecord(line);
+          consumer.consume(record.getHash(), record.getParentsHashes(), record.getLongTimeStamp(),
+                           record.getAuthorName() + " <" + record.getAuthorEmail() + ">",
+                           record.getCommitterName() + " <" + record.getCommitterEmail() + ">");
+        }
+        catch (IOException e) {
+          exception[0] = new VcsException(e);
+          h.cancel();
+          semaphore.up();
+        }
+        catch (ProcessCanceledException e) {
+          exception[0] = new VcsException("Loading of the commit graph was cancelled");
+          h.cancel();
+          semaphore.up();
+        }
+      }
+
+      @Override
+      public void processTerminated(int exitCode) {
+        if (exitCode != 0 && exception[0] == null) {
+          exception[0] = h.errors().isEmpty() ? new VcsException("git log exited with code " + exitCode) : h.errors().get(0);
+        }
+        semaphore.up();
+      }
+
+      @Override
+      public void startFailed(Throwable e) {
+        exception[0] = new VcsException(e);
+        semaphore.up();
+      }
+    });
+    semaphore.down();
+    h.start();
+    semaphore.waitFor();
+    if (exception[0] != null) {
+      throw exception[0];
+    }
+  }
+
+  /**
+   * @return commits which HEAD, branches, remotes and tags point to; annotated tags are dereferenced
+   */
+  @NotNull
+  public static Set<String> getReferencedCommits(@NotNull Project project, @NotNull VirtualFile root) throws VcsException {
+    GitSimpleHandler h = new GitSimpleHandler(project, root, GitCommand.SHOW_REF);
+    h.setSilent(true);
+    h.setStdoutSuppressed(true);
+    h.ignoreErrorCode(1); // no references at all
+    h.addParameters("--head", "--dereference");
+    Map<String, String> commits = new LinkedHashMap<String, String>();
+    for (String line : StringUtil.splitByLines(h.run())) {
+      int space = line.indexOf(' ');
+      if (space < 0) continue;
+      String ref = line.substring(space + 1);
+      if (ref.endsWith("^{}")) {
+        // the commit an annotated tag points to follows the tag itself
+        commits.put(ref.substring(0, ref.length() - 3), line.substring(0, space));
+      }
+      else if (ref.equals("HEAD") || ref.startsWith("refs/heads/") || ref.startsWith("refs/remotes/") || ref.startsWith("refs/tags/")) {
+        commits.put(ref, line.substring(0, space));
+      }
+    }
+    return new LinkedHashSet<String>(commits.values());
+  }
+
+  /**
+   * @return length of the abbreviated hashes which Git prints for the commits of the repository
+   */
+  public static int getAbbreviatedHashLength(@NotNull Project project, @NotNull VirtualFile root) throws VcsException {
+    GitSimpleHandler h = new GitSimpleHandler(project, root, GitCommand.REV_PARSE);
+    h.setSilent(true);
+    h.addParameters("--short", "HEAD");
+    return h.run().trim().length();
+  }
+
   /**
    * Get name of the file in the last commit. If file was renamed, returns the previous name.
    *
@@ -18,6 +18,7 @@ package git4idea.history;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.Function;
+import com.intellij.util.text.CharSequenceSubSequence;
 import git4idea.GitFormatException;
 import git4idea.GitVcs;
 import git4idea.config.GitVersionSpecialty;
@@ -25,11 +26,9 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * <p>Parses the 'git log' output basing on the given number of options.
@@ -71,7 +70,7 @@ class GitLogParser {
   private final boolean mySupportsRawBody;
   private final NameStatus myNameStatusOption;
 
-  /**
+  /*
    * Record format:
    *
    * One git log record.
@@ -84,16 +83,6 @@ class GitLogParser {
    * 2c815939f45fbcfda9583f84b14fe9d393ada790<ITEM_SEPARATOR>sample commit<RECORD_END>
    * D       a.txt
    */
-  private static final Pattern ONE_RECORD = Pattern.compile(RECORD_START + "?(.*)" + RECORD_END + "\n*(.*)", Pattern.DOTALL);
-  private static final String SINGLE_PATH = "([^\t\r\n]+)"; // something not empty, not a tab or newline.
-  private static final String EOL = "\\s*(?:\r|\n|\r\n)";
-  private static final String PATHS =
-    SINGLE_PATH +                    // First path - required.
-    "(?:\t" + SINGLE_PATH + ")?" +   // Second path - optional. Paths are separated by tab.
-    "(?:" + EOL + ")?";                             // Path(s) information ends with a line terminator (possibly except the last path in the output).
-
-  private static Pattern NAME_ONLY = Pattern.compile(PATHS);
-  private static Pattern NAME_STATUS = Pattern.compile("([\\S]+)\t" + PATHS);
 
   // --name-only, --name-status or no flag
   enum NameStatus {
@@ -166,12 +155,19 @@ class GitLogParser {
     // ^b71477e9738168aa67a8d41c414f284255f81e8a#moved out$
     //
     // R100    dir/anew.txt    anew.txt
-    final String[] records = output.split(RECORD_START); // split by START, because END is the end of information, but not the end of the record: file status and path follow.
-    final List<GitLogRecord> res = new ArrayList<GitLogRecord>(records.length);
-    for (String record : records) {
-      if (!record.trim().isEmpty()) {  // record[0] is empty for sure, because we're splitting on RECORD_START. Just to play safe adding the check for all records.
-        res.add(parseOneRecord(record));
+    // split by START, because END is the end of information, but not the end of the record: file status and path follow.
+    // records are parsed in place, without copying them out of the output
+    final List<GitLogRecord> res = new ArrayList<GitLogRecord>();
+    int start = 0;
+    while (start < output.length()) {
+      int end = output.indexOf(RECORD_START, start + 1);
+      if (end < 0) {
+        end = output.length();
       }
+      if (!isBlank(output, start, end)) {
+        res.add(parseOneRecord(new CharSequenceSubSequence(output, start, end)));
+      }
+      start = end;
     }
     return res;
   }
@@ -179,92 +175,128 @@ class GitLogParser {
   /**
    * Parses a single record returned by 'git log'. The record contains information from pattern and file status and path (if respective
    * flags --name-only or name-status were provided).
+   * The record is scanned in place, so a buffer accumulating the output may be passed without converting it to a string first:
+   * only the values of the record are copied.
    * @param line record to be parsed.
    * @return GitLogRecord with information about the revision or {@code null} if the given line is empty.
    * @throws GitFormatException if the line is given in unexpected format.
    */
   @Nullable
-  GitLogRecord parseOneRecord(@NotNull String line) {
-    if (line.isEmpty()) {
+  GitLogRecord parseOneRecord(@NotNull CharSequence line) {
+    if (line.length() == 0) {
       return null;
     }
-    Matcher matcher = ONE_RECORD.matcher(line);
-    if (!matcher.matches()) {
-      throwGFE("ONE_RECORD didn't match", line);
-    }
-    String commitInfo = matcher.group(1);
-    if (commitInfo == null) {
-      throwGFE("No match for group#1 in", line);
+    int start = line.charAt(0) == RECORD_START.charAt(0) ? 1 : 0;
+    int end = lastIndexOf(line, RECORD_END.charAt(0));
+    if (end < start) {
+      throwGFE("No record end in", line);
     }
 
-    final Map<GitLogOption, String> res = parseCommitInfo(commitInfo);
+    final Map<GitLogOption, String> res = parseCommitInfo(line, start, end);
 
     // parsing status and path (if given)
     final List<String> paths = new ArrayList<String>(1);
     final List<GitLogStatusInfo> statuses = new ArrayList<GitLogStatusInfo>();
-
     if (myNameStatusOption != NameStatus.NONE) {
-      String pathsAndStatuses = matcher.group(2);
-      if (pathsAndStatuses == null) {
-        throwGFE("No match for group#2 in", line);
-      }
+      parsePaths(line, end + 1, paths, statuses);
+    }
+    return new GitLogRecord(res, paths, statuses, mySupportsRawBody);
+  }
 
-      if (myNameStatusOption == NameStatus.NAME) {
-        Matcher pathsMatcher = NAME_ONLY.matcher(pathsAndStatuses);
-        while (pathsMatcher.find()) {
-          String path1 = pathsMatcher.group(1);
-          String path2 = pathsMatcher.group(2);
-          assertNotNull(path1, "path", pathsAndStatuses);
-          paths.add(path1);
-          if (path2 != null) { // null is perfectly legal here: second path is given only in case of rename
-            paths.add(path2);
+  /**
+   * Parses lines of '--name-only' or '--name-status' output following the commit information:
+   * {@code path1[<tab>path2]} or {@code status<tab>path1[<tab>path2]}, the second path is given only for renames and copies.
+   */
+  private void parsePaths(@NotNull CharSequence text, int offset, @NotNull List<String> paths, @NotNull List<GitLogStatusInfo> statuses) {
+    int length = text.length();
+    int lineStart = offset;
+    while (lineStart < length) {
+      int lineEnd = lineStart;
+      while (lineEnd < length && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+        lineEnd++;
+      }
+      if (lineEnd > lineStart) {
+        int pathStart = lineStart;
+        String status = null;
+        if (myNameStatusOption == NameStatus.STATUS) {
+          int tab = indexOf(text, '\t', lineStart, lineEnd);
+          status = tab > lineStart ? text.subSequence(lineStart, tab).toString().trim() : "";
+          pathStart = tab + 1;
+          if (status.isEmpty()) {
+            lineStart = lineEnd + 1;
+            continue;
           }
         }
-      }
-      else {
-        Matcher nameStatusMatcher = NAME_STATUS.matcher(pathsAndStatuses);
-        while (nameStatusMatcher.find()) {
-          String status = nameStatusMatcher.group(1);
-          String path1 = nameStatusMatcher.group(2);
-          String path2 = nameStatusMatcher.group(3);
-          assertNotNull(status, "status", pathsAndStatuses);
-          assertNotNull(path1, "path1", pathsAndStatuses);
+        int tab = indexOf(text, '\t', pathStart, lineEnd);
+        int path1End = tab < 0 ? lineEnd : tab;
+        if (path1End > pathStart) {
+          String path1 = text.subSequence(pathStart, path1End).toString();
+          String path2 = null;
+          if (tab >= 0) {
+            int nextTab = indexOf(text, '\t', tab + 1, lineEnd);
+            int path2End = nextTab < 0 ? lineEnd : nextTab;
+            if (path2End > tab + 1) {  // null is perfectly legal here: second path is given only in case of rename
+              path2 = text.subSequence(tab + 1, path2End).toString();
+            }
+          }
           paths.add(path1);
           if (path2 != null) {
             paths.add(path2);
           }
-          statuses.add(new GitLogStatusInfo(GitChangeType.fromString(status), path1, path2));
+          if (status != null) {
+            statuses.add(new GitLogStatusInfo(GitChangeType.fromString(status), path1, path2));
+          }
         }
       }
+      lineStart = lineEnd + 1;
     }
-    return new GitLogRecord(res, paths, statuses, mySupportsRawBody);
   }
 
-
   @NotNull
-  private Map<GitLogOption, String> parseCommitInfo(@NotNull String commitInfo) {
+  private Map<GitLogOption, String> parseCommitInfo(@NotNull CharSequence text, int start, int end) {
     // parsing revision information
     // we rely on the order of options
-    final String[] values = commitInfo.split(ITEMS_SEPARATOR);
-    final Map<GitLogOption, String> res = new HashMap<GitLogOption, String>(values.length);
-    int i = 0;
-    for (; i < values.length && i < myOptions.length; i++) {  // fill valid values
-      res.put(myOptions[i], values[i]);
-    }
-    for (; i < myOptions.length; i++) {  // options which were not returned are set to blank string, extra options are ignored.
-      res.put(myOptions[i], "");
+    final Map<GitLogOption, String> res = new EnumMap<GitLogOption, String>(GitLogOption.class);
+    final char separator = ITEMS_SEPARATOR.charAt(0);
+    int valueStart = start;
+    for (GitLogOption option : myOptions) {
+      if (valueStart > end) {  // options which were not returned are set to blank string, extra options are ignored.
+        res.put(option, "");
+        continue;
+      }
+      int valueEnd = indexOf(text, separator, valueStart, end);
+      if (valueEnd < 0) {
+        valueEnd = end;
+      }
+      res.put(option, text.subSequence(valueStart, valueEnd).toString());
+      valueStart = valueEnd + 1;
     }
     return res;
   }
 
-  private static void assertNotNull(String value, String valueName, String line) {
-    if (value == null) {
-      throwGFE("Unexpectedly null " + valueName + " in ", line);
+  private static boolean isBlank(@NotNull CharSequence text, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (text.charAt(i) > ' ') return false;
+    }
+    return true;
+  }
+
+  private static int indexOf(@NotNull CharSequence text, char c, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (text.charAt(i) == c) return i;
+    }
+    return -1;
+  }
+
+  private static int lastIndexOf(@NotNull CharSequence text, char c) {
+    for (int i = text.length() - 1; i >= 0; i--) {
+      if (text.charAt(i) == c) return i;
     }
+    return -1;
   }
 
-  private static void throwGFE(String message, String line) {
-    throw new GitFormatException(message + " [" + StringUtil.escapeStringCharacters(line) + "]");
+  private static void throwGFE(String message, CharSequence line) {
+    throw new GitFormatException(message + " [" + StringUtil.escapeStringCharacters(line.toString()) + "]");
   }
 
 }
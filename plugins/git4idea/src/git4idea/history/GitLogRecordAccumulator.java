@@ -0,0 +1,67 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * <p>
+ *   Collects lines of 'git log' output, which arrive from a {@link git4idea.commands.GitLineHandler}, into records
+ *   and parses each record as soon as the next one starts, so that consumers get commits while 'git log' is still running.
+ * </p>
+ * <p>
+ *   A record may span several lines: the body of the commit message and the changed paths follow the first line.
+ *   The lines are collected into a single buffer which is reused for all the records and is parsed in place.
+ * </p>
+ */
+class GitLogRecordAccumulator {
+  private final GitLogParser myParser;
+  private final StringBuilder myBuffer = new StringBuilder();
+
+  GitLogRecordAccumulator(@NotNull GitLogParser parser) {
+    myParser = parser;
+  }
+
+  /**
+   * @return the previous record if the given line starts a new one, otherwise null
+   */
+  @Nullable
+  GitLogRecord acceptLine(@NotNull String line) {
+    boolean recordStart = line.startsWith(GitLogParser.RECORD_START);
+    GitLogRecord record = null;
+    if (recordStart && myBuffer.length() > 0) {
+      record = myParser.parseOneRecord(myBuffer);
+      myBuffer.setLength(0);
+    }
+    else if (myBuffer.length() > 0) {
+      myBuffer.append('\n');
+    }
+    myBuffer.append(line, recordStart ? GitLogParser.RECORD_START.length() : 0, line.length());
+    return record;
+  }
+
+  /**
+   * @return the last record, or null if there was no output
+   */
+  @Nullable
+  GitLogRecord processLast() {
+    if (myBuffer.length() == 0) return null;
+    GitLogRecord record = myParser.parseOneRecord(myBuffer);
+    myBuffer.setLength(0);
+    return record;
+  }
+}
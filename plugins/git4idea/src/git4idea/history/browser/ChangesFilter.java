@@ -122,6 +122,10 @@ public class ChangesFilter {
       };
     }
 
+    public Filter[] getFilters() {
+      return myFilters;
+    }
+
     @NotNull
     @Override
     public MemoryFilter getMemoryFilter() {
@@ -218,6 +222,10 @@ public class ChangesFilter {
       };
     }
 
+    public long getTs() {
+      return myTs;
+    }
+
     @NotNull
     @Override
     public MemoryFilter getMemoryFilter() {
@@ -256,6 +264,10 @@ public class ChangesFilter {
       };
     }
 
+    public long getTs() {
+      return myTs;
+    }
+
     @NotNull
     @Override
     public MemoryFilter getMemoryFilter() {
@@ -294,6 +306,10 @@ public class ChangesFilter {
       };
     }
 
+    public String getRegexp() {
+      return myRegexp;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -346,6 +362,10 @@ public class ChangesFilter {
       };
     }
 
+    public String getRegexp() {
+      return myRegexp;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -396,6 +416,13 @@ public class ChangesFilter {
       };
     }
 
+    /**
+     * @return the moment before which commits are accepted, exclusive
+     */
+    public Date getDate() {
+      return myDate;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -446,6 +473,13 @@ public class ChangesFilter {
       };
     }
 
+    /**
+     * @return the moment after which commits are accepted, exclusive
+     */
+    public Date getDate() {
+      return myDate;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
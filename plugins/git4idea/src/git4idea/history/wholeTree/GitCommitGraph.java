@@ -0,0 +1,731 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import git4idea.history.browser.ChangesFilter;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ *   Persistent graph of the commits of one repository: hashes, parents, commit times, authors and committers.
+ *   It is updated with the commits which became reachable from the references since the previous update,
+ *   and lets the log show the whole history without calling 'git log' for each portion of it.
+ * </p>
+ * <p>
+ *   The graph is stored as an append-only log of records: definitions of hashes, definitions of identities ("Name &lt;email&gt;")
+ *   and commits referring to their parents and identities by the numbers of their definitions. A hash is defined either by its commit
+ *   or, if it is met as a parent first, by a separate record which the commit refers to later.
+ *   The length of the consistent part of the log and the referenced commits it was built for are kept in a small state file,
+ *   which is replaced only after the log is written, so the rest of an interrupted update is ignored.
+ *   The commits of an update are added to the graph in memory only after the update succeeds.
+ * </p>
+ * <p>
+ *   The graph always contains all the ancestors of its commits, because only the commits already in the graph are excluded
+ *   from 'git log' during update.
+ * </p>
+ */
+public final class GitCommitGraph {
+  private static final Logger LOG = Logger.getInstance(GitCommitGraph.class);
+
+  private static final int VERSION = 1;
+  private static final int HASH_LENGTH = 20;
+  private static final byte HASH_RECORD = 0;
+  private static final byte IDENT_RECORD = 1;
+  private static final byte COMMIT_RECORD = 2;
+  private static final int NOT_A_COMMIT = -1;
+  private static final int MAX_EXCLUDED = 500;
+
+  @NotNull private final File myLogFile;
+  @NotNull private final File myStateFile;
+
+  private final HashTable myHashes = new HashTable(1024);
+  // per hash id
+  private final TIntArrayList myTimes = new TIntArrayList();
+  private final TIntArrayList myAuthors = new TIntArrayList();
+  private final TIntArrayList myCommitters = new TIntArrayList();
+  private final TIntArrayList myParentStarts = new TIntArrayList(); // NOT_A_COMMIT until the commit itself is known
+  private final TIntArrayList myParentCounts = new TIntArrayList();
+  private final TIntArrayList myParents = new TIntArrayList();
+
+  private final List<String> myIdents = new ArrayList<String>();
+  private final TObjectIntHashMap<String> myIdentIds = new TObjectIntHashMap<String>();
+
+  private long myLength;
+  @NotNull private Set<String> myReferencedCommits = Collections.emptySet();
+
+  /**
+   * Receives commits from 'git log'.
+   */
+  public interface RecordConsumer {
+    void consume(@NotNull String hash, @NotNull String[] parents, long time, @NotNull String author, @NotNull String committer)
+      throws IOException;
+  }
+
+  private GitCommitGraph(@NotNull File dir) {
+    myLogFile = new File(dir, "graph");
+    myStateFile = new File(dir, "state");
+  }
+
+  /**
+   * Reads the graph stored in the given directory, or creates an empty one if there is nothing valid there.
+   */
+  @NotNull
+  static GitCommitGraph open(@NotNull File dir) {
+    GitCommitGraph graph = new GitCommitGraph(dir);
+    try {
+      if (graph.myStateFile.exists()) {
+        graph.readState();
+        graph.readLog();
+        return graph;
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Couldn't read the commit graph from " + dir + ", it will be rebuilt", e);
+    }
+    graph = new GitCommitGraph(dir);
+    FileUtil.delete(graph.myStateFile);
+    FileUtil.delete(graph.myLogFile);
+    return graph;
+  }
+
+  private void readState() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myStateFile)));
+    try {
+      if (in.readInt() != VERSION) throw new IOException("Unsupported version");
+      myLength = in.readLong();
+      int count = in.readInt();
+      Set<String> commits = new LinkedHashSet<String>(count);
+      for (int i = 0; i < count; i++) {
+        commits.add(in.readUTF());
+      }
+      myReferencedCommits = commits;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private void readLog() throws IOException {
+    if (myLength == 0) return;
+    if (myLogFile.length() < myLength) throw new IOException("Commit graph is truncated");
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myLogFile), 64 * 1024));
+    try {
+      byte[] hash = new byte[HASH_LENGTH];
+      long position = 0;
+      while (position < myLength) {
+        byte type = in.readByte();
+        position++;
+        if (type == HASH_RECORD) {
+          in.readFully(hash);
+          addHash(hash);
+          position += HASH_LENGTH;
+        }
+        else if (type == IDENT_RECORD) {
+          String ident = in.readUTF();
+          myIdentIds.put(ident, myIdents.size());
+          myIdents.add(ident);
+          position += 2 + ident.getBytes("UTF-8").length;
+        }
+        else if (type == COMMIT_RECORD) {
+          in.readFully(hash);
+          int id = myHashes.find(hash);
+          if (id < 0) id = addHash(hash);
+          int time = in.readInt();
+          int author = in.readInt();
+          int committer = in.readInt();
+          int parentCount = in.readUnsignedShort();
+          int[] parents = new int[parentCount];
+          for (int i = 0; i < parentCount; i++) {
+            parents[i] = in.readInt();
+            if (parents[i] < 0 || parents[i] >= myHashes.size()) throw new IOException("Invalid parent reference");
+          }
+          if (author < 0 || author >= myIdents.size() || committer < 0 || committer >= myIdents.size()) {
+            throw new IOException("Invalid identity reference");
+          }
+          setCommit(id, time, author, committer, parents);
+          position += HASH_LENGTH + 14 + 4 * parentCount;
+        }
+        else {
+          throw new IOException("Unknown record type " + type);
+        }
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Appends the commits which became reachable from HEAD, branches, remotes and tags since the previous update.
+   *
+   * @param referencedCommits commits which the references point to now
+   * @param loader            runs 'git log' for all the references excluding the given commits
+   */
+  synchronized void update(@NotNull Set<String> referencedCommits, @NotNull CommitLoader loader) throws IOException, VcsException {
+    boolean allKnown = true;
+    List<String> excluded = new ArrayList<String>();
+    for (String commit : referencedCommits) {
+      if (isCommit(commit)) {
+        if (excluded.size() < MAX_EXCLUDED) excluded.add(commit);
+      }
+      else {
+        allKnown = false;
+      }
+    }
+    if (allKnown) {
+      if (!referencedCommits.equals(myReferencedCommits)) {
+        Set<String> commits = new LinkedHashSet<String>(referencedCommits);
+        writeState(myLength, commits);
+        myReferencedCommits = commits;
+      }
+      return;
+    }
+    for (String commit : myReferencedCommits) {
+      if (excluded.size() >= MAX_EXCLUDED) break;
+      if (!referencedCommits.contains(commit) && isCommit(commit)) excluded.add(commit);
+    }
+
+    if (myLogFile.length() != myLength) {
+      // remains of an interrupted update
+      truncateLog();
+    }
+    long start = System.currentTimeMillis();
+    final Increment increment = new Increment();
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myLogFile, true), 64 * 1024));
+    boolean success = false;
+    try {
+      loader.load(excluded, new RecordConsumer() {
+        @Override
+        public void consume(@NotNull String hash, @NotNull String[] parents, long time, @NotNull String author, @NotNull String committer)
+          throws IOException {
+          appendCommit(out, increment, hash, parents, time, author, committer);
+        }
+      });
+      out.close();
+      long length = myLogFile.length();
+      Set<String> commits = new LinkedHashSet<String>(referencedCommits);
+      writeState(length, commits);
+      myLength = length;
+      myReferencedCommits = commits;
+      increment.publish();
+      success = true;
+    }
+    finally {
+      if (!success) {
+        try {
+          out.close();
+          truncateLog();
+        }
+        catch (IOException e) {
+          LOG.info(e);
+        }
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Commit graph updated with " + increment.getCommitCount() + " commits in " + (System.currentTimeMillis() - start) + " ms");
+    }
+  }
+
+  /**
+   * Runs 'git log' for the commit graph.
+   */
+  interface CommitLoader {
+    void load(@NotNull Collection<String> excluded, @NotNull RecordConsumer consumer) throws IOException, VcsException;
+  }
+
+  private void truncateLog() throws IOException {
+    RandomAccessFile file = new RandomAccessFile(myLogFile, "rw");
+    try {
+      file.setLength(myLength);
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  private static void appendCommit(@NotNull DataOutputStream out, @NotNull Increment increment, @NotNull String hash,
+                                   @NotNull String[] parents, long time, @NotNull String author, @NotNull String committer)
+    throws IOException {
+    byte[] bytes = parseHash(hash);
+    int id = increment.findHash(bytes);
+    if (id >= 0 && increment.isCommit(id)) return; // already known, e.g. reachable from a reference not excluded
+
+    int[] parentIds = new int[parents.length];
+    for (int i = 0; i < parents.length; i++) {
+      byte[] parent = parseHash(parents[i]);
+      int parentId = increment.findHash(parent);
+      if (parentId < 0) {
+        out.writeByte(HASH_RECORD);
+        out.write(parent);
+        parentId = increment.addHash(parent);
+      }
+      parentIds[i] = parentId;
+    }
+    int authorId = appendIdent(out, increment, author);
+    int committerId = appendIdent(out, increment, committer);
+
+    out.writeByte(COMMIT_RECORD);
+    out.write(bytes);
+    out.writeInt((int)time);
+    out.writeInt(authorId);
+    out.writeInt(committerId);
+    out.writeShort(parentIds.length);
+    for (int parentId : parentIds) {
+      out.writeInt(parentId);
+    }
+    if (id < 0) id = increment.addHash(bytes);
+    increment.addCommit(id, (int)time, authorId, committerId, parentIds);
+  }
+
+  private static int appendIdent(@NotNull DataOutputStream out, @NotNull Increment increment, @NotNull String ident) throws IOException {
+    int id = increment.findIdent(ident);
+    if (id >= 0) return id;
+    out.writeByte(IDENT_RECORD);
+    out.writeUTF(ident);
+    return increment.addIdent(ident);
+  }
+
+  /**
+   * Commits, hashes and identities met during an update. They get the ids following the ones in the graph,
+   * and are added to the graph by {@link #publish()} when the update succeeds.
+   */
+  private final class Increment {
+    private final int myBaseHashCount = myHashes.size();
+    private final int myBaseIdentCount = myIdents.size();
+    private final HashTable myNewHashes = new HashTable(64);
+    private final BitSet myNewCommits = new BitSet(); // by id
+    private final List<String> myNewIdents = new ArrayList<String>();
+    private final TObjectIntHashMap<String> myNewIdentIds = new TObjectIntHashMap<String>();
+    // per commit in the order of addition
+    private final TIntArrayList myCommitIds = new TIntArrayList();
+    private final TIntArrayList myTimes = new TIntArrayList();
+    private final TIntArrayList myAuthors = new TIntArrayList();
+    private final TIntArrayList myCommitters = new TIntArrayList();
+    private final List<int[]> myParents = new ArrayList<int[]>();
+
+    int findHash(@NotNull byte[] hash) {
+      int id = myHashes.find(hash);
+      if (id >= 0) return id;
+      id = myNewHashes.find(hash);
+      return id < 0 ? -1 : myBaseHashCount + id;
+    }
+
+    int addHash(@NotNull byte[] hash) {
+      return myBaseHashCount + myNewHashes.add(hash);
+    }
+
+    boolean isCommit(int id) {
+      return myNewCommits.get(id) || (id < myBaseHashCount && GitCommitGraph.this.isCommit(id));
+    }
+
+    int findIdent(@NotNull String ident) {
+      if (myIdentIds.containsKey(ident)) return myIdentIds.get(ident);
+      return myNewIdentIds.containsKey(ident) ? myBaseIdentCount + myNewIdentIds.get(ident) : -1;
+    }
+
+    int addIdent(@NotNull String ident) {
+      myNewIdentIds.put(ident, myNewIdents.size());
+      myNewIdents.add(ident);
+      return myBaseIdentCount + myNewIdents.size() - 1;
+    }
+
+    void addCommit(int id, int time, int author, int committer, @NotNull int[] parents) {
+      myNewCommits.set(id);
+      myCommitIds.add(id);
+      myTimes.add(time);
+      myAuthors.add(author);
+      myCommitters.add(committer);
+      myParents.add(parents);
+    }
+
+    int getCommitCount() {
+      return myCommitIds.size();
+    }
+
+    void publish() {
+      for (int i = 0; i < myNewHashes.size(); i++) {
+        GitCommitGraph.this.addHash(myNewHashes.get(i));
+      }
+      for (String ident : myNewIdents) {
+        myIdentIds.put(ident, myIdents.size());
+        myIdents.add(ident);
+      }
+      for (int i = 0; i < myCommitIds.size(); i++) {
+        setCommit(myCommitIds.get(i), myTimes.get(i), myAuthors.get(i), myCommitters.get(i), myParents.get(i));
+      }
+    }
+  }
+
+  private void writeState(long length, @NotNull Set<String> referencedCommits) throws IOException {
+    File temp = new File(myStateFile.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    try {
+      out.writeInt(VERSION);
+      out.writeLong(length);
+      out.writeInt(referencedCommits.size());
+      for (String commit : referencedCommits) {
+        out.writeUTF(commit);
+      }
+    }
+    finally {
+      out.close();
+    }
+    FileUtil.delete(myStateFile);
+    if (!temp.renameTo(myStateFile)) {
+      throw new IOException("Couldn't write " + myStateFile);
+    }
+  }
+
+  /**
+   * @return ids of the commits reachable from the references, children before parents and otherwise latest first,
+   *         which is the order of 'git log --date-order'
+   */
+  @NotNull
+  synchronized int[] getDateOrder() {
+    BitSet reachable = new BitSet(myHashes.size());
+    TIntArrayList stack = new TIntArrayList();
+    for (String commit : myReferencedCommits) {
+      int id = myHashes.find(parseHash(commit));
+      if (id >= 0 && isCommit(id) && !reachable.get(id)) {
+        reachable.set(id);
+        stack.add(id);
+      }
+    }
+    while (!stack.isEmpty()) {
+      int id = stack.remove(stack.size() - 1);
+      for (int i = 0, start = myParentStarts.get(id), count = myParentCounts.get(id); i < count; i++) {
+        int parent = myParents.get(start + i);
+        if (isCommit(parent) && !reachable.get(parent)) {
+          reachable.set(parent);
+          stack.add(parent);
+        }
+      }
+    }
+
+    int[] children = new int[myHashes.size()];
+    for (int id = reachable.nextSetBit(0); id >= 0; id = reachable.nextSetBit(id + 1)) {
+      for (int i = 0, start = myParentStarts.get(id), count = myParentCounts.get(id); i < count; i++) {
+        children[myParents.get(start + i)]++;
+      }
+    }
+
+    int[] result = new int[reachable.cardinality()];
+    int size = 0;
+    int[] heap = new int[result.length];
+    int heapSize = 0;
+    for (int id = reachable.nextSetBit(0); id >= 0; id = reachable.nextSetBit(id + 1)) {
+      if (children[id] == 0) heapSize = push(heap, heapSize, id);
+    }
+    while (heapSize > 0) {
+      int id = heap[0];
+      heapSize = pop(heap, heapSize);
+      result[size++] = id;
+      for (int i = 0, start = myParentStarts.get(id), count = myParentCounts.get(id); i < count; i++) {
+        int parent = myParents.get(start + i);
+        if (reachable.get(parent) && --children[parent] == 0) {
+          heapSize = push(heap, heapSize, parent);
+        }
+      }
+    }
+    return size == result.length ? result : Arrays.copyOf(result, size);
+  }
+
+  // binary heap of ids, the latest commit on top
+
+  private boolean isLater(int id1, int id2) {
+    long time1 = getTime(id1);
+    long time2 = getTime(id2);
+    return time1 != time2 ? time1 > time2 : id1 < id2;
+  }
+
+  private int push(int[] heap, int size, int id) {
+    int i = size;
+    while (i > 0) {
+      int parent = (i - 1) >> 1;
+      if (!isLater(id, heap[parent])) break;
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = id;
+    return size + 1;
+  }
+
+  private int pop(int[] heap, int size) {
+    int last = heap[--size];
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) break;
+      if (child + 1 < size && isLater(heap[child + 1], heap[child])) child++;
+      if (!isLater(heap[child], last)) break;
+      heap[i] = heap[child];
+      i = child;
+    }
+    if (size > 0) heap[i] = last;
+    return size;
+  }
+
+  /**
+   * @param hashLength length of the abbreviated hashes, as the log shows them
+   */
+  @NotNull
+  synchronized CommitHashPlusParents createCommit(int id, int hashLength) {
+    int start = myParentStarts.get(id);
+    String[] parents = new String[myParentCounts.get(id)];
+    for (int i = 0; i < parents.length; i++) {
+      parents[i] = getHash(myParents.get(start + i), hashLength);
+    }
+    return new CommitHashPlusParents(getHash(id, hashLength), parents, getTime(id) * 1000, getName(myIdents.get(myAuthors.get(id))));
+  }
+
+  /**
+   * @return commit time in seconds
+   */
+  synchronized long getTime(int id) {
+    return myTimes.get(id) & 0xffffffffL;
+  }
+
+  @NotNull
+  synchronized String getAuthor(int id) {
+    return myIdents.get(myAuthors.get(id));
+  }
+
+  @NotNull
+  synchronized String getCommitter(int id) {
+    return myIdents.get(myCommitters.get(id));
+  }
+
+  synchronized int getCommitCount() {
+    int count = 0;
+    for (int i = 0; i < myHashes.size(); i++) {
+      if (isCommit(i)) count++;
+    }
+    return count;
+  }
+
+  @NotNull
+  private static String getName(@NotNull String ident) {
+    int email = ident.lastIndexOf(" <");
+    return email < 0 ? ident : ident.substring(0, email);
+  }
+
+  @NotNull
+  private String getHash(int id, int length) {
+    byte[] hash = myHashes.get(id);
+    StringBuilder sb = new StringBuilder(HASH_LENGTH * 2);
+    for (byte b : hash) {
+      sb.append(Character.forDigit((b & 0xff) >> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return length > 0 && length < sb.length() ? sb.substring(0, length) : sb.toString();
+  }
+
+  private boolean isCommit(@NotNull String hash) {
+    int id = myHashes.find(parseHash(hash));
+    return id >= 0 && isCommit(id);
+  }
+
+  private boolean isCommit(int id) {
+    return myParentStarts.get(id) != NOT_A_COMMIT;
+  }
+
+  private void setCommit(int id, int time, int author, int committer, int[] parents) {
+    myTimes.set(id, time);
+    myAuthors.set(id, author);
+    myCommitters.set(id, committer);
+    myParentStarts.set(id, myParents.size());
+    myParentCounts.set(id, parents.length);
+    myParents.add(parents);
+  }
+
+  private int addHash(@NotNull byte[] hash) {
+    int id = myHashes.add(hash);
+    myTimes.add(0);
+    myAuthors.add(0);
+    myCommitters.add(0);
+    myParentStarts.add(NOT_A_COMMIT);
+    myParentCounts.add(0);
+    return id;
+  }
+
+  /**
+   * Full hashes numbered in the order of addition.
+   */
+  private static final class HashTable {
+    private byte[] myHashes;
+    private int myCount;
+    private int[] myTable; // open addressing: id + 1, or 0 for a free slot
+
+    HashTable(int capacity) {
+      myHashes = new byte[HASH_LENGTH * capacity];
+      myTable = new int[2 * capacity];
+    }
+
+    int size() {
+      return myCount;
+    }
+
+    @NotNull
+    byte[] get(int id) {
+      return Arrays.copyOfRange(myHashes, id * HASH_LENGTH, (id + 1) * HASH_LENGTH);
+    }
+
+    int add(@NotNull byte[] hash) {
+      if (myHashes.length < (myCount + 1) * HASH_LENGTH) {
+        myHashes = Arrays.copyOf(myHashes, myHashes.length * 2);
+      }
+      System.arraycopy(hash, 0, myHashes, myCount * HASH_LENGTH, HASH_LENGTH);
+      int id = myCount++;
+
+      if (myCount * 2 > myTable.length) {
+        myTable = new int[myTable.length * 2];
+        for (int i = 0; i < myCount; i++) {
+          insert(i);
+        }
+      }
+      else {
+        insert(id);
+      }
+      return id;
+    }
+
+    private void insert(int id) {
+      int mask = myTable.length - 1;
+      int slot = slot(myHashes, id * HASH_LENGTH) & mask;
+      while (myTable[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      myTable[slot] = id + 1;
+    }
+
+    int find(@NotNull byte[] hash) {
+      int mask = myTable.length - 1;
+      int slot = slot(hash, 0) & mask;
+      while (myTable[slot] != 0) {
+        int id = myTable[slot] - 1;
+        if (equalHashes(hash, id)) return id;
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    private boolean equalHashes(@NotNull byte[] hash, int id) {
+      int start = id * HASH_LENGTH;
+      for (int i = 0; i < HASH_LENGTH; i++) {
+        if (hash[i] != myHashes[start + i]) return false;
+      }
+      return true;
+    }
+
+    private static int slot(@NotNull byte[] hash, int offset) {
+      // hashes are uniformly distributed already
+      return (hash[offset] & 0xff) << 24 | (hash[offset + 1] & 0xff) << 16 | (hash[offset + 2] & 0xff) << 8 | hash[offset + 3] & 0xff;
+    }
+  }
+
+  @NotNull
+  private static byte[] parseHash(@NotNull String hash) {
+    byte[] result = new byte[HASH_LENGTH];
+    if (hash.length() != HASH_LENGTH * 2) throw new IllegalArgumentException("Not a full hash: " + hash);
+    for (int i = 0; i < HASH_LENGTH; i++) {
+      result[i] = (byte)(Character.digit(hash.charAt(2 * i), 16) << 4 | Character.digit(hash.charAt(2 * i + 1), 16));
+    }
+    return result;
+  }
+
+  /**
+   * Checks commits against the date and user filters of the log, for which the graph has everything needed.
+   */
+  static final class Condition {
+    private long myAfter = Long.MIN_VALUE;
+    private long myBefore = Long.MAX_VALUE;
+    private final List<Pattern> myAuthors = new ArrayList<Pattern>();
+    private final List<Pattern> myCommitters = new ArrayList<Pattern>();
+
+    private Condition() {
+    }
+
+    /**
+     * @return null if some of the filters can't be checked with the graph only
+     */
+    @Nullable
+    static Condition create(@NotNull Collection<ChangesFilter.Filter> filters) {
+      Condition condition = new Condition();
+      for (ChangesFilter.Filter filter : filters) {
+        if (!condition.add(filter)) return null;
+      }
+      return condition;
+    }
+
+    private boolean add(@NotNull ChangesFilter.Filter filter) {
+      if (filter instanceof ChangesFilter.And) {
+        for (ChangesFilter.Filter inner : ((ChangesFilter.And)filter).getFilters()) {
+          if (!add(inner)) return false;
+        }
+        return true;
+      }
+      if (filter instanceof ChangesFilter.BeforeTime) {
+        myBefore = Math.min(myBefore, ((ChangesFilter.BeforeTime)filter).getTs());
+        return true;
+      }
+      if (filter instanceof ChangesFilter.AfterTime) {
+        myAfter = Math.max(myAfter, ((ChangesFilter.AfterTime)filter).getTs());
+        return true;
+      }
+      if (filter instanceof ChangesFilter.BeforeDate) {
+        myBefore = Math.min(myBefore, ((ChangesFilter.BeforeDate)filter).getDate().getTime() - 1);
+        return true;
+      }
+      if (filter instanceof ChangesFilter.AfterDate) {
+        myAfter = Math.max(myAfter, ((ChangesFilter.AfterDate)filter).getDate().getTime() + 1);
+        return true;
+      }
+      if (filter instanceof ChangesFilter.Author) {
+        myAuthors.add(Pattern.compile(((ChangesFilter.Author)filter).getRegexp()));
+        return true;
+      }
+      if (filter instanceof ChangesFilter.Committer) {
+        myCommitters.add(Pattern.compile(((ChangesFilter.Committer)filter).getRegexp()));
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Matches identities the way 'git log --author' does: the pattern may be found anywhere in "Name &lt;email&gt;".
+     */
+    boolean matches(@NotNull GitCommitGraph graph, int id) {
+      long time = graph.getTime(id) * 1000;
+      if (time < myAfter || time > myBefore) return false;
+      for (Pattern pattern : myAuthors) {
+        if (!pattern.matcher(graph.getAuthor(id)).find()) return false;
+      }
+      for (Pattern pattern : myCommitters) {
+        if (!pattern.matcher(graph.getCommitter(id)).find()) return false;
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.history.GitHistoryUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * !! application-level
+ *
+ * Keeps {@link GitCommitGraph}s of the repositories under the system directory; the loaded ones are kept in memory while it suffices.
+ */
+public class GitCommitGraphs {
+  private final File myDir;
+  private final Map<String, SoftReference<GitCommitGraph>> myGraphs = new HashMap<String, SoftReference<GitCommitGraph>>();
+
+  public GitCommitGraphs() {
+    myDir = new File(new File(PathManager.getSystemPath(), "vcs"), "git_graph");
+  }
+
+  public static GitCommitGraphs getInstance() {
+    return ServiceManager.getService(GitCommitGraphs.class);
+  }
+
+  /**
+   * Brings the graph of the given root up to date with its references.
+   * If it fails, the graph stays as it was before.
+   */
+  @NotNull
+  public GitCommitGraph getUpdatedGraph(@NotNull final Project project, @NotNull final VirtualFile root) throws VcsException, IOException {
+    GitCommitGraph graph = getGraph(root);
+    graph.update(GitHistoryUtils.getReferencedCommits(project, root), new GitCommitGraph.CommitLoader() {
+      @Override
+      public void load(@NotNull Collection<String> excluded, @NotNull GitCommitGraph.RecordConsumer consumer) throws VcsException {
+        GitHistoryUtils.loadCommitGraph(project, root, excluded, consumer);
+      }
+    });
+    return graph;
+  }
+
+  @NotNull
+  private GitCommitGraph getGraph(@NotNull VirtualFile root) {
+    String path = root.getPath();
+    synchronized (myGraphs) {
+      SoftReference<GitCommitGraph> reference = myGraphs.get(path);
+      GitCommitGraph graph = reference == null ? null : reference.get();
+      if (graph == null) {
+        File dir = new File(myDir, FileUtil.sanitizeFileName(root.getName()) + "." + Integer.toHexString(FileUtil.pathHashCode(path)));
+        dir.mkdirs();
+        graph = GitCommitGraph.open(dir);
+        myGraphs.put(path, new SoftReference<GitCommitGraph>(graph));
+      }
+      return graph;
+    }
+  }
+}
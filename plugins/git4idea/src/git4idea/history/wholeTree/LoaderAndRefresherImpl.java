@@ -12,9 +12,11 @@
  */
 package git4idea.history.wholeTree;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Getter;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vcs.ObjectsConvertor;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -23,18 +25,21 @@ import com.intellij.util.BufferedListConsumer;
 import com.intellij.util.Consumer;
 import com.intellij.util.Ticket;
 import com.intellij.util.containers.Convertor;
+import git4idea.history.GitHistoryUtils;
 import git4idea.history.browser.ChangesFilter;
 import git4idea.history.browser.GitHeavyCommit;
 import git4idea.history.browser.LowLevelAccessImpl;
 import git4idea.history.browser.SymbolicRefsI;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * @author irengrig
  */
 public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlusParents> {
+  private static final Logger LOG = Logger.getInstance(LoaderAndRefresherImpl.class);
   private final static int ourFirstLoadCount = 15;
   private final static int ourPreload = (! parameterCheck(Integer.getInteger("git.log.preload.size"))) ? 100 : Integer.getInteger("git.log.preload.size");
 
@@ -60,6 +65,12 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
   @NotNull
   private volatile StepType myStepType;
   private final boolean myTopoOrder;
+  // commits from the persistent graph, instead of 'git log' for each portion
+  private boolean myUseGraph;
+  private GitCommitGraph myGraph;
+  private int[] myGraphCommits;
+  private int myGraphPosition;
+  private int myHashLength;
 
   private static boolean parameterCheck(final Integer i) {
     return i != null && i > 0;
@@ -119,6 +130,7 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
     };
     myBufferConsumer = new BufferedListConsumer<CommitHashPlusParents>(15, myRealConsumer, 400);
     myRepeatingLoadConsumer = new RepeatingLoadConsumer<CommitHashPlusParents>(myProject, myBufferConsumer.asConsumer());
+    myUseGraph = Registry.is("git.log.persistent.graph") && myStartingPoints.isEmpty() && ! myHaveStructureFilter && ! myTopoOrder;
   }
 
   public void interrupt() {
@@ -161,6 +173,11 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
       count = ourPreload;
     }
 
+    if (myUseGraph) {
+      final LoadAlgorithm.Result<CommitHashPlusParents> result = loadFromGraph(count);
+      if (result != null) return result;
+    }
+
     long start;
     boolean isOver = false;
     while (true) {
@@ -191,6 +208,63 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
     return new LoadAlgorithm.Result<CommitHashPlusParents>(isOver, end - start, myRepeatingLoadConsumer.getLast());
   }
 
+  /**
+   * Passes the next portion of the commits from the graph, which is brought up to date with the references on the first call.
+   * Details of the commits are loaded later as usual, since the graph doesn't contain changed paths.
+   *
+   * @return null if the graph can't be used, then 'git log' is used for the rest of the loading
+   */
+  private LoadAlgorithm.Result<CommitHashPlusParents> loadFromGraph(final int count) {
+    final long start = System.currentTimeMillis();
+    if (myGraphCommits == null) {
+      final GitCommitGraph.Condition condition = GitCommitGraph.Condition.create(myFilters);
+      if (condition == null) {
+        myUseGraph = false;
+        return null;
+      }
+      try {
+        myGraph = GitCommitGraphs.getInstance().getUpdatedGraph(myProject, myRootHolder.getRoot());
+        myHashLength = GitHistoryUtils.getAbbreviatedHashLength(myProject, myRootHolder.getRoot());
+      }
+      catch (VcsException e) {
+        LOG.info("Couldn't update the commit graph of " + myRootHolder.getRoot(), e);
+        myUseGraph = false;
+        return null;
+      }
+      catch (IOException e) {
+        LOG.info("Couldn't update the commit graph of " + myRootHolder.getRoot(), e);
+        myUseGraph = false;
+        return null;
+      }
+      final int[] order = myGraph.getDateOrder();
+      int size = 0;
+      for (int id : order) {
+        if (condition.matches(myGraph, id)) {
+          order[size++] = id;
+        }
+      }
+      myGraphCommits = Arrays.copyOf(order, size);
+    }
+
+    // the consumer skips everything up to the last passed commit
+    final int from = Math.max(0, myGraphPosition - 1);
+    final int to = Math.min(myGraphCommits.length, myGraphPosition + count);
+    for (int i = from; i < to; i++) {
+      if (isInterrupted()) return new LoadAlgorithm.Result<CommitHashPlusParents>(true, 0, myRepeatingLoadConsumer.getLast());
+      myRepeatingLoadConsumer.consume(myGraph.createCommit(myGraphCommits[i], myHashLength));
+    }
+    myGraphPosition = to;
+
+    final boolean isOver = myGraphPosition >= myGraphCommits.length;
+    if (isOver) {
+      myId.finished();
+      myStepType = StepType.FINISHED;
+    } else if (myRepeatingLoadConsumer.getLast() != null) {
+      myId.registerTime(myRepeatingLoadConsumer.getLast().getTime());
+    }
+    return new LoadAlgorithm.Result<CommitHashPlusParents>(isOver, System.currentTimeMillis() - start, myRepeatingLoadConsumer.getLast());
+  }
+
   private void step(final int count, final boolean shouldFull, final long continuation) {
     if (shouldFull) {
       loadFull(count, continuation);
@@ -107,13 +107,8 @@ class GitRepositoryReader {
     }
 
     // look in /refs/heads/<branch name>
-    File branchFile = null;
-    for (Map.Entry<String, File> entry : readLocalBranches().entrySet()) {
-      if (entry.getKey().equals(head.ref)) {
-        branchFile = entry.getValue();
-      }
-    }
-    if (branchFile != null) {
+    File branchFile = new File(myRefsHeadsDir, FileUtil.toSystemDependentName(head.ref));
+    if (branchFile.isFile()) {
       return readBranchFile(branchFile);
     }
 
@@ -207,7 +202,7 @@ class GitRepositoryReader {
         if (hash == null || branchName == null) {
           return;
         }
-        if (branchName.endsWith(ref)) {
+        if (branchName.equals(REFS_HEADS_PREFIX + ref)) {
           hashRef.set(shortBuffer(hash));
           stop();
         }
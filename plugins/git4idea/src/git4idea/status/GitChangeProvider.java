@@ -25,6 +25,7 @@ import com.intellij.openapi.vcs.changes.*;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.PairProcessor;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.Convertor;
 import git4idea.GitContentRevision;
 import git4idea.GitRevisionNumber;
@@ -37,6 +38,7 @@ import git4idea.config.GitVersionSpecialty;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Git repository change provider
@@ -50,6 +52,7 @@ public class GitChangeProvider implements ChangeProvider {
   @NotNull private final ChangeListManager myChangeListManager;
   @NotNull private final FileDocumentManager myFileDocumentManager;
   @NotNull private final ProjectLevelVcsManager myVcsManager;
+  @NotNull private final ConcurrentMap<VirtualFile, GitIndexStatus.StagedChanges> myStagedChanges = ContainerUtil.newConcurrentMap();
 
   public GitChangeProvider(@NotNull Project project, @NotNull Git git, ChangeListManager changeListManager,
                            @NotNull FileDocumentManager fileDocumentManager, @NotNull ProjectLevelVcsManager vcsManager) {
@@ -83,7 +86,7 @@ public class GitChangeProvider implements ChangeProvider {
         debug("checking root: " + root.getPath());
         GitChangesCollector collector = isNewGitChangeProviderAvailable()
                                         ? GitNewChangesCollector.collect(myProject, myGit, myChangeListManager, myVcsManager,
-                                                                         vcs, dirtyScope, root)
+                                                                         vcs, dirtyScope, root, myStagedChanges)
                                         : GitOldChangesCollector.collect(myProject, myChangeListManager, myVcsManager,
                                                                          vcs, dirtyScope, root);
         final Collection<Change> changes = collector.getChanges();
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.status;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *   Entries of the Git index read from {@code .git/index} without calling Git.
+ *   Versions 2, 3 and 4 of the format are supported, extensions are skipped.
+ *   See <a href="https://github.com/git/git/blob/master/Documentation/technical/index-format.txt">index-format.txt</a> for details.
+ * </p>
+ * <p>
+ *   The file is read into memory at once instead of being mapped: a mapping can't be released explicitly,
+ *   and would prevent Git from replacing the index on Windows.
+ * </p>
+ */
+final class GitIndex {
+  static final int MODE_TYPE_MASK = 0170000;
+  static final int MODE_FILE = 0100000;
+  static final int MODE_SYMLINK = 0120000;
+  static final int MODE_GITLINK = 0160000;
+
+  private static final int SIGNATURE = 0x44495243; // "DIRC"
+  private static final int FLAG_ASSUME_VALID = 0x8000;
+  private static final int FLAG_EXTENDED = 0x4000;
+  private static final int FLAG_STAGE_MASK = 0x3000;
+  private static final int FLAG_NAME_MASK = 0xfff;
+  private static final int EXTENDED_FLAG_SKIP_WORKTREE = 0x4000;
+  private static final int EXTENDED_FLAG_INTENT_TO_ADD = 0x2000;
+
+  private final int myVersion;
+  private final String[] myPaths;
+  private final int[] myMtimeSeconds;
+  private final int[] myMtimeNanos;
+  private final int[] mySizes;
+  private final int[] myModes;
+  private final int[] myFlags;
+  private final int[] myExtendedFlags;
+  private final byte[] myHashes;
+  private final long myContentFingerprint;
+  private final boolean myHasConflicts;
+
+  private GitIndex(int version, String[] paths, int[] mtimeSeconds, int[] mtimeNanos, int[] sizes, int[] modes, int[] flags,
+                   int[] extendedFlags, byte[] hashes) {
+    myVersion = version;
+    myPaths = paths;
+    myMtimeSeconds = mtimeSeconds;
+    myMtimeNanos = mtimeNanos;
+    mySizes = sizes;
+    myModes = modes;
+    myFlags = flags;
+    myExtendedFlags = extendedFlags;
+    myHashes = hashes;
+
+    long fingerprint = 0xcbf29ce484222325L;
+    boolean conflicts = false;
+    for (int i = 0; i < paths.length; i++) {
+      fingerprint = fnv(fingerprint, paths[i].hashCode());
+      fingerprint = fnv(fingerprint, modes[i]);
+      fingerprint = fnv(fingerprint, flags[i] & ~FLAG_NAME_MASK);
+      fingerprint = fnv(fingerprint, extendedFlags[i]);
+      for (int j = 0; j < 20; j++) {
+        fingerprint = fnv(fingerprint, hashes[i * 20 + j]);
+      }
+      conflicts |= getStage(i) != 0;
+    }
+    myContentFingerprint = fingerprint;
+    myHasConflicts = conflicts;
+  }
+
+  @NotNull
+  static GitIndex read(@NotNull File indexFile) throws IOException {
+    return parse(FileUtil.loadFileBytes(indexFile));
+  }
+
+  @NotNull
+  static GitIndex parse(@NotNull byte[] data) throws IOException {
+    if (data.length < 12 || readInt(data, 0) != SIGNATURE) {
+      throw new IOException("Not a Git index");
+    }
+    int version = readInt(data, 4);
+    if (version < 2 || version > 4) {
+      throw new IOException("Unsupported Git index version " + version);
+    }
+    int count = readInt(data, 8);
+    if (count < 0 || count > data.length / 40) {
+      throw new IOException("Invalid number of Git index entries " + count);
+    }
+
+    String[] paths = new String[count];
+    int[] mtimeSeconds = new int[count];
+    int[] mtimeNanos = new int[count];
+    int[] sizes = new int[count];
+    int[] modes = new int[count];
+    int[] flags = new int[count];
+    int[] extendedFlags = new int[count];
+    byte[] hashes = new byte[count * 20];
+
+    byte[] previousPath = new byte[0];
+    int offset = 12;
+    for (int i = 0; i < count; i++) {
+      int start = offset;
+      checkBounds(data, offset + 62);
+      mtimeSeconds[i] = readInt(data, offset + 8);
+      mtimeNanos[i] = readInt(data, offset + 12);
+      modes[i] = readInt(data, offset + 24);
+      sizes[i] = readInt(data, offset + 36);
+      System.arraycopy(data, offset + 40, hashes, i * 20, 20);
+      flags[i] = readShort(data, offset + 60);
+      offset += 62;
+      if ((flags[i] & FLAG_EXTENDED) != 0) {
+        if (version < 3) throw new IOException("Extended flags in Git index version " + version);
+        checkBounds(data, offset + 2);
+        extendedFlags[i] = readShort(data, offset);
+        offset += 2;
+      }
+
+      byte[] path;
+      if (version == 4) {
+        // the path is the previous one without the given number of trailing bytes plus the stored suffix
+        long[] stripped = readOffsetVarint(data, offset);
+        offset = (int)stripped[1];
+        int prefixLength = previousPath.length - (int)stripped[0];
+        if (prefixLength < 0) throw new IOException("Invalid path compression in Git index");
+        int suffixEnd = findZero(data, offset);
+        path = new byte[prefixLength + suffixEnd - offset];
+        System.arraycopy(previousPath, 0, path, 0, prefixLength);
+        System.arraycopy(data, offset, path, prefixLength, suffixEnd - offset);
+        offset = suffixEnd + 1;
+      }
+      else {
+        int end = findZero(data, offset);
+        path = Arrays.copyOfRange(data, offset, end);
+        // entries are padded with 1-8 zero bytes to a multiple of 8
+        offset = start + ((end - start + 8) & ~7);
+      }
+      paths[i] = new String(path, CharsetToolkit.UTF8_CHARSET);
+      previousPath = path;
+    }
+    return new GitIndex(version, paths, mtimeSeconds, mtimeNanos, sizes, modes, flags, extendedFlags, hashes);
+  }
+
+  int getVersion() {
+    return myVersion;
+  }
+
+  int getEntryCount() {
+    return myPaths.length;
+  }
+
+  /**
+   * @return path of the entry relative to the repository root, separated by '/'
+   */
+  @NotNull
+  String getPath(int entry) {
+    return myPaths[entry];
+  }
+
+  int getMode(int entry) {
+    return myModes[entry];
+  }
+
+  int getStage(int entry) {
+    return (myFlags[entry] & FLAG_STAGE_MASK) >> 12;
+  }
+
+  /**
+   * @return size of the working tree file when the entry was last refreshed, truncated to 32 bits
+   */
+  int getSize(int entry) {
+    return mySizes[entry];
+  }
+
+  int getMtimeSeconds(int entry) {
+    return myMtimeSeconds[entry];
+  }
+
+  int getMtimeNanos(int entry) {
+    return myMtimeNanos[entry];
+  }
+
+  boolean isAssumedUnchanged(int entry) {
+    return (myFlags[entry] & FLAG_ASSUME_VALID) != 0 || (myExtendedFlags[entry] & EXTENDED_FLAG_SKIP_WORKTREE) != 0;
+  }
+
+  boolean isIntentToAdd(int entry) {
+    return (myExtendedFlags[entry] & EXTENDED_FLAG_INTENT_TO_ADD) != 0;
+  }
+
+  boolean hasHash(int entry, @NotNull byte[] hash) {
+    for (int i = 0; i < 20; i++) {
+      if (myHashes[entry * 20 + i] != hash[i]) return false;
+    }
+    return true;
+  }
+
+  boolean hasConflicts() {
+    return myHasConflicts;
+  }
+
+  /**
+   * @return hash of everything in the index which affects the staged changes, i.e. everything except the cached file stat data,
+   *         which Git updates on its own
+   */
+  long getContentFingerprint() {
+    return myContentFingerprint;
+  }
+
+  private static long fnv(long hash, int value) {
+    for (int i = 0; i < 4; i++) {
+      hash ^= (value >>> (i * 8)) & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static int readInt(byte[] data, int offset) {
+    return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 | (data[offset + 2] & 0xff) << 8 | data[offset + 3] & 0xff;
+  }
+
+  private static int readShort(byte[] data, int offset) {
+    return (data[offset] & 0xff) << 8 | data[offset + 1] & 0xff;
+  }
+
+  /**
+   * Reads the variable length integer used by Git for offsets, which differs from the usual base 128 encoding.
+   *
+   * @return the value and the offset after it
+   */
+  private static long[] readOffsetVarint(byte[] data, int offset) throws IOException {
+    checkBounds(data, offset + 1);
+    int c = data[offset++] & 0xff;
+    long value = c & 0x7f;
+    while ((c & 0x80) != 0) {
+      checkBounds(data, offset + 1);
+      c = data[offset++] & 0xff;
+      value = ((value + 1) << 7) | (c & 0x7f);
+      if (value > Integer.MAX_VALUE) throw new IOException("Invalid varint in Git index");
+    }
+    return new long[]{value, offset};
+  }
+
+  private static int findZero(byte[] data, int offset) throws IOException {
+    for (int i = offset; i < data.length; i++) {
+      if (data[i] == 0) return i;
+    }
+    throw new IOException("Unterminated path in Git index");
+  }
+
+  private static void checkBounds(byte[] data, int end) throws IOException {
+    if (end > data.length) throw new IOException("Unexpected end of Git index");
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.status;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.SystemProperties;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * <p>
+ *   Compares the working tree with the {@link GitIndex} the same way as Git does: a file is unchanged if its size and modification time
+ *   match the ones cached in the index, otherwise its content hash is compared with the hash of the indexed blob.
+ * </p>
+ * <p>
+ *   Cases which can't be decided without Git are reported as {@link #UNKNOWN}: symlinks, submodules, intent-to-add entries,
+ *   and content which differs from the blob but could be converted to it by line separator conversion or filters.
+ *   Conversion is ruled out only if neither {@code core.autocrlf} nor {@code core.attributesFile} is set, and there are no attributes
+ *   files which could apply to the file: {@code .gitattributes} in its directory or above, {@code info/attributes}
+ *   and the global {@code git/attributes}.
+ * </p>
+ */
+final class GitIndexStatus {
+  static final char UNCHANGED = ' ';
+  static final char MODIFIED = 'M';
+  static final char DELETED = 'D';
+  static final char UNKNOWN = '?';
+
+  @NotNull private final File myRoot;
+  @NotNull private final GitIndex myIndex;
+  private final long myIndexTimestamp;
+  private final boolean myCheckExecutableBit;
+  private final boolean myConversionConfigured;
+  /**
+   * Directory relative to the root -> whether there is a .gitattributes in it or in one of its parents
+   */
+  @NotNull private final Map<String, Boolean> myAttributedDirectories = new THashMap<String, Boolean>();
+
+  GitIndexStatus(@NotNull File root, @NotNull File gitDir, @NotNull GitIndex index) {
+    this(root, gitDir, index, getGlobalConfigDir());
+  }
+
+  /**
+   * @param globalConfigDir the directory with the global {@code config} and {@code attributes}, i.e. {@code $XDG_CONFIG_HOME/git},
+   *                        or null to take only the repository configuration into account
+   */
+  GitIndexStatus(@NotNull File root, @NotNull File gitDir, @NotNull GitIndex index, @Nullable File globalConfigDir) {
+    myRoot = root;
+    myIndex = index;
+    myIndexTimestamp = new File(gitDir, "index").lastModified();
+
+    List<File> configs = new ArrayList<File>();
+    if (globalConfigDir != null) {
+      configs.add(new File("/etc/gitconfig"));
+      configs.add(new File(globalConfigDir, "config"));
+      configs.add(new File(SystemProperties.getUserHome(), ".gitconfig"));
+    }
+    configs.add(new File(gitDir, "config"));
+    Map<String, String> core = readCoreSection(configs);
+
+    myCheckExecutableBit = !SystemInfo.isWindows && !isFalse(core.get("filemode"), false);
+    myConversionConfigured = core.containsKey("attributesfile") || !isFalse(core.get("autocrlf"), true) ||
+                             new File(new File(gitDir, "info"), "attributes").exists() ||
+                             (globalConfigDir != null && new File(globalConfigDir, "attributes").exists());
+  }
+
+  /**
+   * @return {@link #UNCHANGED}, {@link #MODIFIED}, {@link #DELETED} or {@link #UNKNOWN} for the given stage 0 entry
+   */
+  char compare(int entry) throws IOException {
+    if (myIndex.isAssumedUnchanged(entry)) return UNCHANGED;
+    int mode = myIndex.getMode(entry);
+    if (myIndex.isIntentToAdd(entry) || (mode & GitIndex.MODE_TYPE_MASK) != GitIndex.MODE_FILE) return UNKNOWN;
+
+    File file = new File(myRoot, myIndex.getPath(entry));
+    if (!file.isFile()) {
+      return file.exists() ? UNKNOWN : DELETED;
+    }
+    if (myCheckExecutableBit && ((mode & 0100) != 0) != file.canExecute()) {
+      return MODIFIED;
+    }
+
+    long length = file.length();
+    long timestamp = file.lastModified();
+    if ((int)length == myIndex.getSize(entry) && isSameTime(timestamp, entry) && !isRacy(timestamp)) {
+      return UNCHANGED;
+    }
+
+    byte[] content = FileUtil.loadFileBytes(file);
+    if (myIndex.hasHash(entry, blobHash(content))) return UNCHANGED;
+    return myConversionConfigured || hasAttributes(myIndex.getPath(entry)) || containsCarriageReturn(content) ? UNKNOWN : MODIFIED;
+  }
+
+  /**
+   * @return true if there is a .gitattributes in the directory of the given file or in one of its parents up to the root
+   */
+  private boolean hasAttributes(@NotNull String path) {
+    int slash = path.lastIndexOf('/');
+    String directory = slash < 0 ? "" : path.substring(0, slash);
+    Boolean result = myAttributedDirectories.get(directory);
+    if (result == null) {
+      result = new File(new File(myRoot, directory), ".gitattributes").exists() || (!directory.isEmpty() && hasAttributes(directory));
+      myAttributedDirectories.put(directory, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return values from the {@code [core]} sections of the given files by lowercase keys, later files override earlier ones
+   */
+  @NotNull
+  private static Map<String, String> readCoreSection(@NotNull List<File> configs) {
+    Map<String, String> result = new HashMap<String, String>();
+    for (File config : configs) {
+      if (!config.isFile()) continue;
+      try {
+        boolean inCore = false;
+        for (String line : StringUtil.splitByLines(FileUtil.loadFile(config))) {
+          line = line.trim();
+          if (line.startsWith("[")) {
+            inCore = line.toLowerCase().startsWith("[core]");
+          }
+          else if (inCore && !line.startsWith("#") && !line.startsWith(";")) {
+            int eq = line.indexOf('=');
+            String key = (eq < 0 ? line : line.substring(0, eq)).trim().toLowerCase();
+            // a key without a value means true
+            result.put(key, eq < 0 ? "true" : StringUtil.unquoteString(line.substring(eq + 1).trim()));
+          }
+        }
+      }
+      catch (IOException ignored) {
+      }
+    }
+    return result;
+  }
+
+  private static boolean isFalse(@Nullable String value, boolean byDefault) {
+    if (value == null) return byDefault;
+    value = value.toLowerCase();
+    return value.equals("false") || value.equals("no") || value.equals("off") || value.equals("0") || value.isEmpty();
+  }
+
+  @NotNull
+  private static File getGlobalConfigDir() {
+    String configHome = System.getenv("XDG_CONFIG_HOME");
+    return StringUtil.isEmpty(configHome) ? new File(new File(SystemProperties.getUserHome(), ".config"), "git")
+                                          : new File(configHome, "git");
+  }
+
+  private boolean isSameTime(long timestamp, int entry) {
+    long seconds = myIndex.getMtimeSeconds(entry) & 0xffffffffL;
+    int nanos = myIndex.getMtimeNanos(entry);
+    if (timestamp / 1000 != seconds) return false;
+    // either side may have only seconds precision
+    return nanos == 0 || timestamp % 1000 == 0 || timestamp % 1000 == nanos / 1000000;
+  }
+
+  /**
+   * A file modified in the same second as the index was written may have been modified after its stat data was cached.
+   */
+  private boolean isRacy(long timestamp) {
+    return timestamp / 1000 >= myIndexTimestamp / 1000;
+  }
+
+  @NotNull
+  static byte[] blobHash(@NotNull byte[] content) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(("blob " + content.length + "\u0000").getBytes("US-ASCII"));
+      digest.update(content);
+      return digest.digest();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static boolean containsCarriageReturn(@NotNull byte[] content) {
+    for (byte b : content) {
+      if (b == '\r') return true;
+    }
+    return false;
+  }
+
+  /**
+   * <p>
+   *   Staged changes, i.e. differences between HEAD and the index, known from the last {@code git status} of the whole root.
+   *   They stay valid until HEAD or the content of the index changes.
+   * </p>
+   * <p>
+   *   Only the first status letter is kept, and the original path for renames and copies.
+   * </p>
+   */
+  static final class StagedChanges {
+    private final long myIndexFingerprint;
+    @NotNull private final String myHead;
+    @NotNull private final Map<String, Character> myStatuses;
+    @NotNull private final Map<String, String> myOriginalPaths;
+
+    StagedChanges(long indexFingerprint, @NotNull String head, @NotNull Map<String, Character> statuses,
+                  @NotNull Map<String, String> originalPaths) {
+      myIndexFingerprint = indexFingerprint;
+      myHead = head;
+      myStatuses = Collections.unmodifiableMap(statuses);
+      myOriginalPaths = Collections.unmodifiableMap(originalPaths);
+    }
+
+    boolean isValidFor(@NotNull GitIndex index, @NotNull String head) {
+      return myIndexFingerprint == index.getContentFingerprint() && myHead.equals(head);
+    }
+
+    /**
+     * @return map from a path relative to the root to its status letter
+     */
+    @NotNull
+    Map<String, Character> getStatuses() {
+      return myStatuses;
+    }
+
+    @Nullable
+    String getOriginalPath(@NotNull String path) {
+      return myOriginalPaths.get(path);
+    }
+  }
+}
@@ -17,6 +17,8 @@ package git4idea.status;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.*;
 import com.intellij.openapi.vcs.changes.Change;
@@ -24,6 +26,7 @@ import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.changes.VcsDirtyScope;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
 import git4idea.GitContentRevision;
 import git4idea.GitFormatException;
@@ -37,10 +40,12 @@ import git4idea.commands.GitSimpleHandler;
 import git4idea.repo.GitRepository;
 import git4idea.repo.GitUntrackedFilesHolder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p>
@@ -49,6 +54,11 @@ import java.util.Set;
  *   Works only on Git 1.7.0 and later.
  * </p>
  * <p>
+ *   Once {@code git status} has been called for the whole root, its staged changes are remembered until HEAD or the index content
+ *   changes. Meanwhile the working tree is compared with {@link GitIndex} in-process, and Git is only asked about the files
+ *   which {@link GitIndexStatus} can't decide about.
+ * </p>
+ * <p>
  *   The class is immutable: collect changes and get the instance from where they can be retrieved by {@link #collect}.
  * </p>
  *
@@ -57,20 +67,27 @@ import java.util.Set;
 class GitNewChangesCollector extends GitChangesCollector {
 
   private static final Logger LOG = Logger.getInstance(GitNewChangesCollector.class);
+  private static final String Y_STATUS_MESSAGE = "Unexpected symbol as yStatus.";
+
   private final GitRepository myRepository;
   private final Collection<Change> myChanges = new HashSet<Change>();
   private final Set<VirtualFile> myUnversionedFiles = new HashSet<VirtualFile>();
   @NotNull private final Git myGit;
+  @NotNull private final ConcurrentMap<VirtualFile, GitIndexStatus.StagedChanges> myStagedChanges;
 
   /**
    * Collects the changes from git command line and returns the instance of GitNewChangesCollector from which these changes can be retrieved.
    * This may be lengthy.
+   *
+   * @param stagedChanges staged changes of the roots known from previous calls, updated by this call
    */
   @NotNull
   static GitNewChangesCollector collect(@NotNull Project project, @NotNull Git git, @NotNull ChangeListManager changeListManager,
                                         @NotNull ProjectLevelVcsManager vcsManager, @NotNull AbstractVcs vcs,
-                                        @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot) throws VcsException {
-    return new GitNewChangesCollector(project, git, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot);
+                                        @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot,
+                                        @NotNull ConcurrentMap<VirtualFile, GitIndexStatus.StagedChanges> stagedChanges)
+    throws VcsException {
+    return new GitNewChangesCollector(project, git, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot, stagedChanges);
   }
 
   @Override
@@ -87,10 +104,12 @@ class GitNewChangesCollector extends GitChangesCollector {
 
   private GitNewChangesCollector(@NotNull Project project, @NotNull Git git, @NotNull ChangeListManager changeListManager,
                                  @NotNull ProjectLevelVcsManager vcsManager, @NotNull AbstractVcs vcs,
-                                 @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot) throws VcsException
+                                 @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot,
+                                 @NotNull ConcurrentMap<VirtualFile, GitIndexStatus.StagedChanges> stagedChanges) throws VcsException
   {
     super(project, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot);
     myGit = git;
+    myStagedChanges = stagedChanges;
     myRepository = GitUtil.getRepositoryManager(myProject).getRepositoryForRoot(vcsRoot);
 
     Collection<FilePath> dirtyPaths = dirtyPaths(true);
@@ -102,9 +121,137 @@ class GitNewChangesCollector extends GitChangesCollector {
 
   // calls 'git status' and parses the output, feeding myChanges.
   private void collectChanges(Collection<FilePath> dirtyPaths) throws VcsException {
+    VcsRevisionNumber head = getHead();
+    File gitDir = findGitDir();
+    GitIndex index = gitDir != null && Registry.is("git.status.read.index") ? readIndex(gitDir) : null;
+    if (index == null || index.hasConflicts()) {
+      runStatus(dirtyPaths, head, null);
+      return;
+    }
+
+    GitIndexStatus.StagedChanges stagedChanges = myStagedChanges.get(myVcsRoot);
+    if (stagedChanges == null || !stagedChanges.isValidFor(index, head.asString())) {
+      // staged changes are unknown: once asking about the whole root, so that next updates can be served from the index
+      runStatus(null, head, index);
+      return;
+    }
+
+    Collection<String> undecided = collectChangesFromIndex(gitDir, index, stagedChanges, relativePaths(dirtyPaths), head);
+    if (!undecided.isEmpty()) {
+      List<FilePath> paths = new ArrayList<FilePath>(undecided.size());
+      for (String path : undecided) {
+        paths.add(new FilePathImpl(new File(VfsUtilCore.virtualToIoFile(myVcsRoot), path), false));
+      }
+      runStatus(paths, head, null);
+    }
+  }
+
+  /**
+   * @param dirtyPaths paths to ask about, or null to ask about the whole root
+   * @param index      if not null, the staged changes from the output of Git are remembered as valid for this index
+   */
+  private void runStatus(@Nullable Collection<FilePath> dirtyPaths, @NotNull VcsRevisionNumber head, @Nullable GitIndex index)
+    throws VcsException {
     GitSimpleHandler handler = statusHandler(dirtyPaths);
     String output = handler.run();
-    parseOutput(output, handler);
+    Map<String, Character> stagedStatuses = index != null ? new HashMap<String, Character>() : null;
+    Map<String, String> originalPaths = index != null ? new HashMap<String, String>() : null;
+    boolean conflicts = parseOutput(output, handler, head, stagedStatuses, originalPaths);
+    if (index != null && !conflicts) {
+      myStagedChanges.put(myVcsRoot, new GitIndexStatus.StagedChanges(index.getContentFingerprint(), head.asString(),
+                                                                      stagedStatuses, originalPaths));
+    }
+  }
+
+  /**
+   * Reports the changes under the given paths comparing the working tree with the index, and combining the result with the staged changes.
+   *
+   * @param scope paths relative to the root, or null for the whole root
+   * @return paths which need to be checked by Git
+   */
+  @NotNull
+  private Collection<String> collectChangesFromIndex(@NotNull File gitDir, @NotNull GitIndex index,
+                                                     @NotNull GitIndexStatus.StagedChanges stagedChanges,
+                                                     @Nullable Set<String> scope, @NotNull VcsRevisionNumber head) throws VcsException {
+    GitIndexStatus indexStatus = new GitIndexStatus(VfsUtilCore.virtualToIoFile(myVcsRoot), gitDir, index);
+    Map<String, Character> stagedStatuses = stagedChanges.getStatuses();
+    List<String> undecided = new ArrayList<String>();
+    for (int i = 0; i < index.getEntryCount(); i++) {
+      String path = index.getPath(i);
+      if (!isInScope(path, scope)) continue;
+
+      char yStatus;
+      try {
+        yStatus = indexStatus.compare(i);
+      }
+      catch (IOException e) {
+        LOG.info("Couldn't compare " + path + " with the index", e);
+        yStatus = GitIndexStatus.UNKNOWN;
+      }
+      if (yStatus == GitIndexStatus.UNKNOWN) {
+        undecided.add(path);
+        continue;
+      }
+      Character staged = stagedStatuses.get(path);
+      char xStatus = staged == null ? ' ' : staged;
+      if (xStatus != ' ' || yStatus != ' ') {
+        reportStatus(xStatus, yStatus, path, stagedChanges.getOriginalPath(path), head);
+      }
+    }
+    // files deleted from the index are not there anymore
+    for (Map.Entry<String, Character> entry : stagedStatuses.entrySet()) {
+      if (entry.getValue() == 'D' && isInScope(entry.getKey(), scope)) {
+        reportStatus('D', ' ', entry.getKey(), null, head);
+      }
+    }
+    return undecided;
+  }
+
+  private static boolean isInScope(@NotNull String path, @Nullable Set<String> scope) {
+    if (scope == null) return true;
+    while (true) {
+      if (scope.contains(path)) return true;
+      int slash = path.lastIndexOf('/');
+      if (slash < 0) return false;
+      path = path.substring(0, slash);
+    }
+  }
+
+  /**
+   * @return the dirty paths relative to the root, or null if the whole root is dirty
+   */
+  @Nullable
+  private Set<String> relativePaths(@NotNull Collection<FilePath> dirtyPaths) {
+    String rootPath = myVcsRoot.getPath();
+    Set<String> result = new HashSet<String>();
+    for (FilePath dirtyPath : dirtyPaths) {
+      String path = FileUtil.toSystemIndependentName(dirtyPath.getPath());
+      if (FileUtil.pathsEqual(path, rootPath)) return null;
+      String relative = FileUtil.getRelativePath(rootPath, path, '/');
+      if (relative != null && !relative.startsWith("../")) {
+        result.add(relative);
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  private File findGitDir() {
+    VirtualFile gitDir = myRepository != null ? myRepository.getGitDir() : GitUtil.findGitDir(myVcsRoot);
+    return gitDir != null ? VfsUtilCore.virtualToIoFile(gitDir) : null;
+  }
+
+  @Nullable
+  private static GitIndex readIndex(@NotNull File gitDir) {
+    File indexFile = new File(gitDir, "index");
+    if (!indexFile.exists()) return null;
+    try {
+      return GitIndex.read(indexFile);
+    }
+    catch (IOException e) {
+      LOG.info("Couldn't read " + indexFile, e);
+      return null;
+    }
   }
 
   private void collectUnversionedFiles() throws VcsException {
@@ -117,14 +264,16 @@ class GitNewChangesCollector extends GitChangesCollector {
     }
   }
 
-  private GitSimpleHandler statusHandler(Collection<FilePath> dirtyPaths) {
+  private GitSimpleHandler statusHandler(@Nullable Collection<FilePath> dirtyPaths) {
     GitSimpleHandler handler = new GitSimpleHandler(myProject, myVcsRoot, GitCommand.STATUS);
     final String[] params = {"--porcelain", "-z", "--untracked-files=no"};   // untracked files are stored separately
     handler.addParameters(params);
     handler.setSilent(true);
     handler.setStdoutSuppressed(true);
     handler.endOptions();
-    handler.addRelativePaths(dirtyPaths);
+    if (dirtyPaths != null) {
+      handler.addRelativePaths(dirtyPaths);
+    }
     if (handler.isLargeCommandLine()) {
       // if there are too much files, just get all changes for the project
       handler = new GitSimpleHandler(myProject, myVcsRoot, GitCommand.STATUS);
@@ -139,11 +288,16 @@ class GitNewChangesCollector extends GitChangesCollector {
   /**
    * Parses the output of the 'git status --porcelain -z' command filling myChanges and myUnversionedFiles.
    * See <a href=http://www.kernel.org/pub/software/scm/git/docs/git-status.html#_output">Git man</a> for details.
+   *
+   * @param stagedStatuses if not null, receives the first status letters of the files with staged changes
+   * @param originalPaths  if not null, receives the original paths of renamed and copied files
+   * @return true if there are unmerged files
    */
   // handler is here for debugging purposes in the case of parse error
-  private void parseOutput(@NotNull String output, @NotNull GitHandler handler) throws VcsException {
-    VcsRevisionNumber head = getHead();
-
+  private boolean parseOutput(@NotNull String output, @NotNull GitHandler handler, @NotNull VcsRevisionNumber head,
+                              @Nullable Map<String, Character> stagedStatuses, @Nullable Map<String, String> originalPaths)
+    throws VcsException {
+    boolean conflicts = false;
     final String[] split = output.split("\u0000");
 
     for (int pos = 0; pos < split.length; pos++) {
@@ -161,107 +315,134 @@ class GitNewChangesCollector extends GitChangesCollector {
       final char xStatus = xyStatus.charAt(0);
       final char yStatus = xyStatus.charAt(1);
 
-      switch (xStatus) {
-        case ' ':
-          if (yStatus == 'M') {
-            reportModified(filepath, head);
-          } else if (yStatus == 'D') {
-            reportDeleted(filepath, head);
-          } else if (yStatus == 'T') {
-            reportTypeChanged(filepath, head);
-          } else if (yStatus == 'U') {
-            reportConflict(filepath, head);
-          } else {
-            throwYStatus(output, handler, line, xStatus, yStatus);
-          }
-          break;
-
-        case 'M':
-          if (yStatus == ' ' || yStatus == 'M' || yStatus == 'T') {
-            reportModified(filepath, head);
-          } else if (yStatus == 'D') {
-            reportDeleted(filepath, head);
-          } else {
-            throwYStatus(output, handler, line, xStatus, yStatus);
-          }
-          break;
-
-        case 'C':
-          //noinspection AssignmentToForLoopParameter
-          pos += 1;  // read the "from" filepath which is separated also by NUL character.
-          // NB: no "break" here!
-          // we treat "Copy" as "Added", but we still have to read the old path not to break the format parsing.
-        case 'A':
-          if (yStatus == 'M' || yStatus == ' ' || yStatus == 'T') {
-            reportAdded(filepath);
-          } else if (yStatus == 'D') {
-            // added + deleted => no change (from IDEA point of view).
-          } else if (yStatus == 'U' || yStatus == 'A') { // AU - unmerged, added by us; AA - unmerged, both added
-            reportConflict(filepath, head);
-          }  else {
-            throwYStatus(output, handler, line, xStatus, yStatus);
-          }
-          break;
-
-        case 'D':
-          if (yStatus == 'M' || yStatus == ' ' || yStatus == 'T') {
-            reportDeleted(filepath, head);
-          } else if (yStatus == 'U') { // DU - unmerged, deleted by us
-            reportConflict(filepath, head);
-          } else if (yStatus == 'D') { // DD - unmerged, both deleted
-            // TODO
-            // currently not displaying, because "both deleted" conflicts can't be handled by our conflict resolver.
-            // see IDEA-63156
-          } else {
-            throwYStatus(output, handler, line, xStatus, yStatus);
-          }
-          break;
-
-        case 'U':
-          if (yStatus == 'U' || yStatus == 'A' || yStatus == 'D' || yStatus == 'T') {
-            // UU - unmerged, both modified; UD - unmerged, deleted by them; UA - umerged, added by them
-            reportConflict(filepath, head);
-          } else {
-            throwYStatus(output, handler, line, xStatus, yStatus);
-          }
-          break;
-
-        case 'R':
-          //noinspection AssignmentToForLoopParameter
-          pos += 1;  // read the "from" filepath which is separated also by NUL character.
-          String oldFilename = split[pos];
-
-          if (yStatus == 'D') {
-            reportDeleted(filepath, head);
-          } else if (yStatus == ' ' || yStatus == 'M' || yStatus == 'T') {
-            reportRename(filepath, oldFilename, head);
-          } else {
-            throwYStatus(output, handler, line, xStatus, yStatus);
-          }
-          break;
-
-        case 'T'://TODO
-          if (yStatus == ' ' || yStatus == 'M') {
-            reportTypeChanged(filepath, head);
-          } else if (yStatus == 'D') {
-            reportDeleted(filepath, head);
-          } else {
-            throwYStatus(output, handler, line, xStatus, yStatus);
-          }
-          break;
-
-        case '?':
-          throwGFE("Unexpected unversioned file flag.", handler, output, line, xStatus, yStatus);
-          break;
-
-        case '!':
-          throwGFE("Unexpected ignored file flag.", handler, output, line, xStatus, yStatus);
-
-        default:
-          throwGFE("Unexpected symbol as xStatus.", handler, output, line, xStatus, yStatus);
+      String oldFilename = null;
+      if (xStatus == 'C' || xStatus == 'R') {
+        //noinspection AssignmentToForLoopParameter
+        pos += 1;  // read the "from" filepath which is separated also by NUL character.
+        oldFilename = pos < split.length ? split[pos] : null;
+      }
 
+      String error = reportStatus(xStatus, yStatus, filepath, oldFilename, head);
+      if (error != null) {
+        throwGFE(error, handler, output, line, xStatus, yStatus);
+      }
+
+      conflicts |= xStatus == 'U' || yStatus == 'U' || (xStatus == 'A' && yStatus == 'A') || (xStatus == 'D' && yStatus == 'D');
+      if (stagedStatuses != null && xStatus != ' ') {
+        stagedStatuses.put(filepath, xStatus);
+      }
+      if (originalPaths != null && oldFilename != null) {
+        originalPaths.put(filepath, oldFilename);
       }
     }
+    return conflicts;
+  }
+
+  /**
+   * Reports the change of the given file by its status letters.
+   *
+   * @param oldFilename the original path for renamed and copied files
+   * @return message about the unexpected status, or null if the status is fine
+   */
+  @Nullable
+  private String reportStatus(char xStatus, char yStatus, @NotNull String filepath, @Nullable String oldFilename,
+                              @NotNull VcsRevisionNumber head) throws VcsException {
+    switch (xStatus) {
+      case ' ':
+        if (yStatus == 'M') {
+          reportModified(filepath, head);
+        } else if (yStatus == 'D') {
+          reportDeleted(filepath, head);
+        } else if (yStatus == 'T') {
+          reportTypeChanged(filepath, head);
+        } else if (yStatus == 'U') {
+          reportConflict(filepath, head);
+        } else {
+          return Y_STATUS_MESSAGE;
+        }
+        break;
+
+      case 'M':
+        if (yStatus == ' ' || yStatus == 'M' || yStatus == 'T') {
+          reportModified(filepath, head);
+        } else if (yStatus == 'D') {
+          reportDeleted(filepath, head);
+        } else {
+          return Y_STATUS_MESSAGE;
+        }
+        break;
+
+      case 'C':
+        // we treat "Copy" as "Added", the old path is not needed.
+        // NB: no "break" here!
+      case 'A':
+        if (yStatus == 'M' || yStatus == ' ' || yStatus == 'T') {
+          reportAdded(filepath);
+        } else if (yStatus == 'D') {
+          // added + deleted => no change (from IDEA point of view).
+        } else if (yStatus == 'U' || yStatus == 'A') { // AU - unmerged, added by us; AA - unmerged, both added
+          reportConflict(filepath, head);
+        }  else {
+          return Y_STATUS_MESSAGE;
+        }
+        break;
+
+      case 'D':
+        if (yStatus == 'M' || yStatus == ' ' || yStatus == 'T') {
+          reportDeleted(filepath, head);
+        } else if (yStatus == 'U') { // DU - unmerged, deleted by us
+          reportConflict(filepath, head);
+        } else if (yStatus == 'D') { // DD - unmerged, both deleted
+          // TODO
+          // currently not displaying, because "both deleted" conflicts can't be handled by our conflict resolver.
+          // see IDEA-63156
+        } else {
+          return Y_STATUS_MESSAGE;
+        }
+        break;
+
+      case 'U':
+        if (yStatus == 'U' || yStatus == 'A' || yStatus == 'D' || yStatus == 'T') {
+          // UU - unmerged, both modified; UD - unmerged, deleted by them; UA - umerged, added by them
+          reportConflict(filepath, head);
+        } else {
+          return Y_STATUS_MESSAGE;
+        }
+        break;
+
+      case 'R':
+        if (oldFilename == null) {
+          return "Original path of the renamed file is missing.";
+        }
+        if (yStatus == 'D') {
+          reportDeleted(filepath, head);
+        } else if (yStatus == ' ' || yStatus == 'M' || yStatus == 'T') {
+          reportRename(filepath, oldFilename, head);
+        } else {
+          return Y_STATUS_MESSAGE;
+        }
+        break;
+
+      case 'T'://TODO
+        if (yStatus == ' ' || yStatus == 'M') {
+          reportTypeChanged(filepath, head);
+        } else if (yStatus == 'D') {
+          reportDeleted(filepath, head);
+        } else {
+          return Y_STATUS_MESSAGE;
+        }
+        break;
+
+      case '?':
+        return "Unexpected unversioned file flag.";
+
+      case '!':
+        return "Unexpected ignored file flag.";
+
+      default:
+        return "Unexpected symbol as xStatus.";
+    }
+    return null;
   }
 
   @NotNull
@@ -293,10 +474,6 @@ class GitNewChangesCollector extends GitChangesCollector {
     return nativeHead;
   }
 
-  private static void throwYStatus(String output, GitHandler handler, String line, char xStatus, char yStatus) {
-    throwGFE("Unexpected symbol as yStatus.", handler, output, line, xStatus, yStatus);
-  }
-
   private static void throwGFE(String message, GitHandler handler, String output, String line, char xStatus, char yStatus) {
     throw new GitFormatException(String.format("%s\n xStatus=[%s], yStatus=[%s], line=[%s], \n" +
                                                "handler:\n%s\n output: \n%s",
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.List;
+
+public class GitAnnotationCacheTest extends TestCase {
+  private File myDir;
+  private GitAnnotationCache myCache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("git-blame", null);
+    myCache = new GitAnnotationCache(new File(myDir, "blame"), 4);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myCache.dispose();
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testRevisionsPerFile() {
+    for (int i = 1; i <= 5; i++) {
+      myCache.put("/a.txt", new GitBlame("r" + i));
+    }
+    List<GitBlame> blames = myCache.get("/a.txt");
+    assertEquals(3, blames.size());
+    assertEquals("r5", blames.get(0).getRevision());
+    assertEquals("r3", blames.get(2).getRevision());
+  }
+
+  public void testLeastRecentlyStoredFilesAreRemoved() throws Exception {
+    for (int i = 1; i <= 5; i++) {
+      myCache.put("/" + i + ".txt", new GitBlame("r" + i));
+      Thread.sleep(5);
+    }
+    assertEquals(3, myCache.getFileCount());
+    assertTrue(myCache.get("/1.txt").isEmpty());
+    assertTrue(myCache.get("/2.txt").isEmpty());
+    assertEquals("r5", myCache.get("/5.txt").get(0).getRevision());
+
+    myCache.dispose();
+    myCache = new GitAnnotationCache(new File(myDir, "blame"), 4);
+    assertEquals(3, myCache.getFileCount());
+    myCache.put("/6.txt", new GitBlame("r6"));
+    assertEquals(4, myCache.getFileCount());
+  }
+}
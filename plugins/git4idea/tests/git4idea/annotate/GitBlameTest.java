@@ -0,0 +1,111 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class GitBlameTest extends TestCase {
+
+  public void testAdvance() {
+    GitBlame blame = blame("r1", "a", "a", "b", "b");
+    // a line inserted after the second one, the last one changed
+    GitBlame advanced = blame.advance("r2", 5, Arrays.asList(new int[]{2, 0, 3, 1}, new int[]{4, 1, 5, 1}));
+    assertNotNull(advanced);
+    assertEquals("r2", advanced.getRevision());
+    assertEquals(5, advanced.getLineCount());
+    assertFalse(advanced.isComplete());
+    assertRanges(advanced.getUnknownRanges(), 3, 3, 5, 5);
+    assertEquals(hash("a"), advanced.getHash(1));
+    assertEquals(hash("b"), advanced.getHash(3));
+    assertEquals("b", advanced.getAuthor(3));
+
+    advanced.setLine(2, advanced.addCommit(hash("c"), 3000, "c"));
+    advanced.setLine(4, advanced.getCommitIndex(hash("a")));
+    assertTrue(advanced.isComplete());
+    assertEquals(3000, advanced.getTime(2));
+  }
+
+  public void testAdvanceDeletion() {
+    GitBlame blame = blame("r1", "a", "b", "c");
+    GitBlame advanced = blame.advance("r2", 1, Arrays.asList(new int[]{1, 1, 0, 0}, new int[]{3, 1, 1, 0}));
+    assertNotNull(advanced);
+    assertTrue(advanced.isComplete());
+    assertEquals(1, advanced.getLineCount());
+    assertEquals(hash("b"), advanced.getHash(0));
+  }
+
+  public void testAdvanceThroughCommits() {
+    GitBlame blame = blame("r1", "a", "b", "a");
+    // the second line is deleted by one commit and added back by another one
+    GitBlame deleted = blame.advance("r2", Collections.singletonList(new int[]{2, 1, 1, 0}));
+    assertNotNull(deleted);
+    assertEquals(2, deleted.getLineCount());
+    GitBlame readded = deleted.advance("r3", Collections.singletonList(new int[]{1, 0, 2, 1}));
+    assertNotNull(readded);
+    assertEquals(3, readded.getLineCount());
+    assertRanges(readded.getUnknownRanges(), 2, 2);
+    assertEquals(hash("a"), readded.getHash(2));
+  }
+
+  public void testAdvanceMismatch() {
+    GitBlame blame = blame("r1", "a", "b");
+    assertNull(blame.advance("r2", 3, Collections.<int[]>emptyList()));
+    assertNull(blame.advance("r2", 2, Collections.singletonList(new int[]{5, 1, 5, 1})));
+  }
+
+  public void testReadWrite() throws IOException {
+    GitBlame blame = blame("r1", "a", "b", "a");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    blame.write(new DataOutputStream(bytes));
+    GitBlame read = GitBlame.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals("r1", read.getRevision());
+    assertEquals(3, read.getLineCount());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(blame.getHash(i), read.getHash(i));
+      assertEquals(blame.getTime(i), read.getTime(i));
+      assertEquals(blame.getAuthor(i), read.getAuthor(i));
+    }
+  }
+
+  private static GitBlame blame(String revision, String... authors) {
+    GitBlame blame = new GitBlame(revision);
+    for (int i = 0; i < authors.length; i++) {
+      blame.setLine(i, blame.addCommit(hash(authors[i]), authors[i].charAt(0) * 1000, authors[i]));
+    }
+    return blame;
+  }
+
+  private static void assertRanges(List<int[]> ranges, int... expected) {
+    assertEquals(expected.length / 2, ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      assertEquals(expected[2 * i], ranges.get(i)[0]);
+      assertEquals(expected[2 * i + 1], ranges.get(i)[1]);
+    }
+  }
+
+  private static String hash(String name) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 40) {
+      sb.append(Integer.toHexString(name.charAt(0)));
+    }
+    return sb.substring(0, 40);
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import git4idea.history.browser.ChangesFilter;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+/**
+ * Checks {@link GitCommitGraph} with commits given instead of loaded by Git.
+ */
+public class GitCommitGraphTest extends TestCase {
+  private File myDir;
+  // commits as 'git log' would print them: hash -> parents, time, author
+  private final Map<String, Object[]> myCommits = new LinkedHashMap<String, Object[]>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("git-graph", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myDir);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testDateOrder() throws Exception {
+    commit("a", 10, "A");
+    commit("b", 20, "B", "a");
+    commit("c", 15, "A", "a");
+    commit("d", 30, "B", "b", "c");
+    // clock skew: the child is older than its parent, but is still shown before it
+    commit("e", 5, "A", "d");
+
+    GitCommitGraph graph = GitCommitGraph.open(myDir);
+    update(graph, "e");
+    assertEquals(Arrays.asList("e", "d", "b", "c", "a"), order(graph));
+  }
+
+  public void testIncrementalUpdate() throws Exception {
+    commit("a", 10, "A");
+    commit("b", 20, "A", "a");
+    GitCommitGraph graph = GitCommitGraph.open(myDir);
+    update(graph, "b");
+
+    commit("c", 30, "B", "b");
+    commit("d", 25, "B", "a");
+    List<Collection<String>> excluded = update(graph, "c", "d");
+    assertEquals(1, excluded.size());
+    assertEquals(Collections.singletonList(hash("b")), new ArrayList<String>(excluded.get(0)));
+    assertEquals(Arrays.asList("c", "d", "b", "a"), order(graph));
+    assertEquals(4, graph.getCommitCount());
+
+    // nothing new
+    assertTrue(update(graph, "c", "d").isEmpty());
+  }
+
+  public void testReopen() throws Exception {
+    commit("a", 10, "A");
+    commit("b", 20, "B", "a");
+    update(GitCommitGraph.open(myDir), "b");
+
+    GitCommitGraph graph = GitCommitGraph.open(myDir);
+    assertEquals(Arrays.asList("b", "a"), order(graph));
+    int id = graph.getDateOrder()[0];
+    assertEquals("B <b@example.com>", graph.getAuthor(id));
+
+    CommitHashPlusParents commit = graph.createCommit(id, 7);
+    assertEquals(hash("b").substring(0, 7), commit.getHash());
+    assertEquals(20000, commit.getTime());
+    assertEquals("B", commit.getAuthorName());
+    assertEquals(Collections.singletonList(AbstractHash.create(hash("a").substring(0, 7))), commit.getParents());
+  }
+
+  public void testInterruptedUpdateIsDiscarded() throws Exception {
+    commit("a", 10, "A");
+    update(GitCommitGraph.open(myDir), "a");
+    File log = new File(myDir, "graph");
+    long length = log.length();
+
+    RandomAccessFile file = new RandomAccessFile(log, "rw");
+    try {
+      file.seek(length);
+      file.write(new byte[]{2, 1, 2, 3});
+    }
+    finally {
+      file.close();
+    }
+
+    GitCommitGraph graph = GitCommitGraph.open(myDir);
+    assertEquals(Collections.singletonList("a"), order(graph));
+    commit("b", 20, "A", "a");
+    update(graph, "b");
+    assertEquals(Arrays.asList("b", "a"), order(GitCommitGraph.open(myDir)));
+  }
+
+  public void testFailedUpdateIsRolledBack() throws Exception {
+    commit("a", 10, "A");
+    update(GitCommitGraph.open(myDir), "a");
+    commit("b", 20, "A", "a");
+
+    try {
+      GitCommitGraph.open(myDir).update(Collections.singleton(hash("b")), new GitCommitGraph.CommitLoader() {
+        @Override
+        public void load(@NotNull Collection<String> excluded, @NotNull GitCommitGraph.RecordConsumer consumer)
+          throws IOException, VcsException {
+          consumer.consume(hash("b"), new String[]{hash("a")}, 20, "A <a@example.com>", "A <a@example.com>");
+          throw new VcsException("git log failed");
+        }
+      });
+      fail("Failure of git log should be reported");
+    }
+    catch (VcsException ignored) {
+    }
+    assertEquals(Collections.singletonList("a"), order(GitCommitGraph.open(myDir)));
+  }
+
+  public void testFailedUpdateLeavesGraphIntact() throws Exception {
+    commit("a", 10, "A");
+    GitCommitGraph graph = GitCommitGraph.open(myDir);
+    update(graph, "a");
+
+    try {
+      graph.update(Collections.singleton(hash("c")), new GitCommitGraph.CommitLoader() {
+        @Override
+        public void load(@NotNull Collection<String> excluded, @NotNull GitCommitGraph.RecordConsumer consumer)
+          throws IOException, VcsException {
+          consumer.consume(hash("c"), new String[]{hash("b")}, 30, "C <c@example.com>", "C <c@example.com>");
+          throw new VcsException("git log failed");
+        }
+      });
+      fail("Failure of git log should be reported");
+    }
+    catch (VcsException ignored) {
+    }
+    assertEquals(Collections.singletonList("a"), order(graph));
+    assertEquals(1, graph.getCommitCount());
+
+    commit("b", 20, "B", "a");
+    commit("c", 30, "C", "b");
+    update(graph, "c");
+    assertEquals(Arrays.asList("c", "b", "a"), order(graph));
+    assertEquals("C <c@example.com>", graph.getAuthor(graph.getDateOrder()[0]));
+    assertEquals(Arrays.asList("c", "b", "a"), order(GitCommitGraph.open(myDir)));
+  }
+
+  public void testFilters() throws Exception {
+    commit("a", 10, "Alice");
+    commit("b", 20, "Bob", "a");
+    commit("c", 30, "Alice", "b");
+    GitCommitGraph graph = GitCommitGraph.open(myDir);
+    update(graph, "c");
+
+    assertEquals(Arrays.asList("c", "a"), filter(graph, new ChangesFilter.Author("Alice")));
+    assertEquals(Arrays.asList("b"), filter(graph, new ChangesFilter.Author("bob@")));
+    assertEquals(Arrays.asList("b", "a"), filter(graph, new ChangesFilter.BeforeTime(20000)));
+    assertEquals(Arrays.asList("c"), filter(graph, new ChangesFilter.And(new ChangesFilter.AfterTime(15000),
+                                                                          new ChangesFilter.Committer("Alice"))));
+    assertNull(GitCommitGraph.Condition.create(Collections.<ChangesFilter.Filter>singletonList(new ChangesFilter.StructureFilter())));
+  }
+
+  private void commit(String name, int time, String author, String... parents) {
+    myCommits.put(hash(name), new Object[]{parents, time, author});
+  }
+
+  /**
+   * Passes all the commits not reachable from the excluded ones, newest first, as 'git log' does.
+   *
+   * @return excluded commits of each call of the loader
+   */
+  private List<Collection<String>> update(GitCommitGraph graph, String... tips) throws Exception {
+    Set<String> referenced = new LinkedHashSet<String>();
+    for (String tip : tips) {
+      referenced.add(hash(tip));
+    }
+    final List<Collection<String>> calls = new ArrayList<Collection<String>>();
+    graph.update(referenced, new GitCommitGraph.CommitLoader() {
+      @Override
+      public void load(@NotNull Collection<String> excluded, @NotNull GitCommitGraph.RecordConsumer consumer) throws IOException {
+        calls.add(excluded);
+        Set<String> hidden = new HashSet<String>();
+        for (String commit : excluded) {
+          collectAncestors(commit, hidden);
+        }
+        List<String> hashes = new ArrayList<String>(myCommits.keySet());
+        Collections.reverse(hashes);
+        for (String hash : hashes) {
+          if (hidden.contains(hash)) continue;
+          Object[] commit = myCommits.get(hash);
+          String[] parents = (String[])commit[0];
+          String[] parentHashes = new String[parents.length];
+          for (int i = 0; i < parents.length; i++) {
+            parentHashes[i] = hash(parents[i]);
+          }
+          String ident = commit[2] + " <" + ((String)commit[2]).toLowerCase() + "@example.com>";
+          consumer.consume(hash, parentHashes, (Integer)commit[1], ident, ident);
+        }
+      }
+    });
+    return calls;
+  }
+
+  private void collectAncestors(String hash, Set<String> result) {
+    if (!result.add(hash)) return;
+    for (String parent : (String[])myCommits.get(hash)[0]) {
+      collectAncestors(hash(parent), result);
+    }
+  }
+
+  private List<String> order(GitCommitGraph graph) {
+    List<String> result = new ArrayList<String>();
+    for (int id : graph.getDateOrder()) {
+      result.add(name(graph, id));
+    }
+    return result;
+  }
+
+  private List<String> filter(GitCommitGraph graph, ChangesFilter.Filter filter) {
+    GitCommitGraph.Condition condition = GitCommitGraph.Condition.create(Collections.singletonList(filter));
+    assertNotNull(condition);
+    List<String> result = new ArrayList<String>();
+    for (int id : graph.getDateOrder()) {
+      if (condition.matches(graph, id)) {
+        result.add(name(graph, id));
+      }
+    }
+    return result;
+  }
+
+  private String name(GitCommitGraph graph, int id) {
+    String hash = graph.createCommit(id, 40).getHash();
+    for (String name : new String[]{"a", "b", "c", "d", "e"}) {
+      if (hash(name).equals(hash)) return name;
+    }
+    throw new AssertionError(hash);
+  }
+
+  private static String hash(String name) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 40) {
+      sb.append(Integer.toHexString(name.charAt(0)));
+    }
+    return sb.substring(0, 40);
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.status;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ArrayUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.intellij.dvcs.test.Executor.*;
+import static git4idea.test.GitExecutor.git;
+
+/**
+ * Checks {@link GitIndex} and {@link GitIndexStatus} against the real Git.
+ */
+public class GitIndexTest extends TestCase {
+  private File myRoot;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = FileUtil.createTempDirectory("git-index", null);
+    cd(myRoot.getPath());
+    git("init");
+    git("config user.name Tester");
+    git("config user.email tester@example.com");
+    touch("a.txt", "a\n");
+    touch("dir/b.txt", "b\n");
+    touch("dir/sub/c.txt", "c\n");
+    touch("dir/sub/d.txt", "d\n");
+    git("add .");
+    git("commit -m initial");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      FileUtil.delete(myRoot);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testEntries() throws IOException {
+    GitIndex index = readIndex();
+    assertEquals(2, index.getVersion());
+    assertPaths(index);
+    assertFalse(index.hasConflicts());
+    assertEquals(GitIndex.MODE_FILE, index.getMode(0) & GitIndex.MODE_TYPE_MASK);
+    assertEquals(2, index.getSize(0));
+  }
+
+  public void testPathCompression() throws IOException {
+    long fingerprint = readIndex().getContentFingerprint();
+    git("update-index --index-version 4");
+    GitIndex index = readIndex();
+    assertEquals(4, index.getVersion());
+    assertPaths(index);
+    assertEquals(fingerprint, index.getContentFingerprint());
+  }
+
+  public void testFingerprintChangesOnStaging() throws IOException {
+    long fingerprint = readIndex().getContentFingerprint();
+    echo("a.txt", "more\n");
+    git("add a.txt");
+    assertFalse(fingerprint == readIndex().getContentFingerprint());
+  }
+
+  public void testUnchanged() throws IOException {
+    GitIndex index = readIndex();
+    GitIndexStatus status = createStatus(index);
+    for (int i = 0; i < index.getEntryCount(); i++) {
+      assertEquals(index.getPath(i), GitIndexStatus.UNCHANGED, status.compare(i));
+    }
+  }
+
+  public void testModifiedAndDeleted() throws IOException {
+    echo("a.txt", "more\n");
+    FileUtil.writeToFile(new File(myRoot, "dir/b.txt"), "x\n");
+    FileUtil.delete(new File(myRoot, "dir/sub/c.txt"));
+
+    GitIndex index = readIndex();
+    GitIndexStatus status = createStatus(index);
+    assertEquals(GitIndexStatus.MODIFIED, status.compare(0));
+    assertEquals(GitIndexStatus.MODIFIED, status.compare(1));
+    assertEquals(GitIndexStatus.DELETED, status.compare(2));
+    assertEquals(GitIndexStatus.UNCHANGED, status.compare(3));
+  }
+
+  public void testLineSeparatorsAreLeftToGit() throws IOException {
+    FileUtil.writeToFile(new File(myRoot, "a.txt"), "a\r\n");
+    GitIndex index = readIndex();
+    assertEquals(GitIndexStatus.UNKNOWN, createStatus(index).compare(0));
+  }
+
+  public void testNestedAttributesAreLeftToGit() throws IOException {
+    touch("dir/sub/.gitattributes", "*.txt text eol=lf\n");
+    echo("a.txt", "more\n");
+    FileUtil.writeToFile(new File(myRoot, "dir/sub/c.txt"), "x\n");
+    GitIndex index = readIndex();
+    GitIndexStatus status = createStatus(index);
+    assertEquals(GitIndexStatus.MODIFIED, status.compare(0));
+    assertEquals(GitIndexStatus.UNKNOWN, status.compare(2));
+  }
+
+  public void testAutocrlfIsLeftToGit() throws IOException {
+    git("config core.autocrlf input");
+    echo("a.txt", "more\n");
+    assertEquals(GitIndexStatus.UNKNOWN, createStatus(readIndex()).compare(0));
+  }
+
+  public void testAttributesFileIsLeftToGit() throws IOException {
+    git("config core.attributesFile " + new File(myRoot, "attributes").getPath().replace('\\', '/'));
+    echo("a.txt", "more\n");
+    assertEquals(GitIndexStatus.UNKNOWN, createStatus(readIndex()).compare(0));
+  }
+
+  public void testBlobHash() throws IOException {
+    String expected = git("hash-object a.txt").trim();
+    byte[] hash = GitIndexStatus.blobHash(FileUtil.loadFileBytes(new File(myRoot, "a.txt")));
+    StringBuilder actual = new StringBuilder();
+    for (byte b : hash) {
+      actual.append(String.format("%02x", b & 0xff));
+    }
+    assertEquals(expected, actual.toString());
+    assertTrue(readIndex().hasHash(0, hash));
+  }
+
+  public void testInvalidIndex() {
+    try {
+      GitIndex.parse("DIRC".getBytes());
+      fail("Truncated index shouldn't be parsed");
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private GitIndex readIndex() throws IOException {
+    return GitIndex.read(new File(gitDir(), "index"));
+  }
+
+  private GitIndexStatus createStatus(GitIndex index) {
+    return new GitIndexStatus(myRoot, gitDir(), index, null);
+  }
+
+  private File gitDir() {
+    return new File(myRoot, ".git");
+  }
+
+  private static void assertPaths(GitIndex index) {
+    List<String> paths = new ArrayList<String>();
+    for (int i = 0; i < index.getEntryCount(); i++) {
+      paths.add(index.getPath(i));
+    }
+    String[] expected = ArrayUtil.toStringArray(StringUtil.split(git("ls-files"), "\n"));
+    assertEquals(Arrays.asList(expected), paths);
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.tests;
+
+import com.intellij.openapi.vcs.FilePathImpl;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.testng.annotations.Test;
+
+import static com.intellij.openapi.vcs.FileStatus.DELETED;
+import static com.intellij.openapi.vcs.FileStatus.MODIFIED;
+
+/**
+ * Checks the changes which are computed from the index once the staged changes of the root are known from the first {@code git status}.
+ */
+public class GitChangeProviderIndexTest extends GitChangeProviderTest {
+
+  @Test
+  public void testStagedModificationIsKeptWhenWorkingTreeChanges() throws Exception {
+    VirtualFile bfile = myFiles.get("b.txt");
+    edit(bfile, "staged content");
+    myRepo.add("b.txt");
+    assertChanges(bfile, MODIFIED);
+
+    edit(afile, "new content");
+    assertChanges(new VirtualFile[]{afile, bfile}, new FileStatus[]{MODIFIED, MODIFIED});
+  }
+
+  @Test
+  public void testRevertedEditIsNotReported() throws Exception {
+    String content = VfsUtil.loadText(afile);
+    assertChanges(afile, null);
+
+    edit(afile, "new content");
+    assertChanges(afile, MODIFIED);
+
+    edit(afile, content);
+    assertChanges(afile, null);
+  }
+
+  @Test
+  public void testStagedDeletionIsKept() throws Exception {
+    VirtualFile bfile = myFiles.get("b.txt");
+    myDirtyScope.addDirtyFile(new FilePathImpl(bfile));
+    myRepo.rm("b.txt");
+    myRootDir.refresh(false, true);
+    assertChanges(bfile, DELETED);
+
+    edit(afile, "new content");
+    assertChanges(new VirtualFile[]{afile, bfile}, new FileStatus[]{MODIFIED, DELETED});
+  }
+
+  @Test
+  public void testLineSeparatorsAreCheckedByGit() throws Exception {
+    assertChanges(afile, null);
+
+    edit(afile, "new\r\ncontent\r\n");
+    assertChanges(afile, MODIFIED);
+  }
+}
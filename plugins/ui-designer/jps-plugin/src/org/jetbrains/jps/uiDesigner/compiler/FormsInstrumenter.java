@@ -129,6 +129,11 @@ public class FormsInstrumenter extends FormsBuilder {
     return ExitCode.OK;
   }
 
+  @Override
+  public boolean requiresCompiledClassesOnDisk() {
+    return false;
+  }
+
   @Override
   public List<String> getCompilableFileExtensions() {
     return Collections.emptyList();